@@ -68,6 +68,34 @@ const fetchLocations = async (userId, startTime, endTime, limit = 5000) => {
     }
 };
 
+// Fetch heatmap points pre-aggregated from the tiles the SDK uploads: one point per
+// bin with its count. Empty when the selected users upload no tiles.
+const fetchHeatmapTiles = async (userId, startTime, endTime, zoom = 16) => {
+    try {
+        let url = `${API_BASE_URL}/heatmap?api_key=${API_KEY}&start_time=${startTime}&end_time=${endTime}&zoom=${zoom}`;
+        if (userId && userId !== '' && userId !== 'null') {
+            url += `&user_id=${encodeURIComponent(userId)}`;
+        }
+        
+        const response = await fetch(url);
+        
+        if (!response.ok) {
+            throw new Error(`HTTP error! status: ${response.status}`);
+        }
+        
+        const data = await response.json();
+        if (data.success) {
+            console.log(`✅ Fetched ${data.data.length} heatmap points from tiles`);
+            return data.data;
+        }
+        console.error('❌ API returned error:', data.message);
+        return [];
+    } catch (error) {
+        console.error('❌ Error fetching heatmap tiles:', error);
+        return [];
+    }
+};
+
 // Fetch user statistics (keeping for backward compatibility)
 const fetchUserStatistics = async (userId) => {
     try {
@@ -216,6 +244,7 @@ export {
     fetchUsers,
     fetchUsersWithCache,
     fetchLocations,
+    fetchHeatmapTiles,
     fetchUserStatistics,
     pingServer,
     testApiConnectivity,
@@ -70,7 +70,8 @@ const renderHeatMap = (map, heatLayer, locationsData) => {
                         count: 0
                     };
                 }
-                uniqueLocations[key].count++;
+                // Tile points and cell records stand for several fixes
+                uniqueLocations[key].count += loc.count || 1;
             }
         });
         
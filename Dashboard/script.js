@@ -2,6 +2,7 @@
 import { 
     fetchUsers, 
     fetchLocations, 
+    fetchHeatmapTiles,
     fetchUserStatistics, 
     pingServer 
 } from './modules/api.js';
@@ -70,6 +71,7 @@ const timelineChart = document.getElementById('timeline-chart');
 // State
 let selectedUser = null;
 let locationsData = [];
+let heatmapTilePoints = []; // Pre-aggregated heatmap points, when the SDK uploads tiles
 let statistics = {};
 let mapMode = 'heat'; // 'heat', 'path', 'stops'
 let map;
@@ -266,6 +268,7 @@ async function fetchTestDataFromDatabase() {
         
         // Fetch data for selected user
         locationsData = await fetchLocations(selectedUser, startTime, endTime);
+        heatmapTilePoints = await fetchHeatmapTiles(selectedUser, startTime, endTime);
         
         console.log(`Fetched ${locationsData.length} locations from database for period`);
         
@@ -812,8 +815,10 @@ function setMapMode(mode, isInitialLoad = false) {
     
     // Now add the new layers based on selected mode
     if (mode === 'heat') {
-        console.log("Rendering heatmap with", locationsData.length, "points");
-        renderHeatMap(map, mapLayers.heatLayer, locationsData);
+        // Prefer the tile counts uploaded by the SDK over raw points
+        const heatData = heatmapTilePoints.length > 0 ? heatmapTilePoints : locationsData;
+        console.log("Rendering heatmap with", heatData.length, "points");
+        renderHeatMap(map, mapLayers.heatLayer, heatData);
     } else if (mode === 'path') {
         if (locationsData.length < 2) {
             console.log("Not enough locations for path display");
@@ -890,6 +895,7 @@ async function fetchData() {
         
         // Fetch locations
         locationsData = await fetchLocations(selectedUser, startTime, endTime);
+        heatmapTilePoints = await fetchHeatmapTiles(selectedUser, startTime, endTime);
         console.log(`Fetched ${locationsData.length} locations`);
         
         // Sort for consistent paths
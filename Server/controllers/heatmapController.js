@@ -0,0 +1,168 @@
+// Server/controllers/heatmapController.js
+const { User, HeatmapTile } = require('../models');
+const { completeIdempotencyKey } = require('../middleware/idempotency');
+
+const DAY_MS = 24 * 60 * 60 * 1000;
+const MAX_ZOOM = 22;
+const MAX_BIN_BITS = 8;
+
+const isIndex = (value, limit) => Number.isInteger(value) && value >= 0 && value < limit;
+
+// Turn a tile upload into $inc updates, or return null if any tile is malformed
+const tileUpdates = (userId, binBits, tiles) => {
+    const updates = [];
+    for (const tile of tiles) {
+        if (!tile || !isIndex(tile.z, MAX_ZOOM + 1) || !isIndex(tile.day, 2 ** 21)
+            || !isIndex(tile.x, 2 ** tile.z) || !isIndex(tile.y, 2 ** tile.z)
+            || !Array.isArray(tile.bins) || tile.bins.length % 2 !== 0) {
+            return null;
+        }
+        const inc = {};
+        let total = 0;
+        for (let i = 0; i < tile.bins.length; i += 2) {
+            const bin = tile.bins[i];
+            const count = tile.bins[i + 1];
+            if (!isIndex(bin, 2 ** (2 * binBits)) || !Number.isInteger(count) || count <= 0) {
+                return null;
+            }
+            inc[`bins.${bin}`] = (inc[`bins.${bin}`] || 0) + count;
+            total += count;
+        }
+        inc.total = total;
+        updates.push({
+            updateOne: {
+                filter: { user_id: userId, z: tile.z, day: tile.day, x: tile.x, y: tile.y },
+                update: { $inc: inc, $setOnInsert: { bin_bits: binBits } },
+                upsert: true
+            }
+        });
+    }
+    return updates;
+};
+
+// Add uploaded heatmap tile counts to the stored tiles
+const saveHeatmapTiles = async (req, res) => {
+    try {
+        const { users } = req.body;
+        const binBits = req.body.bin_bits;
+
+        if (!Array.isArray(users) || users.length === 0 || !Number.isInteger(binBits)
+            || binBits < 1 || binBits > MAX_BIN_BITS) {
+            console.log('❌ Invalid heatmap tile upload:', req.body);
+            return res.status(400).json({
+                success: false,
+                message: 'Invalid heatmap tiles'
+            });
+        }
+
+        const updates = [];
+        for (const user of users) {
+            const userUpdates = user && user.user_id && Array.isArray(user.tiles)
+                ? tileUpdates(user.user_id, binBits, user.tiles) : null;
+            if (!userUpdates) {
+                return res.status(400).json({
+                    success: false,
+                    message: 'Invalid heatmap tiles'
+                });
+            }
+            updates.push(...userUpdates);
+        }
+
+        if (updates.length > 0) {
+            await HeatmapTile.bulkWrite(updates, { ordered: false });
+        }
+        for (const user of users) {
+            await User.updateOne(
+                { user_id: user.user_id },
+                { $set: { heatmap_tiles: true } },
+                { upsert: true }
+            );
+        }
+        console.log(`🗺️ Added ${updates.length} heatmap tiles for ${users.length} users`);
+
+        await completeIdempotencyKey(req, updates.length);
+        res.json({
+            success: true,
+            message: `Saved ${updates.length} heatmap tiles`
+        });
+    } catch (error) {
+        console.error('❌ Error saving heatmap tiles:', error);
+        res.status(500).json({
+            success: false,
+            message: 'Error saving heatmap tiles'
+        });
+    }
+};
+
+// Center of a bin of a tile, in degrees
+const binCenter = (z, x, y, binBits, bin) => {
+    const side = 2 ** binBits;
+    const n = 2 ** (z + binBits);
+    const binX = x * side + (bin % side) + 0.5;
+    const binY = y * side + Math.floor(bin / side) + 0.5;
+    return {
+        latitude: Math.atan(Math.sinh(Math.PI * (1 - 2 * binY / n))) * 180 / Math.PI,
+        longitude: binX / n * 360 - 180
+    };
+};
+
+// Get heatmap points from pre-aggregated tiles: one point per bin with its count, summed
+// over the days of the time range and, without user_id, over all users
+const getHeatmap = async (req, res) => {
+    try {
+        const userId = req.query.user_id;
+        const zoom = parseInt(req.query.zoom) || 16;
+        const startTime = parseInt(req.query.start_time) || 0;
+        const endTime = parseInt(req.query.end_time) || Date.now();
+
+        const filter = {
+            day: { $gte: Math.floor(startTime / DAY_MS), $lte: Math.floor(endTime / DAY_MS) }
+        };
+        if (userId && userId !== 'all_test_users') {
+            filter.user_id = userId;
+        }
+
+        // The finest zoom level stored that is not finer than requested, else the coarsest
+        const levels = (await HeatmapTile.distinct('z', filter)).sort((a, b) => a - b);
+        if (levels.length === 0) {
+            return res.json({
+                success: true,
+                message: 'No heatmap tiles found',
+                data: []
+            });
+        }
+        const z = levels.filter(level => level <= zoom).pop() ?? levels[0];
+
+        const tiles = await HeatmapTile.find({ ...filter, z }).lean();
+        const points = new Map();
+        for (const tile of tiles) {
+            for (const [bin, count] of Object.entries(tile.bins || {})) {
+                const key = `${tile.x}/${tile.y}/${bin}`;
+                const point = points.get(key);
+                if (point) {
+                    point.count += count;
+                } else {
+                    points.set(key, { ...binCenter(z, tile.x, tile.y, tile.bin_bits, Number(bin)), count });
+                }
+            }
+        }
+
+        console.log(`✓ Built ${points.size} heatmap points at zoom ${z} from ${tiles.length} tiles`);
+        res.json({
+            success: true,
+            message: `Found ${points.size} heatmap points at zoom ${z}`,
+            data: Array.from(points.values())
+        });
+    } catch (error) {
+        console.error('❌ Error getting heatmap:', error);
+        res.status(500).json({
+            success: false,
+            message: 'Error retrieving heatmap'
+        });
+    }
+};
+
+module.exports = {
+    saveHeatmapTiles,
+    getHeatmap
+};
@@ -1,5 +1,20 @@
 // Server/controllers/locationController.js
+const mongoose = require('mongoose');
 const { User, getLocationModel } = require('../models');
+const { completeIdempotencyKey } = require('../middleware/idempotency');
+
+// Insert documents, skipping any whose ingest_key is already stored.
+// Returns the number of documents actually inserted.
+const insertNewLocations = async (LocationModel, documents) => {
+    try {
+        const inserted = await LocationModel.insertMany(documents, { ordered: false });
+        return inserted.length;
+    } catch (err) {
+        const duplicatesOnly = err.writeErrors && err.writeErrors.every(writeError => writeError.code === 11000);
+        if (!duplicatesOnly) throw err;
+        return err.insertedDocs ? err.insertedDocs.length : documents.length - err.writeErrors.length;
+    }
+};
 
 // Save batch of locations
 const saveBatchLocations = async (req, res) => {
@@ -18,17 +33,22 @@ const saveBatchLocations = async (req, res) => {
         
         console.log(`✓ Processing ${locations.length} locations`);
         
-        // Group locations by user ID
+        // Group locations by user ID, keeping each one's index in the batch for its ingest key
         const locationsByUser = {};
+        const ingestKeys = new Map();
         
-        locations.forEach(location => {
+        locations.forEach((location, index) => {
             if (!locationsByUser[location.user_id]) {
                 locationsByUser[location.user_id] = [];
             }
             locationsByUser[location.user_id].push(location);
+            if (req.idempotencyKey) {
+                ingestKeys.set(location, `${req.idempotencyKey}:${index}`);
+            }
         });
         
         console.log(`✓ Found locations for ${Object.keys(locationsByUser).length} users`);
+        let storedCount = 0;
         
         // Process each user's locations
         for (const userId in locationsByUser) {
@@ -40,7 +60,7 @@ const saveBatchLocations = async (req, res) => {
             const firstSeen = userLocations.reduce((min, loc) => 
                 Math.min(min, loc.timestamp), Infinity);
             const lastSeen = userLocations.reduce((max, loc) => 
-                Math.max(max, loc.timestamp), 0);
+                Math.max(max, loc.end_timestamp || loc.timestamp), 0);
             
             if (!user) {
                 console.log(`👤 Creating new user: ${userId}`);
@@ -72,8 +92,15 @@ const saveBatchLocations = async (req, res) => {
             const locationsToInsert = [];
             
             for (const location of userLocations) {
+                const ingestKey = ingestKeys.get(location);
                 // Add original location
-                locationsToInsert.push(location);
+                locationsToInsert.push(ingestKey ? { ...location, ingest_key: ingestKey } : location);
+                
+                // Cell records carry their own weight in count; moving a copy would leave its cell.
+                // Users whose SDK uploads heatmap tiles need no copies for the heatmap.
+                if (location.cell || user.heatmap_tiles) {
+                    continue;
+                }
                 
                 // Add duplicates with small variations
                 for (let i = 0; i < 2; i++) {
@@ -81,15 +108,19 @@ const saveBatchLocations = async (req, res) => {
                     locationsToInsert.push({
                         ...location,
                         latitude: location.latitude + variation,
-                        longitude: location.longitude + variation
+                        longitude: location.longitude + variation,
+                        ...(ingestKey && { ingest_key: `${ingestKey}:${i + 1}` })
                     });
                 }
             }
             
+            storedCount += locationsToInsert.length;
+            
             // Insert all locations
+            let insertedCount;
             try {
-                await LocationModel.insertMany(locationsToInsert);
-                console.log(`✓ Inserted ${locationsToInsert.length} locations for user ${userId}`);
+                insertedCount = await insertNewLocations(LocationModel, locationsToInsert);
+                console.log(`✓ Inserted ${insertedCount} of ${locationsToInsert.length} locations for user ${userId}`);
             } catch (err) {
                 console.error(`❌ Error inserting locations for user ${userId}:`, err);
                 throw err;
@@ -99,7 +130,7 @@ const saveBatchLocations = async (req, res) => {
             try {
                 await User.updateOne(
                     { user_id: userId },
-                    { $inc: { total_locations: locationsToInsert.length } }
+                    { $inc: { total_locations: insertedCount } }
                 );
                 console.log(`✓ Updated location count for user ${userId}`);
             } catch (err) {
@@ -108,9 +139,12 @@ const saveBatchLocations = async (req, res) => {
             }
         }
         
+        await completeIdempotencyKey(req, locations.length);
         res.json({ 
             success: true, 
-            message: `Saved ${locations.length * 3} locations (including duplicates for heatmap)` 
+            message: storedCount > locations.length
+                ? `Saved ${storedCount} locations (including duplicates for heatmap)`
+                : `Saved ${storedCount} locations`
         });
     } catch (error) {
         console.error('❌ Error saving location data:', error);
@@ -121,8 +155,103 @@ const saveBatchLocations = async (req, res) => {
     }
 };
 
-// Get locations by user ID and time range with dynamic "all test users" support
+const DEFAULT_PAGE_SIZE = 500;
+const MAX_PAGE_SIZE = 1000;
+
+// Parse a page cursor, "<timestamp>:<_id>" of the last location of the previous page
+const parseCursor = (cursor) => {
+    const separator = cursor.indexOf(':');
+    const timestamp = Number(cursor.slice(0, separator));
+    const id = cursor.slice(separator + 1);
+    if (separator < 0 || !Number.isFinite(timestamp) || !mongoose.isValidObjectId(id)) {
+        return null;
+    }
+    return { timestamp, id: new mongoose.Types.ObjectId(id) };
+};
+
+// Get one page of a user's locations, oldest first. Pages are ordered by (timestamp, _id),
+// so a cursor resumes exactly after the last location sent even when timestamps repeat.
+// Locations are written to the response as they are read from the database, followed by
+// next_cursor, which is null on the last page.
+const getLocationPage = async (req, res) => {
+    const userId = req.query.user_id;
+    const pageSize = Math.min(Math.max(parseInt(req.query.page_size) || DEFAULT_PAGE_SIZE, 1), MAX_PAGE_SIZE);
+    const startTime = parseInt(req.query.start_time) || 0;
+    const endTime = parseInt(req.query.end_time) || Date.now();
+
+    if (!userId || userId === 'all_test_users') {
+        return res.status(400).json({
+            success: false,
+            message: 'Paged location history needs a user_id'
+        });
+    }
+
+    const filter = { timestamp: { $gte: startTime, $lte: endTime } };
+    if (req.query.cursor) {
+        const after = parseCursor(req.query.cursor);
+        if (!after) {
+            return res.status(400).json({
+                success: false,
+                message: 'Invalid cursor'
+            });
+        }
+        filter.$or = [
+            { timestamp: { $gt: after.timestamp } },
+            { timestamp: after.timestamp, _id: { $gt: after.id } }
+        ];
+    }
+
+    let cursor;
+    try {
+        // One more than the page, to tell whether another page follows
+        cursor = getLocationModel(userId)
+            .find(filter, { ingest_key: 0, __v: 0 })
+            .sort({ timestamp: 1, _id: 1 })
+            .limit(pageSize + 1)
+            .lean()
+            .cursor();
+
+        // Errors up to the first location still get a normal error response
+        let location = await cursor.next();
+        res.type('application/json');
+        res.write('{"success":true,"data":[');
+        let count = 0;
+        let last = null;
+        while (location && count < pageSize) {
+            const { _id, ...fields } = location;
+            res.write((count > 0 ? ',' : '') + JSON.stringify(fields));
+            last = location;
+            count++;
+            location = await cursor.next();
+        }
+        const nextCursor = location ? `${last.timestamp}:${last._id}` : null;
+
+        console.log(`✓ Sent a page of ${count} locations for user ${userId}${nextCursor ? ', more follow' : ''}`);
+        res.end(`],"message":"Found ${count} locations","next_cursor":${JSON.stringify(nextCursor)}}`);
+    } catch (error) {
+        console.error('❌ Error fetching location page:', error);
+        if (res.headersSent) {
+            // Part of the page was sent; cut the response so the client sees it incomplete
+            res.destroy(error);
+        } else {
+            res.status(500).json({
+                success: false,
+                message: 'Error retrieving location data'
+            });
+        }
+    } finally {
+        if (cursor) {
+            await cursor.close().catch(() => {});
+        }
+    }
+};
+
+// Get locations by user ID and time range with dynamic "all test users" support.
+// With page_size or cursor, returns one page of a user's history (see getLocationPage).
 const getLocations = async (req, res) => {
+    if (req.query.page_size !== undefined || req.query.cursor !== undefined) {
+        return getLocationPage(req, res);
+    }
     try {
         const userId = req.query.user_id;
         const limit = parseInt(req.query.limit) || 5000;
@@ -238,10 +367,10 @@ const createAveragedHeatmapData = (allLocations, numUsers) => {
     const locationGrid = new Map();
     
     allLocations.forEach(location => {
-        // Round coordinates to grid
+        // Round coordinates to grid; cell records are grouped by their cell key as they are
         const gridLat = Math.round(location.latitude / gridSize) * gridSize;
         const gridLng = Math.round(location.longitude / gridSize) * gridSize;
-        const gridKey = `${gridLat.toFixed(6)},${gridLng.toFixed(6)}`;
+        const gridKey = location.cell || `${gridLat.toFixed(6)},${gridLng.toFixed(6)}`;
         
         if (!locationGrid.has(gridKey)) {
             locationGrid.set(gridKey, {
@@ -255,7 +384,7 @@ const createAveragedHeatmapData = (allLocations, numUsers) => {
         const gridCell = locationGrid.get(gridKey);
         gridCell.locations.push(location);
         gridCell.userCounts.add(location.original_user_id);
-        gridCell.totalCount++;
+        gridCell.totalCount += location.count || 1;
     });
     
     // Convert grid to averaged locations
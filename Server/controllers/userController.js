@@ -1,6 +1,6 @@
 // Server/controllers/userController.js
 const { User, getLocationModel } = require('../models');
-const { calculateUserStatistics } = require('../utils/statsUtils');
+const { calculateUserStatistics, calculateStatisticsDelta, statisticsEtag } = require('../utils/statsUtils');
 
 // Get all users
 const getUsers = async (req, res) => {
@@ -21,7 +21,9 @@ const getUsers = async (req, res) => {
     }
 };
 
-// Get user statistics - always calculate in real-time
+// Get user statistics - calculated in real-time, unless the client's copy is current.
+// Supports If-None-Match (304 when nothing changed) and ?since=<last_location_timestamp>
+// (only the change since the client's copy is calculated and returned).
 const getUserStatistics = async (req, res) => {
     try {
         const userId = req.query.user_id;
@@ -45,8 +47,38 @@ const getUserStatistics = async (req, res) => {
             });
         }
         
-        // Get user's locations
+        // Every batch upload changes total_locations and/or last_seen, so an unchanged
+        // tag means the statistics are unchanged and nothing needs to be read
+        const etag = statisticsEtag(user);
+        res.set('ETag', etag);
+        res.set('Cache-Control', 'private, no-cache');
+        
+        if (req.headers['if-none-match'] === etag) {
+            console.log(`✓ Statistics unchanged for user ${userId}`);
+            return res.status(304).end();
+        }
+        
         const LocationModel = getLocationModel(userId);
+        const since = parseInt(req.query.since);
+        
+        if (since > 0) {
+            // Delta: only read locations the client has not seen yet
+            const previousLocation = await LocationModel.findOne({ timestamp: { $lte: since } })
+                .sort({ timestamp: -1 });
+            const newLocations = await LocationModel.find({ timestamp: { $gt: since } })
+                .sort({ timestamp: 1 });
+            
+            const delta = calculateStatisticsDelta(userId, since, previousLocation, newLocations);
+            console.log(`✓ Calculated statistics delta for user ${userId}: +${delta.total_locations} locations`);
+            
+            return res.json({
+                success: true,
+                message: 'Statistics delta calculated',
+                data: delta
+            });
+        }
+        
+        // Get user's locations
         const locations = await LocationModel.find({}).sort({ timestamp: 1 });
         
         console.log(`Found ${locations.length} locations for user ${userId}`);
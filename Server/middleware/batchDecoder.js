@@ -0,0 +1,54 @@
+// Server/middleware/batchDecoder.js
+const {
+    BATCH_CONTENT_TYPE,
+    BATCH_VERSIONS_HEADER,
+    VERSION,
+    CELL_VERSION,
+    decodeLocationBatch
+} = require('../utils/batchCodec');
+
+// Turn binary location batches into the same { apiKey, locations } body the JSON path uses
+const decodeBatchBody = (req, res, next) => {
+    if (req.is('application/json') || !req.headers['content-type']) {
+        return next();
+    }
+
+    if (!req.is(BATCH_CONTENT_TYPE)) {
+        console.log(`❌ Unsupported batch content type: ${req.headers['content-type']}`);
+        return res.status(415).json({
+            success: false,
+            message: 'Unsupported content type'
+        });
+    }
+
+    // Sent with every answer to a binary batch, errors included
+    res.set(BATCH_VERSIONS_HEADER, `${VERSION}, ${CELL_VERSION}`);
+
+    try {
+        const locations = decodeLocationBatch(req.body);
+        console.log(`📦 Decoded binary batch: ${req.body.length} bytes, ${locations.length} locations`);
+        req.body = {
+            apiKey: req.query.api_key,
+            locations
+        };
+        next();
+    } catch (error) {
+        if (error.unsupportedVersion) {
+            // A newer client; 415 tells it to send this batch as JSON instead
+            console.log(`❌ ${error.message}`);
+            return res.status(415).json({
+                success: false,
+                message: error.message
+            });
+        }
+        console.log('❌ Invalid binary location batch:', error.message);
+        return res.status(400).json({
+            success: false,
+            message: 'Invalid location batch'
+        });
+    }
+};
+
+module.exports = {
+    decodeBatchBody
+};
@@ -0,0 +1,81 @@
+// Server/middleware/idempotency.js
+const { UploadReceipt } = require('../models');
+
+// A receipt still pending after this long belongs to a request that died mid-way
+const STALE_PENDING_MS = 2 * 60 * 1000;
+const MAX_KEY_LENGTH = 200;
+
+// Store each batch at most once per Idempotency-Key. The first request for a key
+// claims it; a retransmission of a stored batch is answered with success without
+// storing it again, and one arriving while the first is still being stored is
+// told to retry. Requests without a key (older SDKs) are stored as before.
+const claimIdempotencyKey = async (req, res, next) => {
+    const key = req.get('Idempotency-Key');
+    if (!key) {
+        return next();
+    }
+    if (key.length > MAX_KEY_LENGTH) {
+        return res.status(400).json({
+            success: false,
+            message: 'Invalid idempotency key'
+        });
+    }
+
+    const sequence = Number(req.get('X-Batch-Sequence'));
+    try {
+        try {
+            await UploadReceipt.create({ key, sequence: Number.isFinite(sequence) ? sequence : undefined });
+        } catch (err) {
+            if (err.code !== 11000) throw err;
+
+            const receipt = await UploadReceipt.findOne({ key });
+            if (receipt && receipt.status === 'done') {
+                console.log(`↩️ Batch ${key} already saved, not storing it again`);
+                return res.json({
+                    success: true,
+                    message: `Batch already saved (${receipt.location_count} locations)`
+                });
+            }
+            const claimed = receipt && Date.now() - receipt.created_at.getTime() > STALE_PENDING_MS
+                && await UploadReceipt.findOneAndUpdate(
+                    { key, status: 'pending', created_at: receipt.created_at },
+                    { created_at: new Date() });
+            if (!claimed) {
+                res.set('Retry-After', '5');
+                return res.status(409).json({
+                    success: false,
+                    message: 'Batch is already being saved'
+                });
+            }
+        }
+    } catch (error) {
+        console.error('❌ Error checking idempotency key:', error);
+        return res.status(500).json({
+            success: false,
+            message: 'Error saving location data'
+        });
+    }
+
+    req.idempotencyKey = key;
+    // Release the key if the batch was not saved, so the retransmission is stored
+    res.on('finish', () => {
+        if (res.statusCode < 200 || res.statusCode >= 300) {
+            UploadReceipt.deleteOne({ key, status: 'pending' })
+                .catch(err => console.error(`❌ Error releasing idempotency key ${key}:`, err));
+        }
+    });
+    next();
+};
+
+// Mark the request's batch as saved; call before answering with success
+const completeIdempotencyKey = async (req, locationCount) => {
+    if (!req.idempotencyKey) return;
+    await UploadReceipt.updateOne(
+        { key: req.idempotencyKey },
+        { status: 'done', location_count: locationCount });
+};
+
+module.exports = {
+    claimIdempotencyKey,
+    completeIdempotencyKey
+};
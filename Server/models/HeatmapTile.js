@@ -0,0 +1,46 @@
+// Server/models/HeatmapTile.js
+const mongoose = require('mongoose');
+
+// Heatmap counts uploaded by the SDK: the fixes of one user on one UTC day in one web map
+// tile, per bin of a bin_bits x bin_bits grid over the tile (bin = row * 2^bin_bits + column)
+const heatmapTileSchema = new mongoose.Schema({
+    user_id: {
+        type: String,
+        required: true
+    },
+    // Days since the epoch, UTC
+    day: {
+        type: Number,
+        required: true
+    },
+    z: {
+        type: Number,
+        required: true
+    },
+    x: {
+        type: Number,
+        required: true
+    },
+    y: {
+        type: Number,
+        required: true
+    },
+    bin_bits: {
+        type: Number,
+        required: true
+    },
+    bins: {
+        type: Map,
+        of: Number,
+        default: {}
+    },
+    total: {
+        type: Number,
+        default: 0
+    }
+});
+
+heatmapTileSchema.index({ user_id: 1, z: 1, day: 1, x: 1, y: 1 }, { unique: true });
+heatmapTileSchema.index({ z: 1, day: 1 });
+
+module.exports = mongoose.model('HeatmapTile', heatmapTileSchema);
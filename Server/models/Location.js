@@ -24,9 +24,32 @@ const locationSchema = new mongoose.Schema({
     },
     device_info: { 
         type: String 
+    },
+    // Cell uploads: geohash of the cell the fixes were merged in (latitude/longitude are its
+    // center), the number of fixes and the time of the last one
+    cell: {
+        type: String,
+        index: true,
+        sparse: true
+    },
+    count: {
+        type: Number
+    },
+    end_timestamp: {
+        type: Number
+    },
+    // <batch idempotency key>:<index in batch>[:<copy>], so a batch stored again after a
+    // partial failure does not insert the same point twice
+    ingest_key: {
+        type: String,
+        unique: true,
+        sparse: true
     }
 });
 
+// History pages are read in (timestamp, _id) order, resuming after a cursor
+locationSchema.index({ timestamp: 1, _id: 1 });
+
 // This is a factory function to create dynamic models for each user
 const getLocationModel = (userId) => {
     // Check if model already exists to prevent overwriting
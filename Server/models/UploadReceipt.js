@@ -0,0 +1,32 @@
+// Server/models/UploadReceipt.js
+const mongoose = require('mongoose');
+
+// One receipt per batch idempotency key, so a batch the SDK sends again
+// (e.g. after a timeout) is only stored once
+const uploadReceiptSchema = new mongoose.Schema({
+    key: {
+        type: String,
+        required: true,
+        unique: true
+    },
+    sequence: {
+        type: Number
+    },
+    status: {
+        type: String,
+        enum: ['pending', 'done'],
+        default: 'pending'
+    },
+    location_count: {
+        type: Number,
+        default: 0
+    },
+    created_at: {
+        type: Date,
+        default: Date.now,
+        // SDKs give up on a batch long before this
+        expires: 7 * 24 * 60 * 60
+    }
+});
+
+module.exports = mongoose.model('UploadReceipt', uploadReceiptSchema);
@@ -16,6 +16,12 @@ const userSchema = new mongoose.Schema({
     total_locations: { 
         type: Number, 
         default: 0 
+    },
+    // Set once the user's SDK uploads heatmap tiles; their locations are then stored
+    // without the jittered copies that thicken the raw-point heatmap
+    heatmap_tiles: {
+        type: Boolean,
+        default: false
     }
 });
 
@@ -1,9 +1,13 @@
 // Server/models/index.js
 const User = require('./User');
+const UploadReceipt = require('./UploadReceipt');
+const HeatmapTile = require('./HeatmapTile');
 const { locationSchema, getLocationModel } = require('./Location');
 
 module.exports = {
     User,
+    UploadReceipt,
+    HeatmapTile,
     locationSchema,
     getLocationModel
-};
\ No newline at end of file
+};
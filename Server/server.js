@@ -11,9 +11,13 @@ const axios = require('axios');
 // Import controllers
 const { saveBatchLocations, getLocations } = require('./controllers/locationController');
 const { getUsers, getUserStatistics } = require('./controllers/userController');
+const { saveHeatmapTiles, getHeatmap } = require('./controllers/heatmapController');
 
 // Import middleware
 const { validateApiKey } = require('./middleware/auth');
+const { claimIdempotencyKey } = require('./middleware/idempotency');
+const { decodeBatchBody } = require('./middleware/batchDecoder');
+const { BATCH_CONTENT_TYPE } = require('./utils/batchCodec');
 
 // Load environment variables
 dotenv.config();
@@ -32,6 +36,7 @@ app.use((req, res, next) => {
 // Middleware
 app.use(cors());
 app.use(bodyParser.json());
+app.use(bodyParser.raw({ type: BATCH_CONTENT_TYPE, limit: '5mb' }));
 app.use(morgan('dev'));
 
 // Serve static files from Dashboard directory
@@ -75,8 +80,10 @@ mongoose.connection.on('reconnected', () => {
 });
 
 // API Routes
-app.post('/api/location/batch', validateApiKey, saveBatchLocations);
+app.post('/api/location/batch', decodeBatchBody, validateApiKey, claimIdempotencyKey, saveBatchLocations);
 app.get('/api/locations', validateApiKey, getLocations);
+app.post('/api/heatmap/tiles', validateApiKey, claimIdempotencyKey, saveHeatmapTiles);
+app.get('/api/heatmap', validateApiKey, getHeatmap);
 app.get('/api/users', validateApiKey, getUsers);
 app.get('/api/user/statistics', validateApiKey, getUserStatistics);
 
@@ -0,0 +1,145 @@
+// Server/utils/batchCodec.js
+const zlib = require('zlib');
+const { geohashFromCell, geohashCellCenter } = require('./geoUtils');
+
+// Content type used by the SDK for compact binary location batches
+const BATCH_CONTENT_TYPE = 'application/x-location-batch';
+
+// Response header listing the batch versions this server decodes; its absence on an error
+// tells the SDK the server does not understand binary batches at all
+const BATCH_VERSIONS_HEADER = 'X-Location-Batch-Versions';
+
+const COORDINATE_SCALE = 1e7;
+const ACCURACY_SCALE = 10;
+const VERSION = 1;
+// Cell mode: coordinates quantized to geohash cells, consecutive fixes in one cell merged
+const CELL_VERSION = 2;
+
+// Read an unsigned varint; uses arithmetic instead of bit operations so values above 2^31 (timestamps) stay exact
+const readVarint = (reader) => {
+    let value = 0;
+    let multiplier = 1;
+    for (let i = 0; i < 10; i++) {
+        if (reader.offset >= reader.buffer.length) {
+            throw new Error('Truncated location batch');
+        }
+        const byte = reader.buffer[reader.offset++];
+        value += (byte & 0x7f) * multiplier;
+        if ((byte & 0x80) === 0) {
+            return value;
+        }
+        multiplier *= 128;
+    }
+    throw new Error('Malformed varint in location batch');
+};
+
+const readZigZag = (reader) => {
+    const value = readVarint(reader);
+    return value % 2 === 0 ? value / 2 : -(value + 1) / 2;
+};
+
+const readString = (reader) => {
+    const length = readVarint(reader);
+    if (length === 0) {
+        return null;
+    }
+    const value = reader.buffer.toString('utf8', reader.offset, reader.offset + length);
+    reader.offset += length;
+    return value;
+};
+
+// Decode a binary batch (see LocationBatchCodec in the Android SDK) into location objects
+const decodeLocationBatch = (payload) => {
+    // body-parser already inflates gzip when Content-Encoding is set; handle raw gzip too
+    const buffer = payload[0] === 0x1f && payload[1] === 0x8b ? zlib.gunzipSync(payload) : payload;
+    const reader = { buffer, offset: 0 };
+
+    if (buffer.length < 3 || buffer[0] !== 0x4c || buffer[1] !== 0x42) {
+        throw new Error('Not a location batch');
+    }
+    if (buffer[2] !== VERSION && buffer[2] !== CELL_VERSION) {
+        const error = new Error(`Unsupported location batch version ${buffer[2]}`);
+        error.unsupportedVersion = true;
+        throw error;
+    }
+    reader.offset = 3;
+    if (buffer[2] === CELL_VERSION) {
+        return decodeCellGroups(reader);
+    }
+
+    const locations = [];
+    const groupCount = readVarint(reader);
+    for (let g = 0; g < groupCount; g++) {
+        const userId = readString(reader);
+        const deviceInfo = readString(reader);
+        const count = readVarint(reader);
+
+        let timestamp = 0;
+        let lat = 0;
+        let lon = 0;
+        for (let i = 0; i < count; i++) {
+            timestamp += readZigZag(reader);
+            lat += readZigZag(reader);
+            lon += readZigZag(reader);
+            locations.push({
+                user_id: userId,
+                latitude: lat / COORDINATE_SCALE,
+                longitude: lon / COORDINATE_SCALE,
+                timestamp,
+                accuracy: readVarint(reader) / ACCURACY_SCALE,
+                device_info: deviceInfo
+            });
+        }
+    }
+    return locations;
+};
+
+// Cell records become one location each, at the cell center, carrying the cell key,
+// the number of fixes merged into it and the time of the last of them
+const decodeCellGroups = (reader) => {
+    const precision = reader.buffer[reader.offset++];
+    if (!(precision >= 1 && precision <= 12)) {
+        throw new Error(`Invalid cell precision ${precision}`);
+    }
+
+    const locations = [];
+    const groupCount = readVarint(reader);
+    for (let g = 0; g < groupCount; g++) {
+        const userId = readString(reader);
+        const deviceInfo = readString(reader);
+        const count = readVarint(reader);
+
+        let timestamp = 0;
+        let row = 0;
+        let column = 0;
+        for (let i = 0; i < count; i++) {
+            timestamp += readZigZag(reader);
+            row += readZigZag(reader);
+            column += readZigZag(reader);
+            const span = readVarint(reader);
+            const fixes = readVarint(reader);
+            const accuracy = readVarint(reader) / ACCURACY_SCALE;
+            const center = geohashCellCenter(row, column, precision);
+            locations.push({
+                user_id: userId,
+                latitude: center.latitude,
+                longitude: center.longitude,
+                timestamp,
+                end_timestamp: timestamp + span,
+                count: fixes,
+                cell: geohashFromCell(row, column, precision),
+                accuracy,
+                device_info: deviceInfo
+            });
+        }
+    }
+    return locations;
+};
+
+module.exports = {
+    BATCH_CONTENT_TYPE,
+    BATCH_VERSIONS_HEADER,
+    VERSION,
+    CELL_VERSION,
+    decodeLocationBatch
+};
@@ -44,10 +44,10 @@ const findStops = (locations) => {
             currentStopLocations.push(current);
         } else {
             // Moved to a new location, check if previous stop is valid
-            const duration = currentStopLocations[currentStopLocations.length - 1].timestamp - 
+            const duration = lastTimestamp(currentStopLocations[currentStopLocations.length - 1]) - 
                             currentStopLocations[0].timestamp;
             
-            if (duration >= MIN_STOP_DURATION_MS && currentStopLocations.length >= 3) {
+            if (duration >= MIN_STOP_DURATION_MS && countFixes(currentStopLocations) >= 3) {
                 processStopLocation(currentStopLocations, stops, STOP_THRESHOLD_METERS, duration);
             }
             
@@ -57,8 +57,8 @@ const findStops = (locations) => {
     }
     
     // Check the last group of locations
-    if (currentStopLocations.length >= 3) {
-        const duration = currentStopLocations[currentStopLocations.length - 1].timestamp - 
+    if (countFixes(currentStopLocations) >= 3) {
+        const duration = lastTimestamp(currentStopLocations[currentStopLocations.length - 1]) - 
                         currentStopLocations[0].timestamp;
         
         if (duration >= MIN_STOP_DURATION_MS) {
@@ -70,6 +70,8 @@ const findStops = (locations) => {
     return stops.sort((a, b) => b.visit_count - a.visit_count);
 };
 
+const countFixes = (locations) => locations.reduce((sum, loc) => sum + fixCount(loc), 0);
+
 // Helper function to process a stop location
 const processStopLocation = (locationGroup, stops, threshold, duration) => {
     const avgLat = locationGroup.reduce((sum, loc) => sum + loc.latitude, 0) / 
@@ -99,7 +101,44 @@ const processStopLocation = (locationGroup, stops, threshold, duration) => {
     }
 };
 
+// Number of fixes a stored location stands for; cell records merge several
+const fixCount = (location) => location.count || 1;
+
+// Time of the last fix a stored location stands for
+const lastTimestamp = (location) => location.end_timestamp || location.timestamp;
+
+const GEOHASH_BASE32 = '0123456789bcdefghjkmnpqrstuvwxyz';
+
+// Geohash of the cell at a row (from the south pole) and column (from the antimeridian)
+// at a precision; matches Geohash in the Android SDK
+const geohashFromCell = (row, column, precision) => {
+    let latitudeBit = Math.floor(precision * 5 / 2);
+    let longitudeBit = Math.floor((precision * 5 + 1) / 2);
+    let hash = '';
+    for (let i = 0; i < precision; i++) {
+        let digit = 0;
+        for (let bit = i * 5; bit < i * 5 + 5; bit++) {
+            const value = bit % 2 === 0
+                ? Math.floor(column / 2 ** --longitudeBit) % 2
+                : Math.floor(row / 2 ** --latitudeBit) % 2;
+            digit = digit * 2 + value;
+        }
+        hash += GEOHASH_BASE32[digit];
+    }
+    return hash;
+};
+
+// Center of the geohash cell at a row and column
+const geohashCellCenter = (row, column, precision) => ({
+    latitude: (row + 0.5) * 180 / 2 ** Math.floor(precision * 5 / 2) - 90,
+    longitude: (column + 0.5) * 360 / 2 ** Math.floor((precision * 5 + 1) / 2) - 180
+});
+
 module.exports = {
     calculateDistance,
-    findStops
+    findStops,
+    fixCount,
+    lastTimestamp,
+    geohashFromCell,
+    geohashCellCenter
 };
\ No newline at end of file
@@ -1,5 +1,21 @@
 // Server/utils/statsUtils.js
-const { calculateDistance, findStops } = require('./geoUtils');
+const { calculateDistance, findStops, fixCount, lastTimestamp } = require('./geoUtils');
+
+// Get unique locations (filter out duplicates created for heatmap)
+// Group by timestamp and keep only one location per timestamp
+const uniqueByTimestamp = (locations) => {
+    const timestampMap = new Map();
+    
+    for (const location of locations) {
+        const key = `${location.timestamp}`;
+        if (!timestampMap.has(key)) {
+            timestampMap.set(key, location);
+        }
+    }
+    
+    return Array.from(timestampMap.values())
+        .sort((a, b) => a.timestamp - b.timestamp);
+};
 
 // Calculate user statistics from location data
 const calculateUserStatistics = async (userId, locations) => {
@@ -16,27 +32,15 @@ const calculateUserStatistics = async (userId, locations) => {
         };
     }
     
-    // Get unique locations (filter out duplicates created for heatmap)
-    // Group by timestamp and keep only one location per timestamp
-    const timestampMap = new Map();
-    
-    for (const location of locations) {
-        const key = `${location.timestamp}`;
-        if (!timestampMap.has(key)) {
-            timestampMap.set(key, location);
-        }
-    }
-    
-    const uniqueLocations = Array.from(timestampMap.values())
-        .sort((a, b) => a.timestamp - b.timestamp);
+    const uniqueLocations = uniqueByTimestamp(locations);
     
     // Initialize statistics
     const statistics = {
         user_id: userId,
-        total_locations: uniqueLocations.length,
+        total_locations: uniqueLocations.reduce((sum, loc) => sum + fixCount(loc), 0),
         distance_traveled_meters: 0,
         first_location_timestamp: uniqueLocations[0].timestamp,
-        last_location_timestamp: uniqueLocations[uniqueLocations.length - 1].timestamp,
+        last_location_timestamp: lastTimestamp(uniqueLocations[uniqueLocations.length - 1]),
         city_visits: {}, // Will require geocoding API to implement fully
         common_stops: [],
         activity_hours: {}
@@ -58,7 +62,7 @@ const calculateUserStatistics = async (userId, locations) => {
     // Calculate activity hours
     for (const location of uniqueLocations) {
         const hour = new Date(location.timestamp).getHours();
-        statistics.activity_hours[hour] = (statistics.activity_hours[hour] || 0) + 1;
+        statistics.activity_hours[hour] = (statistics.activity_hours[hour] || 0) + fixCount(location);
     }
     
     // Identify common stops (places where user stays for some time)
@@ -68,6 +72,47 @@ const calculateUserStatistics = async (userId, locations) => {
     return statistics;
 };
 
+// Calculate the change in user statistics from locations recorded after `since`.
+// Counters are increments to add to the client's cached statistics; common stops and
+// city visits need the full history and are left out, so the client keeps its own.
+const calculateStatisticsDelta = (userId, since, previousLocation, newLocations) => {
+    const uniqueLocations = uniqueByTimestamp(newLocations);
+    
+    const delta = {
+        user_id: userId,
+        delta: true,
+        since: since,
+        total_locations: uniqueLocations.reduce((sum, loc) => sum + fixCount(loc), 0),
+        distance_traveled_meters: 0,
+        first_location_timestamp: uniqueLocations.length > 0 ? uniqueLocations[0].timestamp : null,
+        last_location_timestamp: uniqueLocations.length > 0 ?
+            lastTimestamp(uniqueLocations[uniqueLocations.length - 1]) : null,
+        activity_hours: {}
+    };
+    
+    // Include the segment from the last location the client already has
+    let prevLoc = previousLocation;
+    for (const currentLoc of uniqueLocations) {
+        if (prevLoc) {
+            delta.distance_traveled_meters += calculateDistance(
+                prevLoc.latitude, prevLoc.longitude,
+                currentLoc.latitude, currentLoc.longitude
+            );
+        }
+        prevLoc = currentLoc;
+        
+        const hour = new Date(currentLoc.timestamp).getHours();
+        delta.activity_hours[hour] = (delta.activity_hours[hour] || 0) + fixCount(currentLoc);
+    }
+    
+    return delta;
+};
+
+// Version tag of a user's statistics; changes whenever locations are added
+const statisticsEtag = (user) => `"stats-${user.total_locations || 0}-${user.last_seen || 0}"`;
+
 module.exports = {
-    calculateUserStatistics
+    calculateUserStatistics,
+    calculateStatisticsDelta,
+    statisticsEtag
 };
\ No newline at end of file
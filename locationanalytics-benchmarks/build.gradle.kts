@@ -0,0 +1,50 @@
+plugins {
+    java
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    // Baseline comparison report
+    implementation(libs.gson)
+
+    jmh(project(":locationanalytics-core"))
+    jmh(libs.jmh.core)
+    jmhAnnotationProcessor(libs.jmh.generator.annprocess)
+}
+
+val jmhResults = layout.buildDirectory.file("results/jmh/results.json")
+val jmhBaseline = layout.projectDirectory.file("baseline/results.json")
+
+jmh {
+    jmhVersion.set(libs.versions.jmh.get())
+    resultFormat.set("JSON")
+    resultsFile.set(jmhResults)
+    // Run a subset with e.g. -PjmhIncludes=Distance
+    findProperty("jmhIncludes")?.let { includes.add(it.toString()) }
+}
+
+tasks.register<JavaExec>("jmhCompare") {
+    group = "benchmark"
+    description = "Compares the last JMH run with the recorded baseline and writes a report."
+    mainClass.set("com.example.locationanalytics.benchmarks.BaselineComparison")
+    classpath = sourceSets["main"].runtimeClasspath
+    args(
+        jmhResults.get().asFile,
+        jmhBaseline.asFile,
+        findProperty("regressionThreshold") ?: "0.10",
+        layout.buildDirectory.file("reports/jmh/comparison.md").get().asFile,
+        findProperty("failOnRegression") ?: "false"
+    )
+}
+
+tasks.register<Copy>("jmhSaveBaseline") {
+    group = "benchmark"
+    description = "Records the last JMH run as the baseline for jmhCompare."
+    from(jmhResults)
+    into(jmhBaseline.asFile.parentFile)
+}
@@ -0,0 +1,83 @@
+package com.example.locationanalytics;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encoding an upload batch: the streaming JSON body, the reflective Gson body it replaced,
+ * and the gzip-compressed binary encoding.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class BatchSerializationBenchmark {
+    @Param({"50", "500"})
+    int batchSize;
+
+    private LocationBuffer batch;
+    private Map<String, Object> reflectiveBody;
+    private final Gson reflectiveGson = new Gson();
+    private final LocationBatchCodec codec = new LocationBatchCodec();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+
+    @Setup
+    public void setUp() {
+        batch = BenchmarkData.trace(batchSize);
+        List<LocationData> locations = new ArrayList<>(batchSize);
+        for (int i = 0; i < batch.size(); i++) {
+            locations.add(batch.get(i));
+        }
+        reflectiveBody = new HashMap<>();
+        reflectiveBody.put("apiKey", BenchmarkData.API_KEY);
+        reflectiveBody.put("locations", locations);
+    }
+
+    @Benchmark
+    public int jsonStreaming() throws IOException {
+        out.reset();
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        JsonAdapters.writeLocationBatch(writer, BenchmarkData.API_KEY, batch);
+        writer.flush();
+        return out.size();
+    }
+
+    @Benchmark
+    public int jsonReflective() throws IOException {
+        out.reset();
+        Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+        reflectiveGson.toJson(reflectiveBody, writer);
+        writer.flush();
+        return out.size();
+    }
+
+    @Benchmark
+    public byte[] binary() {
+        return codec.encode(batch);
+    }
+}
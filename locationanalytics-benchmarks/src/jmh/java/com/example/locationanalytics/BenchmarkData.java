@@ -0,0 +1,89 @@
+package com.example.locationanalytics;
+
+import java.util.Random;
+
+/**
+ * Deterministic synthetic inputs shared by the benchmarks, so runs are comparable
+ * with the recorded baseline.
+ */
+final class BenchmarkData {
+    static final String API_KEY = "benchmark-api-key";
+    static final String USER_ID = "3f8a1c2e-5b7d-4e90-a1b2-c3d4e5f60718";
+    static final String DEVICE_INFO = "Pixel 8 / Android 14";
+
+    /** Start of the synthetic trace */
+    private static final long START_TIMESTAMP = 1_700_000_000_000L;
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * Fill a buffer with a random walk of one fix every 30 seconds.
+     */
+    static LocationBuffer trace(int count) {
+        LocationBuffer buffer = new LocationBuffer(count);
+        double[] latitudes = new double[count];
+        double[] longitudes = new double[count];
+        walk(latitudes, longitudes);
+        Random random = new Random(42);
+        for (int i = 0; i < count; i++) {
+            buffer.add(USER_ID, latitudes[i], longitudes[i], START_TIMESTAMP + i * 30_000L,
+                    5 + random.nextFloat() * 20, DEVICE_INFO);
+        }
+        return buffer;
+    }
+
+    /**
+     * Fill the arrays with a random walk around Tel Aviv, about 15 m per step.
+     */
+    static void walk(double[] latitudes, double[] longitudes) {
+        Random random = new Random(7);
+        double latitude = 32.0853;
+        double longitude = 34.7818;
+        for (int i = 0; i < latitudes.length; i++) {
+            latitude += (random.nextDouble() - 0.5) * 0.0003;
+            longitude += (random.nextDouble() - 0.5) * 0.0003;
+            latitudes[i] = latitude;
+            longitudes[i] = longitude;
+        }
+    }
+
+    static long timestamp(int index) {
+        return START_TIMESTAMP + index * 30_000L;
+    }
+
+    /**
+     * A statistics response as sent by the server: 10 common stops, 24 activity hours and
+     * 20 cities.
+     */
+    static String statisticsResponse() {
+        Random random = new Random(3);
+        StringBuilder json = new StringBuilder(4096);
+        json.append("{\"success\":true,\"data\":{\"user_id\":\"").append(USER_ID).append('"')
+                .append(",\"total_locations\":48213")
+                .append(",\"distance_traveled_meters\":1284736.5521")
+                .append(",\"first_location_timestamp\":1690000000000")
+                .append(",\"last_location_timestamp\":1700000000000");
+        json.append(",\"city_visits\":{");
+        for (int i = 0; i < 20; i++) {
+            if (i > 0) json.append(',');
+            json.append("\"City ").append(i).append("\":").append(1 + random.nextInt(500));
+        }
+        json.append("},\"common_stops\":[");
+        for (int i = 0; i < 10; i++) {
+            if (i > 0) json.append(',');
+            json.append("{\"latitude\":").append(32 + random.nextDouble())
+                    .append(",\"longitude\":").append(34 + random.nextDouble())
+                    .append(",\"visit_count\":").append(1 + random.nextInt(200))
+                    .append(",\"average_duration_minutes\":").append(random.nextDouble() * 120)
+                    .append(",\"name\":\"Stop ").append(i + 1).append("\"}");
+        }
+        json.append("],\"activity_hours\":{");
+        for (int hour = 0; hour < 24; hour++) {
+            if (hour > 0) json.append(',');
+            json.append('"').append(hour).append("\":").append(random.nextInt(3000));
+        }
+        json.append("}}}");
+        return json.toString();
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.locationanalytics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distance computation over a trace of 1024 fixes: the haversine formula alone, and the
+ * incremental statistics update that uses it for every uploaded fix.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DistanceBenchmark {
+    private static final int POINTS = 1024;
+
+    private final double[] latitudes = new double[POINTS];
+    private final double[] longitudes = new double[POINTS];
+    private StatisticsAggregator aggregator;
+
+    @Setup
+    public void setUp() {
+        BenchmarkData.walk(latitudes, longitudes);
+        aggregator = new StatisticsAggregator(TimeZone.getTimeZone("Asia/Jerusalem"));
+    }
+
+    @Benchmark
+    public double haversine() {
+        double total = 0;
+        for (int i = 1; i < POINTS; i++) {
+            total += GeoUtils.distanceMeters(latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public StatisticsAggregator statisticsAggregation() {
+        aggregator.reset();
+        for (int i = 0; i < POINTS; i++) {
+            aggregator.add(latitudes[i], longitudes[i], BenchmarkData.timestamp(i));
+        }
+        return aggregator;
+    }
+}
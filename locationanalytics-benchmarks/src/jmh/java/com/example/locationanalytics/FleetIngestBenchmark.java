@@ -0,0 +1,115 @@
+package com.example.locationanalytics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gateway ingest: several threads recording fixes for many assets while one thread drains,
+ * through the per-asset fleet buffer and through the single ingest ring buffer.
+ *
+ * <p>Each group runs four producers and one drainer; change the split with e.g.
+ * {@code -tg 8,1} to see how recording throughput scales with cores.</p>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FleetIngestBenchmark {
+    /** Assets each producer thread reports for */
+    private static final int ASSETS_PER_PRODUCER = 64;
+
+    private static final AtomicInteger PRODUCER_IDS = new AtomicInteger();
+
+    @State(Scope.Group)
+    public static class Buffers {
+        FleetIngestBuffer fleet;
+        LocationRingBuffer ring;
+
+        @Setup
+        public void setUp() {
+            fleet = new FleetIngestBuffer(FleetIngestBuffer.DEFAULT_CAPACITY_PER_ASSET, OverflowPolicy.DROP_OLDEST,
+                    null);
+            ring = new LocationRingBuffer(LocationRingBuffer.DEFAULT_CAPACITY, OverflowPolicy.DROP_OLDEST, null);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        String[] assets;
+        double[] latitudes;
+        double[] longitudes;
+        int next;
+        long timestamp = 1_700_000_000_000L;
+
+        @Setup
+        public void setUp() {
+            int id = PRODUCER_IDS.getAndIncrement();
+            assets = new String[ASSETS_PER_PRODUCER];
+            for (int i = 0; i < assets.length; i++) {
+                assets[i] = "asset-" + id + "-" + i;
+            }
+            latitudes = new double[1024];
+            longitudes = new double[1024];
+            BenchmarkData.walk(latitudes, longitudes);
+        }
+
+        int advance() {
+            timestamp += 1000;
+            return next++ & 1023;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Drainer {
+        long drainedTimestamps;
+
+        final LocationRingBuffer.Sink sink = (userId, latitude, longitude, timestamp, accuracy, deviceInfo) ->
+                drainedTimestamps += timestamp;
+    }
+
+    @Benchmark
+    @Group("fleet")
+    @GroupThreads(4)
+    public boolean fleetRecord(Buffers buffers, Producer producer) {
+        int i = producer.advance();
+        return buffers.fleet.offer(producer.assets[i & (ASSETS_PER_PRODUCER - 1)], producer.latitudes[i],
+                producer.longitudes[i], producer.timestamp, 5f, BenchmarkData.DEVICE_INFO);
+    }
+
+    @Benchmark
+    @Group("fleet")
+    @GroupThreads(1)
+    public int fleetDrain(Buffers buffers, Drainer drainer) {
+        return buffers.fleet.drain(drainer.sink, 256);
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(4)
+    public boolean ringRecord(Buffers buffers, Producer producer) {
+        int i = producer.advance();
+        return buffers.ring.offer(producer.assets[i & (ASSETS_PER_PRODUCER - 1)], producer.latitudes[i],
+                producer.longitudes[i], producer.timestamp, 5f, BenchmarkData.DEVICE_INFO);
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public int ringDrain(Buffers buffers, Drainer drainer) {
+        return buffers.ring.drain(drainer.sink, 256);
+    }
+}
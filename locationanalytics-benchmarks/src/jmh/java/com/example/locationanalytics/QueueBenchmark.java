@@ -0,0 +1,86 @@
+package com.example.locationanalytics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Moving a batch of fixes through the ingest ring buffer and through the persistent
+ * upload queue (append, read into a buffer, acknowledge).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class QueueBenchmark {
+    @Param({"50", "500"})
+    int batchSize;
+
+    private LocationBuffer fixes;
+    private LocationRingBuffer ring;
+    private LocationQueue queue;
+    private LocationBuffer readBuffer;
+    private File directory;
+    private long drainedTimestamps;
+
+    private final LocationRingBuffer.Sink discard = (userId, latitude, longitude, timestamp, accuracy, deviceInfo) ->
+            drainedTimestamps += timestamp;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixes = BenchmarkData.trace(batchSize);
+        ring = new LocationRingBuffer(LocationRingBuffer.DEFAULT_CAPACITY, OverflowPolicy.SPILL, discard);
+        directory = Files.createTempDirectory("queue-benchmark").toFile();
+        queue = new LocationQueue(directory, LocationQueue.DEFAULT_MAX_SIZE_BYTES);
+        readBuffer = new LocationBuffer(batchSize);
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Benchmark
+    public long ringBufferOfferDrain() {
+        for (int i = 0; i < fixes.size(); i++) {
+            ring.offer(fixes.getUserId(i), fixes.getLatitude(i), fixes.getLongitude(i),
+                    fixes.getTimestamp(i), fixes.getAccuracy(i), fixes.getDeviceInfo(i));
+        }
+        ring.drain(discard, Integer.MAX_VALUE);
+        return drainedTimestamps;
+    }
+
+    @Benchmark
+    public int queueAppendReadAck() throws IOException {
+        for (int i = 0; i < fixes.size(); i++) {
+            queue.append(fixes.getUserId(i), fixes.getLatitude(i), fixes.getLongitude(i),
+                    fixes.getTimestamp(i), fixes.getAccuracy(i), fixes.getDeviceInfo(i));
+        }
+        readBuffer.clear();
+        LocationQueue.Batch batch = queue.read(readBuffer);
+        queue.ack(batch);
+        return batch.size();
+    }
+}
@@ -0,0 +1,51 @@
+package com.example.locationanalytics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.reflect.Type;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing a statistics response with the streaming adapters the SDK registers, and with
+ * reflective Gson for comparison.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class StatisticsParsingBenchmark {
+    private static final Type RESPONSE_TYPE = new TypeToken<ApiResponse<UserStatistics>>() {}.getType();
+
+    private final String response = BenchmarkData.statisticsResponse();
+    private final Gson streamingGson = new GsonBuilder()
+            .registerTypeAdapterFactory(JsonAdapters.FACTORY)
+            .setLenient()
+            .create();
+    private final Gson reflectiveGson = new GsonBuilder()
+            .setLenient()
+            .create();
+
+    @Benchmark
+    public ApiResponse<UserStatistics> streaming() {
+        return streamingGson.fromJson(response, RESPONSE_TYPE);
+    }
+
+    @Benchmark
+    public ApiResponse<UserStatistics> reflective() {
+        return reflectiveGson.fromJson(response, RESPONSE_TYPE);
+    }
+}
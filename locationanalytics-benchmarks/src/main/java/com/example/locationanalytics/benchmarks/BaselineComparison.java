@@ -0,0 +1,228 @@
+package com.example.locationanalytics.benchmarks;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares a JMH JSON result file with a recorded baseline and prints a markdown report.
+ * <p>
+ * A benchmark is reported as a regression when it got slower (or, in throughput mode, did
+ * less work) by more than the threshold and the difference exceeds the combined score
+ * error of both runs.
+ * <p>
+ * Usage: {@code BaselineComparison <results.json> <baseline.json> <threshold> <report.md> <failOnRegression>}
+ */
+public final class BaselineComparison {
+    private static final String REGRESSION = "REGRESSION";
+    private static final String IMPROVED = "improved";
+    private static final String UNCHANGED = "~";
+    private static final String NEW = "new";
+    private static final String MISSING = "missing";
+
+    /**
+     * One benchmark score from a result file.
+     */
+    static final class Score {
+        final String mode;
+        final String unit;
+        final double score;
+        final double error;
+
+        Score(String mode, String unit, double score, double error) {
+            this.mode = mode;
+            this.unit = unit;
+            this.score = score;
+            this.error = error;
+        }
+
+        boolean higherIsBetter() {
+            return "thrpt".equals(mode);
+        }
+    }
+
+    private BaselineComparison() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparison <results.json> <baseline.json> "
+                    + "[threshold] [report.md] [failOnRegression]");
+            System.exit(2);
+        }
+        File results = new File(args[0]);
+        File baseline = new File(args[1]);
+        double threshold = args.length > 2 ? Double.parseDouble(args[2]) : 0.10;
+        File report = args.length > 3 ? new File(args[3]) : null;
+        boolean failOnRegression = args.length > 4 && Boolean.parseBoolean(args[4]);
+
+        if (!results.isFile()) {
+            System.err.println("No benchmark results at " + results + "; run the jmh task first");
+            System.exit(2);
+        }
+        Map<String, Score> current = read(results);
+        Map<String, Score> previous = baseline.isFile() ? read(baseline) : new LinkedHashMap<>();
+
+        List<String> regressions = new ArrayList<>();
+        String markdown = compare(current, previous, threshold, regressions);
+        if (!baseline.isFile()) {
+            markdown += "\nNo baseline at " + baseline
+                    + "; run the jmhSaveBaseline task to record one.\n";
+        }
+        System.out.print(markdown);
+        if (report != null) {
+            File parent = report.getParentFile();
+            if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+                throw new IOException("Could not create " + parent);
+            }
+            try (Writer writer = Files.newBufferedWriter(report.toPath(), StandardCharsets.UTF_8)) {
+                writer.write(markdown);
+            }
+        }
+
+        if (failOnRegression && !regressions.isEmpty()) {
+            System.err.println(regressions.size() + " benchmark(s) regressed by more than "
+                    + percent(threshold) + ": " + regressions);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Build the markdown report, collecting the keys of regressed benchmarks.
+     */
+    static String compare(Map<String, Score> current, Map<String, Score> baseline,
+                          double threshold, List<String> regressions) {
+        StringBuilder out = new StringBuilder();
+        out.append("| Benchmark | Mode | Baseline | Current | Change | Status |\n");
+        out.append("|---|---|---:|---:|---:|---|\n");
+        for (Map.Entry<String, Score> entry : current.entrySet()) {
+            String key = entry.getKey();
+            Score now = entry.getValue();
+            Score before = baseline.get(key);
+            if (before == null) {
+                row(out, key, now.mode, "-", format(now), "-", NEW);
+                continue;
+            }
+            double change = before.score == 0 ? 0 : (now.score - before.score) / before.score;
+            double worse = now.higherIsBetter() ? -change : change;
+            boolean significant = Math.abs(now.score - before.score) > errorOf(now) + errorOf(before);
+            String status;
+            if (significant && worse > threshold) {
+                status = REGRESSION;
+                regressions.add(key);
+            } else if (significant && worse < -threshold) {
+                status = IMPROVED;
+            } else {
+                status = UNCHANGED;
+            }
+            row(out, key, now.mode, format(before), format(now), signedPercent(change), status);
+        }
+        for (Map.Entry<String, Score> entry : baseline.entrySet()) {
+            if (!current.containsKey(entry.getKey())) {
+                row(out, entry.getKey(), entry.getValue().mode, format(entry.getValue()), "-", "-", MISSING);
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Read a JMH JSON result file, keyed by benchmark name and sorted parameters.
+     */
+    static Map<String, Score> read(File file) throws IOException {
+        Map<String, Score> scores = new TreeMap<>();
+        try (Reader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            JsonArray runs = JsonParser.parseReader(reader).getAsJsonArray();
+            for (JsonElement element : runs) {
+                JsonObject run = element.getAsJsonObject();
+                JsonObject metric = run.getAsJsonObject("primaryMetric");
+                scores.put(key(run), new Score(
+                        run.get("mode").getAsString(),
+                        metric.get("scoreUnit").getAsString(),
+                        number(metric.get("score")),
+                        number(metric.get("scoreError"))));
+            }
+        }
+        return scores;
+    }
+
+    private static String key(JsonObject run) {
+        String benchmark = run.get("benchmark").getAsString();
+        int packageEnd = benchmark.lastIndexOf('.', benchmark.lastIndexOf('.') - 1);
+        String name = benchmark.substring(packageEnd + 1);
+        JsonObject params = run.getAsJsonObject("params");
+        if (params == null || params.size() == 0) {
+            return name;
+        }
+        Map<String, String> sorted = new TreeMap<>();
+        for (Map.Entry<String, JsonElement> param : params.entrySet()) {
+            sorted.put(param.getKey(), param.getValue().getAsString());
+        }
+        StringBuilder key = new StringBuilder(name).append(" (");
+        boolean first = true;
+        for (Map.Entry<String, String> param : sorted.entrySet()) {
+            if (!first) key.append(", ");
+            key.append(param.getKey()).append('=').append(param.getValue());
+            first = false;
+        }
+        return key.append(')').toString();
+    }
+
+    /**
+     * JMH writes "NaN" as a string when the error cannot be computed (e.g. a single iteration).
+     */
+    private static double number(JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            return Double.NaN;
+        }
+        try {
+            return element.getAsDouble();
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static double errorOf(Score score) {
+        return Double.isNaN(score.error) ? 0 : score.error;
+    }
+
+    private static void row(StringBuilder out, String key, String mode, String baseline,
+                            String current, String change, String status) {
+        out.append("| ").append(key)
+                .append(" | ").append(mode)
+                .append(" | ").append(baseline)
+                .append(" | ").append(current)
+                .append(" | ").append(change)
+                .append(" | ").append(status)
+                .append(" |\n");
+    }
+
+    private static String format(Score score) {
+        String value = String.format(Locale.US, "%.3f", score.score);
+        if (!Double.isNaN(score.error)) {
+            value += String.format(Locale.US, " +- %.3f", score.error);
+        }
+        return value + " " + score.unit;
+    }
+
+    private static String signedPercent(double fraction) {
+        return String.format(Locale.US, "%+.1f%%", fraction * 100);
+    }
+
+    private static String percent(double fraction) {
+        return String.format(Locale.US, "%.0f%%", fraction * 100);
+    }
+}
@@ -0,0 +1,29 @@
+plugins {
+    `java-library`
+    alias(libs.plugins.maven.publish)
+}
+
+// Plain Java module: everything here must run on a desktop JVM, so no Android APIs
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+    withSourcesJar()
+}
+
+dependencies {
+    api(libs.gson)
+    // Nullness annotations only; not needed at runtime
+    compileOnly(libs.androidx.annotation)
+    testImplementation(libs.junit)
+}
+
+publishing {
+    publications {
+        create<MavenPublication>("release") {
+            groupId = "com.github.AvielZaman" // Change as needed
+            artifactId = "locationanalytics-core"
+            version = "1.00.00" // Change as needed
+            from(components["java"])
+        }
+    }
+}
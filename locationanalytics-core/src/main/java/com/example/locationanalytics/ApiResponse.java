@@ -12,6 +12,15 @@ public class ApiResponse<T> {
     @SerializedName("data")
     private T data;
 
+    ApiResponse() {
+    }
+
+    ApiResponse(boolean success, String message, T data) {
+        this.success = success;
+        this.message = message;
+        this.data = data;
+    }
+
     public boolean isSuccess() {
         return success;
     }
@@ -0,0 +1,17 @@
+package com.example.locationanalytics;
+
+/**
+ * What a {@link LocationStream} does with a new fix when a subscriber's buffer is full
+ * because the subscriber has not requested fixes as fast as they are recorded.
+ * Recording a fix never waits for a subscriber either way.
+ */
+public enum BackpressureStrategy {
+    /** Discard the oldest buffered fix to make room, so the subscriber catches up with the latest */
+    DROP_OLDEST,
+
+    /** Discard the new fix, so the subscriber continues where it left off */
+    DROP_NEWEST,
+
+    /** End the subscription with {@link LocationSubscriber#onError(Throwable)} */
+    ERROR
+}
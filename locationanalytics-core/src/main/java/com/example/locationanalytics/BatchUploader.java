@@ -0,0 +1,25 @@
+package com.example.locationanalytics;
+
+/**
+ * Sends batches of queued locations to {@code api/location/batch}.
+ *
+ * @internal This interface is for internal SDK use only
+ */
+interface BatchUploader {
+    /** Request header carrying the batch's idempotency key */
+    String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+
+    /** Request header carrying the batch's sequence number */
+    String SEQUENCE_HEADER = "X-Batch-Sequence";
+
+    /**
+     * Send a batch. The callback is delivered on the upload stage. A batch may be sent
+     * again after an error, always with the same contents, key and sequence number.
+     *
+     * @param locations Locations to send; must stay unchanged until the callback runs
+     * @param idempotencyKey Key the server uses to store the batch at most once
+     * @param sequence Sequence number of the batch, increasing from batch to batch
+     * @param callback Callback for handling success or error
+     */
+    void sendLocationData(LocationBuffer locations, String idempotencyKey, long sequence, UploadCallback callback);
+}
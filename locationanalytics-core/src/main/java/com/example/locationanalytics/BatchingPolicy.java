@@ -0,0 +1,32 @@
+package com.example.locationanalytics;
+
+/**
+ * Decides when buffered locations are uploaded to the server.
+ *
+ * <p>The SDK consults the policy after every recorded location and whenever a
+ * previously requested re-check is due. {@code LocationAnalyticsSDK#forceSync()} and
+ * {@code LocationAnalyticsSDK#stopTracking()} always upload immediately, regardless of
+ * the policy.</p>
+ *
+ * @see ThresholdBatchingPolicy
+ */
+public interface BatchingPolicy {
+    /**
+     * Decide whether the buffered locations should be uploaded now.
+     *
+     * @param bufferedCount Number of locations waiting to be uploaded
+     * @param oldestAgeMillis Age of the oldest buffered location in milliseconds
+     * @param bufferedBytes Approximate encoded size of the buffered locations in bytes
+     * @return true to upload now, false to keep buffering
+     */
+    boolean shouldFlush(int bufferedCount, long oldestAgeMillis, long bufferedBytes);
+
+    /**
+     * Get the delay after which the policy should be consulted again even if no new
+     * location arrives, so time-based thresholds fire while the device is idle.
+     *
+     * @param oldestAgeMillis Age of the oldest buffered location in milliseconds
+     * @return Delay in milliseconds, or a negative value if no re-check is needed
+     */
+    long getRecheckDelayMillis(long oldestAgeMillis);
+}
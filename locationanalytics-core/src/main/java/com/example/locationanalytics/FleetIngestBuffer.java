@@ -0,0 +1,320 @@
+package com.example.locationanalytics;
+
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Bounded buffer of location fixes for many tracked assets, partitioned by user ID.
+ *
+ * <p>Every asset gets its own FIFO partition. Partitions are spread over a power-of-two
+ * number of lock stripes, so producers recording fixes for different assets on different
+ * threads rarely contend, and no lock or counter is shared by all producers.</p>
+ *
+ * <p>A single consumer {@link #drain}s the partitions round-robin, taking at most
+ * {@link #FAIR_SHARE} fixes from a partition before moving on to the next one that has
+ * fixes waiting. An asset reporting far more often than the others therefore cannot
+ * starve them: every waiting asset gets its share of every drained batch, and its fixes
+ * stay contiguous within the share. Each partition holds at most the configured number
+ * of fixes; when it is full, {@link OverflowPolicy#DROP_OLDEST} discards that asset's
+ * oldest fix, so a noisy asset only ever loses its own fixes, and
+ * {@link OverflowPolicy#SPILL} hands the new fix to the spill sink instead.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class FleetIngestBuffer {
+    /** Default number of fixes buffered per asset */
+    static final int DEFAULT_CAPACITY_PER_ASSET = 256;
+
+    /** Maximum number of fixes drained from one partition before moving to the next */
+    static final int FAIR_SHARE = 32;
+
+    /**
+     * Lock stripe: guards its partitions and counters.
+     */
+    private static final class Stripe {
+        final HashMap<String, Partition> partitions = new HashMap<>();
+        /** Written under the lock, read without it for {@link #size()} */
+        volatile int buffered;
+        long dropped;
+        long spilled;
+    }
+
+    /**
+     * Circular FIFO of one asset's fixes, guarded by its stripe's lock. The columns start
+     * small and grow up to the per-asset capacity.
+     */
+    private static final class Partition {
+        final String userId;
+        final Stripe stripe;
+        double[] latitudes;
+        double[] longitudes;
+        long[] timestamps;
+        float[] accuracies;
+        String[] deviceInfos;
+        int head;
+        int count;
+        /** Whether the partition is in the ready queue or being drained */
+        boolean ready;
+
+        Partition(String userId, Stripe stripe, int initialCapacity) {
+            this.userId = userId;
+            this.stripe = stripe;
+            allocate(initialCapacity);
+        }
+
+        void add(double latitude, double longitude, long timestamp, float accuracy, String deviceInfo,
+                 int maxCapacity) {
+            if (count == latitudes.length) {
+                grow(Math.min(maxCapacity, latitudes.length * 2));
+            }
+            int index = (head + count) & (latitudes.length - 1);
+            latitudes[index] = latitude;
+            longitudes[index] = longitude;
+            timestamps[index] = timestamp;
+            accuracies[index] = accuracy;
+            deviceInfos[index] = deviceInfo;
+            count++;
+        }
+
+        void dropOldest() {
+            deviceInfos[head] = null;
+            head = (head + 1) & (latitudes.length - 1);
+            count--;
+        }
+
+        private void grow(int capacity) {
+            double[] oldLatitudes = latitudes;
+            double[] oldLongitudes = longitudes;
+            long[] oldTimestamps = timestamps;
+            float[] oldAccuracies = accuracies;
+            String[] oldDeviceInfos = deviceInfos;
+            allocate(capacity);
+            for (int i = 0; i < count; i++) {
+                int index = (head + i) & (oldLatitudes.length - 1);
+                latitudes[i] = oldLatitudes[index];
+                longitudes[i] = oldLongitudes[index];
+                timestamps[i] = oldTimestamps[index];
+                accuracies[i] = oldAccuracies[index];
+                deviceInfos[i] = oldDeviceInfos[index];
+            }
+            head = 0;
+        }
+
+        private void allocate(int capacity) {
+            latitudes = new double[capacity];
+            longitudes = new double[capacity];
+            timestamps = new long[capacity];
+            accuracies = new float[capacity];
+            deviceInfos = new String[capacity];
+        }
+    }
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+    private final int capacityPerAsset;
+    private final OverflowPolicy overflowPolicy;
+    private final LocationRingBuffer.Sink spillSink;
+    /** Partitions with fixes waiting, each at most once, in the order they are served */
+    private final ConcurrentLinkedQueue<Partition> ready = new ConcurrentLinkedQueue<>();
+
+    // Consumer-only scratch space, so sinks are called without holding a stripe lock
+    private final double[] drainLatitudes = new double[FAIR_SHARE];
+    private final double[] drainLongitudes = new double[FAIR_SHARE];
+    private final long[] drainTimestamps = new long[FAIR_SHARE];
+    private final float[] drainAccuracies = new float[FAIR_SHARE];
+    private final String[] drainDeviceInfos = new String[FAIR_SHARE];
+
+    /**
+     * Create a buffer with four lock stripes per available processor.
+     *
+     * @param capacityPerAsset Requested number of fixes per asset, rounded up to a power of two
+     * @param overflowPolicy What to do with an asset's new fixes when its partition is full
+     * @param spillSink Receives fixes that do not fit; required for {@link OverflowPolicy#SPILL}
+     */
+    FleetIngestBuffer(int capacityPerAsset, OverflowPolicy overflowPolicy, LocationRingBuffer.Sink spillSink) {
+        this(capacityPerAsset, overflowPolicy, spillSink, 4 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param capacityPerAsset Requested number of fixes per asset, rounded up to a power of two
+     * @param overflowPolicy What to do with an asset's new fixes when its partition is full
+     * @param spillSink Receives fixes that do not fit; required for {@link OverflowPolicy#SPILL}
+     * @param stripeCount Requested number of lock stripes, rounded up to a power of two
+     */
+    FleetIngestBuffer(int capacityPerAsset, OverflowPolicy overflowPolicy, LocationRingBuffer.Sink spillSink,
+                      int stripeCount) {
+        if (overflowPolicy == OverflowPolicy.SPILL && spillSink == null) {
+            throw new IllegalArgumentException("SPILL overflow policy requires a spill sink");
+        }
+        this.capacityPerAsset = Integer.highestOneBit(Math.max(2, capacityPerAsset - 1)) << 1;
+        this.overflowPolicy = overflowPolicy;
+        this.spillSink = spillSink;
+        int count = Integer.highestOneBit(Math.max(2, stripeCount - 1)) << 1;
+        stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe();
+        }
+        stripeMask = count - 1;
+    }
+
+    /**
+     * Add a fix for an asset. Safe to call from any number of threads; only fixes for
+     * assets sharing a lock stripe are serialized, and only for the time of the copy.
+     *
+     * @return true if the fix was buffered, false if it was spilled
+     */
+    boolean offer(String userId, double latitude, double longitude, long timestamp,
+                  float accuracy, String deviceInfo) {
+        Stripe stripe = stripeFor(userId);
+        Partition partition;
+        boolean becameReady = false;
+        synchronized (stripe) {
+            partition = stripe.partitions.get(userId);
+            if (partition == null) {
+                partition = new Partition(userId, stripe, Math.min(capacityPerAsset, 8));
+                stripe.partitions.put(userId, partition);
+            }
+            if (partition.count == capacityPerAsset) {
+                if (overflowPolicy == OverflowPolicy.SPILL) {
+                    stripe.spilled++;
+                    partition = null;
+                } else {
+                    partition.dropOldest();
+                    stripe.dropped++;
+                    stripe.buffered--;
+                }
+            }
+            if (partition != null) {
+                partition.add(latitude, longitude, timestamp, accuracy, deviceInfo, capacityPerAsset);
+                stripe.buffered++;
+                if (!partition.ready) {
+                    partition.ready = true;
+                    becameReady = true;
+                }
+            }
+        }
+
+        if (partition == null) {
+            spillSink.accept(userId, latitude, longitude, timestamp, accuracy, deviceInfo);
+            return false;
+        }
+        if (becameReady) {
+            ready.add(partition);
+        }
+        return true;
+    }
+
+    /**
+     * Move buffered fixes to the sink, round-robin over the assets with fixes waiting.
+     * Each asset's fixes keep their order. Only one thread may drain at a time.
+     *
+     * @param sink Receives the fixes
+     * @param maxFixes Maximum number of fixes to drain
+     * @return Number of fixes drained
+     */
+    int drain(LocationRingBuffer.Sink sink, int maxFixes) {
+        int drained = 0;
+        Partition partition;
+        while (drained < maxFixes && (partition = ready.poll()) != null) {
+            int taken;
+            boolean more;
+            synchronized (partition.stripe) {
+                taken = Math.min(partition.count, Math.min(FAIR_SHARE, maxFixes - drained));
+                int mask = partition.latitudes.length - 1;
+                for (int i = 0; i < taken; i++) {
+                    int index = (partition.head + i) & mask;
+                    drainLatitudes[i] = partition.latitudes[index];
+                    drainLongitudes[i] = partition.longitudes[index];
+                    drainTimestamps[i] = partition.timestamps[index];
+                    drainAccuracies[i] = partition.accuracies[index];
+                    drainDeviceInfos[i] = partition.deviceInfos[index];
+                    partition.deviceInfos[index] = null;
+                }
+                partition.head = (partition.head + taken) & mask;
+                partition.count -= taken;
+                partition.stripe.buffered -= taken;
+                more = partition.count > 0;
+                partition.ready = more;
+            }
+
+            for (int i = 0; i < taken; i++) {
+                sink.accept(partition.userId, drainLatitudes[i], drainLongitudes[i], drainTimestamps[i],
+                        drainAccuracies[i], drainDeviceInfos[i]);
+                drainDeviceInfos[i] = null;
+            }
+            drained += taken;
+            if (more) {
+                // Back of the line, behind every other asset waiting
+                ready.add(partition);
+            }
+        }
+        return drained;
+    }
+
+    /**
+     * @return Approximate number of buffered fixes, over all assets
+     */
+    int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.buffered;
+        }
+        return size;
+    }
+
+    boolean isEmpty() {
+        return ready.isEmpty();
+    }
+
+    /**
+     * @return Number of assets a fix was ever offered for
+     */
+    int getAssetCount() {
+        int count = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                count += stripe.partitions.size();
+            }
+        }
+        return count;
+    }
+
+    int getStripeCount() {
+        return stripes.length;
+    }
+
+    int capacityPerAsset() {
+        return capacityPerAsset;
+    }
+
+    /**
+     * @return Number of fixes discarded under {@link OverflowPolicy#DROP_OLDEST}
+     */
+    long getDroppedCount() {
+        long dropped = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                dropped += stripe.dropped;
+            }
+        }
+        return dropped;
+    }
+
+    /**
+     * @return Number of fixes handed to the spill sink under {@link OverflowPolicy#SPILL}
+     */
+    long getSpilledCount() {
+        long spilled = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                spilled += stripe.spilled;
+            }
+        }
+        return spilled;
+    }
+
+    private Stripe stripeFor(String userId) {
+        int hash = userId.hashCode();
+        return stripes[(hash ^ (hash >>> 16)) & stripeMask];
+    }
+}
@@ -0,0 +1,30 @@
+package com.example.locationanalytics;
+
+/**
+ * Geographic helpers shared by the on-device analytics. Formulas match the server's
+ * {@code geoUtils.js} so local and server results agree.
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class GeoUtils {
+    static final double EARTH_RADIUS_METERS = 6371000;
+
+    private GeoUtils() {
+    }
+
+    /**
+     * Haversine distance between two coordinates.
+     *
+     * @return Distance in meters
+     */
+    static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double phi1 = Math.toRadians(lat1);
+        double phi2 = Math.toRadians(lat2);
+        double deltaPhi = Math.toRadians(lat2 - lat1);
+        double deltaLambda = Math.toRadians(lon2 - lon1);
+
+        double a = Math.sin(deltaPhi / 2) * Math.sin(deltaPhi / 2)
+                + Math.cos(phi1) * Math.cos(phi2) * Math.sin(deltaLambda / 2) * Math.sin(deltaLambda / 2);
+        return EARTH_RADIUS_METERS * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+}
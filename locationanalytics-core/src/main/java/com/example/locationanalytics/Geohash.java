@@ -0,0 +1,78 @@
+package com.example.locationanalytics;
+
+/**
+ * Geohash cells, addressed by row and column for arithmetic and by their base-32 string
+ * for display. Must match {@code geohash*} in the server's {@code geoUtils.js}.
+ *
+ * <p>A geohash of precision {@code p} has {@code 5p} bits, interleaved starting with
+ * longitude, so it splits longitude into {@code 2^ceil(5p/2)} columns and latitude into
+ * {@code 2^floor(5p/2)} rows. At precision 7 a cell is about 150 by 150 m, at 8 about
+ * 40 by 20 m.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class Geohash {
+    static final int MIN_PRECISION = 1;
+    static final int MAX_PRECISION = 12;
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private Geohash() {
+    }
+
+    /**
+     * @return Row of the cell containing a latitude, counted from the south pole
+     */
+    static int row(double latitude, int precision) {
+        int rows = 1 << latitudeBits(precision);
+        return (int) Math.max(0, Math.min(rows - 1, Math.floor((latitude + 90) / 180 * rows)));
+    }
+
+    /**
+     * @return Column of the cell containing a longitude, counted from the antimeridian eastwards
+     */
+    static int column(double longitude, int precision) {
+        int columns = 1 << longitudeBits(precision);
+        return (int) Math.max(0, Math.min(columns - 1, Math.floor((longitude + 180) / 360 * columns)));
+    }
+
+    /**
+     * @return Latitude of the center of a row
+     */
+    static double centerLatitude(int row, int precision) {
+        return (row + 0.5) * 180 / (1 << latitudeBits(precision)) - 90;
+    }
+
+    /**
+     * @return Longitude of the center of a column
+     */
+    static double centerLongitude(int column, int precision) {
+        return (column + 0.5) * 360 / (1 << longitudeBits(precision)) - 180;
+    }
+
+    /**
+     * @return Geohash string of a cell, e.g. {@code sv8wx2z} for central Tel Aviv at precision 7
+     */
+    static String encode(int row, int column, int precision) {
+        char[] hash = new char[precision];
+        int latitudeBit = latitudeBits(precision);
+        int longitudeBit = longitudeBits(precision);
+        for (int i = 0; i < precision; i++) {
+            int digit = 0;
+            for (int bit = i * 5; bit < i * 5 + 5; bit++) {
+                int value = bit % 2 == 0 ? column >>> --longitudeBit : row >>> --latitudeBit;
+                digit = digit << 1 | value & 1;
+            }
+            hash[i] = BASE32[digit];
+        }
+        return new String(hash);
+    }
+
+    static int latitudeBits(int precision) {
+        return precision * 5 / 2;
+    }
+
+    static int longitudeBits(int precision) {
+        return (precision * 5 + 1) / 2;
+    }
+}
@@ -0,0 +1,300 @@
+package com.example.locationanalytics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Heatmap counts of recorded fixes, aggregated on the device per UTC day and per web map
+ * tile at each of the {@link #ZOOM_LEVELS}, so the server can draw a heatmap without
+ * storing and reading every point.
+ *
+ * <p>Every tile is split into {@link #BINS_PER_SIDE} by {@link #BINS_PER_SIDE} bins, and a
+ * fix increments one bin per zoom level. Counts are kept per user in open-addressing maps
+ * of primitive keys, so counting allocates nothing once the maps have grown. The key of a
+ * bin orders bins by day, zoom level, tile and position in the tile, so the bins of a tile
+ * are adjacent once sorted.</p>
+ *
+ * <p>Counts are uploaded as deltas: {@link #seal()} moves the counts so far into a
+ * {@link Snapshot} with its own idempotency key, and new fixes are counted afresh. A
+ * snapshot the server did not acknowledge is sealed again, unchanged and with the same key,
+ * before any newer counts, so the server adds every count exactly once. At most
+ * {@link #MAX_PENDING_BINS} bins are waiting at a time; beyond that, fixes falling into new
+ * bins are dropped from the heatmap. Counts are held in memory only.</p>
+ *
+ * <p>Thread-safe.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class HeatmapTiles {
+    /** Zoom levels counts are kept for: city, neighborhood and street */
+    static final int[] ZOOM_LEVELS = {10, 13, 16};
+
+    /** log2 of {@link #BINS_PER_SIDE} */
+    static final int BIN_BITS = 4;
+
+    /** Bins per tile side; a bin is 16 pixels of a 256-pixel tile */
+    static final int BINS_PER_SIDE = 1 << BIN_BITS;
+
+    /** Cap on the bins waiting for upload, about 600 KB */
+    static final int MAX_PENDING_BINS = 50_000;
+
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+    private static final double MAX_LATITUDE = 85.05112878;
+
+    // Key layout: day (21 bits) | zoom index (2) | tile x (16) | tile y (16) | bin (8)
+    private static final int BIN_SHIFT = 0;
+    private static final int TILE_Y_SHIFT = 2 * BIN_BITS;
+    private static final int TILE_X_SHIFT = TILE_Y_SHIFT + 16;
+    private static final int ZOOM_SHIFT = TILE_X_SHIFT + 16;
+    private static final int DAY_SHIFT = ZOOM_SHIFT + 2;
+
+    private final Map<String, BinCounts> pending = new HashMap<>();
+    private int pendingBins;
+    private int pendingFixes;
+    /** Sealed but not acknowledged, sealed again before anything newer */
+    private Snapshot unacknowledged;
+    private boolean sealed;
+    private long droppedCount;
+
+    /**
+     * Counts of one user's sealed bins, sorted by key.
+     */
+    static final class UserTiles {
+        final String userId;
+        final long[] keys;
+        final int[] counts;
+
+        UserTiles(String userId, long[] keys, int[] counts) {
+            this.userId = userId;
+            this.keys = keys;
+            this.counts = counts;
+        }
+    }
+
+    /**
+     * Counts sealed for one upload. Pass it back to {@link #acknowledge(Snapshot)} or
+     * {@link #release(Snapshot)} once the upload finished.
+     */
+    static final class Snapshot {
+        final String idempotencyKey;
+        final List<UserTiles> users;
+        final int fixCount;
+
+        Snapshot(String idempotencyKey, List<UserTiles> users, int fixCount) {
+            this.idempotencyKey = idempotencyKey;
+            this.users = users;
+            this.fixCount = fixCount;
+        }
+    }
+
+    /**
+     * Count a fix.
+     */
+    synchronized void add(String userId, double latitude, double longitude, long timestamp) {
+        BinCounts counts = pending.get(userId);
+        if (counts == null) {
+            counts = new BinCounts();
+            pending.put(userId, counts);
+        }
+        long day = Math.max(0, timestamp / DAY_MILLIS);
+        double x = (longitude + 180) / 360;
+        double sinLatitude = Math.sin(Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude))));
+        double y = 0.5 - Math.log((1 + sinLatitude) / (1 - sinLatitude)) / (4 * Math.PI);
+        int counted = 0;
+        for (int zoom = 0; zoom < ZOOM_LEVELS.length; zoom++) {
+            long key = key(day, zoom, x, y);
+            if (counts.increment(key)) {
+                counted++;
+            } else if (pendingBins < MAX_PENDING_BINS) {
+                counts.add(key);
+                pendingBins++;
+                counted++;
+            }
+        }
+        if (counted > 0) {
+            pendingFixes++;
+        }
+        if (counted < ZOOM_LEVELS.length) {
+            droppedCount++;
+        }
+    }
+
+    /**
+     * Seal the counts for an upload: the last unacknowledged snapshot if there is one,
+     * otherwise all counts so far.
+     *
+     * @return The snapshot, or null if there is nothing to upload or a snapshot is being uploaded
+     */
+    synchronized Snapshot seal() {
+        if (sealed) return null;
+        if (unacknowledged == null) {
+            if (pendingFixes == 0) return null;
+            List<UserTiles> users = new ArrayList<>(pending.size());
+            for (Map.Entry<String, BinCounts> entry : pending.entrySet()) {
+                if (entry.getValue().size > 0) {
+                    users.add(entry.getValue().toSortedTiles(entry.getKey()));
+                }
+            }
+            unacknowledged = new Snapshot(UUID.randomUUID().toString(), users, pendingFixes);
+            pending.clear();
+            pendingBins = 0;
+            pendingFixes = 0;
+        }
+        sealed = true;
+        return unacknowledged;
+    }
+
+    /**
+     * The server stored the snapshot; forget it.
+     */
+    synchronized void acknowledge(Snapshot snapshot) {
+        if (snapshot != unacknowledged) return;
+        unacknowledged = null;
+        sealed = false;
+    }
+
+    /**
+     * The upload of the snapshot failed; keep it for the next {@link #seal()}.
+     */
+    synchronized void release(Snapshot snapshot) {
+        if (snapshot != unacknowledged) return;
+        sealed = false;
+    }
+
+    /**
+     * @return Number of bins counted and not yet sealed
+     */
+    synchronized int getPendingBinCount() {
+        return pendingBins;
+    }
+
+    /**
+     * @return Number of fixes left out of at least one zoom level because
+     *         {@link #MAX_PENDING_BINS} was reached
+     */
+    synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    static long day(long key) {
+        return key >>> DAY_SHIFT;
+    }
+
+    static int zoom(long key) {
+        return ZOOM_LEVELS[(int) (key >>> ZOOM_SHIFT) & 0x3];
+    }
+
+    static int tileX(long key) {
+        return (int) (key >>> TILE_X_SHIFT) & 0xffff;
+    }
+
+    static int tileY(long key) {
+        return (int) (key >>> TILE_Y_SHIFT) & 0xffff;
+    }
+
+    /**
+     * @return Bin within the tile, {@code row * BINS_PER_SIDE + column}
+     */
+    static int bin(long key) {
+        return (int) (key >>> BIN_SHIFT) & 0xff;
+    }
+
+    /**
+     * @return Key of the bin containing the tile coordinates {@code x} and {@code y}, from 0 to 1
+     */
+    private static long key(long day, int zoomIndex, double x, double y) {
+        int bins = 1 << (ZOOM_LEVELS[zoomIndex] + BIN_BITS);
+        int binX = (int) Math.max(0, Math.min(bins - 1, Math.floor(x * bins)));
+        int binY = (int) Math.max(0, Math.min(bins - 1, Math.floor(y * bins)));
+        return day << DAY_SHIFT
+                | (long) zoomIndex << ZOOM_SHIFT
+                | (long) (binX >>> BIN_BITS) << TILE_X_SHIFT
+                | (long) (binY >>> BIN_BITS) << TILE_Y_SHIFT
+                | (long) ((binY & BINS_PER_SIDE - 1) << BIN_BITS | binX & BINS_PER_SIDE - 1) << BIN_SHIFT;
+    }
+
+    /**
+     * Open-addressing map from bin key to count. Keys are never negative, so -1 marks a free slot.
+     */
+    private static final class BinCounts {
+        private static final long FREE = -1;
+
+        long[] keys = newKeys(256);
+        int[] counts = new int[256];
+        int size;
+
+        /**
+         * @return Whether the bin was already counted, and is now counted once more
+         */
+        boolean increment(long key) {
+            int slot = slot(keys, key);
+            if (keys[slot] != key) return false;
+            counts[slot]++;
+            return true;
+        }
+
+        /**
+         * Add a bin not counted yet, with a count of one.
+         */
+        void add(long key) {
+            if (size + 1 > keys.length / 2) {
+                grow();
+            }
+            int slot = slot(keys, key);
+            keys[slot] = key;
+            counts[slot] = 1;
+            size++;
+        }
+
+        UserTiles toSortedTiles(String userId) {
+            long[] sortedKeys = new long[size];
+            int n = 0;
+            for (long key : keys) {
+                if (key != FREE) sortedKeys[n++] = key;
+            }
+            Arrays.sort(sortedKeys);
+            int[] sortedCounts = new int[size];
+            for (int i = 0; i < size; i++) {
+                sortedCounts[i] = counts[slot(keys, sortedKeys[i])];
+            }
+            return new UserTiles(userId, sortedKeys, sortedCounts);
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            int[] oldCounts = counts;
+            keys = newKeys(oldKeys.length * 2);
+            counts = new int[oldKeys.length * 2];
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != FREE) {
+                    int slot = slot(keys, oldKeys[i]);
+                    keys[slot] = oldKeys[i];
+                    counts[slot] = oldCounts[i];
+                }
+            }
+        }
+
+        /**
+         * @return Slot holding the key, or the free slot where it belongs
+         */
+        private static int slot(long[] keys, long key) {
+            int mask = keys.length - 1;
+            // Fibonacci hashing spreads the mostly sequential keys
+            int slot = (int) (key * 0x9E3779B97F4A7C15L >>> 40) & mask;
+            while (keys[slot] != FREE && keys[slot] != key) {
+                slot = slot + 1 & mask;
+            }
+            return slot;
+        }
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, FREE);
+            return keys;
+        }
+    }
+}
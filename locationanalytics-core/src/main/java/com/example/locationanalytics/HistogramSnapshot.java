@@ -0,0 +1,105 @@
+package com.example.locationanalytics;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Snapshot of a histogram aggregated by {@link InMemoryMetricsSink}.
+ */
+public class HistogramSnapshot {
+    private final long count;
+    private final long sum;
+    private final long min;
+    private final long max;
+    private final long[] buckets;
+
+    HistogramSnapshot(long count, long sum, long min, long max, long[] buckets) {
+        this.count = count;
+        this.sum = sum;
+        this.min = min;
+        this.max = max;
+        this.buckets = buckets;
+    }
+
+    /**
+     * Get the number of samples.
+     * @return Sample count
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Get the sum of all samples.
+     * @return Sum of samples
+     */
+    public long getSum() {
+        return sum;
+    }
+
+    /**
+     * Get the smallest sample.
+     * @return Minimum, or 0 if there are no samples
+     */
+    public long getMin() {
+        return min;
+    }
+
+    /**
+     * Get the largest sample.
+     * @return Maximum, or 0 if there are no samples
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Get the average of all samples.
+     * @return Mean, or 0 if there are no samples
+     */
+    public double getMean() {
+        return count > 0 ? (double) sum / count : 0;
+    }
+
+    /**
+     * Estimate a percentile. The result is the upper bound of the bucket holding the
+     * percentile, at most 25% above the true value and never above the maximum.
+     *
+     * @param percentile Percentile between 0 and 100, e.g. 99 for the 99th percentile
+     * @return Estimated value, or 0 if there are no samples
+     * @throws IllegalArgumentException if the percentile is outside 0 to 100
+     */
+    public long getPercentile(double percentile) {
+        if (!(percentile >= 0 && percentile <= 100)) {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+        long total = 0;
+        for (long bucket : buckets) {
+            total += bucket;
+        }
+        if (total == 0) return 0;
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return Math.max(min, Math.min(max, InMemoryMetricsSink.bucketUpperBound(i)));
+            }
+        }
+        return max;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "HistogramSnapshot{" +
+                "count=" + count +
+                ", mean=" + getMean() +
+                ", min=" + min +
+                ", p50=" + getPercentile(50) +
+                ", p95=" + getPercentile(95) +
+                ", p99=" + getPercentile(99) +
+                ", max=" + max +
+                '}';
+    }
+}
@@ -0,0 +1,168 @@
+package com.example.locationanalytics;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Default {@link MetricsSink}: aggregates counters and histograms in memory, with a few
+ * lock-free atomic updates per sample and no allocation.
+ *
+ * <p>Histograms use log-linear buckets, four per power of two, so percentiles are
+ * estimated within 25% of the true value while the memory per histogram stays fixed.
+ * Count, sum, minimum and maximum are exact.</p>
+ *
+ * <p>Example:</p>
+ * <pre>
+ * InMemoryMetricsSink metrics = new InMemoryMetricsSink();
+ * LocationAnalyticsSDK sdk = new LocationAnalyticsSDK.Builder(context)
+ *     ...
+ *     .setMetricsSink(metrics)
+ *     .build();
+ *
+ * long p95 = metrics.getHistogram(Metric.FIX_TO_ACK_MILLIS).getPercentile(95);
+ * </pre>
+ */
+public class InMemoryMetricsSink implements MetricsSink {
+    /** Sub-buckets per power of two */
+    private static final int SUB_BUCKET_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Buckets covering every non-negative long */
+    static final int BUCKET_COUNT = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int MIN = 2;
+    private static final int MAX = 3;
+    private static final int HEADER = 4;
+
+    private final AtomicLongArray counters = new AtomicLongArray(Metric.values().length);
+    /** Per histogram: count, sum, min, max, then the bucket counts */
+    private final AtomicLongArray[] histograms = new AtomicLongArray[Metric.values().length];
+
+    public InMemoryMetricsSink() {
+        for (Metric metric : Metric.values()) {
+            if (metric.getKind() == Metric.Kind.HISTOGRAM) {
+                histograms[metric.ordinal()] = newHistogram();
+            }
+        }
+    }
+
+    @Override
+    public void increment(Metric metric, long delta) {
+        counters.addAndGet(metric.ordinal(), delta);
+    }
+
+    @Override
+    public void record(Metric metric, long value) {
+        AtomicLongArray histogram = histograms[metric.ordinal()];
+        if (histogram == null) return;
+        long sample = Math.max(0, value);
+        histogram.incrementAndGet(COUNT);
+        histogram.addAndGet(SUM, sample);
+        long min;
+        while (sample < (min = histogram.get(MIN)) && !histogram.compareAndSet(MIN, min, sample)) {
+            // Retry against the newer minimum
+        }
+        long max;
+        while (sample > (max = histogram.get(MAX)) && !histogram.compareAndSet(MAX, max, sample)) {
+            // Retry against the newer maximum
+        }
+        histogram.incrementAndGet(HEADER + bucketIndex(sample));
+    }
+
+    /**
+     * Get the current value of a counter.
+     *
+     * @param metric A metric of kind {@link Metric.Kind#COUNTER}
+     * @return The counter's total since creation or the last {@link #reset()}
+     */
+    public long getCount(Metric metric) {
+        return counters.get(metric.ordinal());
+    }
+
+    /**
+     * Get a snapshot of a histogram. Samples recorded while the snapshot is taken may be
+     * partially included.
+     *
+     * @param metric A metric of kind {@link Metric.Kind#HISTOGRAM}
+     * @return The histogram's samples since creation or the last {@link #reset()}
+     * @throws IllegalArgumentException if the metric is not a histogram
+     */
+    public HistogramSnapshot getHistogram(Metric metric) {
+        AtomicLongArray histogram = histograms[metric.ordinal()];
+        if (histogram == null) {
+            throw new IllegalArgumentException(metric + " is not a histogram");
+        }
+        long[] buckets = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets[i] = histogram.get(HEADER + i);
+        }
+        long count = histogram.get(COUNT);
+        return new HistogramSnapshot(count, histogram.get(SUM),
+                count > 0 ? histogram.get(MIN) : 0, count > 0 ? histogram.get(MAX) : 0, buckets);
+    }
+
+    /**
+     * Clear all counters and histograms, e.g. after exporting them.
+     */
+    public void reset() {
+        for (int i = 0; i < counters.length(); i++) {
+            counters.set(i, 0);
+        }
+        for (AtomicLongArray histogram : histograms) {
+            if (histogram == null) continue;
+            for (int i = 0; i < histogram.length(); i++) {
+                histogram.set(i, 0);
+            }
+            histogram.set(MIN, Long.MAX_VALUE);
+        }
+    }
+
+    private static AtomicLongArray newHistogram() {
+        AtomicLongArray histogram = new AtomicLongArray(HEADER + BUCKET_COUNT);
+        histogram.set(MIN, Long.MAX_VALUE);
+        return histogram;
+    }
+
+    /**
+     * @return Bucket holding a non-negative value
+     */
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return Largest value that falls into a bucket
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        long lowerBound = (SUB_BUCKETS + subBucket) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("InMemoryMetricsSink{");
+        for (Metric metric : Metric.values()) {
+            if (metric.ordinal() > 0) {
+                builder.append(", ");
+            }
+            builder.append(metric).append('=');
+            if (metric.getKind() == Metric.Kind.COUNTER) {
+                builder.append(getCount(metric));
+            } else {
+                builder.append(getHistogram(metric));
+            }
+        }
+        return builder.append('}').toString();
+    }
+}
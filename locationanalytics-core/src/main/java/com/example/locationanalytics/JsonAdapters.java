@@ -0,0 +1,566 @@
+package com.example.locationanalytics;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hand-written streaming JSON adapters for the SDK's wire types.
+ *
+ * <p>Each adapter reads its object in a single pass over a {@link JsonReader}, skipping
+ * unknown fields, and writes it directly to a {@link JsonWriter}. Gson therefore never
+ * reflects over these classes, which avoids the class inspection on the first request and
+ * the intermediate objects of the reflective adapters. Field names match the
+ * {@code @SerializedName} annotations on the model classes, and null fields are omitted on
+ * output like Gson's default.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class JsonAdapters {
+    /** Registers the adapters below with a {@link Gson} instance */
+    static final TypeAdapterFactory FACTORY = new TypeAdapterFactory() {
+        @Override
+        @SuppressWarnings("unchecked")
+        public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+            Class<? super T> rawType = type.getRawType();
+            if (rawType == LocationData.class) {
+                return (TypeAdapter<T>) LOCATION_DATA;
+            } else if (rawType == UserStatistics.class) {
+                return (TypeAdapter<T>) USER_STATISTICS;
+            } else if (rawType == UserStatistics.LocationStop.class) {
+                return (TypeAdapter<T>) LOCATION_STOP;
+            } else if (rawType == ApiResponse.class) {
+                return (TypeAdapter<T>) apiResponseAdapter(gson, type.getType());
+            }
+            return null;
+        }
+    };
+
+    static final TypeAdapter<LocationData> LOCATION_DATA = new TypeAdapter<LocationData>() {
+        @Override
+        public void write(JsonWriter out, LocationData location) throws IOException {
+            if (location == null) {
+                out.nullValue();
+                return;
+            }
+            writeLocation(out, location.getUserId(), location.getLatitude(), location.getLongitude(),
+                    location.getTimestamp(), location.getAccuracy(), location.getDeviceInfo());
+        }
+
+        @Override
+        public LocationData read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String userId = null;
+            double latitude = 0;
+            double longitude = 0;
+            long timestamp = 0;
+            float accuracy = 0;
+            String deviceInfo = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "user_id":
+                        userId = nextString(in);
+                        break;
+                    case "latitude":
+                        latitude = nextDouble(in);
+                        break;
+                    case "longitude":
+                        longitude = nextDouble(in);
+                        break;
+                    case "timestamp":
+                        timestamp = nextLong(in);
+                        break;
+                    case "accuracy":
+                        accuracy = (float) nextDouble(in);
+                        break;
+                    case "device_info":
+                        deviceInfo = nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new LocationData(userId, latitude, longitude, timestamp, accuracy, deviceInfo);
+        }
+    };
+
+    static final TypeAdapter<UserStatistics.LocationStop> LOCATION_STOP = new TypeAdapter<UserStatistics.LocationStop>() {
+        @Override
+        public void write(JsonWriter out, UserStatistics.LocationStop stop) throws IOException {
+            if (stop == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("latitude").value(stop.getLatitude());
+            out.name("longitude").value(stop.getLongitude());
+            out.name("visit_count").value(stop.getVisitCount());
+            out.name("average_duration_minutes").value(stop.getAverageDurationMinutes());
+            if (stop.getName() != null) {
+                out.name("name").value(stop.getName());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public UserStatistics.LocationStop read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            double latitude = 0;
+            double longitude = 0;
+            int visitCount = 0;
+            double averageDurationMinutes = 0;
+            String name = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "latitude":
+                        latitude = nextDouble(in);
+                        break;
+                    case "longitude":
+                        longitude = nextDouble(in);
+                        break;
+                    case "visit_count":
+                        visitCount = nextInt(in);
+                        break;
+                    case "average_duration_minutes":
+                        averageDurationMinutes = nextDouble(in);
+                        break;
+                    case "name":
+                        name = nextString(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new UserStatistics.LocationStop(latitude, longitude, visitCount, averageDurationMinutes, name);
+        }
+    };
+
+    static final TypeAdapter<UserStatistics> USER_STATISTICS = new TypeAdapter<UserStatistics>() {
+        @Override
+        public void write(JsonWriter out, UserStatistics statistics) throws IOException {
+            if (statistics == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            if (statistics.getUserId() != null) {
+                out.name("user_id").value(statistics.getUserId());
+            }
+            out.name("total_locations").value(statistics.getTotalLocations());
+            out.name("distance_traveled_meters").value(statistics.getDistanceTraveledMeters());
+            out.name("first_location_timestamp").value(statistics.getFirstLocationTimestamp());
+            out.name("last_location_timestamp").value(statistics.getLastLocationTimestamp());
+            if (statistics.getCityVisits() != null) {
+                out.name("city_visits").beginObject();
+                for (Map.Entry<String, Integer> entry : statistics.getCityVisits().entrySet()) {
+                    if (entry.getValue() == null) continue;
+                    out.name(String.valueOf(entry.getKey())).value(entry.getValue().intValue());
+                }
+                out.endObject();
+            }
+            if (statistics.getCommonStops() != null) {
+                out.name("common_stops").beginArray();
+                for (UserStatistics.LocationStop stop : statistics.getCommonStops()) {
+                    LOCATION_STOP.write(out, stop);
+                }
+                out.endArray();
+            }
+            if (statistics.getActivityHours() != null) {
+                out.name("activity_hours").beginObject();
+                for (Map.Entry<Integer, Integer> entry : statistics.getActivityHours().entrySet()) {
+                    if (entry.getValue() == null) continue;
+                    out.name(String.valueOf(entry.getKey())).value(entry.getValue().intValue());
+                }
+                out.endObject();
+            }
+            out.name("delta").value(statistics.isDelta());
+            out.endObject();
+        }
+
+        @Override
+        public UserStatistics read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            String userId = null;
+            int totalLocations = 0;
+            double distanceTraveledMeters = 0;
+            long firstLocationTimestamp = 0;
+            long lastLocationTimestamp = 0;
+            Map<String, Integer> cityVisits = null;
+            List<UserStatistics.LocationStop> commonStops = null;
+            Map<Integer, Integer> activityHours = null;
+            boolean delta = false;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "user_id":
+                        userId = nextString(in);
+                        break;
+                    case "total_locations":
+                        totalLocations = nextInt(in);
+                        break;
+                    case "distance_traveled_meters":
+                        distanceTraveledMeters = nextDouble(in);
+                        break;
+                    case "first_location_timestamp":
+                        firstLocationTimestamp = nextLong(in);
+                        break;
+                    case "last_location_timestamp":
+                        lastLocationTimestamp = nextLong(in);
+                        break;
+                    case "city_visits":
+                        cityVisits = readCounts(in);
+                        break;
+                    case "common_stops":
+                        commonStops = readStops(in);
+                        break;
+                    case "activity_hours":
+                        activityHours = readHourCounts(in);
+                        break;
+                    case "delta":
+                        delta = nextBoolean(in);
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new UserStatistics(userId, totalLocations, distanceTraveledMeters, firstLocationTimestamp,
+                    lastLocationTimestamp, cityVisits, commonStops, activityHours, delta);
+        }
+    };
+
+    /**
+     * Adapter for {@link ApiResponse} envelopes. The {@code data} field is read with the
+     * adapter of the type argument, and skipped for {@code ApiResponse<Void>}.
+     */
+    private static final class ApiResponseAdapter<T> extends TypeAdapter<ApiResponse<T>> {
+        private final TypeAdapter<T> dataAdapter;
+
+        ApiResponseAdapter(TypeAdapter<T> dataAdapter) {
+            this.dataAdapter = dataAdapter;
+        }
+
+        @Override
+        public void write(JsonWriter out, ApiResponse<T> response) throws IOException {
+            if (response == null) {
+                out.nullValue();
+                return;
+            }
+            out.beginObject();
+            out.name("success").value(response.isSuccess());
+            if (response.getMessage() != null) {
+                out.name("message").value(response.getMessage());
+            }
+            if (dataAdapter != null && response.getData() != null) {
+                out.name("data");
+                dataAdapter.write(out, response.getData());
+            }
+            out.endObject();
+        }
+
+        @Override
+        public ApiResponse<T> read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+            boolean success = false;
+            String message = null;
+            T data = null;
+
+            in.beginObject();
+            while (in.hasNext()) {
+                switch (in.nextName()) {
+                    case "success":
+                        success = nextBoolean(in);
+                        break;
+                    case "message":
+                        message = nextString(in);
+                        break;
+                    case "data":
+                        if (dataAdapter != null) {
+                            data = dataAdapter.read(in);
+                        } else {
+                            in.skipValue();
+                        }
+                        break;
+                    default:
+                        in.skipValue();
+                }
+            }
+            in.endObject();
+            return new ApiResponse<>(success, message, data);
+        }
+    }
+
+    private JsonAdapters() {
+    }
+
+    /**
+     * Write one upload request body, {@code {"apiKey": ..., "locations": [...]}}, straight
+     * from the buffer's columns without creating {@link LocationData} views.
+     */
+    static void writeLocationBatch(JsonWriter out, String apiKey, LocationBuffer locations) throws IOException {
+        out.beginObject();
+        if (apiKey != null) {
+            out.name("apiKey").value(apiKey);
+        }
+        out.name("locations").beginArray();
+        for (int i = 0; i < locations.size(); i++) {
+            writeLocation(out, locations.getUserId(i), locations.getLatitude(i), locations.getLongitude(i),
+                    locations.getTimestamp(i), locations.getAccuracy(i), locations.getDeviceInfo(i));
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    /**
+     * Write one heatmap upload request body,
+     * {@code {"apiKey": ..., "bin_bits": 4, "users": [{"user_id": ..., "tiles": [...]}]}}, where
+     * every tile is {@code {"day": ..., "z": ..., "x": ..., "y": ..., "bins": [bin, count, ...]}}.
+     */
+    static void writeHeatmapTiles(JsonWriter out, String apiKey, HeatmapTiles.Snapshot snapshot) throws IOException {
+        out.beginObject();
+        if (apiKey != null) {
+            out.name("apiKey").value(apiKey);
+        }
+        out.name("bin_bits").value(HeatmapTiles.BIN_BITS);
+        out.name("users").beginArray();
+        for (HeatmapTiles.UserTiles user : snapshot.users) {
+            out.beginObject();
+            if (user.userId != null) {
+                out.name("user_id").value(user.userId);
+            }
+            out.name("tiles").beginArray();
+            long[] keys = user.keys;
+            for (int start = 0; start < keys.length; ) {
+                long tile = keys[start] - HeatmapTiles.bin(keys[start]);
+                out.beginObject();
+                out.name("day").value(HeatmapTiles.day(tile));
+                out.name("z").value(HeatmapTiles.zoom(tile));
+                out.name("x").value(HeatmapTiles.tileX(tile));
+                out.name("y").value(HeatmapTiles.tileY(tile));
+                out.name("bins").beginArray();
+                int i = start;
+                // Keys are sorted and the bin is their lowest part, so a tile's bins are adjacent
+                for (; i < keys.length && keys[i] - HeatmapTiles.bin(keys[i]) == tile; i++) {
+                    out.value(HeatmapTiles.bin(keys[i]));
+                    out.value(user.counts[i]);
+                }
+                out.endArray();
+                out.endObject();
+                start = i;
+            }
+            out.endArray();
+            out.endObject();
+        }
+        out.endArray();
+        out.endObject();
+    }
+
+    /**
+     * Read one page of {@code api/locations},
+     * {@code {"success": true, "data": [...], "message": ..., "next_cursor": ...}}, one location
+     * at a time as the response arrives, adding the locations to {@code out}.
+     *
+     * @param maxLocations Locations allowed in the page; a longer page is an error rather than
+     *                     held in memory
+     * @return Cursor of the following page, or null if this is the last page
+     * @throws IOException if the response is malformed, too long or reports a failure
+     */
+    static String readLocationPage(JsonReader in, int maxLocations, List<LocationData> out) throws IOException {
+        boolean success = false;
+        String message = null;
+        String nextCursor = null;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "success":
+                    success = nextBoolean(in);
+                    break;
+                case "message":
+                    message = nextString(in);
+                    break;
+                case "next_cursor":
+                    nextCursor = nextString(in);
+                    break;
+                case "data":
+                    if (in.peek() == JsonToken.NULL) {
+                        in.nextNull();
+                        break;
+                    }
+                    in.beginArray();
+                    while (in.hasNext()) {
+                        if (out.size() >= maxLocations) {
+                            throw new IOException("Page longer than " + maxLocations + " locations at " + in.getPath());
+                        }
+                        out.add(LOCATION_DATA.read(in));
+                    }
+                    in.endArray();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        if (!success) {
+            throw new IOException(message != null ? message : "Unknown error");
+        }
+        return nextCursor;
+    }
+
+    private static void writeLocation(JsonWriter out, String userId, double latitude, double longitude,
+                                      long timestamp, float accuracy, String deviceInfo) throws IOException {
+        out.beginObject();
+        if (userId != null) {
+            out.name("user_id").value(userId);
+        }
+        out.name("latitude").value(latitude);
+        out.name("longitude").value(longitude);
+        out.name("timestamp").value(timestamp);
+        out.name("accuracy").value(accuracy);
+        if (deviceInfo != null) {
+            out.name("device_info").value(deviceInfo);
+        }
+        out.endObject();
+    }
+
+    private static TypeAdapter<?> apiResponseAdapter(Gson gson, Type type) {
+        Type dataType = type instanceof ParameterizedType
+                ? ((ParameterizedType) type).getActualTypeArguments()[0]
+                : Object.class;
+        if (dataType == Void.class) {
+            return new ApiResponseAdapter<>(null);
+        }
+        return new ApiResponseAdapter<>(gson.getAdapter(TypeToken.get(dataType)));
+    }
+
+    private static Map<String, Integer> readCounts(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Map<String, Integer> counts = new HashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String key = in.nextName();
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else {
+                counts.put(key, in.nextInt());
+            }
+        }
+        in.endObject();
+        return counts;
+    }
+
+    private static Map<Integer, Integer> readHourCounts(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        Map<Integer, Integer> counts = new HashMap<>();
+        in.beginObject();
+        while (in.hasNext()) {
+            String key = in.nextName();
+            int hour;
+            try {
+                hour = Integer.parseInt(key);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid activity hour '" + key + "' at " + in.getPath(), e);
+            }
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else {
+                counts.put(hour, in.nextInt());
+            }
+        }
+        in.endObject();
+        return counts;
+    }
+
+    private static List<UserStatistics.LocationStop> readStops(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        List<UserStatistics.LocationStop> stops = new ArrayList<>();
+        in.beginArray();
+        while (in.hasNext()) {
+            stops.add(LOCATION_STOP.read(in));
+        }
+        in.endArray();
+        return stops;
+    }
+
+    // Null-tolerant primitives: a JSON null leaves the field at its default, as with reflection
+
+    private static String nextString(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+        return in.nextString();
+    }
+
+    private static double nextDouble(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return 0;
+        }
+        return in.nextDouble();
+    }
+
+    private static long nextLong(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return 0;
+        }
+        return in.nextLong();
+    }
+
+    private static int nextInt(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return 0;
+        }
+        return in.nextInt();
+    }
+
+    private static boolean nextBoolean(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return false;
+        }
+        return in.nextBoolean();
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.locationanalytics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Immutable grid index of circular places, answering "which place contains this point"
+ * with a binary search over the occupied grid cells.
+ *
+ * <p>The world is divided into {@link #CELL_DEGREES} by {@link #CELL_DEGREES} cells, and
+ * every place is listed under each cell its circle overlaps. The occupied cells are kept
+ * as a sorted array of cell keys with, per cell, a slice of one shared array of place
+ * numbers. A lookup finds the point's cell in O(log n) and checks the few places listed
+ * there, so it allocates nothing and never looks at places elsewhere. Places across the
+ * 180th meridian from the point are not found.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class KnownPlaceIndex {
+    /** Cell size, about 1.1 km of latitude */
+    static final double CELL_DEGREES = 0.01;
+
+    static final KnownPlaceIndex EMPTY = new KnownPlaceIndex(new double[0], new double[0], 0);
+
+    private static final double METERS_PER_DEGREE = GeoUtils.EARTH_RADIUS_METERS * Math.PI / 180;
+
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final double radiusMeters;
+    /** Sorted keys of the cells at least one place overlaps */
+    private final long[] cellKeys;
+    /** The places of cell i are cellPlaces[cellStarts[i]] up to, excluding, cellPlaces[cellStarts[i + 1]] */
+    private final int[] cellStarts;
+    private final int[] cellPlaces;
+
+    /**
+     * @param places Centers of the places
+     * @param radiusMeters Radius of every place
+     */
+    static KnownPlaceIndex of(List<UserStatistics.LocationStop> places, double radiusMeters) {
+        double[] latitudes = new double[places.size()];
+        double[] longitudes = new double[places.size()];
+        for (int i = 0; i < latitudes.length; i++) {
+            latitudes[i] = places.get(i).getLatitude();
+            longitudes[i] = places.get(i).getLongitude();
+        }
+        return new KnownPlaceIndex(latitudes, longitudes, radiusMeters);
+    }
+
+    private KnownPlaceIndex(double[] latitudes, double[] longitudes, double radiusMeters) {
+        this.latitudes = latitudes;
+        this.longitudes = longitudes;
+        this.radiusMeters = radiusMeters;
+
+        // Built rarely and from a few dozen places at most, so a sorted map is fine here
+        TreeMap<Long, List<Integer>> cells = new TreeMap<>();
+        double latitudeSpan = radiusMeters / METERS_PER_DEGREE;
+        for (int place = 0; place < latitudes.length; place++) {
+            double longitudeSpan = latitudeSpan / Math.max(0.01, Math.cos(Math.toRadians(latitudes[place])));
+            for (int row = row(latitudes[place] - latitudeSpan); row <= row(latitudes[place] + latitudeSpan); row++) {
+                for (int column = column(longitudes[place] - longitudeSpan);
+                     column <= column(longitudes[place] + longitudeSpan); column++) {
+                    cells.computeIfAbsent(key(row, column), k -> new ArrayList<>(2)).add(place);
+                }
+            }
+        }
+
+        cellKeys = new long[cells.size()];
+        cellStarts = new int[cells.size() + 1];
+        int[] places = new int[16];
+        int placeCount = 0;
+        int cell = 0;
+        for (Map.Entry<Long, List<Integer>> entry : cells.entrySet()) {
+            cellKeys[cell] = entry.getKey();
+            cellStarts[cell] = placeCount;
+            for (int place : entry.getValue()) {
+                if (placeCount == places.length) {
+                    places = Arrays.copyOf(places, placeCount * 2);
+                }
+                places[placeCount++] = place;
+            }
+            cell++;
+        }
+        cellStarts[cell] = placeCount;
+        cellPlaces = Arrays.copyOf(places, placeCount);
+    }
+
+    /**
+     * Find the place containing a point.
+     *
+     * @return Number of the nearest place within the radius, or -1 if there is none
+     */
+    int find(double latitude, double longitude) {
+        int cell = Arrays.binarySearch(cellKeys, key(row(latitude), column(longitude)));
+        if (cell < 0) return -1;
+
+        int nearest = -1;
+        double nearestDistance = radiusMeters;
+        for (int i = cellStarts[cell]; i < cellStarts[cell + 1]; i++) {
+            int place = cellPlaces[i];
+            double distance = GeoUtils.distanceMeters(latitudes[place], longitudes[place], latitude, longitude);
+            if (distance <= nearestDistance) {
+                nearest = place;
+                nearestDistance = distance;
+            }
+        }
+        return nearest;
+    }
+
+    int size() {
+        return latitudes.length;
+    }
+
+    double getLatitude(int place) {
+        return latitudes[place];
+    }
+
+    double getLongitude(int place) {
+        return longitudes[place];
+    }
+
+    double getRadiusMeters() {
+        return radiusMeters;
+    }
+
+    private static int row(double latitude) {
+        return (int) Math.floor(latitude / CELL_DEGREES);
+    }
+
+    private static int column(double longitude) {
+        return (int) Math.floor(longitude / CELL_DEGREES);
+    }
+
+    private static long key(int row, int column) {
+        return ((long) row << 32) | (column & 0xffffffffL);
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.locationanalytics;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.TimeZone;
+
+/**
+ * On-device analytics, so results are available offline and without a server round trip.
+ * Stops are detected from every recorded fix; statistics totals count the fixes that are
+ * uploaded, like the server does. State belongs to one user and is reset when fixes for a
+ * different user arrive.
+ *
+ * <p>Fixes are added on the filter stage; results may be read from any thread.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class LocalAnalytics {
+    private static final int FILE_MAGIC = 0x4C41534C; // "LASL"
+
+    private final File stateFile;
+    private final StopDetector stopDetector = new StopDetector();
+    private final StatisticsAggregator statistics = new StatisticsAggregator(TimeZone.getDefault());
+    private volatile String userId;
+
+    /**
+     * @param stateFile File the state is persisted to
+     */
+    LocalAnalytics(File stateFile) {
+        this.stateFile = stateFile;
+    }
+
+    /**
+     * Add a recorded fix.
+     */
+    void add(String userId, double latitude, double longitude, long timestamp) {
+        switchUser(userId);
+        stopDetector.add(latitude, longitude, timestamp);
+    }
+
+    /**
+     * Add a fix that is queued for upload, after simplification.
+     */
+    void addUploaded(String userId, double latitude, double longitude, long timestamp) {
+        switchUser(userId);
+        statistics.add(latitude, longitude, timestamp);
+    }
+
+    private synchronized void switchUser(String userId) {
+        if (!Objects.equals(userId, this.userId)) {
+            stopDetector.reset();
+            statistics.reset();
+            this.userId = userId;
+        }
+    }
+
+    /**
+     * @return The user's most visited stops, or an empty list if no fixes of this user were recorded
+     */
+    List<UserStatistics.LocationStop> getStops(String userId) {
+        if (userId == null || !userId.equals(this.userId)) {
+            return Collections.emptyList();
+        }
+        return stopDetector.getStops();
+    }
+
+    /**
+     * @return Statistics computed on the device, empty if no fixes of this user were recorded
+     */
+    UserStatistics getStatistics(String userId) {
+        if (userId == null || !userId.equals(this.userId)) {
+            return new UserStatistics(userId, 0, 0, 0, 0, new HashMap<>(),
+                    Collections.emptyList(), new HashMap<>());
+        }
+        return statistics.snapshot(userId, stopDetector.getStops());
+    }
+
+    /**
+     * Start reconciling the user's statistics with the server.
+     *
+     * @return false if the state belongs to a different user
+     * @see StatisticsAggregator#beginReconcile()
+     */
+    boolean beginReconcile(String userId) {
+        if (userId == null || !userId.equals(this.userId)) return false;
+        statistics.beginReconcile();
+        return true;
+    }
+
+    /**
+     * Adopt the server's statistics once every fix recorded before
+     * {@link #beginReconcile(String)} was uploaded.
+     */
+    void completeReconcile(String userId, UserStatistics serverStatistics) {
+        if (userId != null && userId.equals(this.userId)) {
+            statistics.completeReconcile(serverStatistics);
+        }
+    }
+
+    /**
+     * Restore the persisted state. A missing file leaves the state empty.
+     *
+     * @throws IOException if the file exists but cannot be read
+     */
+    synchronized void load() throws IOException {
+        if (!stateFile.exists()) return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+            if (in.readInt() != FILE_MAGIC) {
+                throw new IOException("Not a local analytics state file");
+            }
+            String restoredUserId = in.readBoolean() ? in.readUTF() : null;
+            stopDetector.readFrom(in);
+            statistics.readFrom(in);
+            userId = restoredUserId;
+        }
+    }
+
+    /**
+     * Persist the state. The file is replaced atomically, so a crash leaves the previous state.
+     */
+    synchronized void save() throws IOException {
+        File directory = stateFile.getParentFile();
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        File temp = new File(stateFile.getPath() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(FILE_MAGIC);
+            String currentUserId = userId;
+            out.writeBoolean(currentUserId != null);
+            if (currentUserId != null) {
+                out.writeUTF(currentUserId);
+            }
+            stopDetector.writeTo(out);
+            statistics.writeTo(out);
+            out.flush();
+            file.getFD().sync();
+        }
+        if (!temp.renameTo(stateFile)) {
+            throw new IOException("Cannot replace " + stateFile);
+        }
+    }
+}
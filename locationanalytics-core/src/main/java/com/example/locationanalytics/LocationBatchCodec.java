@@ -0,0 +1,403 @@
+package com.example.locationanalytics;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compact binary encoding for batches of location data sent to {@code api/location/batch}.
+ *
+ * <p>Consecutive records that share a user and device are written as one group whose
+ * header carries the user ID and device info once. Inside a group, timestamps are
+ * delta-encoded, coordinates are fixed-point (1e-7 degrees) deltas written as zig-zag
+ * varints, and accuracy is quantized to decimeters. The whole payload is gzip-compressed.</p>
+ *
+ * <p>Layout (before compression):</p>
+ * <pre>
+ * "LB" version:u8 groupCount:varint
+ *   group := userId:string deviceInfo:string count:varint record*
+ *   record := dTimestamp:zigzag dLat:zigzag dLon:zigzag accuracyDm:varint
+ *   string := length:varint utf8-bytes   (length 0 = null)
+ * </pre>
+ *
+ * <p>In cell mode (version 2), coordinates are quantized to {@link Geohash} cells of the
+ * configured precision, and consecutive records of a group in the same cell, at most
+ * {@link #MAX_CELL_GAP_MILLIS} apart, are merged into one cell record carrying the number
+ * of fixes, the time from the first to the last of them and their mean accuracy. The
+ * server stores the cell key with each record and aggregates by it.</p>
+ * <pre>
+ * "LB" 2 precision:u8 groupCount:varint
+ *   group := userId:string deviceInfo:string count:varint cellRecord*
+ *   cellRecord := dTimestamp:zigzag dRow:zigzag dColumn:zigzag spanMs:varint fixes:varint accuracyDm:varint
+ * </pre>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class LocationBatchCodec {
+    /** Content type announcing a binary batch; servers without support reply 415 */
+    static final String CONTENT_TYPE = "application/x-location-batch";
+
+    private static final byte MAGIC_0 = 'L';
+    private static final byte MAGIC_1 = 'B';
+    private static final byte VERSION = 1;
+    private static final byte CELL_VERSION = 2;
+    private static final double COORDINATE_SCALE = 1e7;
+    private static final float ACCURACY_SCALE = 10f;
+
+    /** Longest pause between two fixes merged into one cell record - 30 minutes */
+    static final long MAX_CELL_GAP_MILLIS = 30 * 60 * 1000;
+
+    private final int cellPrecision;
+    private byte[] buffer = new byte[1024];
+    private int length;
+
+    /**
+     * Codec writing full-precision records.
+     */
+    LocationBatchCodec() {
+        this(0);
+    }
+
+    /**
+     * @param cellPrecision Geohash precision to quantize coordinates to, or 0 for full precision
+     */
+    LocationBatchCodec(int cellPrecision) {
+        if (cellPrecision != 0
+                && (cellPrecision < Geohash.MIN_PRECISION || cellPrecision > Geohash.MAX_PRECISION)) {
+            throw new IllegalArgumentException("Cell precision must be between " + Geohash.MIN_PRECISION
+                    + " and " + Geohash.MAX_PRECISION);
+        }
+        this.cellPrecision = cellPrecision;
+    }
+
+    /**
+     * A merged run of fixes decoded from a cell-mode batch.
+     */
+    static final class CellRecord {
+        final String userId;
+        final String deviceInfo;
+        /** Geohash of the cell */
+        final String cell;
+        final double latitude;
+        final double longitude;
+        final long firstTimestamp;
+        final long lastTimestamp;
+        final int fixCount;
+        final float accuracy;
+
+        CellRecord(String userId, String deviceInfo, String cell, double latitude, double longitude,
+                   long firstTimestamp, long lastTimestamp, int fixCount, float accuracy) {
+            this.userId = userId;
+            this.deviceInfo = deviceInfo;
+            this.cell = cell;
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.firstTimestamp = firstTimestamp;
+            this.lastTimestamp = lastTimestamp;
+            this.fixCount = fixCount;
+            this.accuracy = accuracy;
+        }
+    }
+
+    /**
+     * Encode and gzip a batch of locations.
+     *
+     * @param locations The locations to encode, in upload order
+     * @return The compressed payload
+     */
+    byte[] encode(LocationBuffer locations) {
+        length = 0;
+        writeByte(MAGIC_0);
+        writeByte(MAGIC_1);
+        if (cellPrecision > 0) {
+            writeByte(CELL_VERSION);
+            writeByte((byte) cellPrecision);
+            writeVarint(countGroups(locations));
+            for (int start = 0; start < locations.size(); start = groupEnd(locations, start)) {
+                writeCellGroup(locations, start, groupEnd(locations, start));
+            }
+            return compress();
+        }
+        writeByte(VERSION);
+        writeVarint(countGroups(locations));
+
+        int start = 0;
+        while (start < locations.size()) {
+            int end = groupEnd(locations, start);
+            writeString(locations.getUserId(start));
+            writeString(locations.getDeviceInfo(start));
+            writeVarint(end - start);
+
+            long previousTimestamp = 0;
+            long previousLat = 0;
+            long previousLon = 0;
+            for (int i = start; i < end; i++) {
+                long timestamp = locations.getTimestamp(i);
+                long lat = Math.round(locations.getLatitude(i) * COORDINATE_SCALE);
+                long lon = Math.round(locations.getLongitude(i) * COORDINATE_SCALE);
+                writeZigZag(timestamp - previousTimestamp);
+                writeZigZag(lat - previousLat);
+                writeZigZag(lon - previousLon);
+                writeVarint(Math.max(0, Math.round(locations.getAccuracy(i) * ACCURACY_SCALE)));
+                previousTimestamp = timestamp;
+                previousLat = lat;
+                previousLon = lon;
+            }
+            start = end;
+        }
+        return compress();
+    }
+
+    private void writeCellGroup(LocationBuffer locations, int start, int end) {
+        writeString(locations.getUserId(start));
+        writeString(locations.getDeviceInfo(start));
+        int records = 0;
+        for (int i = start; i < end; i = cellEnd(locations, i, end)) {
+            records++;
+        }
+        writeVarint(records);
+
+        long previousTimestamp = 0;
+        int previousRow = 0;
+        int previousColumn = 0;
+        for (int i = start; i < end; ) {
+            int next = cellEnd(locations, i, end);
+            int row = Geohash.row(locations.getLatitude(i), cellPrecision);
+            int column = Geohash.column(locations.getLongitude(i), cellPrecision);
+            double accuracySum = 0;
+            for (int j = i; j < next; j++) {
+                accuracySum += locations.getAccuracy(j);
+            }
+            long timestamp = locations.getTimestamp(i);
+            writeZigZag(timestamp - previousTimestamp);
+            writeZigZag(row - previousRow);
+            writeZigZag(column - previousColumn);
+            writeVarint(Math.max(0, locations.getTimestamp(next - 1) - timestamp));
+            writeVarint(next - i);
+            writeVarint(Math.max(0, Math.round(accuracySum / (next - i) * ACCURACY_SCALE)));
+            previousTimestamp = timestamp;
+            previousRow = row;
+            previousColumn = column;
+            i = next;
+        }
+    }
+
+    /**
+     * @return Index after the run of records starting at {@code start} that merge into one cell record
+     */
+    private int cellEnd(LocationBuffer locations, int start, int end) {
+        int row = Geohash.row(locations.getLatitude(start), cellPrecision);
+        int column = Geohash.column(locations.getLongitude(start), cellPrecision);
+        int next = start + 1;
+        while (next < end
+                && Geohash.row(locations.getLatitude(next), cellPrecision) == row
+                && Geohash.column(locations.getLongitude(next), cellPrecision) == column
+                && locations.getTimestamp(next) - locations.getTimestamp(next - 1) <= MAX_CELL_GAP_MILLIS) {
+            next++;
+        }
+        return next;
+    }
+
+    private byte[] compress() {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(length / 2 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+            gzip.write(buffer, 0, length);
+        } catch (IOException e) {
+            // Writing to memory cannot fail
+            throw new IllegalStateException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Decode a gzip-compressed batch produced by {@link #encode(LocationBuffer)}. A cell
+     * record becomes one location at the center of its cell, at the time of its first fix.
+     *
+     * @param payload The compressed payload
+     * @return The decoded locations
+     * @throws IOException if the payload is truncated or not a location batch
+     */
+    static List<LocationData> decode(byte[] payload) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(payload));
+        int version = readHeader(in);
+        List<LocationData> locations = new ArrayList<>();
+        if (version == CELL_VERSION) {
+            // One location per cell record, at the center of the cell
+            for (CellRecord record : readCellGroups(in)) {
+                locations.add(new LocationData(record.userId, record.latitude, record.longitude,
+                        record.firstTimestamp, record.accuracy, record.deviceInfo));
+            }
+            return locations;
+        }
+
+        long groups = readVarint(in);
+        for (long g = 0; g < groups; g++) {
+            String userId = readString(in);
+            String deviceInfo = readString(in);
+            long count = readVarint(in);
+            long timestamp = 0;
+            long lat = 0;
+            long lon = 0;
+            for (long i = 0; i < count; i++) {
+                timestamp += readZigZag(in);
+                lat += readZigZag(in);
+                lon += readZigZag(in);
+                float accuracy = readVarint(in) / ACCURACY_SCALE;
+                locations.add(new LocationData(userId, lat / COORDINATE_SCALE, lon / COORDINATE_SCALE,
+                        timestamp, accuracy, deviceInfo));
+            }
+        }
+        return locations;
+    }
+
+    /**
+     * Decode a gzip-compressed batch written in cell mode.
+     *
+     * @param payload The compressed payload
+     * @return The cell records, in upload order
+     * @throws IOException if the payload is truncated or not a cell-mode location batch
+     */
+    static List<CellRecord> decodeCells(byte[] payload) throws IOException {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(payload));
+        int version = readHeader(in);
+        if (version != CELL_VERSION) {
+            throw new IOException("Not a cell-mode location batch");
+        }
+        return readCellGroups(in);
+    }
+
+    private static int readHeader(InputStream in) throws IOException {
+        if (in.read() != MAGIC_0 || in.read() != MAGIC_1) {
+            throw new IOException("Not a location batch");
+        }
+        int version = in.read();
+        if (version != VERSION && version != CELL_VERSION) {
+            throw new IOException("Unsupported location batch version " + version);
+        }
+        return version;
+    }
+
+    private static List<CellRecord> readCellGroups(InputStream in) throws IOException {
+        int precision = in.read();
+        if (precision < Geohash.MIN_PRECISION || precision > Geohash.MAX_PRECISION) {
+            throw new IOException("Invalid cell precision " + precision);
+        }
+        List<CellRecord> records = new ArrayList<>();
+        long groups = readVarint(in);
+        for (long g = 0; g < groups; g++) {
+            String userId = readString(in);
+            String deviceInfo = readString(in);
+            long count = readVarint(in);
+            long timestamp = 0;
+            int row = 0;
+            int column = 0;
+            for (long i = 0; i < count; i++) {
+                timestamp += readZigZag(in);
+                row += (int) readZigZag(in);
+                column += (int) readZigZag(in);
+                long span = readVarint(in);
+                int fixCount = (int) readVarint(in);
+                float accuracy = readVarint(in) / ACCURACY_SCALE;
+                records.add(new CellRecord(userId, deviceInfo, Geohash.encode(row, column, precision),
+                        Geohash.centerLatitude(row, precision), Geohash.centerLongitude(column, precision),
+                        timestamp, timestamp + span, fixCount, accuracy));
+            }
+        }
+        return records;
+    }
+
+    private static int countGroups(LocationBuffer locations) {
+        int groups = 0;
+        for (int start = 0; start < locations.size(); start = groupEnd(locations, start)) {
+            groups++;
+        }
+        return groups;
+    }
+
+    private static int groupEnd(LocationBuffer locations, int start) {
+        int end = start + 1;
+        while (end < locations.size()
+                && equals(locations.getUserId(start), locations.getUserId(end))
+                && equals(locations.getDeviceInfo(start), locations.getDeviceInfo(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static boolean equals(String a, String b) {
+        // Strings restored from the queue are shared instances, so this is usually a reference check
+        return a == b || (a != null && a.equals(b));
+    }
+
+    private void writeString(String value) {
+        if (value == null || value.isEmpty()) {
+            writeVarint(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarint(bytes.length);
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, length, bytes.length);
+        length += bytes.length;
+    }
+
+    private void writeZigZag(long value) {
+        writeVarint((value << 1) ^ (value >> 63));
+    }
+
+    private void writeVarint(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7FL) != 0) {
+            buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[length++] = (byte) value;
+    }
+
+    private void writeByte(byte value) {
+        ensureCapacity(1);
+        buffer[length++] = value;
+    }
+
+    private void ensureCapacity(int extra) {
+        if (length + extra > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+        }
+    }
+
+    private static String readString(InputStream in) throws IOException {
+        int size = (int) readVarint(in);
+        if (size == 0) return null;
+        byte[] bytes = new byte[size];
+        int read = 0;
+        while (read < size) {
+            int n = in.read(bytes, read, size - read);
+            if (n < 0) throw new IOException("Truncated location batch");
+            read += n;
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static long readZigZag(InputStream in) throws IOException {
+        long value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) throw new IOException("Truncated location batch");
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed varint in location batch");
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.locationanalytics;
+
+import java.util.AbstractList;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Columnar (struct-of-arrays) buffer of location fixes.
+ *
+ * <p>Fixes are stored in parallel primitive arrays instead of one {@link LocationData}
+ * object per fix, so filling, encoding and recycling a buffer allocates nothing.
+ * User and device strings are stored by reference and are expected to be shared
+ * instances. {@link LocationData} views are only created on demand through
+ * {@link #get(int)} or {@link #asList()}.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class LocationBuffer {
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final long[] timestamps;
+    private final float[] accuracies;
+    private final String[] userIds;
+    private final String[] deviceInfos;
+    private int size;
+
+    /**
+     * Recycles buffers so a steady upload cycle does not allocate new arrays.
+     */
+    static final class Pool {
+        private final int bufferCapacity;
+        private final int maxPooled;
+        private final ArrayDeque<LocationBuffer> free = new ArrayDeque<>();
+
+        /**
+         * @param bufferCapacity Capacity of every buffer handed out
+         * @param maxPooled Maximum number of idle buffers kept for reuse
+         */
+        Pool(int bufferCapacity, int maxPooled) {
+            this.bufferCapacity = bufferCapacity;
+            this.maxPooled = maxPooled;
+        }
+
+        synchronized LocationBuffer acquire() {
+            LocationBuffer buffer = free.poll();
+            return buffer != null ? buffer : new LocationBuffer(bufferCapacity);
+        }
+
+        synchronized void release(LocationBuffer buffer) {
+            buffer.clear();
+            // A buffer released twice must not be handed out to two owners
+            if (free.size() < maxPooled && buffer.capacity() == bufferCapacity && !free.contains(buffer)) {
+                free.push(buffer);
+            }
+        }
+    }
+
+    LocationBuffer(int capacity) {
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        timestamps = new long[capacity];
+        accuracies = new float[capacity];
+        userIds = new String[capacity];
+        deviceInfos = new String[capacity];
+    }
+
+    /**
+     * Append a fix to the buffer.
+     *
+     * @throws IllegalStateException if the buffer is full
+     */
+    void add(String userId, double latitude, double longitude, long timestamp, float accuracy,
+             String deviceInfo) {
+        if (size == latitudes.length) {
+            throw new IllegalStateException("LocationBuffer is full");
+        }
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        timestamps[size] = timestamp;
+        accuracies[size] = accuracy;
+        userIds[size] = userId;
+        deviceInfos[size] = deviceInfo;
+        size++;
+    }
+
+    /**
+     * Remove all fixes, dropping the references to their strings so an idle buffer does
+     * not keep them alive.
+     */
+    void clear() {
+        Arrays.fill(userIds, 0, size, null);
+        Arrays.fill(deviceInfos, 0, size, null);
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int capacity() {
+        return latitudes.length;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    boolean isFull() {
+        return size == latitudes.length;
+    }
+
+    double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    float getAccuracy(int index) {
+        return accuracies[index];
+    }
+
+    String getUserId(int index) {
+        return userIds[index];
+    }
+
+    String getDeviceInfo(int index) {
+        return deviceInfos[index];
+    }
+
+    /**
+     * Create a {@link LocationData} view of one fix for the public API.
+     */
+    LocationData get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        }
+        return new LocationData(userIds[index], latitudes[index], longitudes[index],
+                timestamps[index], accuracies[index], deviceInfos[index]);
+    }
+
+    /**
+     * @return A read-only list view whose elements are created on access
+     */
+    List<LocationData> asList() {
+        return new AbstractList<LocationData>() {
+            @Override
+            public LocationData get(int index) {
+                return LocationBuffer.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+}
@@ -23,13 +23,30 @@ public class LocationData {
     @SerializedName("device_info")
     private String deviceInfo;
 
+    /**
+     * Location without device information.
+     *
+     * @deprecated Since version 2.1 this constructor records no device information; it used
+     * to fill in the device model and OS version. Use
+     * {@link #LocationData(String, double, double, long, float, String)} and pass
+     * {@code LocationAnalyticsSDK.getDeviceInfo()} to keep uploading it.
+     */
+    @Deprecated
     public LocationData(String userId, double latitude, double longitude, long timestamp, float accuracy) {
+        this(userId, latitude, longitude, timestamp, accuracy, null);
+    }
+
+    /**
+     * @param deviceInfo Device the location was recorded on, e.g. the device model and OS
+     *                   version, or null
+     */
+    public LocationData(String userId, double latitude, double longitude, long timestamp, float accuracy, String deviceInfo) {
         this.userId = userId;
         this.latitude = latitude;
         this.longitude = longitude;
         this.timestamp = timestamp;
         this.accuracy = accuracy;
-        this.deviceInfo = android.os.Build.MODEL + " / Android " + android.os.Build.VERSION.RELEASE;
+        this.deviceInfo = deviceInfo;
     }
 
     public String getUserId() {
@@ -54,7 +71,7 @@ public class LocationData {
 
     /**
      * Get device information string.
-     * @return Device model and Android version
+     * @return Device model and OS version
      */
     public String getDeviceInfo() {
         return deviceInfo;
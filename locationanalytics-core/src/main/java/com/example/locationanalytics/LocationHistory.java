@@ -0,0 +1,201 @@
+package com.example.locationanalytics;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Reads a user's stored locations in a time range, page by page and oldest first. Obtain one
+ * with {@code LocationAnalyticsSDK.getLocationHistory} and call {@link #next} for each page
+ * while {@link #hasNext()} is true.
+ *
+ * <p>Pages are requested with a cursor, so a page starts exactly where the previous one
+ * ended even while new locations are uploaded, and every page is parsed as it arrives. With
+ * prefetch, the following page is requested as soon as a page is delivered, so it is usually
+ * ready by the time it is asked for. Apart from the page the app holds, at most one page is
+ * kept in memory: the one being read or the prefetched one.</p>
+ *
+ * <p>Only one {@link #next} call may be pending at a time. Thread-safe.</p>
+ */
+public final class LocationHistory {
+    private final LocationPageSource source;
+    private final String userId;
+    private final long startTime;
+    private final long endTime;
+    private final int pageSize;
+    private final boolean prefetch;
+    private final Executor callbackExecutor;
+
+    /** Cursor of the next page to request; null for the first page */
+    private String cursor;
+    /** Whether the server has pages that have not been requested */
+    private boolean moreOnServer = true;
+    private boolean fetching;
+    /** Page read ahead of the app, or the error reading it */
+    private List<LocationData> ready;
+    private String readyError;
+    /** Callback of the pending {@link #next} call */
+    private LocationHistoryCallback waiting;
+    private boolean closed;
+
+    /**
+     * @param source Source the pages are read from
+     * @param userId User whose locations are read
+     * @param startTime Start of the time range in milliseconds, inclusive
+     * @param endTime End of the time range in milliseconds, inclusive
+     * @param pageSize Maximum number of locations per page
+     * @param prefetch Whether to request the following page while the app handles a page
+     * @param callbackExecutor Executor callbacks are delivered on
+     */
+    LocationHistory(LocationPageSource source, String userId, long startTime, long endTime, int pageSize,
+                    boolean prefetch, Executor callbackExecutor) {
+        this.source = source;
+        this.userId = userId;
+        this.startTime = startTime;
+        this.endTime = endTime;
+        this.pageSize = pageSize;
+        this.prefetch = prefetch;
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * @return Whether another page can be requested with {@link #next}
+     */
+    public synchronized boolean hasNext() {
+        return !closed && (ready != null || readyError != null || moreOnServer);
+    }
+
+    /**
+     * Request the next page. The callback is delivered on the main thread. After an error,
+     * calling this again requests the same page again.
+     *
+     * @param callback Callback for handling the page or error
+     * @throws IllegalStateException if there is no next page, another call is pending or the
+     *                               history was closed
+     */
+    public void next(LocationHistoryCallback callback) {
+        if (callback == null) {
+            throw new IllegalArgumentException("Callback cannot be null");
+        }
+        boolean fetch = false;
+        Runnable delivery = null;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("Location history was closed");
+            }
+            if (waiting != null) {
+                throw new IllegalStateException("A page is already being read");
+            }
+            if (ready != null) {
+                delivery = page(callback, ready, moreOnServer);
+                ready = null;
+                fetch = startPrefetch();
+            } else if (readyError != null) {
+                delivery = error(callback, readyError);
+                readyError = null;
+            } else if (!moreOnServer) {
+                throw new IllegalStateException("No more pages");
+            } else {
+                waiting = callback;
+                if (!fetching) {
+                    fetching = true;
+                    fetch = true;
+                }
+            }
+        }
+        if (delivery != null) {
+            callbackExecutor.execute(delivery);
+        }
+        if (fetch) {
+            fetch();
+        }
+    }
+
+    /**
+     * Stop reading. A pending callback is not delivered and a prefetched page is dropped.
+     */
+    public synchronized void close() {
+        closed = true;
+        waiting = null;
+        ready = null;
+        readyError = null;
+    }
+
+    private void fetch() {
+        String requestCursor;
+        synchronized (this) {
+            requestCursor = cursor;
+        }
+        source.getLocationPage(userId, startTime, endTime, requestCursor, pageSize, new LocationPageSource.PageCallback() {
+            @Override
+            public void onPage(List<LocationData> locations, String nextCursor) {
+                onPageRead(locations, nextCursor);
+            }
+
+            @Override
+            public void onError(String message) {
+                onPageFailed(message);
+            }
+        });
+    }
+
+    private void onPageRead(List<LocationData> locations, String nextCursor) {
+        boolean fetch = false;
+        Runnable delivery = null;
+        synchronized (this) {
+            fetching = false;
+            if (closed) return;
+            cursor = nextCursor;
+            moreOnServer = nextCursor != null;
+            List<LocationData> page = Collections.unmodifiableList(locations);
+            if (waiting != null) {
+                delivery = page(waiting, page, moreOnServer);
+                waiting = null;
+                fetch = startPrefetch();
+            } else {
+                ready = page;
+            }
+        }
+        if (delivery != null) {
+            callbackExecutor.execute(delivery);
+        }
+        if (fetch) {
+            fetch();
+        }
+    }
+
+    private void onPageFailed(String message) {
+        Runnable delivery = null;
+        synchronized (this) {
+            fetching = false;
+            if (closed) return;
+            // The cursor is unchanged, so the next request reads the same page again
+            if (waiting != null) {
+                delivery = error(waiting, message);
+                waiting = null;
+            } else {
+                readyError = message;
+            }
+        }
+        if (delivery != null) {
+            callbackExecutor.execute(delivery);
+        }
+    }
+
+    /**
+     * @return Whether a prefetch was started and {@link #fetch()} must be called
+     */
+    private boolean startPrefetch() {
+        if (!prefetch || !moreOnServer || fetching || ready != null || readyError != null) return false;
+        fetching = true;
+        return true;
+    }
+
+    private static Runnable page(LocationHistoryCallback callback, List<LocationData> locations, boolean hasMore) {
+        return () -> callback.onPage(locations, hasMore);
+    }
+
+    private static Runnable error(LocationHistoryCallback callback, String message) {
+        return () -> callback.onError(message);
+    }
+}
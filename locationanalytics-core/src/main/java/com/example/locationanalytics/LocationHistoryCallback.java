@@ -0,0 +1,24 @@
+package com.example.locationanalytics;
+
+import java.util.List;
+
+/**
+ * Callback for pages of location history requested with {@link LocationHistory#next}.
+ */
+public interface LocationHistoryCallback {
+    /**
+     * Called with the next page of locations.
+     *
+     * @param locations The page's locations, oldest first; may be empty
+     * @param hasMore Whether another page follows
+     */
+    void onPage(List<LocationData> locations, boolean hasMore);
+
+    /**
+     * Called when the page could not be read. Calling {@link LocationHistory#next} again
+     * requests the same page again.
+     *
+     * @param message Error message describing the failure
+     */
+    void onError(String message);
+}
@@ -0,0 +1,37 @@
+package com.example.locationanalytics;
+
+import java.util.List;
+
+/**
+ * Reads pages of a user's stored locations from {@code api/locations}.
+ *
+ * @internal This interface is for internal SDK use only
+ */
+interface LocationPageSource {
+    /** Largest number of locations the server returns in one page */
+    int MAX_PAGE_SIZE = 1000;
+
+    interface PageCallback {
+        /**
+         * @param locations The page's locations, in time order
+         * @param nextCursor Cursor of the following page, or null if this was the last page
+         */
+        void onPage(List<LocationData> locations, String nextCursor);
+
+        void onError(String message);
+    }
+
+    /**
+     * Request one page. The callback is delivered on a network thread, once the page has
+     * been read.
+     *
+     * @param userId User whose locations are read
+     * @param startTime Start of the time range in milliseconds, inclusive
+     * @param endTime End of the time range in milliseconds, inclusive
+     * @param cursor Cursor returned with the previous page, or null for the first page
+     * @param pageSize Maximum number of locations in the page, up to {@link #MAX_PAGE_SIZE}
+     * @param callback Callback for handling the page or error
+     */
+    void getLocationPage(String userId, long startTime, long endTime, String cursor, int pageSize,
+                         PageCallback callback);
+}
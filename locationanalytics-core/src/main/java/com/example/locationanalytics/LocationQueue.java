@@ -0,0 +1,720 @@
+package com.example.locationanalytics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent, append-only queue of location fixes waiting to be uploaded.
+ *
+ * <p>Records are written to fixed-size memory-mapped segment files, so they survive
+ * process death and do not occupy the Java heap while the device is offline. New segments
+ * are sized from the size cap; a segment keeps the size it was created with, taken from
+ * its file length on recovery, so changing the cap keeps the records already queued. Every
+ * record carries a CRC32 checksum; a torn or corrupt record marks the end of the
+ * readable data in its segment. A record must fit in one segment; a larger one, which
+ * only an unusually long user ID or device descriptor can produce, is rejected rather
+ * than evicting the rest of the queue. Records are only removed once the server has
+ * acknowledged them through {@link #ack(Batch)}.</p>
+ *
+ * <p>Record layout: {@code [int length][int crc32][payload]}. A zero length marks the
+ * end of the written region of a segment. Appending and reading work on primitives and
+ * reuse the encoded form of the user and device strings, so they do not allocate per
+ * record.</p>
+ *
+ * <p>Every record has a position, {@code segmentId << 32 | offset}, that increases
+ * monotonically and never changes, and every queue has a random stream ID that is renewed
+ * whenever it starts out empty, so positions are never reused within a stream. Batch
+ * boundaries are sealed: once a batch has been read, its end is persisted, and reading
+ * the same records again, even after a restart, yields exactly the same batch. Together
+ * this lets the server recognise a batch it has already stored.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class LocationQueue {
+    /** Default cap on the total size of all segment files - 16 MB */
+    static final long DEFAULT_MAX_SIZE_BYTES = 16L * 1024 * 1024;
+
+    private static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+    private static final int MIN_SEGMENT_SIZE = 4096;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String HEAD_FILE = "head.chk";
+    private static final String SEALED_FILE = "sealed.chk";
+    private static final String STREAM_FILE = "stream.id";
+
+    /** Maximum number of sealed batch ends remembered past the head */
+    static final int MAX_SEALED_BATCHES = 32;
+
+    private final File directory;
+    /** Size of new segments */
+    private final int segmentSize;
+    private final long maxSizeBytes;
+    private final List<Segment> segments = new ArrayList<>();
+    /** Total size of the segment files */
+    private long segmentBytes;
+    private final MappedByteBuffer headCheckpoint;
+    /** {@code [int count][long end] * MAX_SEALED_BATCHES [int crc32]} */
+    private final MappedByteBuffer sealedCheckpoint;
+    /** Ends of batches read but not yet acknowledged, as positions in ascending order */
+    private final long[] sealedEnds = new long[MAX_SEALED_BATCHES];
+    private int sealedCount;
+    private final String streamId;
+    private final CRC32 crc = new CRC32();
+    private final StringCache userIds = new StringCache();
+    private final StringCache deviceInfos = new StringCache();
+    private byte[] scratch = new byte[256];
+    private ByteBuffer scratchBuffer = ByteBuffer.wrap(scratch);
+
+    private long nextSegmentId;
+    private long headSegmentId;
+    private int headOffset;
+    private long readSegmentId;
+    private int readOffset;
+    private int pendingCount;
+    private long pendingBytes;
+    private long droppedCount;
+    private long rejectedCount;
+
+    /**
+     * A contiguous run of records read from the queue.
+     * Pass it back to {@link #ack(Batch)} once the server has stored it.
+     */
+    static final class Batch {
+        private final long startSegmentId;
+        private final int startOffset;
+        private final long endSegmentId;
+        private final int endOffset;
+        private final long byteSize;
+        private final LocationBuffer locations;
+        private final String streamId;
+
+        private Batch(long startSegmentId, int startOffset, long endSegmentId, int endOffset,
+                      long byteSize, LocationBuffer locations, String streamId) {
+            this.startSegmentId = startSegmentId;
+            this.startOffset = startOffset;
+            this.endSegmentId = endSegmentId;
+            this.endOffset = endOffset;
+            this.byteSize = byteSize;
+            this.locations = locations;
+            this.streamId = streamId;
+        }
+
+        /**
+         * @return Position of the batch's first record; increases monotonically from batch
+         *         to batch and is the same every time this batch is read
+         */
+        long getSequence() {
+            return position(startSegmentId, startOffset);
+        }
+
+        /**
+         * @return Key identifying this batch among all batches ever read from any queue,
+         *         e.g. {@code 0b5e...-3c1d:4294967296}
+         */
+        String getIdempotencyKey() {
+            return streamId + ":" + getSequence();
+        }
+
+        LocationBuffer getLocations() {
+            return locations;
+        }
+
+        int size() {
+            return locations.size();
+        }
+
+        boolean isEmpty() {
+            return locations.isEmpty();
+        }
+    }
+
+    /**
+     * Remembers the last string seen in one field together with its UTF-8 form,
+     * so repeated user IDs and device descriptors are neither re-encoded nor re-decoded.
+     */
+    private static final class StringCache {
+        private static final byte[] EMPTY = new byte[0];
+        String value;
+        byte[] bytes = EMPTY;
+
+        byte[] encode(String string) {
+            if (string == null || string.isEmpty()) return EMPTY;
+            if (!string.equals(value)) {
+                byte[] encoded = string.getBytes(StandardCharsets.UTF_8);
+                if (encoded.length > Short.MAX_VALUE) return EMPTY;
+                value = string;
+                bytes = encoded;
+            }
+            return bytes;
+        }
+
+        String decode(ByteBuffer buffer, int offset, int length) {
+            if (length == 0) return null;
+            if (length == bytes.length && value != null) {
+                boolean same = true;
+                for (int i = 0; i < length && same; i++) {
+                    same = buffer.get(offset + i) == bytes[i];
+                }
+                if (same) return value;
+            }
+            byte[] decoded = new byte[length];
+            for (int i = 0; i < length; i++) {
+                decoded[i] = buffer.get(offset + i);
+            }
+            value = new String(decoded, StandardCharsets.UTF_8);
+            bytes = decoded;
+            return value;
+        }
+    }
+
+    private static final class Segment {
+        final long id;
+        final File file;
+        final MappedByteBuffer buffer;
+        final int size;
+        int writeOffset;
+
+        Segment(long id, File file, MappedByteBuffer buffer, int size) {
+            this.id = id;
+            this.file = file;
+            this.buffer = buffer;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Open the queue stored in the given directory, recovering any records written
+     * by a previous process.
+     *
+     * @param directory Directory holding the segment files (created if missing)
+     * @param maxSizeBytes Cap on the total size of all segments; the oldest
+     *                     unacknowledged records are dropped when it is reached
+     * @throws IOException if the directory or its files cannot be opened
+     */
+    LocationQueue(File directory, long maxSizeBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create queue directory " + directory);
+        }
+        this.directory = directory;
+        this.maxSizeBytes = maxSizeBytes;
+        this.segmentSize = (int) Math.max(MIN_SEGMENT_SIZE, Math.min(DEFAULT_SEGMENT_SIZE, maxSizeBytes / 2));
+        this.headCheckpoint = map(new File(directory, HEAD_FILE), 16);
+        this.sealedCheckpoint = map(new File(directory, SEALED_FILE), 8 + 8 * MAX_SEALED_BATCHES);
+
+        recoverSegments();
+        recoverHead();
+        recountPending(headSegmentId, headOffset);
+        // A queue starting out empty may reuse positions, so it starts a new stream
+        String recoveredStreamId = segments.isEmpty() ? null : readStreamId();
+        if (recoveredStreamId == null) {
+            this.streamId = UUID.randomUUID().toString();
+            writeStreamId(streamId);
+            clearSealed();
+        } else {
+            this.streamId = recoveredStreamId;
+            recoverSealed();
+        }
+    }
+
+    /**
+     * Append a location fix to the tail of the queue.
+     *
+     * @throws IllegalArgumentException if the record does not fit in a segment; the fix is
+     *         counted in {@link #getRejectedCount()} and the queue is unchanged
+     * @throws IOException if a new segment file cannot be created
+     */
+    synchronized void append(String userId, double latitude, double longitude, long timestamp,
+                             float accuracy, String deviceInfo) throws IOException {
+        int length = encode(userId, latitude, longitude, timestamp, accuracy, deviceInfo);
+        if (RECORD_HEADER_BYTES + length > segmentSize) {
+            rejectedCount++;
+            throw new IllegalArgumentException(String.format(Locale.US,
+                    "Location record of %d bytes exceeds the queue segment size of %d bytes",
+                    RECORD_HEADER_BYTES + length, segmentSize));
+        }
+        Segment tail = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        if (tail == null || tail.writeOffset + RECORD_HEADER_BYTES + length > tail.size) {
+            tail = rollSegment();
+        }
+
+        crc.reset();
+        crc.update(scratch, 0, length);
+
+        ByteBuffer buffer = tail.buffer;
+        int offset = tail.writeOffset;
+        buffer.putInt(offset + 4, (int) crc.getValue());
+        for (int i = 0; i < length; i++) {
+            buffer.put(offset + RECORD_HEADER_BYTES + i, scratch[i]);
+        }
+        int next = offset + RECORD_HEADER_BYTES + length;
+        if (next + 4 <= tail.size) {
+            buffer.putInt(next, 0);
+        }
+        // The length is written last so a record torn by a crash reads as the end of data
+        buffer.putInt(offset, length);
+
+        tail.writeOffset = next;
+        pendingCount++;
+        pendingBytes += RECORD_HEADER_BYTES + length;
+    }
+
+    /**
+     * Read records that have not been handed out yet into the given buffer, until the
+     * buffer is full, the queue is exhausted or the end of a batch read before is reached.
+     * The records stay in the queue until acknowledged.
+     *
+     * @param into Empty buffer to fill; owned by the returned batch until it is acked or rewound
+     * @return The batch, possibly empty
+     */
+    synchronized Batch read(LocationBuffer into) {
+        long startSegmentId = readSegmentId;
+        int startOffset = readOffset;
+        long byteSize = 0;
+        long start = position(startSegmentId, startOffset);
+        long sealedEnd = Long.MAX_VALUE;
+        for (int i = 0; i < sealedCount; i++) {
+            if (sealedEnds[i] > start) {
+                sealedEnd = sealedEnds[i];
+                break;
+            }
+        }
+
+        Segment segment = segmentFor(readSegmentId);
+        int offset = readOffset;
+        while (segment != null && !into.isFull() && position(segment.id, offset) < sealedEnd) {
+            if (offset >= segment.writeOffset) {
+                Segment next = segmentAfter(segment);
+                if (next == null) break;
+                segment = next;
+                offset = 0;
+                continue;
+            }
+            int length = segment.buffer.getInt(offset);
+            decode(segment.buffer, offset + RECORD_HEADER_BYTES, into);
+            offset += RECORD_HEADER_BYTES + length;
+            byteSize += RECORD_HEADER_BYTES + length;
+        }
+
+        if (segment != null) {
+            readSegmentId = segment.id;
+            readOffset = offset;
+        }
+        if (!into.isEmpty() && sealedEnd == Long.MAX_VALUE) {
+            seal(position(readSegmentId, readOffset));
+        }
+        return new Batch(startSegmentId, startOffset, readSegmentId, readOffset, byteSize, into, streamId);
+    }
+
+    /**
+     * Remove an acknowledged batch from the queue and release any segment files
+     * that no longer hold pending records.
+     *
+     * @param batch A batch previously returned by {@link #read(LocationBuffer)}
+     */
+    synchronized void ack(Batch batch) {
+        if (compare(batch.endSegmentId, batch.endOffset, headSegmentId, headOffset) <= 0) {
+            // Already dropped because the size cap was reached
+            return;
+        }
+        if (batch.startSegmentId == headSegmentId && batch.startOffset == headOffset) {
+            pendingCount -= batch.size();
+            pendingBytes -= batch.byteSize;
+        } else {
+            recountPending(batch.endSegmentId, batch.endOffset);
+        }
+
+        headSegmentId = batch.endSegmentId;
+        headOffset = batch.endOffset;
+        if (compare(readSegmentId, readOffset, headSegmentId, headOffset) < 0) {
+            readSegmentId = headSegmentId;
+            readOffset = headOffset;
+        }
+        writeHead();
+        releaseSealed();
+
+        while (segments.size() > 1 && segments.get(0).id < headSegmentId) {
+            deleteSegment(segments.remove(0));
+        }
+    }
+
+    /**
+     * @return Number of records waiting to be acknowledged
+     */
+    synchronized int size() {
+        return pendingCount;
+    }
+
+    synchronized boolean isEmpty() {
+        return pendingCount == 0;
+    }
+
+    /**
+     * @return Total size in bytes of the records waiting to be acknowledged
+     */
+    synchronized long pendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * @return Timestamp of the oldest unacknowledged record, or -1 if the queue is empty
+     */
+    synchronized long oldestTimestamp() {
+        for (Segment segment : segments) {
+            if (segment.id < headSegmentId) continue;
+            int offset = segment.id == headSegmentId ? headOffset : 0;
+            if (offset < segment.writeOffset) {
+                // The timestamp is the first field of the payload
+                return segment.buffer.getLong(offset + RECORD_HEADER_BYTES);
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true if every pending record has already been handed out by {@link #read(LocationBuffer)}
+     */
+    synchronized boolean isFullyRead() {
+        Segment segment = segmentFor(readSegmentId);
+        return segment == null
+                || (readOffset >= segment.writeOffset && segmentAfter(segment) == null);
+    }
+
+    /**
+     * @return Number of records discarded because the size cap was reached
+     */
+    synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    /**
+     * @return Number of fixes not appended because their record does not fit in a segment
+     */
+    synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    private void recoverSegments() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        List<Long> ids = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                try {
+                    ids.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    deleteFile(file);
+                }
+            }
+        }
+        Collections.sort(ids);
+
+        for (long id : ids) {
+            File file = segmentFile(id);
+            long length = file.length();
+            if (length < RECORD_HEADER_BYTES) {
+                // Too short to hold a record
+                deleteFile(file);
+                continue;
+            }
+            // Keep the size the segment was written with, which may differ from new segments'
+            // if the size cap changed; records past a truncation fail their checksum
+            int size = (int) Math.min(length, Integer.MAX_VALUE);
+            Segment segment = new Segment(id, file, map(file, size), size);
+            segment.writeOffset = scanValidEnd(segment);
+            segments.add(segment);
+            segmentBytes += size;
+            nextSegmentId = id + 1;
+        }
+    }
+
+    private void recoverHead() {
+        long segmentId = headCheckpoint.getLong(0);
+        int offset = headCheckpoint.getInt(8);
+        crc.reset();
+        for (int i = 0; i < 12; i++) {
+            crc.update(headCheckpoint.get(i));
+        }
+
+        Segment segment = segmentFor(segmentId);
+        if ((int) crc.getValue() == headCheckpoint.getInt(12)
+                && segment != null && offset <= segment.writeOffset) {
+            headSegmentId = segmentId;
+            headOffset = offset;
+        } else {
+            headSegmentId = segments.isEmpty() ? nextSegmentId : segments.get(0).id;
+            headOffset = 0;
+        }
+        while (!segments.isEmpty() && segments.get(0).id < headSegmentId) {
+            deleteSegment(segments.remove(0));
+        }
+        readSegmentId = headSegmentId;
+        readOffset = headOffset;
+    }
+
+    private int scanValidEnd(Segment segment) {
+        ByteBuffer buffer = segment.buffer;
+        int offset = 0;
+        while (offset + RECORD_HEADER_BYTES <= segment.size) {
+            int length = buffer.getInt(offset);
+            if (length <= 0 || length > segment.size - offset - RECORD_HEADER_BYTES) {
+                break;
+            }
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = buffer.get(offset + RECORD_HEADER_BYTES + i);
+            }
+            crc.reset();
+            crc.update(scratch, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(offset + 4)) {
+                break;
+            }
+            offset += RECORD_HEADER_BYTES + length;
+        }
+        return offset;
+    }
+
+    private void recountPending(long segmentId, int offset) {
+        pendingCount = 0;
+        pendingBytes = 0;
+        for (Segment segment : segments) {
+            if (segment.id < segmentId) continue;
+            int position = segment.id == segmentId ? offset : 0;
+            pendingBytes += segment.writeOffset - Math.min(position, segment.writeOffset);
+            while (position < segment.writeOffset) {
+                position += RECORD_HEADER_BYTES + segment.buffer.getInt(position);
+                pendingCount++;
+            }
+        }
+    }
+
+    private Segment rollSegment() throws IOException {
+        while (!segments.isEmpty() && segmentBytes + segmentSize > maxSizeBytes) {
+            dropOldestSegment();
+        }
+        long id = nextSegmentId++;
+        File file = segmentFile(id);
+        Segment segment = new Segment(id, file, map(file, segmentSize), segmentSize);
+        segment.buffer.putInt(0, 0);
+        segments.add(segment);
+        segmentBytes += segmentSize;
+        return segment;
+    }
+
+    private void dropOldestSegment() {
+        Segment oldest = segments.remove(0);
+        if (oldest.id >= headSegmentId) {
+            int position = oldest.id == headSegmentId ? Math.min(headOffset, oldest.writeOffset) : 0;
+            int dropped = 0;
+            pendingBytes -= oldest.writeOffset - position;
+            while (position < oldest.writeOffset) {
+                position += RECORD_HEADER_BYTES + oldest.buffer.getInt(position);
+                dropped++;
+            }
+            pendingCount -= dropped;
+            droppedCount += dropped;
+
+            headSegmentId = oldest.id + 1;
+            headOffset = 0;
+            if (readSegmentId <= oldest.id) {
+                readSegmentId = headSegmentId;
+                readOffset = 0;
+            }
+            writeHead();
+            releaseSealed();
+        }
+        deleteSegment(oldest);
+    }
+
+    /**
+     * Remember the end of a newly read batch, so the batch is read the same way again.
+     */
+    private void seal(long end) {
+        if (sealedCount == MAX_SEALED_BATCHES) {
+            // More batches outstanding than ever sent at once; forget the oldest
+            System.arraycopy(sealedEnds, 1, sealedEnds, 0, --sealedCount);
+        }
+        sealedEnds[sealedCount++] = end;
+        writeSealed();
+    }
+
+    /**
+     * Forget the ends of batches that are no longer past the head.
+     */
+    private void releaseSealed() {
+        long head = position(headSegmentId, headOffset);
+        int released = 0;
+        while (released < sealedCount && sealedEnds[released] <= head) {
+            released++;
+        }
+        if (released > 0) {
+            System.arraycopy(sealedEnds, released, sealedEnds, 0, sealedCount - released);
+            sealedCount -= released;
+            writeSealed();
+        }
+    }
+
+    private void recoverSealed() {
+        int count = sealedCheckpoint.getInt(0);
+        if (count < 0 || count > MAX_SEALED_BATCHES || sealedChecksum(count) != sealedCheckpoint.getInt(4)) {
+            clearSealed();
+            return;
+        }
+        sealedCount = count;
+        for (int i = 0; i < count; i++) {
+            sealedEnds[i] = sealedCheckpoint.getLong(8 + 8 * i);
+        }
+        releaseSealed();
+    }
+
+    private void clearSealed() {
+        sealedCount = 0;
+        writeSealed();
+    }
+
+    private void writeSealed() {
+        for (int i = 0; i < sealedCount; i++) {
+            sealedCheckpoint.putLong(8 + 8 * i, sealedEnds[i]);
+        }
+        sealedCheckpoint.putInt(4, sealedChecksum(sealedCount));
+        sealedCheckpoint.putInt(0, sealedCount);
+    }
+
+    private int sealedChecksum(int count) {
+        crc.reset();
+        crc.update(count);
+        for (int i = 0; i < count; i++) {
+            long end = sealedCheckpoint.getLong(8 + 8 * i);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                crc.update((int) (end >>> shift));
+            }
+        }
+        return (int) crc.getValue();
+    }
+
+    private String readStreamId() {
+        File file = new File(directory, STREAM_FILE);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] bytes = new byte[(int) Math.min(64, raf.length())];
+            raf.readFully(bytes);
+            String id = new String(bytes, StandardCharsets.UTF_8).trim();
+            return id.isEmpty() ? null : id;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void writeStreamId(String id) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(new File(directory, STREAM_FILE), "rw")) {
+            raf.setLength(0);
+            raf.write(id.getBytes(StandardCharsets.UTF_8));
+            raf.getFD().sync();
+        }
+    }
+
+    private void writeHead() {
+        crc.reset();
+        headCheckpoint.putLong(0, headSegmentId);
+        headCheckpoint.putInt(8, headOffset);
+        for (int i = 0; i < 12; i++) {
+            crc.update(headCheckpoint.get(i));
+        }
+        headCheckpoint.putInt(12, (int) crc.getValue());
+    }
+
+    private Segment segmentFor(long id) {
+        for (Segment segment : segments) {
+            if (segment.id == id) return segment;
+        }
+        return null;
+    }
+
+    private Segment segmentAfter(Segment segment) {
+        int index = segments.indexOf(segment);
+        return index >= 0 && index + 1 < segments.size() ? segments.get(index + 1) : null;
+    }
+
+    private int encode(String userId, double latitude, double longitude, long timestamp,
+                       float accuracy, String deviceInfo) {
+        byte[] userIdBytes = userIds.encode(userId);
+        byte[] deviceInfoBytes = deviceInfos.encode(deviceInfo);
+        int length = 8 + 8 + 8 + 4 + 2 + userIdBytes.length + 2 + deviceInfoBytes.length;
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+            scratchBuffer = ByteBuffer.wrap(scratch);
+        }
+
+        ByteBuffer out = scratchBuffer;
+        out.clear();
+        out.putLong(timestamp);
+        out.putDouble(latitude);
+        out.putDouble(longitude);
+        out.putFloat(accuracy);
+        out.putShort((short) userIdBytes.length).put(userIdBytes);
+        out.putShort((short) deviceInfoBytes.length).put(deviceInfoBytes);
+        return length;
+    }
+
+    private void decode(ByteBuffer buffer, int offset, LocationBuffer into) {
+        long timestamp = buffer.getLong(offset);
+        double latitude = buffer.getDouble(offset + 8);
+        double longitude = buffer.getDouble(offset + 16);
+        float accuracy = buffer.getFloat(offset + 24);
+        int position = offset + 28;
+        int userIdLength = buffer.getShort(position);
+        String userId = userIds.decode(buffer, position + 2, userIdLength);
+        position += 2 + userIdLength;
+        int deviceInfoLength = buffer.getShort(position);
+        String deviceInfo = deviceInfos.decode(buffer, position + 2, deviceInfoLength);
+        into.add(userId, latitude, longitude, timestamp, accuracy, deviceInfo);
+    }
+
+    /**
+     * @return Position of the record at the given offset of the given segment
+     */
+    static long position(long segmentId, int offset) {
+        return segmentId << 32 | offset;
+    }
+
+    private static int compare(long segmentA, int offsetA, long segmentB, int offsetB) {
+        if (segmentA != segmentB) return Long.compare(segmentA, segmentB);
+        return Integer.compare(offsetA, offsetB);
+    }
+
+    private File segmentFile(long id) {
+        return new File(directory, String.format(Locale.US, "%020d%s", id, SEGMENT_SUFFIX));
+    }
+
+    private void deleteSegment(Segment segment) {
+        segmentBytes -= segment.size;
+        deleteFile(segment.file);
+    }
+
+    private static void deleteFile(File file) {
+        if (!file.delete() && file.exists()) {
+            file.deleteOnExit();
+        }
+    }
+
+    private static MappedByteBuffer map(File file, int size) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (raf.length() != size) {
+                raf.setLength(size);
+            }
+            // The mapping stays valid after the channel is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.example.locationanalytics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded, lock-free multi-producer / single-consumer ring buffer of location fixes.
+ *
+ * <p>Any thread may {@link #offer} fixes and {@link #drain} them. Fixes are stored in
+ * primitive columns, and every slot carries a sequence number that tells producers when
+ * it is free and the consumer when it is published, so producers never take a lock or
+ * allocate while there is room.</p>
+ *
+ * <p>When the buffer is full, {@link OverflowPolicy#DROP_OLDEST} makes the producer
+ * claim the oldest published slot with the same compare-and-set the consumer uses,
+ * so a fix is either consumed or dropped - never both. Under {@link OverflowPolicy#SPILL}
+ * the producer hands the new fix to an overflow ring of the same size, and the consumer
+ * moves it to the spill sink on its next drain, once every fix ahead of it in this
+ * buffer is consumed. Producers keep feeding the overflow until it is empty again, so
+ * no fix overtakes an earlier one from the same producer. Only when the overflow is full
+ * too are its oldest fixes dropped and counted. Producers never write to a sink.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class LocationRingBuffer {
+    /** Default number of slots */
+    static final int DEFAULT_CAPACITY = 1024;
+
+    /**
+     * Receives fixes drained or spilled from the buffer.
+     */
+    interface Sink {
+        void accept(String userId, double latitude, double longitude, long timestamp,
+                    float accuracy, String deviceInfo);
+    }
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final long[] timestamps;
+    private final float[] accuracies;
+    private final String[] userIds;
+    private final String[] deviceInfos;
+    private final Sink spillSink;
+    /** Fixes that did not fit under {@link OverflowPolicy#SPILL}, newer than all fixes here; null otherwise */
+    private final LocationRingBuffer overflow;
+    /** Serializes drains */
+    private final ReentrantLock drainLock = new ReentrantLock();
+
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong spilledCount = new AtomicLong();
+
+    /**
+     * @param capacity Requested number of slots, rounded up to a power of two
+     * @param overflowPolicy What to do with new fixes when the buffer is full
+     * @param spillSink Receives, on drain, the fixes that did not fit; required for
+     *                  {@link OverflowPolicy#SPILL}
+     */
+    LocationRingBuffer(int capacity, OverflowPolicy overflowPolicy, Sink spillSink) {
+        if (overflowPolicy == OverflowPolicy.SPILL && spillSink == null) {
+            throw new IllegalArgumentException("SPILL overflow policy requires a spill sink");
+        }
+        this.capacity = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = this.capacity - 1;
+        this.spillSink = spillSink;
+        this.overflow = overflowPolicy == OverflowPolicy.SPILL
+                ? new LocationRingBuffer(this.capacity, OverflowPolicy.DROP_OLDEST, null) : null;
+        sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+        latitudes = new double[this.capacity];
+        longitudes = new double[this.capacity];
+        timestamps = new long[this.capacity];
+        accuracies = new float[this.capacity];
+        userIds = new String[this.capacity];
+        deviceInfos = new String[this.capacity];
+    }
+
+    /**
+     * Add a fix. Safe to call from any number of threads. Never takes a lock, never calls
+     * a sink and never allocates. The only wait is a retry while a full buffer's oldest
+     * slot has been claimed by another producer that has not yet published it.
+     *
+     * @return false if the fix went to the overflow or an older fix had to be dropped
+     */
+    boolean offer(String userId, double latitude, double longitude, long timestamp,
+                  float accuracy, String deviceInfo) {
+        if (overflow != null && !overflow.isEmpty()) {
+            // Follow the fixes already overflowed until the consumer has caught up
+            overflow.offer(userId, latitude, longitude, timestamp, accuracy, deviceInfo);
+            return false;
+        }
+
+        long position;
+        int index;
+        boolean dropped = false;
+        while (true) {
+            position = tail.get();
+            index = (int) position & mask;
+            long difference = sequences.get(index) - position;
+            if (difference == 0) {
+                if (tail.compareAndSet(position, position + 1)) break;
+            } else if (difference < 0) {
+                // The slot still holds the fix from one lap ago: the buffer is full
+                if (overflow != null) {
+                    overflow.offer(userId, latitude, longitude, timestamp, accuracy, deviceInfo);
+                    return false;
+                }
+                dropped = true;
+                dropOldest(position - capacity);
+            }
+            // Otherwise another producer claimed this position first; retry with the new tail
+        }
+
+        latitudes[index] = latitude;
+        longitudes[index] = longitude;
+        timestamps[index] = timestamp;
+        accuracies[index] = accuracy;
+        userIds[index] = userId;
+        deviceInfos[index] = deviceInfo;
+        // Publishing the sequence makes the fields above visible to the consumer
+        sequences.set(index, position + 1);
+        return !dropped;
+    }
+
+    /**
+     * Move buffered fixes to the sink in FIFO order, then the overflowed fixes to the
+     * spill sink. Drains are serialized, so neither sink is called concurrently by this
+     * buffer.
+     *
+     * @param sink Receives the fixes
+     * @param maxFixes Maximum number of fixes to drain, including overflowed ones
+     * @return Number of fixes drained
+     */
+    int drain(Sink sink, int maxFixes) {
+        drainLock.lock();
+        try {
+            int drained = drainLocked(sink, maxFixes, null);
+            if (overflow != null && drained < maxFixes) {
+                int spilled = overflow.drainLocked(spillSink, maxFixes - drained, this);
+                spilledCount.addAndGet(spilled);
+                drained += spilled;
+            }
+            return drained;
+        } finally {
+            drainLock.unlock();
+        }
+    }
+
+    /**
+     * @param ahead Buffer whose fixes must all be consumed before any fix of this one, or null
+     */
+    private int drainLocked(Sink sink, int maxFixes, LocationRingBuffer ahead) {
+        int drained = 0;
+        while (drained < maxFixes) {
+            long position = head.get();
+            int index = (int) position & mask;
+            if (sequences.get(index) != position + 1) {
+                if (position == head.get()) break;  // nothing published at the head
+                continue;                            // a producer dropped the head meanwhile
+            }
+            // Checked after seeing the fix published: a slot its producer claimed ahead of
+            // it is then visible in the tail, even if not yet published
+            if (ahead != null && ahead.head.get() != ahead.tail.get()) break;
+
+            double latitude = latitudes[index];
+            double longitude = longitudes[index];
+            long timestamp = timestamps[index];
+            float accuracy = accuracies[index];
+            String userId = userIds[index];
+            String deviceInfo = deviceInfos[index];
+            if (!head.compareAndSet(position, position + 1)) {
+                // A producer dropped this fix while we were reading it
+                continue;
+            }
+            userIds[index] = null;
+            deviceInfos[index] = null;
+            sequences.set(index, position + capacity);
+
+            sink.accept(userId, latitude, longitude, timestamp, accuracy, deviceInfo);
+            drained++;
+        }
+        return drained;
+    }
+
+    private void dropOldest(long position) {
+        if (head.get() != position) return;
+        int index = (int) position & mask;
+        if (sequences.get(index) != position + 1) {
+            // Claimed but not yet published by its producer; retry until it is
+            Thread.yield();
+            return;
+        }
+        if (head.compareAndSet(position, position + 1)) {
+            droppedCount.incrementAndGet();
+            userIds[index] = null;
+            deviceInfos[index] = null;
+            sequences.set(index, position + capacity);
+        }
+    }
+
+    /**
+     * @return Approximate number of buffered fixes, including overflowed ones
+     */
+    int size() {
+        long size = tail.get() - head.get();
+        int buffered = (int) Math.max(0, Math.min(capacity, size));
+        return overflow != null ? buffered + overflow.size() : buffered;
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return Number of fixes discarded: under {@link OverflowPolicy#DROP_OLDEST} when the
+     *         buffer is full, under {@link OverflowPolicy#SPILL} when the overflow is full too
+     */
+    long getDroppedCount() {
+        return overflow != null ? overflow.getDroppedCount() : droppedCount.get();
+    }
+
+    /**
+     * @return Number of overflowed fixes drained to the spill sink under {@link OverflowPolicy#SPILL}
+     */
+    long getSpilledCount() {
+        return spilledCount.get();
+    }
+}
@@ -0,0 +1,262 @@
+package com.example.locationanalytics;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+
+/**
+ * Live stream of the fixes the SDK records, for any number of independent subscribers.
+ * Obtain it with {@code LocationAnalyticsSDK.getLocationStream()}. Plays the part of a
+ * {@code java.util.concurrent.Flow.Publisher}, which is not available on all supported
+ * Android versions.
+ *
+ * <p>Every subscriber has its own bounded buffer and receives fixes only as it requests
+ * them. Recording a fix just adds it to each buffer, so a slow subscriber never holds up
+ * recording or uploads: once its buffer is full, its {@link BackpressureStrategy} decides
+ * which fixes it misses, and the misses are counted as
+ * {@link Metric#STREAM_FIXES_DROPPED}. A subscriber receives the fixes recorded after it
+ * subscribed.</p>
+ *
+ * <p>Thread-safe.</p>
+ */
+public final class LocationStream {
+    /** Buffer size of {@link #subscribe(LocationSubscriber)} */
+    public static final int DEFAULT_BUFFER_SIZE = 64;
+
+    /** Largest buffer a subscriber may ask for */
+    public static final int MAX_BUFFER_SIZE = 4096;
+
+    private final MetricsSink metrics;
+    private final Executor defaultExecutor;
+    private final CopyOnWriteArrayList<StreamSubscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param metrics Receives the number of fixes subscribers missed
+     * @param defaultExecutor Executor of {@link #subscribe(LocationSubscriber)}
+     */
+    LocationStream(MetricsSink metrics, Executor defaultExecutor) {
+        this.metrics = metrics;
+        this.defaultExecutor = defaultExecutor;
+    }
+
+    /**
+     * Subscribe on the main thread, with a buffer of {@value #DEFAULT_BUFFER_SIZE} fixes that
+     * drops the oldest when full.
+     *
+     * @param subscriber Subscriber to receive the fixes
+     */
+    public void subscribe(LocationSubscriber subscriber) {
+        subscribe(subscriber, DEFAULT_BUFFER_SIZE, BackpressureStrategy.DROP_OLDEST, defaultExecutor);
+    }
+
+    /**
+     * Subscribe.
+     *
+     * @param subscriber Subscriber to receive the fixes
+     * @param bufferSize Fixes kept for the subscriber until it requests them, from 1 to
+     *                   {@value #MAX_BUFFER_SIZE}
+     * @param strategy What to do with a new fix when the buffer is full
+     * @param executor Executor the subscriber is called on
+     * @throws IllegalArgumentException if an argument is null or the buffer size is out of range
+     */
+    public void subscribe(LocationSubscriber subscriber, int bufferSize, BackpressureStrategy strategy,
+                          Executor executor) {
+        if (subscriber == null) {
+            throw new IllegalArgumentException("Subscriber must not be null");
+        }
+        if (bufferSize < 1 || bufferSize > MAX_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Buffer size must be between 1 and " + MAX_BUFFER_SIZE);
+        }
+        if (strategy == null) {
+            throw new IllegalArgumentException("BackpressureStrategy must not be null");
+        }
+        if (executor == null) {
+            throw new IllegalArgumentException("Executor must not be null");
+        }
+        StreamSubscription subscription = new StreamSubscription(subscriber, bufferSize, strategy, executor);
+        subscriptions.add(subscription);
+        // Delivers onSubscribe
+        executor.execute(subscription);
+    }
+
+    /**
+     * @return Number of active subscriptions
+     */
+    int getSubscriberCount() {
+        return subscriptions.size();
+    }
+
+    /**
+     * Offer a recorded fix to every subscriber. Never blocks; allocates nothing without
+     * subscribers.
+     */
+    void publish(String userId, double latitude, double longitude, long timestamp, float accuracy,
+                 String deviceInfo) {
+        if (subscriptions.isEmpty()) return;
+        LocationData location = new LocationData(userId, latitude, longitude, timestamp, accuracy, deviceInfo);
+        for (StreamSubscription subscription : subscriptions) {
+            subscription.offer(location);
+        }
+    }
+
+    /**
+     * One subscriber's buffer and demand. Deliveries run as a task on the subscriber's
+     * executor, which drains the buffer while there is demand; at most one such task is
+     * scheduled at a time, so calls to the subscriber never overlap.
+     */
+    private final class StreamSubscription implements LocationSubscription, Runnable {
+        private final LocationSubscriber subscriber;
+        private final BackpressureStrategy strategy;
+        private final Executor executor;
+        private final LocationData[] buffer;
+        private int head;
+        private int size;
+        private long requested;
+        /** Error to deliver; the subscription accepts nothing more once set */
+        private Throwable error;
+        private boolean cancelled;
+        /** Whether onSubscribe was delivered */
+        private boolean subscribed;
+        /** Whether a delivery task is scheduled or running; the first one delivers onSubscribe */
+        private boolean scheduled = true;
+
+        StreamSubscription(LocationSubscriber subscriber, int bufferSize, BackpressureStrategy strategy,
+                           Executor executor) {
+            this.subscriber = subscriber;
+            this.strategy = strategy;
+            this.executor = executor;
+            this.buffer = new LocationData[bufferSize];
+        }
+
+        void offer(LocationData location) {
+            synchronized (this) {
+                if (cancelled || error != null) return;
+                if (size == buffer.length) {
+                    metrics.increment(Metric.STREAM_FIXES_DROPPED, 1);
+                    if (strategy == BackpressureStrategy.DROP_NEWEST) return;
+                    if (strategy == BackpressureStrategy.ERROR) {
+                        fail(new IllegalStateException("Subscriber fell more than " + buffer.length
+                                + " fixes behind"));
+                    } else {
+                        buffer[head] = null;
+                        head = (head + 1) % buffer.length;
+                        size--;
+                    }
+                }
+                if (error == null) {
+                    buffer[(head + size) % buffer.length] = location;
+                    size++;
+                }
+                if (!schedule()) return;
+            }
+            executor.execute(this);
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (cancelled || error != null) return;
+                if (n <= 0) {
+                    fail(new IllegalArgumentException("Requested " + n + " fixes; requests must be positive"));
+                } else {
+                    requested = requested + n < 0 ? Long.MAX_VALUE : requested + n;
+                }
+                if (!schedule()) return;
+            }
+            executor.execute(this);
+        }
+
+        @Override
+        public void cancel() {
+            synchronized (this) {
+                cancelled = true;
+                clear();
+            }
+            subscriptions.remove(this);
+        }
+
+        @Override
+        public void run() {
+            boolean subscribe;
+            synchronized (this) {
+                subscribe = !subscribed;
+                subscribed = true;
+            }
+            // The subscriber is called without the lock, so it may request or cancel from any thread
+            try {
+                if (subscribe) {
+                    subscriber.onSubscribe(this);
+                }
+                deliver();
+            } catch (RuntimeException e) {
+                // A subscriber that throws is cancelled, as the Flow contract allows
+                cancel();
+                throw e;
+            }
+        }
+
+        private void deliver() {
+            while (true) {
+                LocationData next;
+                Throwable failure;
+                synchronized (this) {
+                    if (cancelled || error == null && (size == 0 || requested == 0)) {
+                        scheduled = false;
+                        return;
+                    }
+                    failure = error;
+                    // The error is delivered once, as the last call
+                    cancelled = failure != null;
+                    next = failure == null ? take() : null;
+                }
+                if (failure != null) {
+                    subscriber.onError(failure);
+                    return;
+                }
+                subscriber.onNext(next);
+            }
+        }
+
+        /**
+         * Take the oldest buffered fix against one requested. Called with the lock held.
+         */
+        private LocationData take() {
+            LocationData location = buffer[head];
+            buffer[head] = null;
+            head = (head + 1) % buffer.length;
+            size--;
+            if (requested != Long.MAX_VALUE) {
+                requested--;
+            }
+            return location;
+        }
+
+        /**
+         * Mark a delivery task as scheduled if there is something to deliver and none is.
+         *
+         * @return Whether the caller must execute this task
+         */
+        private boolean schedule() {
+            if (scheduled || cancelled) return false;
+            if (error == null && (size == 0 || requested == 0)) return false;
+            scheduled = true;
+            return true;
+        }
+
+        /**
+         * End the subscription with an error, delivered by the next task. Called with the lock held.
+         */
+        private void fail(Throwable failure) {
+            error = failure;
+            clear();
+            subscriptions.remove(this);
+        }
+
+        private void clear() {
+            for (int i = 0; i < size; i++) {
+                buffer[(head + i) % buffer.length] = null;
+            }
+            head = 0;
+            size = 0;
+        }
+    }
+}
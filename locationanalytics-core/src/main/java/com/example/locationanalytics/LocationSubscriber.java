@@ -0,0 +1,35 @@
+package com.example.locationanalytics;
+
+/**
+ * Receives fixes from a {@link LocationStream}, at the pace it asks for them. Follows the
+ * contract of {@code java.util.concurrent.Flow.Subscriber}, which is not available on all
+ * supported Android versions.
+ *
+ * <p>Calls to one subscriber never overlap and are made on the executor given when
+ * subscribing.</p>
+ */
+public interface LocationSubscriber {
+    /**
+     * Called once, before any other call. No fixes are delivered until they are requested
+     * with {@link LocationSubscription#request(long)}.
+     *
+     * @param subscription Subscription to request fixes from or to cancel
+     */
+    void onSubscribe(LocationSubscription subscription);
+
+    /**
+     * Called with the next fix, at most as many times as requested.
+     *
+     * @param location The fix
+     */
+    void onNext(LocationData location);
+
+    /**
+     * Called when the subscription ended because of an error: a non-positive request, or
+     * the buffer overflowing with {@link BackpressureStrategy#ERROR}. No further calls
+     * follow.
+     *
+     * @param error The error
+     */
+    void onError(Throwable error);
+}
@@ -0,0 +1,20 @@
+package com.example.locationanalytics;
+
+/**
+ * A {@link LocationSubscriber}'s link to a {@link LocationStream}. Follows the contract of
+ * {@code java.util.concurrent.Flow.Subscription}. May be called from any thread.
+ */
+public interface LocationSubscription {
+    /**
+     * Ask for up to {@code n} more fixes. Demand adds up; {@link Long#MAX_VALUE} asks for
+     * every fix.
+     *
+     * @param n Number of fixes; a non-positive number ends the subscription with an error
+     */
+    void request(long n);
+
+    /**
+     * Stop receiving fixes. Buffered fixes are dropped.
+     */
+    void cancel();
+}
@@ -0,0 +1,72 @@
+package com.example.locationanalytics;
+
+/**
+ * Measurements the SDK reports to its {@link MetricsSink}.
+ */
+public enum Metric {
+    /** Location updates delivered by the location provider */
+    FIXES_RECEIVED(Kind.COUNTER),
+
+    /** Location updates ignored because they arrived within the tracking interval */
+    FIXES_SKIPPED(Kind.COUNTER),
+
+    /** Location updates dropped because the pipeline or an ingest buffer was full, or too large to queue */
+    FIXES_DROPPED(Kind.COUNTER),
+
+    /** Locations that went to the upload queue through an overflow because an ingest buffer was full */
+    FIXES_SPILLED(Kind.COUNTER),
+
+    /** Fixes a {@link LocationStream} subscriber missed because its buffer was full */
+    STREAM_FIXES_DROPPED(Kind.COUNTER),
+
+    /** Location requests rebuilt because adaptive sampling changed to another tier */
+    SAMPLING_TIER_CHANGES(Kind.COUNTER),
+
+    /** Locations acknowledged by the server */
+    LOCATIONS_UPLOADED(Kind.COUNTER),
+
+    /** Upload requests that failed and were scheduled for retry */
+    UPLOADS_FAILED(Kind.COUNTER),
+
+    /** Upload attempts made by the retry timer */
+    UPLOAD_RETRIES(Kind.COUNTER),
+
+    /** Time from a location being recorded until the server acknowledged it, in milliseconds */
+    FIX_TO_ACK_MILLIS(Kind.HISTOGRAM),
+
+    /** Locations per acknowledged upload */
+    BATCH_SIZE(Kind.HISTOGRAM),
+
+    /** Size of each encoded upload body in bytes, before any transport compression */
+    ENCODED_BYTES(Kind.HISTOGRAM),
+
+    /** Locations waiting in the persistent upload queue, sampled whenever new ones are queued */
+    QUEUE_DEPTH(Kind.HISTOGRAM),
+
+    /** Time from a statistics call until its result or error was available, in milliseconds */
+    STATISTICS_LATENCY_MILLIS(Kind.HISTOGRAM);
+
+    /**
+     * How a metric is reported.
+     */
+    public enum Kind {
+        /** Reported through {@link MetricsSink#increment(Metric, long)} */
+        COUNTER,
+        /** Reported through {@link MetricsSink#record(Metric, long)} */
+        HISTOGRAM
+    }
+
+    private final Kind kind;
+
+    Metric(Kind kind) {
+        this.kind = kind;
+    }
+
+    /**
+     * Get how this metric is reported.
+     * @return Counter or histogram
+     */
+    public Kind getKind() {
+        return kind;
+    }
+}
@@ -0,0 +1,28 @@
+package com.example.locationanalytics;
+
+/**
+ * Receives the SDK's counters and histogram samples, e.g. to forward them to an app's
+ * own monitoring. Configure one with {@code LocationAnalyticsSDK.Builder#setMetricsSink(MetricsSink)};
+ * by default an {@link InMemoryMetricsSink} aggregates them.
+ *
+ * <p>Methods are called from the SDK's background threads, often on the path of every
+ * location update, so implementations must be thread-safe, must not block and must not
+ * throw.</p>
+ */
+public interface MetricsSink {
+    /**
+     * Add to a counter.
+     *
+     * @param metric A metric of kind {@link Metric.Kind#COUNTER}
+     * @param delta Amount to add
+     */
+    void increment(Metric metric, long delta);
+
+    /**
+     * Record one sample of a histogram.
+     *
+     * @param metric A metric of kind {@link Metric.Kind#HISTOGRAM}
+     * @param value The sample
+     */
+    void record(Metric metric, long value);
+}
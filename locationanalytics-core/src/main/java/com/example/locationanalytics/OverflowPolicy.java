@@ -0,0 +1,19 @@
+package com.example.locationanalytics;
+
+/**
+ * What the SDK does with a new location when its in-memory ingest buffer is full,
+ * e.g. because the upload queue cannot keep up with a burst of fixes.
+ * Recording a location never blocks either way.
+ */
+public enum OverflowPolicy {
+    /** Discard the oldest buffered location to make room for the new one */
+    DROP_OLDEST,
+
+    /**
+     * Keep locations that do not fit. The ingest buffer sets them aside in an overflow of
+     * the same size, which the background writer empties into the persistent upload queue,
+     * and drops the oldest of them only if the overflow fills up too. The fleet buffer
+     * writes them straight to the persistent upload queue.
+     */
+    SPILL
+}
@@ -0,0 +1,21 @@
+package com.example.locationanalytics;
+
+/**
+ * Stages of the SDK's background processing pipeline. Each stage runs on its own
+ * background thread and is fed through a bounded queue.
+ *
+ * @see LocationAnalyticsSDK#getPipelineQueueDepths()
+ */
+public enum PipelineStage {
+    /** Receives location results from Play Services */
+    INGEST,
+
+    /** Applies the tracking interval and records accepted fixes */
+    FILTER,
+
+    /** Moves recorded fixes to the persistent queue and prepares upload batches */
+    ENCODE,
+
+    /** Sends batches to the server and handles the responses */
+    UPLOAD
+}
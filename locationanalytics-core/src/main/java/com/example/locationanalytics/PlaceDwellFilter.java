@@ -0,0 +1,207 @@
+package com.example.locationanalytics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Replaces the fixes recorded while the user dwells at one of their frequent places by an
+ * entry fix, a dwell summary and an exit fix, before they are queued for upload.
+ *
+ * <p>Frequent places are the stops visited at least {@link #MIN_VISITS} times, from the
+ * server's statistics and from on-device stop detection, indexed in a
+ * {@link KnownPlaceIndex}. A fix within {@link #PLACE_RADIUS_METERS} of one of them is
+ * the entry: it is emitted, and later fixes are held back while they stay within the
+ * radius plus {@link #EXIT_MARGIN_METERS} (and their own accuracy, up to the radius). The
+ * first fix beyond that ends the dwell, which is emitted as:</p>
+ * <ul>
+ *   <li>a summary fix at the mean position and the middle time of the held-back fixes,
+ *       with their mean accuracy, and</li>
+ *   <li>the exit fix: the last held-back fix within the radius, at its own time.</li>
+ * </ul>
+ *
+ * <p>The radius is half the server's stop radius, so entry, summary and exit lie within
+ * a stop radius of each other and the server still detects the stop, with its duration,
+ * from these three fixes. A night at home therefore uploads three fixes instead of
+ * hundreds. {@link #flush(LocationRingBuffer.Sink)} emits the dwell so far without
+ * ending it, so an explicit upload never withholds the latest position.</p>
+ *
+ * <p>Not thread-safe; the SDK only uses it on the filter stage.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class PlaceDwellFilter {
+    /** Radius of a known place: half the stop radius, so dwell fixes form a stop on the server */
+    static final double PLACE_RADIUS_METERS = StopDetector.STOP_RADIUS_METERS / 2;
+
+    /** Distance beyond the radius a fix may stray without ending the dwell */
+    static final double EXIT_MARGIN_METERS = 50;
+
+    /** Visits after which a stop counts as a known place */
+    static final int MIN_VISITS = 2;
+
+    /** Fixes less accurate than this never start a dwell */
+    static final float MAX_ENTRY_ACCURACY_METERS = 100;
+
+    private KnownPlaceIndex places = KnownPlaceIndex.EMPTY;
+    private String placesUserId;
+
+    private boolean dwelling;
+    private double placeLatitude;
+    private double placeLongitude;
+    private String userId;
+    private String deviceInfo;
+
+    // Fixes held back since the entry or the last flush
+    private int heldCount;
+    private double heldLatitudeSum;
+    private double heldLongitudeSum;
+    private double heldAccuracySum;
+    private long heldFirstTimestamp;
+    private long heldLastTimestamp;
+    private boolean hasExit;
+    private double exitLatitude;
+    private double exitLongitude;
+    private long exitTimestamp;
+    private float exitAccuracy;
+
+    private long inputCount;
+    private long outputCount;
+    private long dwellCount;
+
+    /**
+     * Replace the known places of a user with their frequent stops.
+     *
+     * @param serverStops Stops from the server's statistics
+     * @param localStops Stops detected on the device
+     */
+    void setPlaces(String userId, List<UserStatistics.LocationStop> serverStops,
+                   List<UserStatistics.LocationStop> localStops) {
+        List<UserStatistics.LocationStop> frequent = new ArrayList<>(serverStops.size() + localStops.size());
+        for (UserStatistics.LocationStop stop : serverStops) {
+            if (stop.getVisitCount() >= MIN_VISITS) frequent.add(stop);
+        }
+        for (UserStatistics.LocationStop stop : localStops) {
+            if (stop.getVisitCount() >= MIN_VISITS) frequent.add(stop);
+        }
+        places = KnownPlaceIndex.of(frequent, PLACE_RADIUS_METERS);
+        placesUserId = userId;
+    }
+
+    /**
+     * Add a fix, emitting it unless it is held back as part of a dwell.
+     */
+    void add(String userId, double latitude, double longitude, long timestamp, float accuracy,
+             String deviceInfo, LocationRingBuffer.Sink out) {
+        inputCount++;
+        if (dwelling) {
+            if (Objects.equals(userId, this.userId) && Objects.equals(deviceInfo, this.deviceInfo)) {
+                double distance = GeoUtils.distanceMeters(placeLatitude, placeLongitude, latitude, longitude);
+                if (distance <= PLACE_RADIUS_METERS + EXIT_MARGIN_METERS
+                        + Math.min(accuracy, PLACE_RADIUS_METERS)) {
+                    hold(latitude, longitude, timestamp, accuracy, distance <= PLACE_RADIUS_METERS);
+                    return;
+                }
+            }
+            flush(out);
+            dwelling = false;
+        }
+
+        if (userId != null && userId.equals(placesUserId) && accuracy <= MAX_ENTRY_ACCURACY_METERS) {
+            int place = places.find(latitude, longitude);
+            if (place >= 0) {
+                dwelling = true;
+                dwellCount++;
+                placeLatitude = places.getLatitude(place);
+                placeLongitude = places.getLongitude(place);
+                this.userId = userId;
+                this.deviceInfo = deviceInfo;
+            }
+        }
+        emit(userId, latitude, longitude, timestamp, accuracy, deviceInfo, out);
+    }
+
+    /**
+     * Emit the fixes held back so far as a summary and an exit fix, e.g. before an explicit
+     * upload. A dwell in progress continues.
+     */
+    void flush(LocationRingBuffer.Sink out) {
+        if (heldCount == 0) return;
+
+        // A single held-back fix within the radius is emitted as itself
+        boolean summary = heldCount > 1 || !hasExit;
+        long summaryTimestamp = heldFirstTimestamp + (heldLastTimestamp - heldFirstTimestamp) / 2;
+        if (hasExit && exitTimestamp < summaryTimestamp) {
+            emit(userId, exitLatitude, exitLongitude, exitTimestamp, exitAccuracy, deviceInfo, out);
+            hasExit = false;
+        }
+        if (summary) {
+            emit(userId, heldLatitudeSum / heldCount, heldLongitudeSum / heldCount, summaryTimestamp,
+                    (float) (heldAccuracySum / heldCount), deviceInfo, out);
+        }
+        if (hasExit) {
+            emit(userId, exitLatitude, exitLongitude, exitTimestamp, exitAccuracy, deviceInfo, out);
+        }
+        heldCount = 0;
+        heldLatitudeSum = 0;
+        heldLongitudeSum = 0;
+        heldAccuracySum = 0;
+        hasExit = false;
+    }
+
+    boolean isDwelling() {
+        return dwelling;
+    }
+
+    /**
+     * @return Number of known places of the user set with {@link #setPlaces}
+     */
+    int getPlaceCount() {
+        return places.size();
+    }
+
+    /**
+     * @return Number of fixes passed to {@link #add}
+     */
+    long getInputCount() {
+        return inputCount;
+    }
+
+    /**
+     * @return Number of fixes emitted, including summaries
+     */
+    long getOutputCount() {
+        return outputCount;
+    }
+
+    /**
+     * @return Number of dwells started
+     */
+    long getDwellCount() {
+        return dwellCount;
+    }
+
+    private void hold(double latitude, double longitude, long timestamp, float accuracy, boolean withinRadius) {
+        if (heldCount == 0) {
+            heldFirstTimestamp = timestamp;
+        }
+        heldCount++;
+        heldLatitudeSum += latitude;
+        heldLongitudeSum += longitude;
+        heldAccuracySum += accuracy;
+        heldLastTimestamp = timestamp;
+        if (withinRadius) {
+            hasExit = true;
+            exitLatitude = latitude;
+            exitLongitude = longitude;
+            exitTimestamp = timestamp;
+            exitAccuracy = accuracy;
+        }
+    }
+
+    private void emit(String userId, double latitude, double longitude, long timestamp, float accuracy,
+                      String deviceInfo, LocationRingBuffer.Sink out) {
+        outputCount++;
+        out.accept(userId, latitude, longitude, timestamp, accuracy, deviceInfo);
+    }
+}
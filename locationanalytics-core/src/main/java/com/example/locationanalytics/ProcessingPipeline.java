@@ -0,0 +1,195 @@
+package com.example.locationanalytics;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Background threads for the ingest, filter, encode and upload pipeline stages.
+ *
+ * <p>Every stage is a single dedicated daemon thread, so work within a stage runs in
+ * order and needs no locking against itself. Work is handed between stages through
+ * bounded queues; a full queue rejects the task instead of blocking the caller, and
+ * rejections are counted, except for callbacks that must not be lost, which wait for
+ * room. The hand-offs into {@link PipelineStage#ENCODE} and
+ * {@link PipelineStage#UPLOAD} are the ingest ring buffer and the persistent upload
+ * queue, so their depths are reported through the suppliers given to the constructor.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class ProcessingPipeline implements StageExecutor {
+    private static final int INGEST_QUEUE_CAPACITY = 64;
+    private static final int FILTER_QUEUE_CAPACITY = 256;
+    private static final int UPLOAD_QUEUE_CAPACITY = 16;
+
+    /** Stage of the current thread, or null outside the pipeline */
+    private static final ThreadLocal<PipelineStage> CURRENT_STAGE = new ThreadLocal<>();
+
+    private final ThreadPoolExecutor ingest;
+    private final ThreadPoolExecutor filter;
+    private final ScheduledThreadPoolExecutor encode;
+    private final ThreadPoolExecutor upload;
+    private final IntSupplier encodeBacklog;
+    private final IntSupplier uploadBacklog;
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    /**
+     * @param encodeBacklog Reports fixes waiting to be encoded (the ingest ring buffer)
+     * @param uploadBacklog Reports records waiting to be uploaded (the persistent queue)
+     */
+    ProcessingPipeline(IntSupplier encodeBacklog, IntSupplier uploadBacklog) {
+        this.encodeBacklog = encodeBacklog;
+        this.uploadBacklog = uploadBacklog;
+        ingest = boundedStage(PipelineStage.INGEST, INGEST_QUEUE_CAPACITY);
+        filter = boundedStage(PipelineStage.FILTER, FILTER_QUEUE_CAPACITY);
+        upload = boundedStage(PipelineStage.UPLOAD, UPLOAD_QUEUE_CAPACITY);
+
+        // Encode work is coalesced by the SDK (one pending drain plus two timers at most),
+        // and its real inbound queue is the ring buffer, so the delay queue stays tiny
+        encode = new ScheduledThreadPoolExecutor(1, threadFactory(PipelineStage.ENCODE));
+        encode.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Run a task on a stage's thread.
+     *
+     * @return false if the stage's queue is full and the task was dropped
+     */
+    @Override
+    public boolean execute(PipelineStage stage, Runnable task) {
+        if (tryExecute(stage, task)) return true;
+        rejectedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Run a task on the encode stage after a delay.
+     */
+    @Override
+    public ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return encode.schedule(task, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return Executor that runs tasks on a stage and drops them when the stage is full,
+     *         so callers such as Play Services never block or see an exception
+     */
+    Executor executorFor(PipelineStage stage) {
+        return task -> execute(stage, task);
+    }
+
+    /**
+     * @return Executor that runs tasks on a stage, for callbacks that must not be lost,
+     *         such as HTTP responses. When the stage is full the calling thread waits for
+     *         room, so the tasks still run on the stage's thread and in order; only the
+     *         stage's own thread runs them directly, as it cannot wait for itself.
+     */
+    Executor blockingExecutorFor(PipelineStage stage) {
+        return task -> {
+            // Not counted as a rejection while it waits: the task is not dropped
+            if (tryExecute(stage, task)) return;
+            if (CURRENT_STAGE.get() == stage) {
+                task.run();
+                return;
+            }
+            enqueue(stageExecutor(stage), task);
+        };
+    }
+
+    /**
+     * @return Number of items waiting to enter each stage
+     */
+    Map<PipelineStage, Integer> getQueueDepths() {
+        Map<PipelineStage, Integer> depths = new EnumMap<>(PipelineStage.class);
+        depths.put(PipelineStage.INGEST, ingest.getQueue().size());
+        depths.put(PipelineStage.FILTER, filter.getQueue().size());
+        depths.put(PipelineStage.ENCODE, encodeBacklog.getAsInt());
+        depths.put(PipelineStage.UPLOAD, uploadBacklog.getAsInt());
+        return depths;
+    }
+
+    /**
+     * @return Number of tasks dropped because a stage's queue was full
+     */
+    long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Wait for room in a full stage's queue. The stage's thread exists, since it is what
+     * keeps the queue full, and interrupts do not make the task get lost.
+     */
+    private void enqueue(ThreadPoolExecutor executor, Runnable task) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                if (executor.isShutdown()) {
+                    rejectedCount.incrementAndGet();
+                    return;
+                }
+                try {
+                    if (executor.getQueue().offer(task, 100, TimeUnit.MILLISECONDS)) return;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private boolean tryExecute(PipelineStage stage, Runnable task) {
+        try {
+            stageExecutor(stage).execute(task);
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    private ThreadPoolExecutor stageExecutor(PipelineStage stage) {
+        switch (stage) {
+            case INGEST:
+                return ingest;
+            case FILTER:
+                return filter;
+            case ENCODE:
+                return encode;
+            default:
+                return upload;
+        }
+    }
+
+    private static ThreadPoolExecutor boundedStage(PipelineStage stage, int capacity) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(capacity), threadFactory(stage));
+        executor.setRejectedExecutionHandler((task, pool) -> {
+            throw new RejectedExecutionException("Pipeline stage " + stage + " is full");
+        });
+        return executor;
+    }
+
+    private static ThreadFactory threadFactory(PipelineStage stage) {
+        return runnable -> {
+            Thread thread = new Thread(() -> {
+                CURRENT_STAGE.set(stage);
+                runnable.run();
+            }, "LocationAnalytics-" + stage.name().toLowerCase(Locale.ROOT));
+            thread.setDaemon(true);
+            thread.setPriority(Thread.NORM_PRIORITY - 1);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,138 @@
+package com.example.locationanalytics;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Decides when failed uploads are retried.
+ *
+ * <p>Retries use exponential backoff with full jitter, so devices that failed together
+ * do not retry together. A server-provided {@code Retry-After} is honoured as a lower
+ * bound. After {@code failureThreshold} consecutive failures the circuit breaker opens
+ * and no uploads are attempted until the cooldown ends; the next attempt is then a single
+ * half-open probe that either closes the breaker or opens it again.</p>
+ *
+ * <p>The scheduler only keeps state; the SDK owns the single retry timer and asks
+ * {@link #canAttempt(long, boolean)} before every upload. All times are passed in, in
+ * milliseconds, so the logic does not depend on a particular clock.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class RetryScheduler {
+    /** Default delay before the first retry - 5 seconds */
+    static final long DEFAULT_BASE_DELAY_MILLIS = 5000;
+
+    /** Default upper bound for a single backoff delay - 10 minutes */
+    static final long DEFAULT_MAX_DELAY_MILLIS = 10 * 60 * 1000;
+
+    /** Default number of consecutive failures that opens the circuit breaker */
+    static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+    /** Default time the circuit breaker stays open - 5 minutes */
+    static final long DEFAULT_OPEN_COOLDOWN_MILLIS = 5 * 60 * 1000;
+
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final int failureThreshold;
+    private final long openCooldownMillis;
+    private final DoubleSupplier jitter;
+
+    private RetryState.CircuitState circuitState = RetryState.CircuitState.CLOSED;
+    private int consecutiveFailures;
+    private long totalFailures;
+    private long nextAttemptTimeMillis;
+    private boolean probeInFlight;
+    private String lastError;
+
+    RetryScheduler() {
+        this(DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS, DEFAULT_FAILURE_THRESHOLD,
+                DEFAULT_OPEN_COOLDOWN_MILLIS, () -> ThreadLocalRandom.current().nextDouble());
+    }
+
+    /**
+     * @param jitter Source of uniform values in [0, 1) that scale each backoff delay
+     */
+    RetryScheduler(long baseDelayMillis, long maxDelayMillis, int failureThreshold,
+                   long openCooldownMillis, DoubleSupplier jitter) {
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.failureThreshold = failureThreshold;
+        this.openCooldownMillis = openCooldownMillis;
+        this.jitter = jitter;
+    }
+
+    /**
+     * Check whether an upload may start now, and mark it as started.
+     *
+     * @param nowMillis Current time
+     * @param ignoreBackoff true for explicit flushes, which skip the backoff delay but
+     *                      still respect an open circuit breaker
+     * @return true if the upload may proceed
+     */
+    synchronized boolean canAttempt(long nowMillis, boolean ignoreBackoff) {
+        switch (circuitState) {
+            case OPEN:
+                if (nowMillis < nextAttemptTimeMillis) return false;
+                circuitState = RetryState.CircuitState.HALF_OPEN;
+                probeInFlight = true;
+                return true;
+            case HALF_OPEN:
+                if (probeInFlight) return false;
+                probeInFlight = true;
+                return true;
+            default:
+                return ignoreBackoff || nowMillis >= nextAttemptTimeMillis;
+        }
+    }
+
+    /**
+     * Release an attempt granted by {@link #canAttempt(long, boolean)} that was not used.
+     */
+    synchronized void cancelAttempt() {
+        probeInFlight = false;
+    }
+
+    /**
+     * Record a successful upload; closes the circuit breaker and resets the backoff.
+     */
+    synchronized void onSuccess() {
+        circuitState = RetryState.CircuitState.CLOSED;
+        consecutiveFailures = 0;
+        nextAttemptTimeMillis = 0;
+        probeInFlight = false;
+    }
+
+    /**
+     * Record a failed upload and compute when to try again.
+     *
+     * @param nowMillis Current time
+     * @param retryAfterMillis Delay requested by the server, or 0 if none
+     * @param error Error message for monitoring
+     * @return Delay in milliseconds until the next attempt
+     */
+    synchronized long onFailure(long nowMillis, long retryAfterMillis, String error) {
+        consecutiveFailures++;
+        totalFailures++;
+        lastError = error;
+        probeInFlight = false;
+
+        long delay;
+        if (circuitState == RetryState.CircuitState.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+            circuitState = RetryState.CircuitState.OPEN;
+            delay = openCooldownMillis;
+        } else {
+            // Full jitter: uniform in [0, min(max, base * 2^(failures - 1))]
+            int exponent = Math.min(consecutiveFailures - 1, 30);
+            long ceiling = Math.min(maxDelayMillis, baseDelayMillis << exponent);
+            delay = (long) (jitter.getAsDouble() * ceiling);
+        }
+        delay = Math.max(delay, retryAfterMillis);
+        nextAttemptTimeMillis = nowMillis + delay;
+        return delay;
+    }
+
+    synchronized RetryState getState() {
+        return new RetryState(circuitState, consecutiveFailures, totalFailures,
+                consecutiveFailures > 0 ? nextAttemptTimeMillis : 0, lastError);
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.locationanalytics;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Snapshot of the upload retry scheduler and circuit breaker, for monitoring.
+ * Obtain one through {@code LocationAnalyticsSDK#getRetryState()}.
+ */
+public class RetryState {
+    /**
+     * State of the upload circuit breaker.
+     */
+    public enum CircuitState {
+        /** Uploads are attempted normally, with backoff after failures */
+        CLOSED,
+        /** Too many consecutive failures; uploads are paused until the cooldown ends */
+        OPEN,
+        /** Cooldown ended; a single probe upload decides whether to close or re-open */
+        HALF_OPEN
+    }
+
+    private final CircuitState circuitState;
+    private final int consecutiveFailures;
+    private final long totalFailures;
+    private final long nextAttemptTimeMillis;
+    private final String lastError;
+
+    RetryState(CircuitState circuitState, int consecutiveFailures, long totalFailures,
+               long nextAttemptTimeMillis, String lastError) {
+        this.circuitState = circuitState;
+        this.consecutiveFailures = consecutiveFailures;
+        this.totalFailures = totalFailures;
+        this.nextAttemptTimeMillis = nextAttemptTimeMillis;
+        this.lastError = lastError;
+    }
+
+    /**
+     * Get the current circuit breaker state.
+     * @return Circuit state
+     */
+    public CircuitState getCircuitState() {
+        return circuitState;
+    }
+
+    /**
+     * Get the number of failed uploads since the last successful one.
+     * @return Consecutive failure count
+     */
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Get the number of failed uploads since the SDK was created.
+     * @return Total failure count
+     */
+    public long getTotalFailures() {
+        return totalFailures;
+    }
+
+    /**
+     * Get the time of the next scheduled upload attempt.
+     * @return Timestamp in milliseconds, or 0 if no retry is pending
+     */
+    public long getNextAttemptTimeMillis() {
+        return nextAttemptTimeMillis;
+    }
+
+    /**
+     * Get the error message of the most recent failed upload.
+     * @return Error message or null if no upload has failed yet
+     */
+    public String getLastError() {
+        return lastError;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "RetryState{" +
+                "circuitState=" + circuitState +
+                ", consecutiveFailures=" + consecutiveFailures +
+                ", totalFailures=" + totalFailures +
+                ", nextAttemptTimeMillis=" + nextAttemptTimeMillis +
+                ", lastError='" + lastError + '\'' +
+                '}';
+    }
+}
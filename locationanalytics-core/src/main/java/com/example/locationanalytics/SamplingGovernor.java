@@ -0,0 +1,254 @@
+package com.example.locationanalytics;
+
+/**
+ * Picks the {@link SamplingTier} for adaptive sampling from the observed motion, and keeps
+ * the account of fixes and estimated battery charge against fixed-interval sampling.
+ *
+ * <p>Speed comes from the fix when the provider reports one, and otherwise from the
+ * displacement since the previous fix, ignoring displacements within the fix accuracy.
+ * A device that stays within {@link #STATIONARY_RADIUS_METERS} (or the fix accuracy, if
+ * larger) for {@link #STATIONARY_DWELL_MILLIS} is stationary. Faster tiers are taken at
+ * once, so the start of a trip is sampled densely; slower ones only after
+ * {@link #DOWNGRADE_DELAY_MILLIS} of slower movement, so a traffic light does not cause
+ * two request changes. Going stationary needs no further delay, the dwell already is one.</p>
+ *
+ * <p>With an energy budget, the estimated charge of the tiers used is drawn from a bucket
+ * that refills at the budgeted rate and holds {@link #BUDGET_BURST_HOURS} of budget. Once
+ * the bucket is empty, the tier is capped at the most accurate one the budget sustains
+ * until an hour of budget has refilled.</p>
+ *
+ * <p>All times are wall-clock milliseconds. Only the filter stage reports fixes; the
+ * statistics may be read from any thread.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class SamplingGovernor {
+    static final double STATIONARY_RADIUS_METERS = 50;
+    static final long STATIONARY_DWELL_MILLIS = 3 * 60 * 1000;
+    static final long DOWNGRADE_DELAY_MILLIS = 2 * 60 * 1000;
+
+    /** Upper speed bounds of the {@link SamplingTier#SLOW} and {@link SamplingTier#MODERATE} tiers */
+    static final double SLOW_SPEED_METERS_PER_SECOND = 2.5;
+    static final double MODERATE_SPEED_METERS_PER_SECOND = 12;
+
+    /** Hours of budget the energy bucket holds, which a trip may spend ahead of time */
+    static final double BUDGET_BURST_HOURS = 4;
+
+    /** Fixed-interval sampling uses balanced accuracy */
+    static final SamplingTier.Accuracy FIXED_INTERVAL_ACCURACY = SamplingTier.Accuracy.BALANCED;
+
+    private static final SamplingTier[] TIERS = SamplingTier.values();
+    private static final double MILLIS_PER_HOUR = 3600000.0;
+
+    /** Budget in milliampere-hours per hour, or 0 for none */
+    private final double budgetPerHour;
+    private long fixedIntervalMillis;
+
+    private SamplingTier tier = SamplingTier.SLOW;
+    private boolean active;
+    private long lastUpdate;
+    private double bucket;
+    private boolean budgetCapped;
+
+    // Motion
+    private boolean hasPrevious;
+    private double previousLatitude;
+    private double previousLongitude;
+    private long previousTimestamp;
+    private boolean hasAnchor;
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private long anchorTimestamp;
+    private SamplingTier pendingTier;
+    private long pendingSince;
+    private long lastRecorded = -1;
+
+    // Accounting
+    private final long[] timeInTier = new long[TIERS.length];
+    private long tierChanges;
+    private long recordedFixes;
+    private double milliampHours;
+    private double fixedIntervalFixes;
+    private double fixedIntervalMilliampHours;
+
+    /**
+     * @param fixedIntervalMillis Interval fixed-interval sampling would use, to report savings against
+     * @param budgetMilliampHoursPerDay Energy budget for location requests, or 0 for none
+     */
+    SamplingGovernor(long fixedIntervalMillis, double budgetMilliampHoursPerDay) {
+        if (fixedIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        if (budgetMilliampHoursPerDay < 0 || Double.isNaN(budgetMilliampHoursPerDay)) {
+            throw new IllegalArgumentException("Energy budget must not be negative");
+        }
+        this.fixedIntervalMillis = fixedIntervalMillis;
+        this.budgetPerHour = budgetMilliampHoursPerDay / 24;
+        this.bucket = budgetPerHour * BUDGET_BURST_HOURS;
+    }
+
+    /**
+     * Tracking started; time from now on is accounted to the current tier.
+     */
+    synchronized void start(long now) {
+        if (active) return;
+        active = true;
+        lastUpdate = now;
+        // Motion observed before a pause says nothing about the motion after it
+        hasPrevious = false;
+        hasAnchor = false;
+        pendingTier = null;
+    }
+
+    /**
+     * Tracking stopped; no time is accounted until the next {@link #start(long)}.
+     */
+    synchronized void stop(long now) {
+        advance(now);
+        active = false;
+    }
+
+    /**
+     * Set the interval fixed-interval sampling would use from now on.
+     */
+    synchronized void setFixedIntervalMillis(long fixedIntervalMillis, long now) {
+        if (fixedIntervalMillis <= 0) {
+            throw new IllegalArgumentException("Interval must be positive");
+        }
+        advance(now);
+        this.fixedIntervalMillis = fixedIntervalMillis;
+    }
+
+    /**
+     * Report a fix from the location provider and update the tier.
+     *
+     * @param speed Speed reported by the provider in meters per second, or NaN if none
+     * @return true if the fix should be recorded, false if it arrived within the tier's interval
+     */
+    synchronized boolean onLocation(double latitude, double longitude, long now, float accuracy, float speed) {
+        advance(now);
+
+        double speedEstimate = speed >= 0 ? speed : 0;
+        if (Float.isNaN(speed) && hasPrevious && now > previousTimestamp) {
+            double moved = GeoUtils.distanceMeters(previousLatitude, previousLongitude, latitude, longitude);
+            if (moved > accuracy) {
+                speedEstimate = moved * 1000 / (now - previousTimestamp);
+            }
+        }
+        hasPrevious = true;
+        previousLatitude = latitude;
+        previousLongitude = longitude;
+        previousTimestamp = now;
+
+        if (!hasAnchor || GeoUtils.distanceMeters(anchorLatitude, anchorLongitude, latitude, longitude)
+                > Math.max(STATIONARY_RADIUS_METERS, accuracy)) {
+            hasAnchor = true;
+            anchorLatitude = latitude;
+            anchorLongitude = longitude;
+            anchorTimestamp = now;
+        }
+
+        SamplingTier desired;
+        if (now - anchorTimestamp >= STATIONARY_DWELL_MILLIS && speedEstimate < SLOW_SPEED_METERS_PER_SECOND) {
+            desired = SamplingTier.STATIONARY;
+        } else if (speedEstimate < SLOW_SPEED_METERS_PER_SECOND) {
+            desired = SamplingTier.SLOW;
+        } else if (speedEstimate < MODERATE_SPEED_METERS_PER_SECOND) {
+            desired = SamplingTier.MODERATE;
+        } else {
+            desired = SamplingTier.FAST;
+        }
+
+        SamplingTier cap = affordableTier();
+        if (desired.compareTo(cap) > 0) {
+            desired = cap;
+        }
+
+        if (desired.compareTo(tier) > 0 || desired == SamplingTier.STATIONARY || tier.compareTo(cap) > 0) {
+            setTier(desired);
+        } else if (desired == tier) {
+            pendingTier = null;
+        } else if (pendingTier == null) {
+            pendingTier = desired;
+            pendingSince = now;
+        } else {
+            // Settle on the fastest tier wanted while slowing down
+            if (desired.compareTo(pendingTier) > 0) {
+                pendingTier = desired;
+            }
+            if (now - pendingSince >= DOWNGRADE_DELAY_MILLIS) {
+                setTier(pendingTier);
+            }
+        }
+
+        long interval = tier.getIntervalMillis();
+        // Providers deliver fixes slightly early or late; a tenth of the interval early still counts
+        if (lastRecorded >= 0 && now - lastRecorded < interval - interval / 10) {
+            return false;
+        }
+        lastRecorded = now;
+        recordedFixes++;
+        return true;
+    }
+
+    synchronized SamplingTier getTier() {
+        return tier;
+    }
+
+    /**
+     * @return The fixes recorded and the estimated charge spent so far, against fixed-interval sampling
+     */
+    synchronized SamplingStats getStats(long now) {
+        advance(now);
+        return new SamplingStats(tier, tierChanges, recordedFixes, Math.round(fixedIntervalFixes),
+                milliampHours, fixedIntervalMilliampHours, timeInTier.clone());
+    }
+
+    private void setTier(SamplingTier newTier) {
+        pendingTier = null;
+        if (newTier != tier) {
+            tier = newTier;
+            tierChanges++;
+        }
+    }
+
+    /**
+     * @return The most accurate tier the energy budget allows right now
+     */
+    private SamplingTier affordableTier() {
+        if (budgetPerHour == 0) {
+            return SamplingTier.FAST;
+        }
+        if (bucket <= 0) {
+            budgetCapped = true;
+        } else if (bucket >= budgetPerHour) {
+            budgetCapped = false;
+        }
+        if (!budgetCapped) {
+            return SamplingTier.FAST;
+        }
+        for (int i = TIERS.length - 1; i > 0; i--) {
+            if (TIERS[i].getMilliampHoursPerHour() <= budgetPerHour) {
+                return TIERS[i];
+            }
+        }
+        return TIERS[0];
+    }
+
+    private void advance(long now) {
+        if (!active || now <= lastUpdate) return;
+        long elapsed = now - lastUpdate;
+        lastUpdate = now;
+        double hours = elapsed / MILLIS_PER_HOUR;
+
+        timeInTier[tier.ordinal()] += elapsed;
+        double charge = tier.getMilliampHoursPerHour() * hours;
+        milliampHours += charge;
+        fixedIntervalFixes += (double) elapsed / fixedIntervalMillis;
+        fixedIntervalMilliampHours += SamplingTier.milliampHoursPerHour(fixedIntervalMillis,
+                FIXED_INTERVAL_ACCURACY) * hours;
+        if (budgetPerHour > 0) {
+            bucket = Math.min(budgetPerHour * BUDGET_BURST_HOURS, bucket + budgetPerHour * hours - charge);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.locationanalytics;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * Snapshot of adaptive sampling, comparing the fixes recorded and the estimated battery
+ * charge spent with what fixed-interval sampling at the tracking interval would have used
+ * over the same tracking time. Obtain one through
+ * {@code LocationAnalyticsSDK#getSamplingStats()}.
+ *
+ * <p>Charges are estimates from {@link SamplingTier.Accuracy}, useful for comparing the two
+ * modes rather than as a measurement of battery drain. Savings are negative when adaptive
+ * sampling recorded more densely than the fixed interval, e.g. during long trips.</p>
+ */
+public class SamplingStats {
+    private final SamplingTier tier;
+    private final long tierChangeCount;
+    private final long recordedFixCount;
+    private final long fixedIntervalFixCount;
+    private final double milliampHours;
+    private final double fixedIntervalMilliampHours;
+    private final long[] timeInTierMillis;
+
+    SamplingStats(SamplingTier tier, long tierChangeCount, long recordedFixCount, long fixedIntervalFixCount,
+                  double milliampHours, double fixedIntervalMilliampHours, long[] timeInTierMillis) {
+        this.tier = tier;
+        this.tierChangeCount = tierChangeCount;
+        this.recordedFixCount = recordedFixCount;
+        this.fixedIntervalFixCount = fixedIntervalFixCount;
+        this.milliampHours = milliampHours;
+        this.fixedIntervalMilliampHours = fixedIntervalMilliampHours;
+        this.timeInTierMillis = timeInTierMillis;
+    }
+
+    /**
+     * Get the tier currently requested from the location provider.
+     * @return Current tier
+     */
+    public SamplingTier getTier() {
+        return tier;
+    }
+
+    /**
+     * Get the number of times the location request was changed to another tier.
+     * @return Tier change count
+     */
+    public long getTierChangeCount() {
+        return tierChangeCount;
+    }
+
+    /**
+     * Get the number of fixes recorded.
+     * @return Recorded fix count
+     */
+    public long getRecordedFixCount() {
+        return recordedFixCount;
+    }
+
+    /**
+     * Get the number of fixes fixed-interval sampling would have recorded.
+     * @return Fixed-interval fix count
+     */
+    public long getFixedIntervalFixCount() {
+        return fixedIntervalFixCount;
+    }
+
+    /**
+     * Get the number of fixes not recorded, and so not uploaded, compared with fixed-interval sampling.
+     * @return Points saved
+     */
+    public long getPointsSaved() {
+        return fixedIntervalFixCount - recordedFixCount;
+    }
+
+    /**
+     * Get the estimated charge spent on location requests.
+     * @return Charge in milliampere-hours
+     */
+    public double getMilliampHours() {
+        return milliampHours;
+    }
+
+    /**
+     * Get the estimated charge fixed-interval sampling would have spent.
+     * @return Charge in milliampere-hours
+     */
+    public double getFixedIntervalMilliampHours() {
+        return fixedIntervalMilliampHours;
+    }
+
+    /**
+     * Get the estimated charge saved compared with fixed-interval sampling.
+     * @return Charge in milliampere-hours
+     */
+    public double getMilliampHoursSaved() {
+        return fixedIntervalMilliampHours - milliampHours;
+    }
+
+    /**
+     * Get the tracking time spent in a tier.
+     * @param tier The tier
+     * @return Time in milliseconds
+     */
+    public long getTimeInTierMillis(SamplingTier tier) {
+        return timeInTierMillis[tier.ordinal()];
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "SamplingStats{" +
+                "tier=" + tier +
+                ", tierChangeCount=" + tierChangeCount +
+                ", recordedFixCount=" + recordedFixCount +
+                ", fixedIntervalFixCount=" + fixedIntervalFixCount +
+                ", milliampHours=" + String.format(Locale.US, "%.3f", milliampHours) +
+                ", fixedIntervalMilliampHours=" + String.format(Locale.US, "%.3f",
+                fixedIntervalMilliampHours) +
+                '}';
+    }
+}
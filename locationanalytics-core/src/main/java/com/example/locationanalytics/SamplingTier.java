@@ -0,0 +1,94 @@
+package com.example.locationanalytics;
+
+/**
+ * Location request settings chosen by adaptive sampling, from the cheapest to the most
+ * accurate. See {@code LocationAnalyticsSDK.Builder#setAdaptiveSampling(boolean)}.
+ */
+public enum SamplingTier {
+    /** Not moving: a fix every 15 minutes at low power, plus any fix another app requests */
+    STATIONARY(15 * 60 * 1000, 60 * 1000, Accuracy.LOW_POWER),
+
+    /** Walking pace, below 2.5 m/s: a fix every minute */
+    SLOW(60 * 1000, 60 * 1000, Accuracy.BALANCED),
+
+    /** Cycling or city traffic, below 12 m/s: a fix every 15 seconds */
+    MODERATE(15 * 1000, 15 * 1000, Accuracy.BALANCED),
+
+    /** Highway speed: a fix every 10 seconds from GPS */
+    FAST(10 * 1000, 10 * 1000, Accuracy.HIGH);
+
+    /**
+     * Accuracy class of a location request, with the estimated charge of one fix. The
+     * estimates are rough averages over typical phones, meant for comparing sampling
+     * strategies rather than measuring battery drain.
+     */
+    public enum Accuracy {
+        /** Cell and Wi-Fi positioning only */
+        LOW_POWER(2),
+        /** Wi-Fi and cell positioning, GPS only when needed */
+        BALANCED(6),
+        /** GPS */
+        HIGH(40);
+
+        private final double microampHoursPerFix;
+
+        Accuracy(double microampHoursPerFix) {
+            this.microampHoursPerFix = microampHoursPerFix;
+        }
+
+        /**
+         * Get the estimated battery charge spent on one fix.
+         * @return Charge in microampere-hours
+         */
+        public double getMicroampHoursPerFix() {
+            return microampHoursPerFix;
+        }
+    }
+
+    private final long intervalMillis;
+    private final long minUpdateIntervalMillis;
+    private final Accuracy accuracy;
+
+    SamplingTier(long intervalMillis, long minUpdateIntervalMillis, Accuracy accuracy) {
+        this.intervalMillis = intervalMillis;
+        this.minUpdateIntervalMillis = minUpdateIntervalMillis;
+        this.accuracy = accuracy;
+    }
+
+    /**
+     * Get the interval between the fixes requested, and between the fixes recorded.
+     * @return Interval in milliseconds
+     */
+    public long getIntervalMillis() {
+        return intervalMillis;
+    }
+
+    /**
+     * Get the shortest interval at which fixes requested by other apps are also delivered.
+     * Such fixes cost nothing extra and are used to notice movement early.
+     * @return Interval in milliseconds
+     */
+    public long getMinUpdateIntervalMillis() {
+        return minUpdateIntervalMillis;
+    }
+
+    /**
+     * Get the accuracy class of the location request.
+     * @return Accuracy class
+     */
+    public Accuracy getAccuracy() {
+        return accuracy;
+    }
+
+    /**
+     * Get the estimated battery charge spent per hour while this tier is requested.
+     * @return Charge in milliampere-hours per hour
+     */
+    public double getMilliampHoursPerHour() {
+        return milliampHoursPerHour(intervalMillis, accuracy);
+    }
+
+    static double milliampHoursPerHour(long intervalMillis, Accuracy accuracy) {
+        return 3600000.0 / intervalMillis * accuracy.getMicroampHoursPerFix() / 1000;
+    }
+}
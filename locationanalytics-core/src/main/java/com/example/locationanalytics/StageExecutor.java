@@ -0,0 +1,24 @@
+package com.example.locationanalytics;
+
+import java.util.concurrent.ScheduledFuture;
+
+/**
+ * Runs work on the stages of the processing pipeline. Implemented by
+ * {@link ProcessingPipeline} on real threads, and by test and replay harnesses on a
+ * virtual clock.
+ *
+ * @internal This interface is for internal SDK use only
+ */
+interface StageExecutor {
+    /**
+     * Run a task on a stage.
+     *
+     * @return false if the stage's queue is full and the task was dropped
+     */
+    boolean execute(PipelineStage stage, Runnable task);
+
+    /**
+     * Run a task on the encode stage after a delay.
+     */
+    ScheduledFuture<?> schedule(Runnable task, long delayMillis);
+}
@@ -0,0 +1,227 @@
+package com.example.locationanalytics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+/**
+ * Incremental {@link UserStatistics} totals, updated in O(1) per uploaded fix.
+ *
+ * <p>Totals are kept in three parts that add up to the reported statistics:</p>
+ * <ul>
+ *   <li><b>baseline</b> - the server's statistics from the last reconcile</li>
+ *   <li><b>pending</b> - fixes recorded before a reconcile started, which the server may
+ *       not have counted yet</li>
+ *   <li><b>current</b> - fixes recorded since then</li>
+ * </ul>
+ * <p>{@link #beginReconcile()} moves current into pending; once every pending fix has been
+ * uploaded, {@link #completeReconcile(UserStatistics)} replaces baseline with the server's
+ * numbers and clears pending. Distance between consecutive fixes is measured with the same
+ * haversine formula as the server.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class StatisticsAggregator {
+    private static final int STATE_VERSION = 1;
+    private static final long MILLIS_PER_HOUR = 60 * 60 * 1000;
+
+    private static final class Totals {
+        long count;
+        double distanceMeters;
+        long firstTimestamp;
+        long lastTimestamp;
+        final int[] activityHours = new int[24];
+
+        void add(Totals other) {
+            if (other.count == 0) return;
+            firstTimestamp = count == 0 ? other.firstTimestamp : Math.min(firstTimestamp, other.firstTimestamp);
+            lastTimestamp = count == 0 ? other.lastTimestamp : Math.max(lastTimestamp, other.lastTimestamp);
+            count += other.count;
+            distanceMeters += other.distanceMeters;
+            for (int hour = 0; hour < 24; hour++) {
+                activityHours[hour] += other.activityHours[hour];
+            }
+        }
+
+        void clear() {
+            count = 0;
+            distanceMeters = 0;
+            firstTimestamp = 0;
+            lastTimestamp = 0;
+            Arrays.fill(activityHours, 0);
+        }
+
+        void writeTo(DataOutput out) throws IOException {
+            out.writeLong(count);
+            out.writeDouble(distanceMeters);
+            out.writeLong(firstTimestamp);
+            out.writeLong(lastTimestamp);
+            for (int hours : activityHours) {
+                out.writeInt(hours);
+            }
+        }
+
+        void readFrom(DataInput in) throws IOException {
+            count = in.readLong();
+            distanceMeters = in.readDouble();
+            firstTimestamp = in.readLong();
+            lastTimestamp = in.readLong();
+            for (int hour = 0; hour < 24; hour++) {
+                activityHours[hour] = in.readInt();
+            }
+        }
+    }
+
+    private final TimeZone timeZone;
+    private final Totals baseline = new Totals();
+    private final Totals pending = new Totals();
+    private final Totals current = new Totals();
+    private boolean hasPrevious;
+    private double previousLatitude;
+    private double previousLongitude;
+    private boolean reconciling;
+
+    /**
+     * @param timeZone Time zone for activity hours
+     */
+    StatisticsAggregator(TimeZone timeZone) {
+        this.timeZone = timeZone;
+    }
+
+    /**
+     * Add an uploaded fix in time order.
+     */
+    synchronized void add(double latitude, double longitude, long timestamp) {
+        if (hasPrevious) {
+            current.distanceMeters += GeoUtils.distanceMeters(previousLatitude, previousLongitude, latitude, longitude);
+        }
+        hasPrevious = true;
+        previousLatitude = latitude;
+        previousLongitude = longitude;
+
+        if (current.count == 0) {
+            current.firstTimestamp = timestamp;
+        }
+        current.lastTimestamp = timestamp;
+        current.count++;
+        long localTime = timestamp + timeZone.getOffset(timestamp);
+        current.activityHours[(int) Math.floorMod(localTime / MILLIS_PER_HOUR, 24L)]++;
+    }
+
+    /**
+     * Start a reconcile: fixes recorded so far must reach the server before its statistics
+     * can replace the local totals. Calling this again before completion extends the pending set.
+     */
+    synchronized void beginReconcile() {
+        pending.add(current);
+        current.clear();
+        reconciling = true;
+    }
+
+    /**
+     * Adopt the server's statistics as the new baseline.
+     *
+     * @param serverStatistics Statistics fetched after every pending fix was uploaded
+     */
+    synchronized void completeReconcile(UserStatistics serverStatistics) {
+        if (!reconciling) return;
+        baseline.clear();
+        baseline.count = serverStatistics.getTotalLocations();
+        baseline.distanceMeters = serverStatistics.getDistanceTraveledMeters();
+        baseline.firstTimestamp = serverStatistics.getFirstLocationTimestamp();
+        baseline.lastTimestamp = serverStatistics.getLastLocationTimestamp();
+        Map<Integer, Integer> hours = serverStatistics.getActivityHours();
+        if (hours != null) {
+            for (Map.Entry<Integer, Integer> entry : hours.entrySet()) {
+                int hour = entry.getKey();
+                if (hour >= 0 && hour < 24 && entry.getValue() != null) {
+                    baseline.activityHours[hour] = entry.getValue();
+                }
+            }
+        }
+        pending.clear();
+        reconciling = false;
+    }
+
+    /**
+     * Forget all totals, e.g. when a different user starts tracking.
+     */
+    synchronized void reset() {
+        baseline.clear();
+        pending.clear();
+        current.clear();
+        hasPrevious = false;
+        reconciling = false;
+    }
+
+    /**
+     * Build statistics from the local totals.
+     *
+     * @param commonStops Stops to include, e.g. from {@link StopDetector}
+     */
+    synchronized UserStatistics snapshot(String userId, List<UserStatistics.LocationStop> commonStops) {
+        Totals total = new Totals();
+        total.add(baseline);
+        total.add(pending);
+        total.add(current);
+
+        Map<Integer, Integer> activityHours = new HashMap<>();
+        for (int hour = 0; hour < 24; hour++) {
+            if (total.activityHours[hour] > 0) {
+                activityHours.put(hour, total.activityHours[hour]);
+            }
+        }
+        return new UserStatistics(userId, (int) Math.min(Integer.MAX_VALUE, total.count), total.distanceMeters,
+                total.firstTimestamp, total.lastTimestamp, new HashMap<>(), commonStops, activityHours);
+    }
+
+    synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeInt(STATE_VERSION);
+        baseline.writeTo(out);
+        pending.writeTo(out);
+        current.writeTo(out);
+        out.writeBoolean(hasPrevious);
+        out.writeDouble(previousLatitude);
+        out.writeDouble(previousLongitude);
+        out.writeBoolean(reconciling);
+    }
+
+    /**
+     * Restore state saved by {@link #writeTo(DataOutput)}.
+     *
+     * @throws IOException if the state is truncated or from an unknown version
+     */
+    synchronized void readFrom(DataInput in) throws IOException {
+        int version = in.readInt();
+        if (version != STATE_VERSION) {
+            throw new IOException("Unsupported statistics state version " + version);
+        }
+        Totals restoredBaseline = new Totals();
+        Totals restoredPending = new Totals();
+        Totals restoredCurrent = new Totals();
+        restoredBaseline.readFrom(in);
+        restoredPending.readFrom(in);
+        restoredCurrent.readFrom(in);
+        boolean restoredHasPrevious = in.readBoolean();
+        double restoredLatitude = in.readDouble();
+        double restoredLongitude = in.readDouble();
+        boolean restoredReconciling = in.readBoolean();
+
+        // Only apply once everything was read successfully
+        baseline.clear();
+        baseline.add(restoredBaseline);
+        pending.clear();
+        pending.add(restoredPending);
+        current.clear();
+        current.add(restoredCurrent);
+        hasPrevious = restoredHasPrevious;
+        previousLatitude = restoredLatitude;
+        previousLongitude = restoredLongitude;
+        reconciling = restoredReconciling;
+    }
+}
@@ -0,0 +1,397 @@
+package com.example.locationanalytics;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * Cache in front of the server's user statistics.
+ *
+ * <ul>
+ *   <li>Results younger than the time-to-live are returned without a request.</li>
+ *   <li>Older results, up to the maximum staleness, are returned immediately while a
+ *       background request refreshes them (stale-while-revalidate).</li>
+ *   <li>Concurrent misses for the same user share one in-flight request.</li>
+ *   <li>Revalidation is conditional: the server answers "not modified" when the cached
+ *       version tag is current, or sends only the change since the cached last location
+ *       timestamp, which is merged into the cached statistics. A full fetch is made at
+ *       least every {@link #FULL_SYNC_INTERVAL_MILLIS} to pick up what deltas cannot carry,
+ *       such as common stops and late uploads of older locations.</li>
+ *   <li>The latest result per user is persisted, so statistics are available right after
+ *       a cold start.</li>
+ * </ul>
+ *
+ * <p>Thread-safe. Callbacks run outside the cache lock, on the thread that completes the
+ * request or, for hits, on the calling thread.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class StatisticsCache {
+    /** Default time a result is served without revalidation */
+    static final long DEFAULT_TTL_MILLIS = 60 * 1000;
+
+    /** Default time after which an expired result is no longer served at all */
+    static final long DEFAULT_MAX_STALE_MILLIS = 24 * 60 * 60 * 1000;
+
+    /** Maximum time between full fetches; revalidations in between use deltas */
+    static final long FULL_SYNC_INTERVAL_MILLIS = 60 * 60 * 1000;
+
+    private static final int MAX_ENTRIES = 8;
+    private static final class CacheEntry {
+        UserStatistics statistics;
+        long fetchedAt;
+        long fullSyncAt;
+        String etag;
+        List<ApiCallback<UserStatistics>> waiters;
+    }
+
+    /**
+     * Sends a conditional statistics request to the server.
+     */
+    interface Fetcher {
+        /**
+         * @param etag Version tag of the cached statistics, or null
+         * @param since Last location timestamp of the cached statistics to request a delta, or 0
+         */
+        void fetch(String userId, String etag, long since, StatisticsCallback callback);
+    }
+
+    private final Fetcher fetcher;
+    private final LongSupplier clock;
+    private final long ttlMillis;
+    private final long maxStaleMillis;
+    private final File snapshotFile;
+    private final Object saveLock = new Object();
+
+    private final Map<String, CacheEntry> entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+            return size() > MAX_ENTRIES && eldest.getValue().waiters == null;
+        }
+    };
+
+    private long hitCount;
+    private long staleHitCount;
+    private long missCount;
+    private long coalescedCount;
+    private long fetchCount;
+    private long notModifiedCount;
+    private long deltaCount;
+
+    /**
+     * @param fetcher Sends the statistics request to the server
+     * @param clock Source of the current time in milliseconds
+     * @param ttlMillis Time a result is served without revalidation
+     * @param maxStaleMillis Time after which an expired result is no longer served
+     * @param snapshotFile File the latest results are persisted to
+     */
+    StatisticsCache(Fetcher fetcher, LongSupplier clock,
+                    long ttlMillis, long maxStaleMillis, File snapshotFile) {
+        this.fetcher = fetcher;
+        this.clock = clock;
+        this.ttlMillis = ttlMillis;
+        this.maxStaleMillis = Math.max(ttlMillis, maxStaleMillis);
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Get a user's statistics, from the cache when possible.
+     */
+    void get(String userId, ApiCallback<UserStatistics> callback) {
+        UserStatistics cached;
+        boolean startFetch = false;
+        synchronized (this) {
+            long now = clock.getAsLong();
+            CacheEntry entry = entries.get(userId);
+            long age = entry != null && entry.statistics != null ? now - entry.fetchedAt : Long.MAX_VALUE;
+
+            if (age < ttlMillis) {
+                hitCount++;
+                cached = entry.statistics;
+            } else if (age < maxStaleMillis) {
+                staleHitCount++;
+                cached = entry.statistics;
+                if (entry.waiters == null) {
+                    entry.waiters = new ArrayList<>();
+                    startFetch = true;
+                }
+            } else {
+                missCount++;
+                cached = null;
+                if (entry == null) {
+                    entry = new CacheEntry();
+                    entries.put(userId, entry);
+                }
+                if (entry.waiters == null) {
+                    entry.waiters = new ArrayList<>();
+                    startFetch = true;
+                } else {
+                    coalescedCount++;
+                }
+                entry.waiters.add(callback);
+            }
+            if (startFetch) {
+                fetchCount++;
+            }
+        }
+
+        if (cached != null) {
+            callback.onSuccess(cached);
+        }
+        if (startFetch) {
+            fetch(userId);
+        }
+    }
+
+    /**
+     * Revalidate a user's statistics regardless of their age, e.g. for a background
+     * reconcile that needs the server's current numbers. Joins a request already in flight.
+     */
+    void refresh(String userId, ApiCallback<UserStatistics> callback) {
+        boolean startFetch = false;
+        synchronized (this) {
+            CacheEntry entry = entries.get(userId);
+            if (entry == null) {
+                entry = new CacheEntry();
+                entries.put(userId, entry);
+            }
+            if (entry.waiters == null) {
+                entry.waiters = new ArrayList<>();
+                startFetch = true;
+                fetchCount++;
+            } else {
+                coalescedCount++;
+            }
+            entry.waiters.add(callback);
+        }
+        if (startFetch) {
+            fetch(userId);
+        }
+    }
+
+    /**
+     * @return The user's latest cached statistics whatever their age, or null; never
+     *         fetches and is not counted as a hit or miss
+     */
+    synchronized UserStatistics peek(String userId) {
+        CacheEntry entry = entries.get(userId);
+        return entry != null ? entry.statistics : null;
+    }
+
+    /**
+     * @return A snapshot of the cache counters
+     */
+    synchronized StatisticsCacheStats getStats() {
+        return new StatisticsCacheStats(hitCount, staleHitCount, missCount, coalescedCount, fetchCount,
+                notModifiedCount, deltaCount);
+    }
+
+    /**
+     * Restore the persisted results. A missing file leaves the cache empty.
+     *
+     * @throws IOException if the file exists but cannot be read
+     */
+    void load() throws IOException {
+        if (!snapshotFile.exists()) return;
+        Map<String, CacheEntry> restored = new LinkedHashMap<>();
+        try (JsonReader reader = new JsonReader(
+                new InputStreamReader(new FileInputStream(snapshotFile), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String userId = reader.nextName();
+                CacheEntry entry = readEntry(reader);
+                if (entry != null && entry.statistics != null) {
+                    restored.put(userId, entry);
+                }
+            }
+            reader.endObject();
+        } catch (IllegalStateException | NumberFormatException e) {
+            // Thrown by JsonReader for a well-formed file of the wrong shape
+            throw new IOException("Corrupt statistics snapshot", e);
+        }
+
+        synchronized (this) {
+            entries.putAll(restored);
+        }
+    }
+
+    /**
+     * Persist the latest result per user. The file is replaced atomically.
+     */
+    void save() throws IOException {
+        Map<String, CacheEntry> snapshots = new LinkedHashMap<>();
+        synchronized (this) {
+            for (Map.Entry<String, CacheEntry> entry : entries.entrySet()) {
+                if (entry.getValue().statistics == null) continue;
+                CacheEntry snapshot = new CacheEntry();
+                snapshot.statistics = entry.getValue().statistics;
+                snapshot.fetchedAt = entry.getValue().fetchedAt;
+                snapshot.fullSyncAt = entry.getValue().fullSyncAt;
+                snapshot.etag = entry.getValue().etag;
+                snapshots.put(entry.getKey(), snapshot);
+            }
+        }
+
+        synchronized (saveLock) {
+            File directory = snapshotFile.getParentFile();
+            if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+                throw new IOException("Cannot create " + directory);
+            }
+            File temp = new File(snapshotFile.getPath() + ".tmp");
+            try (FileOutputStream file = new FileOutputStream(temp);
+                 JsonWriter writer = new JsonWriter(new OutputStreamWriter(file, StandardCharsets.UTF_8))) {
+                writer.beginObject();
+                for (Map.Entry<String, CacheEntry> snapshot : snapshots.entrySet()) {
+                    writer.name(snapshot.getKey());
+                    writeEntry(writer, snapshot.getValue());
+                }
+                writer.endObject();
+                writer.flush();
+                file.getFD().sync();
+            }
+            if (!temp.renameTo(snapshotFile)) {
+                throw new IOException("Cannot replace " + snapshotFile);
+            }
+        }
+    }
+
+    /**
+     * Write the persisted form of an entry,
+     * {@code {"fetched_at": ..., "full_sync_at": ..., "etag": ..., "statistics": {...}}}.
+     */
+    private static void writeEntry(JsonWriter writer, CacheEntry entry) throws IOException {
+        writer.beginObject();
+        writer.name("fetched_at").value(entry.fetchedAt);
+        writer.name("full_sync_at").value(entry.fullSyncAt);
+        if (entry.etag != null) {
+            writer.name("etag").value(entry.etag);
+        }
+        writer.name("statistics");
+        JsonAdapters.USER_STATISTICS.write(writer, entry.statistics);
+        writer.endObject();
+    }
+
+    private static CacheEntry readEntry(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        CacheEntry entry = new CacheEntry();
+        reader.beginObject();
+        while (reader.hasNext()) {
+            switch (reader.nextName()) {
+                case "fetched_at":
+                    entry.fetchedAt = reader.nextLong();
+                    break;
+                case "full_sync_at":
+                    entry.fullSyncAt = reader.nextLong();
+                    break;
+                case "etag":
+                    if (reader.peek() == JsonToken.NULL) {
+                        reader.nextNull();
+                    } else {
+                        entry.etag = reader.nextString();
+                    }
+                    break;
+                case "statistics":
+                    entry.statistics = JsonAdapters.USER_STATISTICS.read(reader);
+                    break;
+                default:
+                    reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return entry;
+    }
+
+    private void fetch(final String userId) {
+        String etag = null;
+        long since = 0;
+        synchronized (this) {
+            CacheEntry entry = entries.get(userId);
+            if (entry != null && entry.statistics != null) {
+                etag = entry.etag;
+                if (clock.getAsLong() - entry.fullSyncAt < FULL_SYNC_INTERVAL_MILLIS) {
+                    since = entry.statistics.getLastLocationTimestamp();
+                }
+            }
+        }
+
+        fetcher.fetch(userId, etag, since, new StatisticsCallback() {
+            @Override
+            public void onSuccess(UserStatistics statistics, String etag) {
+                complete(userId, statistics, etag, false, null);
+            }
+
+            @Override
+            public void onNotModified() {
+                complete(userId, null, null, true, null);
+            }
+
+            @Override
+            public void onError(String message) {
+                // A stale result, if any, stays cached and is revalidated on the next request
+                complete(userId, null, null, false, message);
+            }
+        });
+    }
+
+    private void complete(String userId, UserStatistics received, String etag, boolean notModified, String error) {
+        List<ApiCallback<UserStatistics>> waiters;
+        UserStatistics result = null;
+        synchronized (this) {
+            CacheEntry entry = entries.get(userId);
+            if (entry == null) {
+                entry = new CacheEntry();
+                entries.put(userId, entry);
+            }
+            waiters = entry.waiters != null ? entry.waiters : new ArrayList<>();
+            entry.waiters = null;
+            long now = clock.getAsLong();
+
+            if (notModified && entry.statistics != null) {
+                notModifiedCount++;
+                entry.fetchedAt = now;
+                result = entry.statistics;
+            } else if (received != null && received.isDelta() && entry.statistics != null) {
+                deltaCount++;
+                entry.statistics = entry.statistics.mergeDelta(received);
+                entry.fetchedAt = now;
+                entry.etag = etag;
+                result = entry.statistics;
+            } else if (received != null && !received.isDelta()) {
+                entry.statistics = received;
+                entry.fetchedAt = now;
+                entry.fullSyncAt = now;
+                entry.etag = etag;
+                result = received;
+            } else if (error == null) {
+                // A delta or "not modified" without a cached copy to apply it to
+                entry.etag = null;
+                entry.fullSyncAt = 0;
+                error = "Unexpected statistics response";
+            }
+        }
+
+        for (ApiCallback<UserStatistics> waiter : waiters) {
+            if (result != null) {
+                waiter.onSuccess(result);
+            } else {
+                waiter.onError(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.example.locationanalytics;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Snapshot of the statistics cache counters, for monitoring.
+ * Obtain one through {@code LocationAnalyticsSDK#getStatisticsCacheStats()}.
+ */
+public class StatisticsCacheStats {
+    private final long hitCount;
+    private final long staleHitCount;
+    private final long missCount;
+    private final long coalescedCount;
+    private final long fetchCount;
+    private final long notModifiedCount;
+    private final long deltaCount;
+
+    StatisticsCacheStats(long hitCount, long staleHitCount, long missCount, long coalescedCount, long fetchCount,
+                         long notModifiedCount, long deltaCount) {
+        this.hitCount = hitCount;
+        this.staleHitCount = staleHitCount;
+        this.missCount = missCount;
+        this.coalescedCount = coalescedCount;
+        this.fetchCount = fetchCount;
+        this.notModifiedCount = notModifiedCount;
+        this.deltaCount = deltaCount;
+    }
+
+    /**
+     * Get the number of requests answered from a cached result within its time-to-live.
+     * @return Fresh hit count
+     */
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Get the number of requests answered from an expired cached result while it was
+     * refreshed in the background.
+     * @return Stale hit count
+     */
+    public long getStaleHitCount() {
+        return staleHitCount;
+    }
+
+    /**
+     * Get the number of requests that had to wait for the server.
+     * @return Miss count
+     */
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Get the number of misses that joined a request already in flight instead of
+     * sending their own.
+     * @return Coalesced request count
+     */
+    public long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    /**
+     * Get the number of statistics requests actually sent to the server.
+     * @return Server request count
+     */
+    public long getFetchCount() {
+        return fetchCount;
+    }
+
+    /**
+     * Get the number of server requests answered with "not modified", which transfer no statistics.
+     * @return Not-modified response count
+     */
+    public long getNotModifiedCount() {
+        return notModifiedCount;
+    }
+
+    /**
+     * Get the number of server requests answered with only the change since the cached statistics.
+     * @return Delta response count
+     */
+    public long getDeltaCount() {
+        return deltaCount;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "StatisticsCacheStats{" +
+                "hitCount=" + hitCount +
+                ", staleHitCount=" + staleHitCount +
+                ", missCount=" + missCount +
+                ", coalescedCount=" + coalescedCount +
+                ", fetchCount=" + fetchCount +
+                ", notModifiedCount=" + notModifiedCount +
+                ", deltaCount=" + deltaCount +
+                '}';
+    }
+}
@@ -0,0 +1,21 @@
+package com.example.locationanalytics;
+
+/**
+ * Callback for conditional statistics requests.
+ *
+ * @internal This interface is for internal SDK use only
+ */
+interface StatisticsCallback {
+    /**
+     * @param statistics Full statistics, or a delta if {@link UserStatistics#isDelta()}
+     * @param etag Version tag of the statistics, or null if the server sent none
+     */
+    void onSuccess(UserStatistics statistics, String etag);
+
+    /**
+     * The statistics matching the given version tag are still current.
+     */
+    void onNotModified();
+
+    void onError(String message);
+}
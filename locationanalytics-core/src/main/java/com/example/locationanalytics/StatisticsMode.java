@@ -0,0 +1,16 @@
+package com.example.locationanalytics;
+
+/**
+ * Where {@code LocationAnalyticsSDK#getUserStatistics(ApiCallback)} gets its results.
+ */
+public enum StatisticsMode {
+    /** Fetch the statistics from the server on every call */
+    SERVER,
+
+    /**
+     * Return statistics computed on the device immediately, without a network call, and
+     * reconcile them with the server in the background. Common stops only cover locations
+     * recorded by this installation; city visits are not computed on the device.
+     */
+    LOCAL
+}
@@ -0,0 +1,238 @@
+package com.example.locationanalytics;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Incremental stop detection on the device, producing {@link UserStatistics.LocationStop}s
+ * without a server round trip.
+ *
+ * <p>Follows the server's rules: consecutive fixes within {@link #STOP_RADIUS_METERS} of
+ * the first fix of a visit belong to that visit, and a visit of at least
+ * {@link #MIN_POINTS} fixes lasting at least {@link #MIN_DURATION_MILLIS} counts as a stop.
+ * A visit within the radius of a known stop increments its visit count and updates its
+ * average duration. The visit in progress is kept as running sums, and at most
+ * {@link #MAX_STOPS} stops are kept (the least visited is evicted), so each fix costs
+ * O(1) work and memory stays bounded.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class StopDetector {
+    static final double STOP_RADIUS_METERS = 150;
+    static final long MIN_DURATION_MILLIS = 2 * 60 * 1000;
+    static final int MIN_POINTS = 3;
+    static final int MAX_STOPS = 64;
+
+    /** Number of stops reported, matching the server */
+    static final int MAX_REPORTED_STOPS = 10;
+
+    private static final int STATE_VERSION = 1;
+
+    private static final class Stop {
+        double latitude;
+        double longitude;
+        int visitCount;
+        double averageDurationMinutes;
+        long lastVisitTimestamp;
+        int number;
+    }
+
+    private final List<Stop> stops = new ArrayList<>();
+    private int nextStopNumber = 1;
+
+    // Visit in progress
+    private int visitPoints;
+    private double visitFirstLatitude;
+    private double visitFirstLongitude;
+    private double visitLatitudeSum;
+    private double visitLongitudeSum;
+    private long visitStart;
+    private long visitEnd;
+
+    /**
+     * Add a fix in time order.
+     */
+    synchronized void add(double latitude, double longitude, long timestamp) {
+        if (visitPoints > 0 && GeoUtils.distanceMeters(visitFirstLatitude, visitFirstLongitude,
+                latitude, longitude) <= STOP_RADIUS_METERS) {
+            visitPoints++;
+            visitLatitudeSum += latitude;
+            visitLongitudeSum += longitude;
+            visitEnd = timestamp;
+            return;
+        }
+
+        // Moved away; the previous visit is complete
+        if (isVisitAStop()) {
+            recordVisit(stops, visitLatitudeSum / visitPoints, visitLongitudeSum / visitPoints,
+                    visitEnd - visitStart, visitEnd, true);
+        }
+        visitPoints = 1;
+        visitFirstLatitude = latitude;
+        visitFirstLongitude = longitude;
+        visitLatitudeSum = latitude;
+        visitLongitudeSum = longitude;
+        visitStart = timestamp;
+        visitEnd = timestamp;
+    }
+
+    /**
+     * Forget all stops, e.g. when a different user starts tracking.
+     */
+    synchronized void reset() {
+        stops.clear();
+        nextStopNumber = 1;
+        visitPoints = 0;
+    }
+
+    /**
+     * @return The most visited stops, including the visit in progress if it already
+     *         qualifies as a stop
+     */
+    synchronized List<UserStatistics.LocationStop> getStops() {
+        List<Stop> snapshot = new ArrayList<>(stops.size() + 1);
+        for (Stop stop : stops) {
+            snapshot.add(copy(stop));
+        }
+        if (isVisitAStop()) {
+            recordVisit(snapshot, visitLatitudeSum / visitPoints, visitLongitudeSum / visitPoints,
+                    visitEnd - visitStart, visitEnd, false);
+        }
+        snapshot.sort(Comparator.comparingInt((Stop stop) -> stop.visitCount).reversed());
+
+        List<UserStatistics.LocationStop> result = new ArrayList<>(Math.min(snapshot.size(), MAX_REPORTED_STOPS));
+        for (int i = 0; i < snapshot.size() && i < MAX_REPORTED_STOPS; i++) {
+            Stop stop = snapshot.get(i);
+            result.add(new UserStatistics.LocationStop(stop.latitude, stop.longitude, stop.visitCount,
+                    stop.averageDurationMinutes, "Stop " + stop.number));
+        }
+        return result;
+    }
+
+    /**
+     * Save the detector state, including the visit in progress.
+     */
+    synchronized void writeTo(DataOutput out) throws IOException {
+        out.writeInt(STATE_VERSION);
+        out.writeInt(nextStopNumber);
+        out.writeInt(stops.size());
+        for (Stop stop : stops) {
+            out.writeDouble(stop.latitude);
+            out.writeDouble(stop.longitude);
+            out.writeInt(stop.visitCount);
+            out.writeDouble(stop.averageDurationMinutes);
+            out.writeLong(stop.lastVisitTimestamp);
+            out.writeInt(stop.number);
+        }
+        out.writeInt(visitPoints);
+        out.writeDouble(visitFirstLatitude);
+        out.writeDouble(visitFirstLongitude);
+        out.writeDouble(visitLatitudeSum);
+        out.writeDouble(visitLongitudeSum);
+        out.writeLong(visitStart);
+        out.writeLong(visitEnd);
+    }
+
+    /**
+     * Restore state saved by {@link #writeTo(DataOutput)}.
+     *
+     * @throws IOException if the state is truncated or from an unknown version
+     */
+    synchronized void readFrom(DataInput in) throws IOException {
+        int version = in.readInt();
+        if (version != STATE_VERSION) {
+            throw new IOException("Unsupported stop state version " + version);
+        }
+        int restoredNextNumber = in.readInt();
+        int count = in.readInt();
+        if (count < 0 || count > MAX_STOPS) {
+            throw new IOException("Invalid stop count " + count);
+        }
+        List<Stop> restored = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Stop stop = new Stop();
+            stop.latitude = in.readDouble();
+            stop.longitude = in.readDouble();
+            stop.visitCount = in.readInt();
+            stop.averageDurationMinutes = in.readDouble();
+            stop.lastVisitTimestamp = in.readLong();
+            stop.number = in.readInt();
+            restored.add(stop);
+        }
+        int points = in.readInt();
+        double firstLatitude = in.readDouble();
+        double firstLongitude = in.readDouble();
+        double latitudeSum = in.readDouble();
+        double longitudeSum = in.readDouble();
+        long start = in.readLong();
+        long end = in.readLong();
+
+        // Only apply once everything was read successfully
+        stops.clear();
+        stops.addAll(restored);
+        nextStopNumber = restoredNextNumber;
+        visitPoints = points;
+        visitFirstLatitude = firstLatitude;
+        visitFirstLongitude = firstLongitude;
+        visitLatitudeSum = latitudeSum;
+        visitLongitudeSum = longitudeSum;
+        visitStart = start;
+        visitEnd = end;
+    }
+
+    private boolean isVisitAStop() {
+        return visitPoints >= MIN_POINTS && visitEnd - visitStart >= MIN_DURATION_MILLIS;
+    }
+
+    private void recordVisit(List<Stop> target, double latitude, double longitude, long durationMillis,
+                             long timestamp, boolean commit) {
+        for (Stop stop : target) {
+            if (GeoUtils.distanceMeters(stop.latitude, stop.longitude, latitude, longitude) < STOP_RADIUS_METERS) {
+                stop.visitCount++;
+                stop.averageDurationMinutes += (durationMillis / 60000.0 - stop.averageDurationMinutes) / stop.visitCount;
+                stop.lastVisitTimestamp = timestamp;
+                return;
+            }
+        }
+
+        if (commit && target.size() >= MAX_STOPS) {
+            target.remove(leastVisited(target));
+        }
+        Stop stop = new Stop();
+        stop.latitude = latitude;
+        stop.longitude = longitude;
+        stop.visitCount = 1;
+        stop.averageDurationMinutes = durationMillis / 60000.0;
+        stop.lastVisitTimestamp = timestamp;
+        stop.number = commit ? nextStopNumber++ : nextStopNumber;
+        target.add(stop);
+    }
+
+    private static int leastVisited(List<Stop> target) {
+        int least = 0;
+        for (int i = 1; i < target.size(); i++) {
+            Stop candidate = target.get(i);
+            Stop current = target.get(least);
+            if (candidate.visitCount < current.visitCount || (candidate.visitCount == current.visitCount
+                    && candidate.lastVisitTimestamp < current.lastVisitTimestamp)) {
+                least = i;
+            }
+        }
+        return least;
+    }
+
+    private static Stop copy(Stop stop) {
+        Stop copy = new Stop();
+        copy.latitude = stop.latitude;
+        copy.longitude = stop.longitude;
+        copy.visitCount = stop.visitCount;
+        copy.averageDurationMinutes = stop.averageDurationMinutes;
+        copy.lastVisitTimestamp = stop.lastVisitTimestamp;
+        copy.number = stop.number;
+        return copy;
+    }
+}
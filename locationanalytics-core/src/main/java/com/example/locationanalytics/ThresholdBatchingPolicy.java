@@ -0,0 +1,74 @@
+package com.example.locationanalytics;
+
+/**
+ * Batching policy that uploads when any of its thresholds is reached:
+ * the number of buffered locations, the age of the oldest buffered location,
+ * or the encoded size of the buffer - whichever comes first.
+ *
+ * <p>Example usage:</p>
+ * <pre>
+ * LocationAnalyticsSDK sdk = new LocationAnalyticsSDK.Builder(context)
+ *     .setServerUrl("https://your-server.com/")
+ *     .setApiKey("your_api_key")
+ *     .setBatchingPolicy(new ThresholdBatchingPolicy(100, 30 * 60 * 1000, 64 * 1024))
+ *     .build();
+ * </pre>
+ */
+public class ThresholdBatchingPolicy implements BatchingPolicy {
+    /** Default maximum number of buffered locations */
+    public static final int DEFAULT_MAX_POINTS = 50;
+
+    /** Default maximum age of the oldest buffered location - 15 minutes */
+    public static final long DEFAULT_MAX_AGE_MILLIS = 15 * 60 * 1000;
+
+    /** Default encoded size budget - 64 KB */
+    public static final long DEFAULT_MAX_BYTES = 64 * 1024;
+
+    private final int maxPoints;
+    private final long maxAgeMillis;
+    private final long maxBytes;
+
+    /**
+     * Create a policy with the default thresholds.
+     */
+    public ThresholdBatchingPolicy() {
+        this(DEFAULT_MAX_POINTS, DEFAULT_MAX_AGE_MILLIS, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * Create a policy with custom thresholds.
+     *
+     * @param maxPoints Upload once this many locations are buffered
+     * @param maxAgeMillis Upload once the oldest buffered location is this old
+     * @param maxBytes Upload once the buffered locations take this many bytes
+     */
+    public ThresholdBatchingPolicy(int maxPoints, long maxAgeMillis, long maxBytes) {
+        this.maxPoints = Math.max(1, maxPoints);
+        this.maxAgeMillis = Math.max(0, maxAgeMillis);
+        this.maxBytes = Math.max(1, maxBytes);
+    }
+
+    @Override
+    public boolean shouldFlush(int bufferedCount, long oldestAgeMillis, long bufferedBytes) {
+        return bufferedCount >= maxPoints
+                || oldestAgeMillis >= maxAgeMillis
+                || bufferedBytes >= maxBytes;
+    }
+
+    @Override
+    public long getRecheckDelayMillis(long oldestAgeMillis) {
+        return Math.max(0, maxAgeMillis - oldestAgeMillis);
+    }
+
+    public int getMaxPoints() {
+        return maxPoints;
+    }
+
+    public long getMaxAgeMillis() {
+        return maxAgeMillis;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
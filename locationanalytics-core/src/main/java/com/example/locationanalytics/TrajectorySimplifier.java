@@ -0,0 +1,150 @@
+package com.example.locationanalytics;
+
+import java.util.Objects;
+
+/**
+ * Streaming trajectory simplification applied to fixes before they are queued for upload.
+ *
+ * <p>This is a bounded "opening window" variant of Douglas-Peucker. The last emitted fix
+ * is the anchor, and later fixes are held in a window while every one of them lies within
+ * the tolerance of the segment from the anchor to the newest fix. Once a fix would break
+ * that corridor, the fix before it is emitted and becomes the new anchor. Straight-line
+ * travel therefore collapses to its turning points, and jitter around a stationary
+ * position collapses to the anchor.</p>
+ *
+ * <p>The window holds at most {@link #WINDOW_SIZE} fixes and {@link #MAX_HOLD_MILLIS} of
+ * time, so each fix costs a bounded amount of work and memory. Held fixes are never lost:
+ * {@link #flush(LocationRingBuffer.Sink)} emits the newest held fix.</p>
+ *
+ * <p>Not thread-safe; the SDK only uses it on the filter stage.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class TrajectorySimplifier {
+    /** Maximum number of fixes held back while the path stays within the tolerance */
+    static final int WINDOW_SIZE = 32;
+
+    /** Longest time a fix is held back, so stationary devices still report periodically */
+    static final long MAX_HOLD_MILLIS = 15 * 60 * 1000;
+
+    private final double toleranceMeters;
+    private final double[] latitudes = new double[WINDOW_SIZE];
+    private final double[] longitudes = new double[WINDOW_SIZE];
+    private final long[] timestamps = new long[WINDOW_SIZE];
+    private final float[] accuracies = new float[WINDOW_SIZE];
+    private int held;
+
+    private boolean hasAnchor;
+    private double anchorLatitude;
+    private double anchorLongitude;
+    private long anchorTimestamp;
+    private String userId;
+    private String deviceInfo;
+
+    private long inputCount;
+    private long outputCount;
+
+    /**
+     * @param toleranceMeters Maximum distance a dropped fix may lie from the simplified path
+     */
+    TrajectorySimplifier(double toleranceMeters) {
+        if (!(toleranceMeters > 0)) {
+            throw new IllegalArgumentException("Tolerance must be positive");
+        }
+        this.toleranceMeters = toleranceMeters;
+    }
+
+    /**
+     * Add a fix, emitting any fixes that become part of the simplified path.
+     */
+    void add(String userId, double latitude, double longitude, long timestamp, float accuracy,
+             String deviceInfo, LocationRingBuffer.Sink out) {
+        inputCount++;
+        if (hasAnchor && (!Objects.equals(userId, this.userId) || !Objects.equals(deviceInfo, this.deviceInfo))) {
+            // A different stream; never merge fixes across users
+            flush(out);
+            hasAnchor = false;
+        }
+        this.userId = userId;
+        this.deviceInfo = deviceInfo;
+
+        if (!hasAnchor) {
+            emitAnchor(latitude, longitude, timestamp, accuracy, out);
+            return;
+        }
+
+        if (held > 0 && (held == WINDOW_SIZE || timestamp - anchorTimestamp >= MAX_HOLD_MILLIS
+                || !withinCorridor(latitude, longitude))) {
+            int last = held - 1;
+            held = 0;
+            emitAnchor(latitudes[last], longitudes[last], timestamps[last], accuracies[last], out);
+        }
+
+        latitudes[held] = latitude;
+        longitudes[held] = longitude;
+        timestamps[held] = timestamp;
+        accuracies[held] = accuracy;
+        held++;
+    }
+
+    /**
+     * Emit the newest held fix, e.g. before an explicit upload, so the latest position is
+     * never withheld.
+     */
+    void flush(LocationRingBuffer.Sink out) {
+        if (held == 0) return;
+        int last = held - 1;
+        held = 0;
+        emitAnchor(latitudes[last], longitudes[last], timestamps[last], accuracies[last], out);
+    }
+
+    /**
+     * @return Number of fixes passed to {@link #add}
+     */
+    long getInputCount() {
+        return inputCount;
+    }
+
+    /**
+     * @return Number of fixes emitted
+     */
+    long getOutputCount() {
+        return outputCount;
+    }
+
+    private void emitAnchor(double latitude, double longitude, long timestamp, float accuracy,
+                            LocationRingBuffer.Sink out) {
+        hasAnchor = true;
+        anchorLatitude = latitude;
+        anchorLongitude = longitude;
+        anchorTimestamp = timestamp;
+        outputCount++;
+        out.accept(userId, latitude, longitude, timestamp, accuracy, deviceInfo);
+    }
+
+    /**
+     * Check whether every held fix lies within the tolerance of the segment from the anchor
+     * to the given end point, using a local equirectangular projection around the anchor.
+     */
+    private boolean withinCorridor(double endLatitude, double endLongitude) {
+        double metersPerDegreeLat = Math.toRadians(GeoUtils.EARTH_RADIUS_METERS);
+        double metersPerDegreeLon = metersPerDegreeLat * Math.cos(Math.toRadians(anchorLatitude));
+        double endX = (endLongitude - anchorLongitude) * metersPerDegreeLon;
+        double endY = (endLatitude - anchorLatitude) * metersPerDegreeLat;
+        double lengthSquared = endX * endX + endY * endY;
+        double toleranceSquared = toleranceMeters * toleranceMeters;
+
+        for (int i = 0; i < held; i++) {
+            double x = (longitudes[i] - anchorLongitude) * metersPerDegreeLon;
+            double y = (latitudes[i] - anchorLatitude) * metersPerDegreeLat;
+            // Distance to the segment, not the infinite line, so out-and-back trips are kept
+            double t = lengthSquared > 0 ? Math.max(0, Math.min(1, (x * endX + y * endY) / lengthSquared)) : 0;
+            double dx = x - t * endX;
+            double dy = y - t * endY;
+            if (dx * dx + dy * dy > toleranceSquared) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,17 @@
+package com.example.locationanalytics;
+
+/**
+ * Callback for location uploads. Unlike {@link ApiCallback} it also reports how long
+ * the server asked the client to wait before retrying.
+ *
+ * @internal This interface is for internal SDK use only
+ */
+interface UploadCallback {
+    void onSuccess();
+
+    /**
+     * @param message Error message describing the failure
+     * @param retryAfterMillis Delay requested through {@code Retry-After}, or 0 if none
+     */
+    void onError(String message, long retryAfterMillis);
+}
@@ -0,0 +1,327 @@
+package com.example.locationanalytics;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.ScheduledFuture;
+import java.util.function.LongSupplier;
+
+/**
+ * Decides when queued locations are uploaded and drives each upload to completion.
+ *
+ * <p>Batches are read from the persistent queue when the {@link BatchingPolicy} says so,
+ * or on an explicit flush, and pipelined: up to {@code maxInFlight} batches are sent at
+ * once, and every acknowledgement lets the next batch go out, so a backlog drains at the
+ * network's pace rather than one round trip at a time. Every batch carries its sequence
+ * number and idempotency key from the queue. A failed batch is kept and later resent as
+ * is, under the same key, as the {@link RetryScheduler} allows, so the server can tell a
+ * retransmission of a batch it already stored - e.g. after a timeout - from new data.
+ * Batches are removed from the queue in order, once they and every batch before them
+ * are acknowledged.</p>
+ *
+ * <p>Batches sent together usually fail together, so the retry scheduler sees at most one
+ * failure per dispatch round: a batch that fails after a failure was recorded since it was
+ * sent, with no success in between, is put back for resending without counting again. Otherwise one
+ * outage with {@code maxInFlight} batches in flight would count as that many consecutive
+ * failures and open the circuit breaker early.</p>
+ *
+ * <p>Policy checks, flushes and reads run on the {@link PipelineStage#ENCODE} stage;
+ * sending and response handling run on {@link PipelineStage#UPLOAD}. Time comes from
+ * the given clock and timers from the given {@link StageExecutor}, so the same logic
+ * runs on the device and in a virtual-time replay.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class UploadCoordinator {
+    /** Default number of requests sent at once */
+    static final int DEFAULT_MAX_IN_FLIGHT = 4;
+
+    /** Upper bound for the number of requests sent at once; well below the batch ends the queue remembers */
+    static final int MAX_IN_FLIGHT = 8;
+
+    /**
+     * Observes upload progress, e.g. for logging.
+     */
+    interface Listener {
+        /**
+         * An upload was due but the retry scheduler does not allow one yet.
+         */
+        void onUploadDeferred(RetryState state);
+
+        /**
+         * A batch was read from the queue and handed to the upload stage.
+         */
+        void onUploadStarted(int batchSize, int queuedCount);
+
+        /**
+         * A batch was acknowledged. Called on the encode stage, after the next batch, if
+         * any, was requested.
+         */
+        void onUploadSucceeded(int batchSize);
+
+        /**
+         * A batch failed and was put back into the queue.
+         *
+         * @param retryDelayMillis Delay until the retry timer fires
+         */
+        void onUploadFailed(String message, long retryDelayMillis, RetryState state);
+
+        /**
+         * The retry timer fired.
+         */
+        void onRetry();
+    }
+
+    private final LocationQueue queue;
+    private final BatchingPolicy batchingPolicy;
+    private final RetryScheduler retryScheduler;
+    private final BatchUploader uploader;
+    private final StageExecutor stages;
+    private final LongSupplier clock;
+    private final MetricsSink metrics;
+    private final Listener listener;
+    private final LocationBuffer.Pool bufferPool;
+    private final int maxBatchSize;
+    private final int maxInFlight;
+    private final Runnable batchingCheck = this::checkBatchingPolicy;
+    private final Runnable retryUpload = this::retryUpload;
+
+    /** Only touched on the encode stage */
+    private ScheduledFuture<?> batchingTimer;
+    /** Only touched on the upload stage */
+    private ScheduledFuture<?> retryTimer;
+    /** Batches read from the queue and not yet removed from it, in queue order; guarded by this */
+    private final ArrayDeque<Chunk> outstanding = new ArrayDeque<>();
+    /** Failed batches waiting to be resent; guarded by this */
+    private final ArrayDeque<Chunk> failed = new ArrayDeque<>();
+    /** Records in the outstanding batches; guarded by this */
+    private int outstandingCount;
+    /** Batches handed to the upload stage and not yet answered; guarded by this */
+    private int inFlight;
+    /** Incremented by every success and every failure recorded with the retry scheduler; guarded by this */
+    private long outcomeRound;
+    /** {@code outcomeRound} after the last recorded failure; guarded by this */
+    private long failureRound = -1;
+
+    /**
+     * A batch read from the queue, kept as is until the server acknowledges it.
+     */
+    private static final class Chunk {
+        final LocationQueue.Batch batch;
+        /** Guarded by the coordinator */
+        boolean acknowledged;
+        /** The coordinator's {@code outcomeRound} when the batch was last sent; guarded by the coordinator */
+        long round;
+
+        Chunk(LocationQueue.Batch batch) {
+            this.batch = batch;
+        }
+    }
+
+    /**
+     * @param queue Queue the batches are read from and acknowledged in
+     * @param batchingPolicy Decides when queued locations are uploaded
+     * @param retryScheduler Decides when failed uploads are retried
+     * @param uploader Sends the batches
+     * @param stages Runs the encode and upload work and the timers
+     * @param clock Source of the current time in milliseconds
+     * @param metrics Receives upload counters and histograms
+     * @param listener Observes upload progress
+     * @param maxBatchSize Maximum number of locations sent in a single request
+     * @param maxInFlight Maximum number of requests sent at once
+     */
+    UploadCoordinator(LocationQueue queue, BatchingPolicy batchingPolicy, RetryScheduler retryScheduler,
+                      BatchUploader uploader, StageExecutor stages, LongSupplier clock,
+                      MetricsSink metrics, Listener listener, int maxBatchSize, int maxInFlight) {
+        if (maxInFlight < 1 || maxInFlight > MAX_IN_FLIGHT) {
+            throw new IllegalArgumentException("Uploads in flight must be between 1 and " + MAX_IN_FLIGHT);
+        }
+        this.queue = queue;
+        this.batchingPolicy = batchingPolicy;
+        this.retryScheduler = retryScheduler;
+        this.uploader = uploader;
+        this.stages = stages;
+        this.clock = clock;
+        this.metrics = metrics;
+        this.listener = listener;
+        this.maxBatchSize = maxBatchSize;
+        this.maxInFlight = maxInFlight;
+        this.bufferPool = new LocationBuffer.Pool(maxBatchSize, maxInFlight + 1);
+    }
+
+    /**
+     * Encode stage: upload the queued locations if the batching policy says so, otherwise
+     * schedule a re-check so age-based thresholds fire even when no new location arrives.
+     */
+    void checkBatchingPolicy() {
+        cancelBatchingTimer();
+        if (queue.isEmpty()) return;
+
+        long oldestAge = Math.max(0, clock.getAsLong() - queue.oldestTimestamp());
+        if (batchingPolicy.shouldFlush(queue.size(), oldestAge, queue.pendingBytes())) {
+            sendCachedLocations(false);
+        } else {
+            long delay = batchingPolicy.getRecheckDelayMillis(oldestAge);
+            if (delay >= 0) {
+                batchingTimer = stages.schedule(batchingCheck, delay);
+            }
+        }
+    }
+
+    /**
+     * Encode stage: upload everything queued so far, bypassing the batching policy.
+     */
+    void flush() {
+        cancelBatchingTimer();
+        sendCachedLocations(true);
+    }
+
+    /**
+     * @return true while a batch is being sent
+     */
+    synchronized boolean isUploadInFlight() {
+        return inFlight > 0;
+    }
+
+    RetryState getRetryState() {
+        return retryScheduler.getState();
+    }
+
+    private void cancelBatchingTimer() {
+        if (batchingTimer != null) {
+            batchingTimer.cancel(false);
+            batchingTimer = null;
+        }
+    }
+
+    /**
+     * Encode stage: resend failed batches and read new ones from the queue, handing each to
+     * the upload stage, until {@code maxInFlight} are being sent.
+     *
+     * @param explicit true for flushes requested by the app or the retry timer, which skip
+     *                 the backoff delay; an open circuit breaker still blocks them
+     */
+    private void sendCachedLocations(boolean explicit) {
+        while (true) {
+            final Chunk chunk;
+            synchronized (this) {
+                if (inFlight >= maxInFlight) return;
+                boolean resend = !failed.isEmpty();
+                if (!resend && queue.isFullyRead()) return;
+                // Alongside other requests only full batches go out, so a steady trickle of
+                // fixes is not split into tiny requests; a backlog still goes out in parallel
+                if (!resend && !explicit && inFlight > 0 && queue.size() - outstandingCount < maxBatchSize) return;
+                if (!retryScheduler.canAttempt(clock.getAsLong(), explicit)) {
+                    if (inFlight == 0) {
+                        listener.onUploadDeferred(retryScheduler.getState());
+                    }
+                    return;
+                }
+
+                if (resend) {
+                    chunk = failed.poll();
+                } else {
+                    LocationQueue.Batch batch = queue.read(bufferPool.acquire());
+                    if (batch.isEmpty()) {
+                        bufferPool.release(batch.getLocations());
+                        retryScheduler.cancelAttempt();
+                        return;
+                    }
+                    chunk = new Chunk(batch);
+                    outstanding.add(chunk);
+                    outstandingCount += batch.size();
+                }
+                chunk.round = outcomeRound;
+                inFlight++;
+            }
+            listener.onUploadStarted(chunk.batch.size(), queue.size());
+
+            if (!stages.execute(PipelineStage.UPLOAD, () -> uploadBatch(chunk))) {
+                synchronized (this) {
+                    inFlight--;
+                    failed.addFirst(chunk);
+                }
+                retryScheduler.cancelAttempt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Upload stage: encode and send a batch. Responses are delivered on this stage too.
+     */
+    private void uploadBatch(final Chunk chunk) {
+        final LocationQueue.Batch batch = chunk.batch;
+        uploader.sendLocationData(batch.getLocations(), batch.getIdempotencyKey(), batch.getSequence(),
+                new UploadCallback() {
+            @Override
+            public void onSuccess() {
+                int size = batch.size();
+                recordUploadMetrics(batch.getLocations());
+                synchronized (UploadCoordinator.this) {
+                    chunk.acknowledged = true;
+                    inFlight--;
+                    outcomeRound++;
+                    // Acknowledgements may arrive out of order; the queue only moves forward
+                    while (!outstanding.isEmpty() && outstanding.peek().acknowledged) {
+                        Chunk done = outstanding.poll();
+                        outstandingCount -= done.batch.size();
+                        queue.ack(done.batch);
+                        bufferPool.release(done.batch.getLocations());
+                    }
+                }
+                retryScheduler.onSuccess();
+                cancelRetryTimer();
+                stages.execute(PipelineStage.ENCODE, () -> {
+                    sendCachedLocations(false);
+                    listener.onUploadSucceeded(size);
+                });
+            }
+
+            @Override
+            public void onError(String message, long retryAfterMillis) {
+                metrics.increment(Metric.UPLOADS_FAILED, 1);
+                boolean firstOfRound;
+                synchronized (UploadCoordinator.this) {
+                    inFlight--;
+                    failed.add(chunk);
+                    // Already counted if the latest outcome is a failure recorded after this batch was sent
+                    firstOfRound = failureRound != outcomeRound || chunk.round == outcomeRound;
+                    if (firstOfRound) {
+                        failureRound = ++outcomeRound;
+                    }
+                }
+                if (!firstOfRound) {
+                    // Part of a failure already recorded; its retry timer resends this batch too
+                    return;
+                }
+
+                // A single retry timer; later failures replace it rather than stacking up
+                long delay = retryScheduler.onFailure(clock.getAsLong(), retryAfterMillis, message);
+                cancelRetryTimer();
+                retryTimer = stages.schedule(retryUpload, delay);
+                listener.onUploadFailed(message, delay, retryScheduler.getState());
+            }
+        });
+    }
+
+    private void recordUploadMetrics(LocationBuffer uploaded) {
+        long now = clock.getAsLong();
+        metrics.increment(Metric.LOCATIONS_UPLOADED, uploaded.size());
+        metrics.record(Metric.BATCH_SIZE, uploaded.size());
+        for (int i = 0; i < uploaded.size(); i++) {
+            metrics.record(Metric.FIX_TO_ACK_MILLIS, now - uploaded.getTimestamp(i));
+        }
+    }
+
+    private void cancelRetryTimer() {
+        if (retryTimer != null) {
+            retryTimer.cancel(false);
+            retryTimer = null;
+        }
+    }
+
+    private void retryUpload() {
+        listener.onRetry();
+        metrics.increment(Metric.UPLOAD_RETRIES, 1);
+        sendCachedLocations(true);
+    }
+}
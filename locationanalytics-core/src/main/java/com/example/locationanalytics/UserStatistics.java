@@ -2,6 +2,7 @@ package com.example.locationanalytics;
 
 import com.google.gson.annotations.SerializedName;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -34,6 +35,79 @@ public class UserStatistics {
     @SerializedName("activity_hours")
     private Map<Integer, Integer> activityHours;
 
+    /** Set by the server when this only holds the change since an earlier response */
+    @SerializedName("delta")
+    private boolean delta;
+
+    UserStatistics() {
+    }
+
+    /**
+     * Create statistics computed on the device.
+     */
+    UserStatistics(String userId, int totalLocations, double distanceTraveledMeters, long firstLocationTimestamp,
+                   long lastLocationTimestamp, Map<String, Integer> cityVisits, List<LocationStop> commonStops,
+                   Map<Integer, Integer> activityHours) {
+        this(userId, totalLocations, distanceTraveledMeters, firstLocationTimestamp, lastLocationTimestamp,
+                cityVisits, commonStops, activityHours, false);
+    }
+
+    /**
+     * Create statistics read from a server response.
+     *
+     * @param delta Whether the response only holds the change since an earlier response
+     */
+    UserStatistics(String userId, int totalLocations, double distanceTraveledMeters, long firstLocationTimestamp,
+                   long lastLocationTimestamp, Map<String, Integer> cityVisits, List<LocationStop> commonStops,
+                   Map<Integer, Integer> activityHours, boolean delta) {
+        this.userId = userId;
+        this.totalLocations = totalLocations;
+        this.distanceTraveledMeters = distanceTraveledMeters;
+        this.firstLocationTimestamp = firstLocationTimestamp;
+        this.lastLocationTimestamp = lastLocationTimestamp;
+        this.cityVisits = cityVisits;
+        this.commonStops = commonStops;
+        this.activityHours = activityHours;
+        this.delta = delta;
+    }
+
+    /**
+     * @return true if these statistics are a delta to merge with {@link #mergeDelta(UserStatistics)}
+     */
+    boolean isDelta() {
+        return delta;
+    }
+
+    /**
+     * Apply a delta response to these statistics. Common stops and city visits are kept
+     * unless the delta carries them.
+     *
+     * @param change Statistics delta from the server
+     * @return New statistics including the change
+     */
+    UserStatistics mergeDelta(UserStatistics change) {
+        Map<Integer, Integer> mergedHours = new HashMap<>();
+        if (activityHours != null) {
+            mergedHours.putAll(activityHours);
+        }
+        if (change.activityHours != null) {
+            for (Map.Entry<Integer, Integer> entry : change.activityHours.entrySet()) {
+                if (entry.getValue() != null) {
+                    mergedHours.merge(entry.getKey(), entry.getValue(), Integer::sum);
+                }
+            }
+        }
+        return new UserStatistics(
+                userId,
+                totalLocations + change.totalLocations,
+                distanceTraveledMeters + change.distanceTraveledMeters,
+                firstLocationTimestamp > 0 ? firstLocationTimestamp : change.firstLocationTimestamp,
+                Math.max(lastLocationTimestamp, change.lastLocationTimestamp),
+                change.cityVisits != null ? change.cityVisits : cityVisits,
+                change.commonStops != null ? change.commonStops : commonStops,
+                mergedHours);
+    }
+
     /**
      * Represents a frequently visited location/stop.
      */
@@ -53,6 +127,20 @@ public class UserStatistics {
         @SerializedName("name")
         private String name;
 
+        LocationStop() {
+        }
+
+        /**
+         * Create a stop detected on the device.
+         */
+        LocationStop(double latitude, double longitude, int visitCount, double averageDurationMinutes, String name) {
+            this.latitude = latitude;
+            this.longitude = longitude;
+            this.visitCount = visitCount;
+            this.averageDurationMinutes = averageDurationMinutes;
+            this.name = name;
+        }
+
         /**
          * Get the latitude of this stop.
          * @return Latitude coordinate
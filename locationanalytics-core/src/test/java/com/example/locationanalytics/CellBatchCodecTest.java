@@ -0,0 +1,87 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the cell mode of {@link LocationBatchCodec} and for {@link Geohash}.
+ */
+public class CellBatchCodecTest {
+    private static final long MINUTE = 60_000;
+
+    @Test
+    public void geohash_matchesKnownCells() {
+        assertEquals("u4pruydqqvj", hash(57.64911, 10.40744, 11));
+        assertEquals("sv8wx2z", hash(32.0853, 34.7818, 7));
+        assertEquals("s0000", hash(0.0001, 0.0001, 5));
+        assertEquals("zzzzzz", hash(90, 180, 6));
+
+        int row = Geohash.row(32.0853, 8);
+        int column = Geohash.column(34.7818, 8);
+        assertEquals(32.0853, Geohash.centerLatitude(row, 8), 180.0 / (1 << Geohash.latitudeBits(8)));
+        assertEquals(34.7818, Geohash.centerLongitude(column, 8), 360.0 / (1 << Geohash.longitudeBits(8)));
+    }
+
+    @Test
+    public void consecutiveFixesInOneCell_areMergedIntoOneRecord() throws IOException {
+        LocationBuffer locations = new LocationBuffer(64);
+        // An hour at one place, a fix every 5 minutes, jittering by a few meters
+        for (int i = 0; i <= 12; i++) {
+            locations.add("user", 32.0853 + (i % 3) * 0.00003, 34.7818, i * 5 * MINUTE, 10 + i % 2, "device");
+        }
+        // Walking away, a cell per fix
+        for (int i = 1; i <= 5; i++) {
+            locations.add("user", 32.0853 + i * 0.002, 34.7818, (60 + i) * MINUTE, 8, "device");
+        }
+        // Back after a break longer than the merge gap
+        locations.add("user", 32.0853 + 5 * 0.002, 34.7818, 120 * MINUTE, 8, "device");
+        locations.add("other", 32.0853, 34.7818, 0, 5, null);
+
+        byte[] payload = new LocationBatchCodec(7).encode(locations);
+        List<LocationBatchCodec.CellRecord> records = LocationBatchCodec.decodeCells(payload);
+
+        assertEquals(8, records.size());
+        LocationBatchCodec.CellRecord dwell = records.get(0);
+        assertEquals("user", dwell.userId);
+        assertEquals("device", dwell.deviceInfo);
+        assertEquals(hash(32.0853, 34.7818, 7), dwell.cell);
+        assertEquals(13, dwell.fixCount);
+        assertEquals(0, dwell.firstTimestamp);
+        assertEquals(60 * MINUTE, dwell.lastTimestamp);
+        assertEquals(10.5f, dwell.accuracy, 0.05f);
+        assertTrue(GeoUtils.distanceMeters(32.0853, 34.7818, dwell.latitude, dwell.longitude) < 110);
+
+        for (int i = 1; i <= 5; i++) {
+            assertEquals(1, records.get(i).fixCount);
+            assertEquals((60 + i) * MINUTE, records.get(i).firstTimestamp);
+            assertEquals(records.get(i).firstTimestamp, records.get(i).lastTimestamp);
+        }
+        assertEquals(records.get(5).cell, records.get(6).cell);
+        assertEquals(120 * MINUTE, records.get(6).firstTimestamp);
+        assertEquals("other", records.get(7).userId);
+        assertNull(records.get(7).deviceInfo);
+
+        // Decoded as plain locations, one per record at the cell center
+        List<LocationData> decoded = LocationBatchCodec.decode(payload);
+        assertEquals(8, decoded.size());
+        assertEquals(dwell.latitude, decoded.get(0).getLatitude(), 0);
+        assertEquals(dwell.firstTimestamp, decoded.get(0).getTimestamp());
+
+        assertTrue(payload.length < new LocationBatchCodec().encode(locations).length);
+    }
+
+    @Test(expected = IOException.class)
+    public void fullPrecisionBatch_isNotACellBatch() throws IOException {
+        LocationBuffer locations = new LocationBuffer(1);
+        locations.add("user", 32.0853, 34.7818, 0, 10, "device");
+        LocationBatchCodec.decodeCells(new LocationBatchCodec().encode(locations));
+    }
+
+    private static String hash(double latitude, double longitude, int precision) {
+        return Geohash.encode(Geohash.row(latitude, precision), Geohash.column(longitude, precision), precision);
+    }
+}
@@ -0,0 +1,163 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link FleetIngestBuffer}: round-robin fairness between assets,
+ * per-asset overflow, and a concurrent stress test that checks no fix is lost or
+ * delivered twice.
+ *
+ * <p>In the stress test every fix carries a unique id in its timestamp:
+ * {@code producer * FIXES_PER_PRODUCER + n}.</p>
+ */
+public class FleetIngestBufferTest {
+    private static final int PRODUCERS = 4;
+    private static final int ASSETS_PER_PRODUCER = 50;
+    private static final int FIXES_PER_PRODUCER = 200_000;
+    private static final int TOTAL_FIXES = PRODUCERS * FIXES_PER_PRODUCER;
+
+    @Test
+    public void drain_interleavesAssetsInFairShares() {
+        FleetIngestBuffer buffer = new FleetIngestBuffer(1024, OverflowPolicy.DROP_OLDEST, null, 4);
+        for (int i = 0; i < 200; i++) {
+            buffer.offer("noisy", 0, 0, i, 1f, "device");
+        }
+        buffer.offer("quiet1", 0, 0, 0, 1f, "device");
+        buffer.offer("quiet2", 0, 0, 0, 1f, "device");
+        assertEquals(202, buffer.size());
+
+        List<String> drained = new ArrayList<>();
+        buffer.drain((userId, latitude, longitude, timestamp, accuracy, deviceInfo) -> drained.add(userId), 100);
+
+        // One share of the noisy asset, then every other waiting asset before its next share
+        assertEquals(FleetIngestBuffer.FAIR_SHARE, drained.indexOf("quiet1"));
+        assertEquals(FleetIngestBuffer.FAIR_SHARE + 1, drained.indexOf("quiet2"));
+        assertEquals(100, drained.size());
+        assertEquals(102, buffer.size());
+    }
+
+    @Test
+    public void drain_preservesOrderPerAsset() {
+        FleetIngestBuffer buffer = new FleetIngestBuffer(1024, OverflowPolicy.DROP_OLDEST, null, 4);
+        for (int i = 0; i < 100; i++) {
+            buffer.offer("user" + (i % 3), i, -i, i, 1f, "device");
+        }
+
+        Map<String, List<Long>> drained = new HashMap<>();
+        buffer.drain((userId, latitude, longitude, timestamp, accuracy, deviceInfo) -> {
+            assertEquals(timestamp, (long) latitude);
+            drained.computeIfAbsent(userId, id -> new ArrayList<>()).add(timestamp);
+        }, Integer.MAX_VALUE);
+
+        assertEquals(Arrays.asList(0L, 3L, 6L), drained.get("user0").subList(0, 3));
+        assertEquals(34, drained.get("user0").size());
+        assertEquals(33, drained.get("user2").size());
+        assertTrue(buffer.isEmpty());
+        assertEquals(0, buffer.size());
+        assertEquals(3, buffer.getAssetCount());
+    }
+
+    @Test
+    public void dropOldest_onlyDropsFixesOfTheFullAsset() {
+        FleetIngestBuffer buffer = new FleetIngestBuffer(4, OverflowPolicy.DROP_OLDEST, null, 4);
+        for (int i = 0; i < 10; i++) {
+            buffer.offer("noisy", 0, 0, i, 1f, "device");
+        }
+        buffer.offer("quiet", 0, 0, 100, 1f, "device");
+        assertEquals(6, buffer.getDroppedCount());
+
+        List<Long> drained = new ArrayList<>();
+        buffer.drain((userId, latitude, longitude, timestamp, accuracy, deviceInfo) -> drained.add(timestamp), 100);
+        assertEquals(Arrays.asList(6L, 7L, 8L, 9L, 100L), drained);
+    }
+
+    @Test
+    public void spill_handsNewFixToSinkWhenAssetIsFull() {
+        List<Long> spilled = new ArrayList<>();
+        FleetIngestBuffer buffer = new FleetIngestBuffer(4, OverflowPolicy.SPILL,
+                (userId, latitude, longitude, timestamp, accuracy, deviceInfo) -> spilled.add(timestamp), 4);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(i < 4, buffer.offer("noisy", 0, 0, i, 1f, "device"));
+        }
+        assertTrue(buffer.offer("quiet", 0, 0, 100, 1f, "device"));
+
+        assertEquals(Arrays.asList(4L, 5L, 6L, 7L, 8L, 9L), spilled);
+        assertEquals(6, buffer.getSpilledCount());
+        assertEquals(5, buffer.size());
+    }
+
+    @Test
+    public void concurrentProducers_noLostOrDuplicatedFixes_orderPreservedPerAsset() throws Exception {
+        BitSet seen = new BitSet(TOTAL_FIXES);
+        int[] counts = new int[2];  // drained, duplicates
+        Map<String, Long> lastSeen = new HashMap<>();
+        AtomicBoolean outOfOrder = new AtomicBoolean();
+        // Only the drainer thread calls the sink
+        LocationRingBuffer.Sink recorder = (userId, latitude, longitude, timestamp, accuracy, deviceInfo) -> {
+            int id = (int) timestamp;
+            if (seen.get(id)) counts[1]++;
+            seen.set(id);
+            counts[0]++;
+            Long previous = lastSeen.put(userId, timestamp);
+            if (previous != null && previous >= timestamp) outOfOrder.set(true);
+        };
+        FleetIngestBuffer buffer = new FleetIngestBuffer(1 << 16, OverflowPolicy.DROP_OLDEST, null, 8);
+
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch producersDone = new CountDownLatch(PRODUCERS);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int n = 0; n < FIXES_PER_PRODUCER; n++) {
+                    long id = (long) producer * FIXES_PER_PRODUCER + n;
+                    buffer.offer("asset" + producer + "-" + (n % ASSETS_PER_PRODUCER), 0, 0, id, 1f, "device");
+                }
+                producersDone.countDown();
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        Thread drainer = new Thread(() -> {
+            while (producersDone.getCount() > 0) {
+                if (buffer.drain(recorder, 256) == 0) {
+                    Thread.yield();
+                }
+            }
+            buffer.drain(recorder, Integer.MAX_VALUE);
+        });
+        drainer.start();
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join(60_000);
+        }
+        drainer.join(60_000);
+        assertFalse("drainer did not finish", drainer.isAlive());
+
+        assertEquals(0, buffer.getDroppedCount());
+        assertEquals(0, counts[1]);
+        assertEquals(TOTAL_FIXES, counts[0]);
+        assertEquals(TOTAL_FIXES, seen.cardinality());
+        assertFalse(outOfOrder.get());
+        assertEquals(PRODUCERS * ASSETS_PER_PRODUCER, buffer.getAssetCount());
+        assertTrue(buffer.isEmpty());
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.locationanalytics;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonWriter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link HeatmapTiles}: bin keys, sealing and acknowledging snapshots,
+ * and the upload body written by {@link JsonAdapters#writeHeatmapTiles}.
+ */
+public class HeatmapTilesTest {
+    private static final long DAY = 24 * 60 * 60 * 1000;
+    private static final long NOW = 20_000 * DAY + 12 * 60 * 60 * 1000;
+
+    @Test
+    public void fixesAreCountedOncePerZoomLevel_inTheBinContainingThem() {
+        HeatmapTiles tiles = new HeatmapTiles();
+        for (int i = 0; i < 10; i++) {
+            tiles.add("user", 32.0853, 34.7818, NOW + i * 60_000);
+        }
+        tiles.add("user", 32.0853, 34.7818, NOW + DAY);
+        assertEquals(2 * HeatmapTiles.ZOOM_LEVELS.length, tiles.getPendingBinCount());
+
+        HeatmapTiles.Snapshot snapshot = tiles.seal();
+        assertEquals(11, snapshot.fixCount);
+        assertEquals(1, snapshot.users.size());
+        HeatmapTiles.UserTiles user = snapshot.users.get(0);
+        assertEquals(6, user.keys.length);
+        for (int i = 0; i < user.keys.length; i++) {
+            long key = user.keys[i];
+            assertEquals(i < 3 ? 20_000 : 20_001, HeatmapTiles.day(key));
+            assertEquals(HeatmapTiles.ZOOM_LEVELS[i % 3], HeatmapTiles.zoom(key));
+            assertEquals(i < 3 ? 10 : 1, user.counts[i]);
+
+            // The bin center is within half a bin of the fix
+            int zoom = HeatmapTiles.zoom(key);
+            int bin = HeatmapTiles.bin(key);
+            double n = 1 << (zoom + HeatmapTiles.BIN_BITS);
+            double binX = HeatmapTiles.tileX(key) * HeatmapTiles.BINS_PER_SIDE + bin % HeatmapTiles.BINS_PER_SIDE + 0.5;
+            double binY = HeatmapTiles.tileY(key) * HeatmapTiles.BINS_PER_SIDE + bin / HeatmapTiles.BINS_PER_SIDE + 0.5;
+            double longitude = binX / n * 360 - 180;
+            double latitude = Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * binY / n))));
+            assertEquals(34.7818, longitude, 180 / n);
+            assertEquals(32.0853, latitude, 180 / n);
+        }
+    }
+
+    @Test
+    public void unacknowledgedSnapshot_isSealedAgainBeforeNewerCounts() {
+        HeatmapTiles tiles = new HeatmapTiles();
+        assertNull(tiles.seal());
+        tiles.add("user", 32.0853, 34.7818, NOW);
+
+        HeatmapTiles.Snapshot first = tiles.seal();
+        tiles.add("user", 40.7128, -74.0060, NOW);
+        // One upload at a time
+        assertNull(tiles.seal());
+
+        tiles.release(first);
+        HeatmapTiles.Snapshot retry = tiles.seal();
+        assertSame(first, retry);
+        assertEquals(first.idempotencyKey, retry.idempotencyKey);
+
+        tiles.acknowledge(retry);
+        HeatmapTiles.Snapshot second = tiles.seal();
+        assertNotEquals(first.idempotencyKey, second.idempotencyKey);
+        assertEquals(1, second.fixCount);
+        tiles.acknowledge(second);
+        assertNull(tiles.seal());
+    }
+
+    @Test
+    public void pendingBins_areCapped() {
+        HeatmapTiles tiles = new HeatmapTiles();
+        int fixes = HeatmapTiles.MAX_PENDING_BINS / HeatmapTiles.ZOOM_LEVELS.length + 100;
+        for (int i = 0; i < fixes; i++) {
+            // A new bin at every zoom level each day
+            tiles.add("user", 32.0853, 34.7818, NOW + i * DAY);
+        }
+        assertEquals(HeatmapTiles.MAX_PENDING_BINS, tiles.getPendingBinCount());
+        assertTrue(tiles.getDroppedCount() >= 100);
+
+        // Bins already counted still count
+        tiles.add("user", 32.0853, 34.7818, NOW);
+        assertEquals(fixes - 100 + 2, tiles.seal().fixCount);
+    }
+
+    @Test
+    public void uploadBody_groupsBinsByTile() throws IOException {
+        // Bin columns 5 and 7 of one tile at zoom 16, so the same tile at every zoom level
+        double n = 1 << (16 + HeatmapTiles.BIN_BITS);
+        int binX = (int) ((34.7818 + 180) / 360 * n);
+        double west = (binX - binX % HeatmapTiles.BINS_PER_SIDE + 5.5) / n * 360 - 180;
+        double east = west + 2 * 360 / n;
+        HeatmapTiles tiles = new HeatmapTiles();
+        tiles.add("user", 32.0853, west, NOW);
+        tiles.add("user", 32.0853, west, NOW);
+        tiles.add("user", 32.0853, east, NOW);
+        tiles.add("other", 40.7128, -74.0060, NOW);
+
+        StringWriter json = new StringWriter();
+        JsonAdapters.writeHeatmapTiles(new JsonWriter(json), "key", tiles.seal());
+        JsonObject body = JsonParser.parseString(json.toString()).getAsJsonObject();
+
+        assertEquals("key", body.get("apiKey").getAsString());
+        assertEquals(HeatmapTiles.BIN_BITS, body.get("bin_bits").getAsInt());
+        JsonArray users = body.getAsJsonArray("users");
+        assertEquals(2, users.size());
+        for (int u = 0; u < users.size(); u++) {
+            JsonObject user = users.get(u).getAsJsonObject();
+            JsonArray userTiles = user.getAsJsonArray("tiles");
+            assertEquals(HeatmapTiles.ZOOM_LEVELS.length, userTiles.size());
+            int total = 0;
+            for (int t = 0; t < userTiles.size(); t++) {
+                JsonObject tile = userTiles.get(t).getAsJsonObject();
+                assertEquals(20_000, tile.get("day").getAsLong());
+                assertEquals(HeatmapTiles.ZOOM_LEVELS[t], tile.get("z").getAsInt());
+                JsonArray bins = tile.getAsJsonArray("bins");
+                for (int i = 1; i < bins.size(); i += 2) {
+                    total += bins.get(i).getAsInt();
+                }
+                if ("user".equals(user.get("user_id").getAsString()) && t == 2) {
+                    assertEquals(4, bins.size());
+                }
+            }
+            assertEquals("user".equals(user.get("user_id").getAsString()) ? 9 : 3, total);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link InMemoryMetricsSink}: exact counters and histogram totals,
+ * the percentile error bound of the log-linear buckets, and concurrent updates.
+ */
+public class InMemoryMetricsSinkTest {
+
+    @Test
+    public void counters_addUpPerMetric() {
+        InMemoryMetricsSink metrics = new InMemoryMetricsSink();
+        metrics.increment(Metric.LOCATIONS_UPLOADED, 50);
+        metrics.increment(Metric.LOCATIONS_UPLOADED, 7);
+        metrics.increment(Metric.UPLOADS_FAILED, 1);
+        assertEquals(57, metrics.getCount(Metric.LOCATIONS_UPLOADED));
+        assertEquals(1, metrics.getCount(Metric.UPLOADS_FAILED));
+        assertEquals(0, metrics.getCount(Metric.UPLOAD_RETRIES));
+    }
+
+    @Test
+    public void histogram_keepsExactTotals() {
+        InMemoryMetricsSink metrics = new InMemoryMetricsSink();
+        for (int i = 1000; i >= 1; i--) {
+            metrics.record(Metric.BATCH_SIZE, i);
+        }
+        HistogramSnapshot batchSizes = metrics.getHistogram(Metric.BATCH_SIZE);
+        assertEquals(1000, batchSizes.getCount());
+        assertEquals(500_500, batchSizes.getSum());
+        assertEquals(1, batchSizes.getMin());
+        assertEquals(1000, batchSizes.getMax());
+        assertEquals(500.5, batchSizes.getMean(), 0);
+        assertEquals(0, metrics.getHistogram(Metric.ENCODED_BYTES).getCount());
+    }
+
+    @Test
+    public void percentiles_areAtMostAQuarterAboveTheTrueValue() {
+        InMemoryMetricsSink metrics = new InMemoryMetricsSink();
+        Random random = new Random(3);
+        List<Long> samples = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            // Latencies spanning several orders of magnitude
+            long sample = (long) Math.exp(random.nextDouble() * 12);
+            samples.add(sample);
+            metrics.record(Metric.FIX_TO_ACK_MILLIS, sample);
+        }
+        samples.sort(null);
+        HistogramSnapshot latencies = metrics.getHistogram(Metric.FIX_TO_ACK_MILLIS);
+        for (double percentile : new double[]{1, 25, 50, 90, 95, 99, 99.9}) {
+            long exact = samples.get((int) Math.ceil(percentile / 100 * samples.size()) - 1);
+            long estimate = latencies.getPercentile(percentile);
+            assertTrue(percentile + ": " + estimate + " < " + exact, estimate >= exact);
+            assertTrue(percentile + ": " + estimate + " > 1.25 * " + exact, estimate <= exact * 1.25);
+        }
+        assertEquals(samples.get(0).longValue(), latencies.getPercentile(0));
+        assertEquals(samples.get(samples.size() - 1).longValue(), latencies.getPercentile(100));
+    }
+
+    @Test
+    public void buckets_coverEveryValueInOrder() {
+        int previousIndex = -1;
+        for (long value = 0; value >= 0 && value < Long.MAX_VALUE / 2; value = value < 64 ? value + 1 : value * 3 / 2) {
+            int index = InMemoryMetricsSink.bucketIndex(value);
+            assertTrue(index >= previousIndex);
+            assertTrue(index < InMemoryMetricsSink.BUCKET_COUNT);
+            long upperBound = InMemoryMetricsSink.bucketUpperBound(index);
+            assertTrue(value <= upperBound);
+            assertTrue(upperBound <= value + value / 4);
+            if (index > 0) {
+                assertTrue(InMemoryMetricsSink.bucketUpperBound(index - 1) < value);
+            }
+            previousIndex = index;
+        }
+        assertEquals(InMemoryMetricsSink.BUCKET_COUNT - 1, InMemoryMetricsSink.bucketIndex(Long.MAX_VALUE));
+        assertEquals(Long.MAX_VALUE, InMemoryMetricsSink.bucketUpperBound(InMemoryMetricsSink.BUCKET_COUNT - 1));
+    }
+
+    @Test
+    public void unusualSamples_areHandled() {
+        InMemoryMetricsSink metrics = new InMemoryMetricsSink();
+        // A clock step backwards must not produce a negative latency
+        metrics.record(Metric.STATISTICS_LATENCY_MILLIS, -5);
+        HistogramSnapshot latencies = metrics.getHistogram(Metric.STATISTICS_LATENCY_MILLIS);
+        assertEquals(1, latencies.getCount());
+        assertEquals(0, latencies.getMin());
+        assertEquals(0, latencies.getPercentile(50));
+
+        // Samples for counters are ignored
+        metrics.record(Metric.FIXES_RECEIVED, 3);
+        assertEquals(0, metrics.getCount(Metric.FIXES_RECEIVED));
+
+        HistogramSnapshot empty = metrics.getHistogram(Metric.QUEUE_DEPTH);
+        assertEquals(0, empty.getMin());
+        assertEquals(0, empty.getMax());
+        assertEquals(0, empty.getMean(), 0);
+        assertEquals(0, empty.getPercentile(99));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void counter_isNotAHistogram() {
+        new InMemoryMetricsSink().getHistogram(Metric.FIXES_DROPPED);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void percentileAbove100_isRejected() {
+        InMemoryMetricsSink metrics = new InMemoryMetricsSink();
+        metrics.record(Metric.BATCH_SIZE, 1);
+        metrics.getHistogram(Metric.BATCH_SIZE).getPercentile(101);
+    }
+
+    @Test
+    public void reset_clearsEverything() {
+        InMemoryMetricsSink metrics = new InMemoryMetricsSink();
+        metrics.increment(Metric.FIXES_RECEIVED, 10);
+        metrics.record(Metric.BATCH_SIZE, 100);
+        metrics.reset();
+        assertEquals(0, metrics.getCount(Metric.FIXES_RECEIVED));
+        assertEquals(0, metrics.getHistogram(Metric.BATCH_SIZE).getCount());
+
+        // The minimum starts over too
+        metrics.record(Metric.BATCH_SIZE, 40);
+        assertEquals(40, metrics.getHistogram(Metric.BATCH_SIZE).getMin());
+    }
+
+    @Test
+    public void concurrentUpdates_areNotLost() throws InterruptedException {
+        InMemoryMetricsSink metrics = new InMemoryMetricsSink();
+        int threadCount = 4;
+        int updates = 20_000;
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < threadCount; t++) {
+            int offset = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 1; i <= updates; i++) {
+                    metrics.increment(Metric.FIXES_RECEIVED, 1);
+                    metrics.record(Metric.QUEUE_DEPTH, i + offset);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(threadCount * updates, metrics.getCount(Metric.FIXES_RECEIVED));
+        HistogramSnapshot depths = metrics.getHistogram(Metric.QUEUE_DEPTH);
+        assertEquals(threadCount * updates, depths.getCount());
+        long expectedSum = 0;
+        for (int t = 0; t < threadCount; t++) {
+            expectedSum += (long) updates * (updates + 1) / 2 + (long) t * updates;
+        }
+        assertEquals(expectedSum, depths.getSum());
+        assertEquals(1, depths.getMin());
+        assertEquals(updates + threadCount - 1, depths.getMax());
+    }
+}
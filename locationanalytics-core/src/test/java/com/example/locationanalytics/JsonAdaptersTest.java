@@ -0,0 +1,236 @@
+package com.example.locationanalytics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link JsonAdapters}: round trips of every adapter, null fields,
+ * unknown fields, integral numbers written as {@code 12.0}, and empty arrays and objects.
+ */
+public class JsonAdaptersTest {
+    private static final Type STATISTICS_RESPONSE_TYPE = new TypeToken<ApiResponse<UserStatistics>>() {}.getType();
+    private static final Type VOID_RESPONSE_TYPE = new TypeToken<ApiResponse<Void>>() {}.getType();
+
+    private final Gson gson = new GsonBuilder().registerTypeAdapterFactory(JsonAdapters.FACTORY).create();
+
+    private static UserStatistics sampleStatistics() {
+        Map<String, Integer> cities = new HashMap<>();
+        cities.put("Tel Aviv", 12);
+        Map<Integer, Integer> hours = new HashMap<>();
+        hours.put(0, 3);
+        hours.put(23, 9);
+        List<UserStatistics.LocationStop> stops = new ArrayList<>();
+        stops.add(new UserStatistics.LocationStop(32.0853, 34.7818, 4, 37.5, "Home"));
+        stops.add(new UserStatistics.LocationStop(32.1093, 34.8555, 2, 12.25, null));
+        return new UserStatistics("user", 1234, 5678.9, 1_700_000_000_000L, 1_700_086_400_000L,
+                cities, stops, hours, true);
+    }
+
+    private static void assertSameStops(List<UserStatistics.LocationStop> expected,
+                                        List<UserStatistics.LocationStop> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getLatitude(), actual.get(i).getLatitude(), 0);
+            assertEquals(expected.get(i).getLongitude(), actual.get(i).getLongitude(), 0);
+            assertEquals(expected.get(i).getVisitCount(), actual.get(i).getVisitCount());
+            assertEquals(expected.get(i).getAverageDurationMinutes(), actual.get(i).getAverageDurationMinutes(), 0);
+            assertEquals(expected.get(i).getName(), actual.get(i).getName());
+        }
+    }
+
+    @Test
+    public void locationData_roundTrips_andOmitsNullFields() {
+        LocationData location = new LocationData("user", 32.0853123, -34.7818456, 1_700_000_000_123L, 4.5f,
+                "Pixel 7 / Android 14");
+        LocationData read = gson.fromJson(gson.toJson(location), LocationData.class);
+        assertEquals("user", read.getUserId());
+        assertEquals(32.0853123, read.getLatitude(), 0);
+        assertEquals(-34.7818456, read.getLongitude(), 0);
+        assertEquals(1_700_000_000_123L, read.getTimestamp());
+        assertEquals(4.5f, read.getAccuracy(), 0);
+        assertEquals("Pixel 7 / Android 14", read.getDeviceInfo());
+
+        String json = gson.toJson(new LocationData(null, 1, 2, 3, 4, null));
+        JsonObject object = JsonParser.parseString(json).getAsJsonObject();
+        assertFalse(object.has("user_id"));
+        assertFalse(object.has("device_info"));
+        assertNull(gson.fromJson(json, LocationData.class).getDeviceInfo());
+    }
+
+    @Test
+    public void locationData_readsNullsUnknownFieldsAndFractionalIntegers() {
+        LocationData read = gson.fromJson("{\"user_id\": null, \"latitude\": null, \"extra\": {\"a\": [1, {}]},"
+                + " \"timestamp\": 1700000000000.0, \"longitude\": 12, \"accuracy\": null,"
+                + " \"device_info\": null, \"_id\": \"65f0\"}", LocationData.class);
+        assertNull(read.getUserId());
+        assertEquals(0, read.getLatitude(), 0);
+        assertEquals(12, read.getLongitude(), 0);
+        assertEquals(1_700_000_000_000L, read.getTimestamp());
+        assertEquals(0, read.getAccuracy(), 0);
+        assertNull(read.getDeviceInfo());
+        assertNull(gson.fromJson("null", LocationData.class));
+    }
+
+    @Test
+    public void locationStop_roundTrips() {
+        List<UserStatistics.LocationStop> stops = sampleStatistics().getCommonStops();
+        for (UserStatistics.LocationStop stop : stops) {
+            UserStatistics.LocationStop read = gson.fromJson(gson.toJson(stop), UserStatistics.LocationStop.class);
+            assertSameStops(Collections.singletonList(stop), Collections.singletonList(read));
+        }
+        UserStatistics.LocationStop read = gson.fromJson("{\"visit_count\": 3.0, \"name\": null,"
+                + " \"cluster\": [1, 2], \"latitude\": 1}", UserStatistics.LocationStop.class);
+        assertEquals(3, read.getVisitCount());
+        assertEquals(1, read.getLatitude(), 0);
+        assertNull(read.getName());
+    }
+
+    @Test
+    public void userStatistics_roundTrips() {
+        UserStatistics statistics = sampleStatistics();
+        UserStatistics read = gson.fromJson(gson.toJson(statistics), UserStatistics.class);
+        assertEquals("user", read.getUserId());
+        assertEquals(1234, read.getTotalLocations());
+        assertEquals(5678.9, read.getDistanceTraveledMeters(), 0);
+        assertEquals(1_700_000_000_000L, read.getFirstLocationTimestamp());
+        assertEquals(1_700_086_400_000L, read.getLastLocationTimestamp());
+        assertEquals(statistics.getCityVisits(), read.getCityVisits());
+        assertEquals(statistics.getActivityHours(), read.getActivityHours());
+        assertSameStops(statistics.getCommonStops(), read.getCommonStops());
+        assertTrue(read.isDelta());
+
+        // Absent maps and lists stay absent
+        UserStatistics bare = new UserStatistics("user", 0, 0, 0, 0, null, null, null);
+        JsonObject object = JsonParser.parseString(gson.toJson(bare)).getAsJsonObject();
+        assertFalse(object.has("city_visits"));
+        assertFalse(object.has("common_stops"));
+        assertFalse(object.has("activity_hours"));
+        assertFalse(gson.fromJson(object, UserStatistics.class).isDelta());
+    }
+
+    @Test
+    public void userStatistics_readsServerShapes() {
+        UserStatistics read = gson.fromJson("{\"user_id\": \"user\", \"total_locations\": 12.0,"
+                + " \"distance_traveled_meters\": 10, \"first_location_timestamp\": null,"
+                + " \"last_location_timestamp\": 1700000000000.0, \"city_visits\": {},"
+                + " \"common_stops\": [], \"activity_hours\": {\"7\": 2.0, \"8\": null},"
+                + " \"since\": 1690000000000, \"unknown\": [[], {\"x\": null}], \"delta\": null}",
+                UserStatistics.class);
+        assertEquals(12, read.getTotalLocations());
+        assertEquals(10, read.getDistanceTraveledMeters(), 0);
+        assertEquals(0, read.getFirstLocationTimestamp());
+        assertEquals(1_700_000_000_000L, read.getLastLocationTimestamp());
+        assertTrue(read.getCityVisits().isEmpty());
+        assertTrue(read.getCommonStops().isEmpty());
+        assertEquals(Collections.singletonMap(7, 2), read.getActivityHours());
+        assertFalse(read.isDelta());
+
+        UserStatistics nulls = gson.fromJson("{\"city_visits\": null, \"common_stops\": null,"
+                + " \"activity_hours\": null}", UserStatistics.class);
+        assertNull(nulls.getCityVisits());
+        assertNull(nulls.getCommonStops());
+        assertNull(nulls.getActivityHours());
+    }
+
+    @Test
+    public void userStatistics_rejectsNonNumericHours() {
+        try {
+            gson.fromJson("{\"activity_hours\": {\"noon\": 1}}", UserStatistics.class);
+            fail("A non-numeric hour must be rejected");
+        } catch (RuntimeException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void apiResponse_roundTripsItsData_andSkipsVoidData() {
+        ApiResponse<UserStatistics> response = new ApiResponse<>(true, "Statistics calculated", sampleStatistics());
+        ApiResponse<UserStatistics> read = gson.fromJson(gson.toJson(response, STATISTICS_RESPONSE_TYPE),
+                STATISTICS_RESPONSE_TYPE);
+        assertTrue(read.isSuccess());
+        assertEquals("Statistics calculated", read.getMessage());
+        assertEquals(1234, read.getData().getTotalLocations());
+
+        ApiResponse<Void> saved = gson.fromJson("{\"success\": true, \"data\": {\"inserted\": 50},"
+                + " \"message\": \"Saved\", \"request_id\": \"abc\"}", VOID_RESPONSE_TYPE);
+        assertTrue(saved.isSuccess());
+        assertEquals("Saved", saved.getMessage());
+        assertNull(saved.getData());
+
+        ApiResponse<UserStatistics> failed = gson.fromJson("{\"success\": false, \"message\": null,"
+                + " \"data\": null}", STATISTICS_RESPONSE_TYPE);
+        assertFalse(failed.isSuccess());
+        assertNull(failed.getMessage());
+        assertNull(failed.getData());
+    }
+
+    @Test
+    public void locationBatch_isReadBackByTheLocationAdapter() throws IOException {
+        LocationBuffer locations = new LocationBuffer(4);
+        locations.add("user", 32.0853, 34.7818, 1_700_000_000_000L, 5, "Pixel 7 / Android 14");
+        locations.add("user", 32.0854, 34.7819, 1_700_000_005_000L, 12, null);
+        StringWriter json = new StringWriter();
+        JsonAdapters.writeLocationBatch(new JsonWriter(json), "key", locations);
+
+        JsonObject body = JsonParser.parseString(json.toString()).getAsJsonObject();
+        assertEquals("key", body.get("apiKey").getAsString());
+        assertEquals(2, body.getAsJsonArray("locations").size());
+        for (int i = 0; i < locations.size(); i++) {
+            LocationData read = gson.fromJson(body.getAsJsonArray("locations").get(i), LocationData.class);
+            assertEquals(locations.getTimestamp(i), read.getTimestamp());
+            assertEquals(locations.getLatitude(i), read.getLatitude(), 0);
+            assertEquals(locations.getAccuracy(i), read.getAccuracy(), 0);
+            assertEquals(locations.getDeviceInfo(i), read.getDeviceInfo());
+        }
+
+        StringWriter empty = new StringWriter();
+        JsonAdapters.writeLocationBatch(new JsonWriter(empty), null, new LocationBuffer(1));
+        assertEquals("{\"locations\":[]}", empty.toString());
+    }
+
+    @Test
+    public void heatmapTiles_writeAnEmptyUserAsAnEmptyTileArray() throws IOException {
+        HeatmapTiles.Snapshot snapshot = new HeatmapTiles.Snapshot("id", Collections.singletonList(
+                new HeatmapTiles.UserTiles(null, new long[0], new int[0])), 0);
+        StringWriter json = new StringWriter();
+        JsonAdapters.writeHeatmapTiles(new JsonWriter(json), null, snapshot);
+        assertEquals("{\"bin_bits\":" + HeatmapTiles.BIN_BITS + ",\"users\":[{\"tiles\":[]}]}", json.toString());
+    }
+
+    @Test
+    public void locationPage_readsEmptyAndSparsePages() throws IOException {
+        List<LocationData> locations = new ArrayList<>();
+        assertNull(JsonAdapters.readLocationPage(new JsonReader(new StringReader(
+                "{\"success\": true, \"data\": [], \"next_cursor\": null, \"count\": 0.0}")), 10, locations));
+        assertTrue(locations.isEmpty());
+        assertNull(JsonAdapters.readLocationPage(new JsonReader(new StringReader(
+                "{\"success\": true, \"data\": null}")), 10, locations));
+        assertTrue(locations.isEmpty());
+
+        assertEquals("5.0:x", JsonAdapters.readLocationPage(new JsonReader(new StringReader(
+                "{\"meta\": {\"page\": 1}, \"data\": [{\"timestamp\": 5.0, \"_id\": \"x\", \"user_id\": null}],"
+                        + " \"next_cursor\": \"5.0:x\", \"success\": true}")), 10, locations));
+        assertEquals(1, locations.size());
+        assertEquals(5, locations.get(0).getTimestamp());
+        assertNull(locations.get(0).getUserId());
+    }
+}
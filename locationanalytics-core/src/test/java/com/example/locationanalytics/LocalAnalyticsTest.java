@@ -0,0 +1,191 @@
+package com.example.locationanalytics;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LocalAnalytics} and its {@link StatisticsAggregator}: the
+ * statistics computed on the device must match the server's for the same fixes.
+ */
+public class LocalAnalyticsTest {
+    private static final double[] HOME = {32.0853, 34.7818};
+    private static final double[] WORK = {32.1093, 34.8555};
+    private static final long START = 1_700_000_000_000L;
+    private static final long MINUTE = 60_000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private TimeZone defaultTimeZone;
+
+    @Before
+    public void setUp() {
+        // Activity hours use the default zone; the expected values were computed in UTC
+        defaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+    }
+
+    /**
+     * A day of one fix a minute: home, commute, work, commute, home. The expected values
+     * below are what Server/utils/statsUtils.js calculateUserStatistics returns for these
+     * fixes with TZ=UTC.
+     */
+    private static List<double[]> day() {
+        List<double[]> fixes = new ArrayList<>();
+        stay(fixes, HOME, 30, false);
+        travel(fixes, HOME, WORK, 20);
+        stay(fixes, WORK, 60, true);
+        travel(fixes, WORK, HOME, 20);
+        stay(fixes, HOME, 15, false);
+        return fixes;
+    }
+
+    private static void stay(List<double[]> fixes, double[] place, int count, boolean jitterLongitude) {
+        for (int i = 0; i < count; i++) {
+            add(fixes, place[0] + (jitterLongitude ? 0 : (i % 3) * 0.0001),
+                    place[1] + (jitterLongitude ? (i % 2) * 0.0002 : 0));
+        }
+    }
+
+    private static void travel(List<double[]> fixes, double[] from, double[] to, int count) {
+        for (int step = 1; step <= count; step++) {
+            add(fixes, from[0] + (to[0] - from[0]) * step / (count + 1),
+                    from[1] + (to[1] - from[1]) * step / (count + 1));
+        }
+    }
+
+    private static void add(List<double[]> fixes, double latitude, double longitude) {
+        fixes.add(new double[]{latitude, longitude, START + fixes.size() * MINUTE});
+    }
+
+    private static void record(LocalAnalytics analytics, String userId, List<double[]> fixes) {
+        for (double[] fix : fixes) {
+            analytics.add(userId, fix[0], fix[1], (long) fix[2]);
+            analytics.addUploaded(userId, fix[0], fix[1], (long) fix[2]);
+        }
+    }
+
+    private static void assertMatchesServer(UserStatistics statistics) {
+        assertEquals(145, statistics.getTotalLocations());
+        assertEquals(16619.738018198022, statistics.getDistanceTraveledMeters(), 1e-6);
+        assertEquals(1_700_000_000_000L, statistics.getFirstLocationTimestamp());
+        assertEquals(1_700_008_640_000L, statistics.getLastLocationTimestamp());
+        Map<Integer, Integer> hours = new HashMap<>();
+        hours.put(0, 38);
+        hours.put(22, 47);
+        hours.put(23, 60);
+        assertEquals(hours, statistics.getActivityHours());
+
+        List<UserStatistics.LocationStop> stops = statistics.getCommonStops();
+        assertEquals(2, stops.size());
+        assertStop(stops.get(0), 32.08540000000001, 34.78179999999998, 2, 21.5, "Stop 1");
+        assertStop(stops.get(1), 32.109300000000026, 34.85559999999999, 1, 59, "Stop 2");
+    }
+
+    private static void assertStop(UserStatistics.LocationStop stop, double latitude, double longitude,
+                                   int visitCount, double averageDurationMinutes, String name) {
+        assertEquals(latitude, stop.getLatitude(), 1e-9);
+        assertEquals(longitude, stop.getLongitude(), 1e-9);
+        assertEquals(visitCount, stop.getVisitCount());
+        assertEquals(averageDurationMinutes, stop.getAverageDurationMinutes(), 1e-9);
+        assertEquals(name, stop.getName());
+    }
+
+    @Test
+    public void statistics_matchTheServerForTheSameFixes() {
+        LocalAnalytics analytics = new LocalAnalytics(new File(folder.getRoot(), "state"));
+        record(analytics, "user", day());
+        assertMatchesServer(analytics.getStatistics("user"));
+        assertEquals(analytics.getStatistics("user").getCommonStops().size(), analytics.getStops("user").size());
+    }
+
+    @Test
+    public void otherUsers_getEmptyStatistics() {
+        LocalAnalytics analytics = new LocalAnalytics(new File(folder.getRoot(), "state"));
+        record(analytics, "user", day());
+        assertEquals(0, analytics.getStatistics("other").getTotalLocations());
+        assertTrue(analytics.getStops("other").isEmpty());
+        assertFalse(analytics.beginReconcile("other"));
+
+        // Fixes of a different user replace the state
+        record(analytics, "other", day().subList(0, 3));
+        assertEquals(3, analytics.getStatistics("other").getTotalLocations());
+        assertEquals(0, analytics.getStatistics("user").getTotalLocations());
+    }
+
+    @Test
+    public void reconcile_adoptsTheServerTotalsAndKeepsLaterFixes() {
+        List<double[]> day = day();
+        List<double[]> morning = day.subList(0, 100);
+        List<double[]> evening = day.subList(100, day.size());
+
+        StatisticsAggregator aggregator = new StatisticsAggregator(TimeZone.getTimeZone("UTC"));
+        for (double[] fix : morning) {
+            aggregator.add(fix[0], fix[1], (long) fix[2]);
+        }
+        aggregator.beginReconcile();
+        for (double[] fix : evening) {
+            aggregator.add(fix[0], fix[1], (long) fix[2]);
+        }
+        // The server counted the morning, plus an earlier fix at home uploaded from another device
+        StatisticsAggregator server = new StatisticsAggregator(TimeZone.getTimeZone("UTC"));
+        server.add(HOME[0], HOME[1], START - 60 * MINUTE);
+        for (double[] fix : morning) {
+            server.add(fix[0], fix[1], (long) fix[2]);
+        }
+        aggregator.completeReconcile(server.snapshot("user", new ArrayList<>()));
+
+        UserStatistics statistics = aggregator.snapshot("user", new ArrayList<>());
+        assertEquals(day.size() + 1, statistics.getTotalLocations());
+        assertEquals(START - 60 * MINUTE, statistics.getFirstLocationTimestamp());
+        assertEquals((long) day.get(day.size() - 1)[2], statistics.getLastLocationTimestamp());
+        // The segment from the last morning fix to the first evening fix is kept locally
+        assertEquals(16619.738018198022, statistics.getDistanceTraveledMeters(), 1e-6);
+        assertEquals(1, (int) statistics.getActivityHours().get(21));
+        assertEquals(47, (int) statistics.getActivityHours().get(22));
+        assertEquals(38, (int) statistics.getActivityHours().get(0));
+
+        // Without a reconcile in progress, server statistics are ignored
+        aggregator.completeReconcile(new UserStatistics("user", 1, 0, 0, 0, null, null, null));
+        assertEquals(day.size() + 1, aggregator.snapshot("user", new ArrayList<>()).getTotalLocations());
+    }
+
+    @Test
+    public void savedState_isRestored() throws IOException {
+        File stateFile = new File(folder.getRoot(), "analytics/state");
+        List<double[]> day = day();
+        LocalAnalytics analytics = new LocalAnalytics(stateFile);
+        record(analytics, "user", day.subList(0, 70));
+        analytics.save();
+
+        LocalAnalytics restored = new LocalAnalytics(stateFile);
+        restored.load();
+        record(restored, "user", day.subList(70, day.size()));
+        assertMatchesServer(restored.getStatistics("user"));
+    }
+
+    @Test
+    public void missingStateFile_leavesTheStateEmpty() throws IOException {
+        LocalAnalytics analytics = new LocalAnalytics(new File(folder.getRoot(), "missing"));
+        analytics.load();
+        assertEquals(0, analytics.getStatistics("user").getTotalLocations());
+    }
+}
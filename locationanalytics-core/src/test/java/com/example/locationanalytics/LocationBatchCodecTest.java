@@ -0,0 +1,131 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the full-precision mode (version 1) of {@link LocationBatchCodec}.
+ */
+public class LocationBatchCodecTest {
+
+    private static LocationBuffer sampleBatch() {
+        LocationBuffer locations = new LocationBuffer(64);
+        for (int i = 0; i < 40; i++) {
+            locations.add("user", 32.0853 + i * 0.0001234, 34.7818 - i * 0.0000567, 1_700_000_000_000L + i * 5_000,
+                    4.25f + i % 3, "Pixel 7 / Android 14");
+        }
+        // Other user, no device info, southern and western hemispheres, timestamps going back
+        locations.add("other", -33.8688197, -151.2092955, 1_699_999_000_000L, 0, null);
+        locations.add("other", -33.8688198, -151.2092954, 1_699_998_000_000L, 12.34f, null);
+        locations.add("user", 32.0853, 34.7818, 1_700_000_500_000L, 3, "Pixel 7 / Android 14");
+        return locations;
+    }
+
+    private static byte[] gunzip(byte[] payload) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(payload))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] chunk = new byte[4096];
+            for (int n; (n = in.read(chunk)) > 0; ) {
+                out.write(chunk, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static byte[] gzip(byte[] raw, int length) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(raw, 0, length);
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void payload_isAGzippedVersion1Batch() throws IOException {
+        LocationBuffer locations = sampleBatch();
+        byte[] payload = new LocationBatchCodec().encode(locations);
+
+        assertEquals(0x1f, payload[0] & 0xff);
+        assertEquals(0x8b, payload[1] & 0xff);
+        byte[] raw = gunzip(payload);
+        assertEquals('L', raw[0]);
+        assertEquals('B', raw[1]);
+        assertEquals(1, raw[2]);
+        // Three groups: user, other, user again
+        assertEquals(3, raw[3]);
+        // Far below the 28 bytes of fixed fields per fix
+        assertTrue(raw.length < locations.size() * 10);
+    }
+
+    @Test
+    public void roundTrip_keepsCoordinatesTo1e7DegreesAndAccuracyToDecimeters() throws IOException {
+        LocationBuffer locations = sampleBatch();
+        List<LocationData> decoded = LocationBatchCodec.decode(new LocationBatchCodec().encode(locations));
+
+        assertEquals(locations.size(), decoded.size());
+        for (int i = 0; i < locations.size(); i++) {
+            LocationData location = decoded.get(i);
+            assertEquals(locations.getUserId(i), location.getUserId());
+            assertEquals(locations.getDeviceInfo(i), location.getDeviceInfo());
+            assertEquals(locations.getTimestamp(i), location.getTimestamp());
+            assertEquals(locations.getLatitude(i), location.getLatitude(), 0.5e-7);
+            assertEquals(locations.getLongitude(i), location.getLongitude(), 0.5e-7);
+            assertEquals(locations.getAccuracy(i), location.getAccuracy(), 0.05f + 1e-6f);
+        }
+        assertEquals(-33.8688197, decoded.get(40).getLatitude(), 1e-12);
+        assertEquals(12.3f, decoded.get(41).getAccuracy(), 1e-6f);
+    }
+
+    @Test
+    public void emptyBatch_roundTrips() throws IOException {
+        assertTrue(LocationBatchCodec.decode(new LocationBatchCodec().encode(new LocationBuffer(1))).isEmpty());
+    }
+
+    @Test
+    public void truncatedBatch_isRejected() throws IOException {
+        byte[] payload = new LocationBatchCodec().encode(sampleBatch());
+        byte[] raw = gunzip(payload);
+
+        // Cut inside the records, but a complete gzip stream
+        try {
+            LocationBatchCodec.decode(gzip(raw, raw.length - 3));
+            fail("A truncated batch must be rejected");
+        } catch (IOException expected) {
+            assertEquals("Truncated location batch", expected.getMessage());
+        }
+        // Cut inside the gzip stream
+        try {
+            LocationBatchCodec.decode(Arrays.copyOf(payload, payload.length / 2));
+            fail("A truncated gzip stream must be rejected");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void otherPayloads_areRejected() throws IOException {
+        byte[] raw = gunzip(new LocationBatchCodec().encode(sampleBatch()));
+        raw[2] = 3;
+        try {
+            LocationBatchCodec.decode(gzip(raw, raw.length));
+            fail("An unknown version must be rejected");
+        } catch (IOException expected) {
+            assertEquals("Unsupported location batch version 3", expected.getMessage());
+        }
+        try {
+            LocationBatchCodec.decode(gzip("{\"locations\":[]}".getBytes(), 16));
+            fail("JSON must be rejected");
+        } catch (IOException expected) {
+            assertEquals("Not a location batch", expected.getMessage());
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LocationBuffer.Pool}: released buffers are reused, the pool
+ * keeps no more idle buffers than its cap, and a reused buffer starts out empty.
+ */
+public class LocationBufferTest {
+
+    private static void fill(LocationBuffer buffer, String userId) {
+        while (!buffer.isFull()) {
+            buffer.add(userId, 32.0853, 34.7818, buffer.size(), 5f, "device");
+        }
+    }
+
+    @Test
+    public void releasedBuffer_isReused() {
+        LocationBuffer.Pool pool = new LocationBuffer.Pool(4, 2);
+        LocationBuffer buffer = pool.acquire();
+        assertEquals(4, buffer.capacity());
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire());
+        // Nothing idle: a new buffer
+        assertNotSame(buffer, pool.acquire());
+    }
+
+    @Test
+    public void idleBuffers_areCappedAtMaxPooled() {
+        LocationBuffer.Pool pool = new LocationBuffer.Pool(4, 2);
+        Set<LocationBuffer> released = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (int i = 0; i < 3; i++) {
+            released.add(pool.acquire());
+        }
+        assertEquals(3, released.size());
+        for (LocationBuffer buffer : released) {
+            pool.release(buffer);
+        }
+
+        assertTrue(released.contains(pool.acquire()));
+        assertTrue(released.contains(pool.acquire()));
+        assertFalse(released.contains(pool.acquire()));
+    }
+
+    @Test
+    public void bufferOfAnotherCapacity_isNotPooled() {
+        LocationBuffer.Pool pool = new LocationBuffer.Pool(4, 2);
+        LocationBuffer other = new LocationBuffer(8);
+        pool.release(other);
+        LocationBuffer acquired = pool.acquire();
+        assertNotSame(other, acquired);
+        assertEquals(4, acquired.capacity());
+    }
+
+    @Test
+    public void bufferReleasedTwice_isHandedOutOnce() {
+        LocationBuffer.Pool pool = new LocationBuffer.Pool(4, 2);
+        LocationBuffer buffer = pool.acquire();
+        pool.release(buffer);
+        pool.release(buffer);
+        assertSame(buffer, pool.acquire());
+        assertNotSame(buffer, pool.acquire());
+    }
+
+    @Test
+    public void reusedBuffer_carriesNoStaleRecords() {
+        LocationBuffer.Pool pool = new LocationBuffer.Pool(4, 2);
+        LocationBuffer buffer = pool.acquire();
+        fill(buffer, "previous");
+        pool.release(buffer);
+
+        LocationBuffer reused = pool.acquire();
+        assertSame(buffer, reused);
+        assertTrue(reused.isEmpty());
+        assertTrue(reused.asList().isEmpty());
+        // No references to the previous fixes' strings are kept either
+        for (int i = 0; i < reused.capacity(); i++) {
+            assertNull(reused.getUserId(i));
+            assertNull(reused.getDeviceInfo(i));
+        }
+
+        reused.add("next", 1, 2, 100, 3f, null);
+        assertEquals(1, reused.asList().size());
+        LocationData fix = reused.get(0);
+        assertEquals("next", fix.getUserId());
+        assertEquals(100, fix.getTimestamp());
+        assertNull(fix.getDeviceInfo());
+        try {
+            reused.get(1);
+            fail("Read a stale fix past the end of the buffer");
+        } catch (IndexOutOfBoundsException expected) {
+            // Only the new fix is visible
+        }
+    }
+}
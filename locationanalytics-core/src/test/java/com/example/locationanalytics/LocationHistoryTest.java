@@ -0,0 +1,141 @@
+package com.example.locationanalytics;
+
+import com.google.gson.stream.JsonReader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LocationHistory} paging and prefetch, and for reading pages
+ * with {@link JsonAdapters#readLocationPage}.
+ */
+public class LocationHistoryTest {
+
+    /** Holds requests until the test answers them */
+    private static final class FakeSource implements LocationPageSource {
+        final List<String> cursors = new ArrayList<>();
+        final ArrayDeque<PageCallback> pending = new ArrayDeque<>();
+
+        @Override
+        public void getLocationPage(String userId, long startTime, long endTime, String cursor, int pageSize,
+                                    PageCallback callback) {
+            cursors.add(cursor);
+            pending.add(callback);
+        }
+
+        void answer(int locations, String nextCursor) {
+            List<LocationData> page = new ArrayList<>();
+            for (int i = 0; i < locations; i++) {
+                page.add(new LocationData("user", 32.0853, 34.7818, i, 5, null));
+            }
+            pending.remove().onPage(page, nextCursor);
+        }
+    }
+
+    /** Records the last result delivered */
+    private static final class Result implements LocationHistoryCallback {
+        List<LocationData> locations;
+        boolean hasMore;
+        String error;
+        int calls;
+
+        @Override
+        public void onPage(List<LocationData> locations, boolean hasMore) {
+            this.locations = locations;
+            this.hasMore = hasMore;
+            calls++;
+        }
+
+        @Override
+        public void onError(String message) {
+            error = message;
+            calls++;
+        }
+    }
+
+    @Test
+    public void pagesFollowTheCursor_andThePrefetchedPageIsDeliveredWithoutARequest() {
+        FakeSource source = new FakeSource();
+        LocationHistory history = new LocationHistory(source, "user", 0, 100, 2, true, Runnable::run);
+
+        Result first = new Result();
+        history.next(first);
+        assertEquals(1, source.pending.size());
+        source.answer(2, "c1");
+        assertEquals(2, first.locations.size());
+        assertTrue(first.hasMore);
+
+        // The second page was requested as soon as the first was delivered
+        assertEquals(1, source.pending.size());
+        source.answer(1, null);
+        Result second = new Result();
+        history.next(second);
+        assertEquals(1, second.locations.size());
+        assertFalse(second.hasMore);
+        assertFalse(history.hasNext());
+
+        assertEquals(2, source.cursors.size());
+        assertNull(source.cursors.get(0));
+        assertEquals("c1", source.cursors.get(1));
+    }
+
+    @Test
+    public void withoutPrefetch_pagesAreRequestedOnDemand_andAFailedPageIsRequestedAgain() {
+        FakeSource source = new FakeSource();
+        LocationHistory history = new LocationHistory(source, "user", 0, 100, 2, false, Runnable::run);
+
+        Result result = new Result();
+        history.next(result);
+        try {
+            history.next(new Result());
+            fail("A second pending call must be rejected");
+        } catch (IllegalStateException expected) {
+        }
+        source.answer(2, "c1");
+        assertTrue(source.pending.isEmpty());
+
+        history.next(result);
+        source.pending.remove().onError("Network error");
+        assertEquals("Network error", result.error);
+        assertTrue(history.hasNext());
+
+        history.next(result);
+        assertEquals("c1", source.cursors.get(2));
+        history.close();
+        source.answer(2, null);
+        assertEquals(2, result.calls);
+        assertFalse(history.hasNext());
+    }
+
+    @Test
+    public void pageResponse_isReadWithItsCursor() throws IOException {
+        String json = "{\"success\":true,\"data\":["
+                + "{\"user_id\":\"user\",\"latitude\":32.0853,\"longitude\":34.7818,\"timestamp\":1000,\"accuracy\":5,\"count\":3},"
+                + "{\"user_id\":\"user\",\"latitude\":32.0854,\"longitude\":34.7819,\"timestamp\":2000,\"accuracy\":7}"
+                + "],\"message\":\"Found 2 locations\",\"next_cursor\":\"2000:abc\"}";
+        List<LocationData> locations = new ArrayList<>();
+        assertEquals("2000:abc", JsonAdapters.readLocationPage(new JsonReader(new StringReader(json)), 2, locations));
+        assertEquals(2, locations.size());
+        assertEquals(2000, locations.get(1).getTimestamp());
+
+        try {
+            JsonAdapters.readLocationPage(new JsonReader(new StringReader(json)), 1, new ArrayList<>());
+            fail("A page longer than requested must be rejected");
+        } catch (IOException expected) {
+        }
+        try {
+            JsonAdapters.readLocationPage(new JsonReader(new StringReader(
+                    "{\"success\":false,\"message\":\"Invalid cursor\"}")), 2, new ArrayList<>());
+            fail("A failed response must be rejected");
+        } catch (IOException expected) {
+            assertEquals("Invalid cursor", expected.getMessage());
+        }
+    }
+}
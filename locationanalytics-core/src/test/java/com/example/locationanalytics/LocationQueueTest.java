@@ -0,0 +1,218 @@
+package com.example.locationanalytics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LocationQueue}: recovery after a restart, torn and corrupt
+ * records, persisted acknowledgements and batch ends, the size cap, and records too
+ * large for a segment.
+ */
+public class LocationQueueTest {
+    /** Size of one record for user "user" without device info: header, fixed fields and strings */
+    private static final int RECORD_BYTES = 8 + 8 + 8 + 8 + 4 + 2 + 4 + 2;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static void append(LocationQueue queue, long from, long to) throws IOException {
+        for (long t = from; t <= to; t++) {
+            queue.append("user", 32.0853, 34.7818, t, 5, null);
+        }
+    }
+
+    private static long[] timestamps(LocationQueue.Batch batch) {
+        long[] timestamps = new long[batch.size()];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = batch.getLocations().getTimestamp(i);
+        }
+        return timestamps;
+    }
+
+    private static LocationQueue.Batch read(LocationQueue queue, int max) {
+        return queue.read(new LocationBuffer(max));
+    }
+
+    private File firstSegment(File directory) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(".seg"));
+        assertNotNull(files);
+        File first = files[0];
+        for (File file : files) {
+            if (file.getName().compareTo(first.getName()) < 0) first = file;
+        }
+        return first;
+    }
+
+    @Test
+    public void acknowledgedRecordsAndBatchEnds_surviveARestart() throws IOException {
+        File directory = folder.newFolder();
+        LocationQueue queue = new LocationQueue(directory, LocationQueue.DEFAULT_MAX_SIZE_BYTES);
+        append(queue, 1, 10);
+        queue.ack(read(queue, 3));
+        LocationQueue.Batch unacknowledged = read(queue, 4);
+        assertArrayEquals(new long[]{4, 5, 6, 7}, timestamps(unacknowledged));
+
+        LocationQueue reopened = new LocationQueue(directory, LocationQueue.DEFAULT_MAX_SIZE_BYTES);
+        assertEquals(7, reopened.size());
+        assertEquals(4, reopened.oldestTimestamp());
+        // The sealed batch is read again exactly, under the same key, even with room for more
+        LocationQueue.Batch again = read(reopened, 100);
+        assertArrayEquals(new long[]{4, 5, 6, 7}, timestamps(again));
+        assertEquals(unacknowledged.getIdempotencyKey(), again.getIdempotencyKey());
+        assertArrayEquals(new long[]{8, 9, 10}, timestamps(read(reopened, 100)));
+        assertTrue(reopened.isFullyRead());
+
+        reopened.ack(again);
+        LocationQueue third = new LocationQueue(directory, LocationQueue.DEFAULT_MAX_SIZE_BYTES);
+        assertEquals(3, third.size());
+        assertArrayEquals(new long[]{8, 9, 10}, timestamps(read(third, 100)));
+    }
+
+    @Test
+    public void emptiedQueue_startsANewStream() throws IOException {
+        File directory = folder.newFolder();
+        LocationQueue queue = new LocationQueue(directory, LocationQueue.DEFAULT_MAX_SIZE_BYTES);
+        append(queue, 1, 2);
+        LocationQueue.Batch batch = read(queue, 10);
+        queue.ack(batch);
+
+        LocationQueue reopened = new LocationQueue(directory, LocationQueue.DEFAULT_MAX_SIZE_BYTES);
+        assertTrue(reopened.isEmpty());
+        append(reopened, 3, 3);
+        assertNotEquals(batch.getIdempotencyKey(), read(reopened, 10).getIdempotencyKey());
+    }
+
+    @Test
+    public void tornTailRecord_endsTheRecoveredData() throws IOException {
+        File directory = folder.newFolder();
+        LocationQueue queue = new LocationQueue(directory, LocationQueue.DEFAULT_MAX_SIZE_BYTES);
+        append(queue, 1, 3);
+        // A crash while writing the third record: its length is there, its payload is cut short
+        try (RandomAccessFile segment = new RandomAccessFile(firstSegment(directory), "rw")) {
+            segment.setLength(2 * RECORD_BYTES + RECORD_BYTES / 2);
+        }
+
+        LocationQueue reopened = new LocationQueue(directory, LocationQueue.DEFAULT_MAX_SIZE_BYTES);
+        assertEquals(2, reopened.size());
+        append(reopened, 4, 4);
+        assertArrayEquals(new long[]{1, 2, 4}, timestamps(read(reopened, 10)));
+    }
+
+    @Test
+    public void corruptTailRecord_endsTheRecoveredData() throws IOException {
+        File directory = folder.newFolder();
+        LocationQueue queue = new LocationQueue(directory, LocationQueue.DEFAULT_MAX_SIZE_BYTES);
+        append(queue, 1, 3);
+        try (RandomAccessFile segment = new RandomAccessFile(firstSegment(directory), "rw")) {
+            // Flip a bit of the third record's latitude, so its checksum no longer matches
+            long latitude = 2 * RECORD_BYTES + 8 + 8;
+            segment.seek(latitude);
+            int value = segment.read();
+            segment.seek(latitude);
+            segment.write(value ^ 1);
+        }
+
+        LocationQueue reopened = new LocationQueue(directory, LocationQueue.DEFAULT_MAX_SIZE_BYTES);
+        assertEquals(2, reopened.size());
+        append(reopened, 4, 5);
+        assertArrayEquals(new long[]{1, 2, 4, 5}, timestamps(read(reopened, 10)));
+    }
+
+    @Test
+    public void sizeCap_dropsTheOldestRecords() throws IOException {
+        // Segments of 4 KB, two at most
+        LocationQueue queue = new LocationQueue(folder.newFolder(), 8192);
+        int perSegment = 4096 / RECORD_BYTES;
+        // One record into a third segment
+        int total = 2 * perSegment + 1;
+        append(queue, 1, total);
+
+        assertEquals(perSegment, queue.getDroppedCount());
+        assertEquals(total - perSegment, queue.size());
+        assertEquals(perSegment + 1, queue.oldestTimestamp());
+        LocationQueue.Batch batch = read(queue, total);
+        assertEquals(total - perSegment, batch.size());
+        assertEquals(perSegment + 1, batch.getLocations().getTimestamp(0));
+        assertEquals(total, batch.getLocations().getTimestamp(batch.size() - 1));
+    }
+
+    @Test
+    public void acknowledgingDroppedRecords_isIgnored() throws IOException {
+        LocationQueue queue = new LocationQueue(folder.newFolder(), 8192);
+        int perSegment = 4096 / RECORD_BYTES;
+        append(queue, 1, 10);
+        LocationQueue.Batch dropped = read(queue, 10);
+        append(queue, 11, 3 * perSegment);
+
+        queue.ack(dropped);
+        assertEquals(3 * perSegment - perSegment, queue.size());
+        assertEquals(perSegment + 1, queue.oldestTimestamp());
+    }
+
+    @Test
+    public void changedSizeCap_keepsQueuedRecords() throws IOException {
+        File directory = folder.newFolder();
+        LocationQueue queue = new LocationQueue(directory, LocationQueue.DEFAULT_MAX_SIZE_BYTES);
+        append(queue, 1, 700);
+
+        // New segments are half the size of the one already written
+        LocationQueue reopened = new LocationQueue(directory, 1024 * 1024);
+        assertEquals(700, reopened.size());
+        append(reopened, 701, 710);
+        LocationQueue.Batch batch = read(reopened, 1000);
+        assertEquals(710, batch.size());
+        assertEquals(1, batch.getLocations().getTimestamp(0));
+        assertEquals(710, batch.getLocations().getTimestamp(709));
+        assertEquals(0, reopened.getDroppedCount());
+    }
+
+    @Test
+    public void recordLargerThanASegment_isRejectedAndCounted() throws IOException {
+        File directory = folder.newFolder();
+        // Segments of 4 KB
+        LocationQueue queue = new LocationQueue(directory, 8192);
+        append(queue, 1, 2);
+        String longUserId = new String(new char[4096]).replace('\0', 'u');
+        try {
+            queue.append(longUserId, 32.0853, 34.7818, 3, 5, null);
+            fail("Appended a record larger than a segment");
+        } catch (IllegalArgumentException expected) {
+            assertTrue(expected.getMessage(), expected.getMessage().contains("4096"));
+        }
+        assertEquals(1, queue.getRejectedCount());
+
+        // The queue is unchanged and keeps working
+        append(queue, 4, 5);
+        assertEquals(4, queue.size());
+        assertEquals(4 * RECORD_BYTES, queue.pendingBytes());
+        assertEquals(0, queue.getDroppedCount());
+        LocationQueue.Batch batch = read(queue, 10);
+        assertArrayEquals(new long[]{1, 2, 4, 5}, timestamps(batch));
+        queue.ack(batch);
+
+        LocationQueue reopened = new LocationQueue(directory, 8192);
+        assertTrue(reopened.isEmpty());
+        assertEquals(0, reopened.getRejectedCount());
+    }
+
+    @Test
+    public void recordFillingASegmentExactly_isAppended() throws IOException {
+        LocationQueue queue = new LocationQueue(folder.newFolder(), 8192);
+        // Header, fixed fields and both string lengths, with the user ID taking the rest
+        String userId = new String(new char[4096 - 8 - 28 - 2 - 2]).replace('\0', 'u');
+        queue.append(userId, 32.0853, 34.7818, 1, 5, null);
+        append(queue, 2, 2);
+
+        LocationQueue.Batch batch = read(queue, 10);
+        assertArrayEquals(new long[]{1, 2}, timestamps(batch));
+        assertEquals(userId, batch.getLocations().getUserId(0));
+        assertEquals(0, queue.getRejectedCount());
+    }
+}
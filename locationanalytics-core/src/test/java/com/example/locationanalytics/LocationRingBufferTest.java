@@ -0,0 +1,226 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LocationRingBuffer}, including concurrent stress tests that
+ * check no fix is lost or delivered twice.
+ *
+ * <p>Every fix carries a unique id in its timestamp: {@code producer * FIXES_PER_PRODUCER + n}.</p>
+ */
+public class LocationRingBufferTest {
+    private static final int PRODUCERS = 4;
+    private static final int FIXES_PER_PRODUCER = 200_000;
+    private static final int TOTAL_FIXES = PRODUCERS * FIXES_PER_PRODUCER;
+
+    /** Records ids seen by a sink and counts duplicates. Thread-safe. */
+    private static class Recorder implements LocationRingBuffer.Sink {
+        final BitSet seen = new BitSet(TOTAL_FIXES);
+        int count;
+        int duplicates;
+
+        @Override
+        public synchronized void accept(String userId, double latitude, double longitude, long timestamp,
+                                        float accuracy, String deviceInfo) {
+            int id = (int) timestamp;
+            if (seen.get(id)) duplicates++;
+            seen.set(id);
+            count++;
+        }
+    }
+
+    @Test
+    public void drain_returnsFixesInOrder() {
+        LocationRingBuffer buffer = new LocationRingBuffer(8, OverflowPolicy.DROP_OLDEST, null);
+        for (int i = 0; i < 5; i++) {
+            assertTrue(buffer.offer("user", i, -i, i, 1f, "device"));
+        }
+        assertEquals(5, buffer.size());
+
+        List<Long> drained = new ArrayList<>();
+        buffer.drain((userId, latitude, longitude, timestamp, accuracy, deviceInfo) -> {
+            assertEquals("user", userId);
+            assertEquals(timestamp, (long) latitude);
+            drained.add(timestamp);
+        }, Integer.MAX_VALUE);
+
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L), drained);
+        assertTrue(buffer.isEmpty());
+    }
+
+    @Test
+    public void dropOldest_keepsNewestFixesWhenFull() {
+        LocationRingBuffer buffer = new LocationRingBuffer(4, OverflowPolicy.DROP_OLDEST, null);
+        for (int i = 0; i < 10; i++) {
+            buffer.offer("user", 0, 0, i, 1f, "device");
+        }
+        assertEquals(6, buffer.getDroppedCount());
+
+        List<Long> drained = new ArrayList<>();
+        buffer.drain((userId, latitude, longitude, timestamp, accuracy, deviceInfo) -> drained.add(timestamp), 100);
+        assertEquals(Arrays.asList(6L, 7L, 8L, 9L), drained);
+    }
+
+    @Test
+    public void spill_handsOverflowToTheConsumer() {
+        List<Long> written = new ArrayList<>();
+        LocationRingBuffer.Sink queue = (userId, latitude, longitude, timestamp, accuracy, deviceInfo) ->
+                written.add(timestamp);
+        LocationRingBuffer buffer = new LocationRingBuffer(8, OverflowPolicy.SPILL, queue);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(buffer.offer("user", 0, 0, i, 1f, "device"));
+        }
+        // Full: new fixes are set aside, and the producer writes nothing itself
+        assertFalse(buffer.offer("user", 0, 0, 8, 1f, "device"));
+        assertFalse(buffer.offer("user", 0, 0, 9, 1f, "device"));
+        assertTrue(written.isEmpty());
+        assertEquals(10, buffer.size());
+        assertEquals(0, buffer.getSpilledCount());
+
+        assertEquals(10, buffer.drain(queue, Integer.MAX_VALUE));
+        List<Long> expected = new ArrayList<>();
+        for (long i = 0; i < 10; i++) {
+            expected.add(i);
+        }
+        assertEquals(expected, written);
+        assertEquals(2, buffer.getSpilledCount());
+        assertEquals(0, buffer.getDroppedCount());
+        assertTrue(buffer.isEmpty());
+
+        // Caught up: fixes are buffered again
+        assertTrue(buffer.offer("user", 0, 0, 10, 1f, "device"));
+    }
+
+    @Test
+    public void spill_laterFixesFollowTheOverflowUntilItIsDrained() {
+        List<Long> written = new ArrayList<>();
+        LocationRingBuffer.Sink queue = (userId, latitude, longitude, timestamp, accuracy, deviceInfo) ->
+                written.add(timestamp);
+        LocationRingBuffer buffer = new LocationRingBuffer(4, OverflowPolicy.SPILL, queue);
+        for (int i = 0; i < 5; i++) {
+            buffer.offer("user", 0, 0, i, 1f, "device");
+        }
+        assertEquals(2, buffer.drain(queue, 2));
+
+        // There is room again, but fix 4 is still waiting in the overflow
+        assertFalse(buffer.offer("user", 0, 0, 5, 1f, "device"));
+        buffer.drain(queue, Integer.MAX_VALUE);
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 4L, 5L), written);
+    }
+
+    @Test
+    public void spill_dropsTheOldestOverflowedFixesOnlyWhenTheOverflowIsFull() {
+        List<Long> written = new ArrayList<>();
+        LocationRingBuffer.Sink queue = (userId, latitude, longitude, timestamp, accuracy, deviceInfo) ->
+                written.add(timestamp);
+        LocationRingBuffer buffer = new LocationRingBuffer(4, OverflowPolicy.SPILL, queue);
+        for (int i = 0; i < 10; i++) {
+            buffer.offer("user", 0, 0, i, 1f, "device");
+        }
+        assertEquals(2, buffer.getDroppedCount());
+
+        buffer.drain(queue, Integer.MAX_VALUE);
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 6L, 7L, 8L, 9L), written);
+        assertEquals(4, buffer.getSpilledCount());
+    }
+
+    @Test
+    public void concurrentProducers_spill_everyFixConsumedOrDroppedOnce() throws Exception {
+        Recorder recorder = new Recorder();
+        LocationRingBuffer buffer = new LocationRingBuffer(256, OverflowPolicy.SPILL, recorder);
+
+        runStress(buffer, recorder);
+
+        assertEquals(0, recorder.duplicates);
+        // Fixes are only dropped once the overflow is full as well
+        assertEquals(TOTAL_FIXES, recorder.count + buffer.getDroppedCount());
+        assertEquals(recorder.count, recorder.seen.cardinality());
+        assertTrue("expected some fixes to spill", buffer.getSpilledCount() > 0);
+    }
+
+    @Test
+    public void concurrentProducers_dropOldest_everyFixConsumedOrDroppedOnce() throws Exception {
+        Recorder recorder = new Recorder();
+        LocationRingBuffer buffer = new LocationRingBuffer(256, OverflowPolicy.DROP_OLDEST, null);
+
+        runStress(buffer, recorder);
+
+        assertEquals(0, recorder.duplicates);
+        assertEquals(TOTAL_FIXES, recorder.count + buffer.getDroppedCount());
+    }
+
+    @Test
+    public void concurrentProducers_perProducerOrderIsPreserved() throws Exception {
+        for (OverflowPolicy policy : OverflowPolicy.values()) {
+            assertPerProducerOrder(policy);
+        }
+    }
+
+    private static void assertPerProducerOrder(OverflowPolicy policy) throws Exception {
+        long[] lastSeen = new long[PRODUCERS];
+        Arrays.fill(lastSeen, -1);
+        AtomicBoolean outOfOrder = new AtomicBoolean();
+        LocationRingBuffer.Sink orderCheck = (userId, latitude, longitude, timestamp, accuracy, deviceInfo) -> {
+            int producer = (int) (timestamp / FIXES_PER_PRODUCER);
+            if (timestamp <= lastSeen[producer]) outOfOrder.set(true);
+            lastSeen[producer] = timestamp;
+        };
+        // Spilled and drained fixes go to the same sink, like the persistent queue in the SDK
+        LocationRingBuffer buffer = new LocationRingBuffer(256, policy, orderCheck);
+
+        runStress(buffer, orderCheck);
+
+        assertFalse(policy + " reordered a producer's fixes", outOfOrder.get());
+    }
+
+    private static void runStress(LocationRingBuffer buffer, LocationRingBuffer.Sink consumer) throws Exception {
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch producersDone = new CountDownLatch(PRODUCERS);
+        List<Thread> threads = new ArrayList<>();
+
+        for (int p = 0; p < PRODUCERS; p++) {
+            final int producer = p;
+            Thread thread = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int n = 0; n < FIXES_PER_PRODUCER; n++) {
+                    long id = (long) producer * FIXES_PER_PRODUCER + n;
+                    buffer.offer("user" + producer, producer, n, id, 1f, "device");
+                }
+                producersDone.countDown();
+            });
+            thread.start();
+            threads.add(thread);
+        }
+
+        Thread drainer = new Thread(() -> {
+            while (producersDone.getCount() > 0) {
+                if (buffer.drain(consumer, 64) == 0) {
+                    Thread.yield();
+                }
+            }
+            buffer.drain(consumer, Integer.MAX_VALUE);
+        });
+        drainer.start();
+        start.countDown();
+
+        for (Thread thread : threads) {
+            thread.join(60_000);
+        }
+        drainer.join(60_000);
+        assertFalse("drainer did not finish", drainer.isAlive());
+        assertTrue(buffer.isEmpty());
+    }
+}
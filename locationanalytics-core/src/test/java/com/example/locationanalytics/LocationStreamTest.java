@@ -0,0 +1,143 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link LocationStream}: demand, buffering strategies and independent
+ * subscribers.
+ */
+public class LocationStreamTest {
+
+    /** Runs tasks only when the test says so, like a busy main thread */
+    private static final class ManualExecutor implements Executor {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove().run();
+            }
+        }
+    }
+
+    private static final class Recorder implements LocationSubscriber {
+        final long initialRequest;
+        LocationSubscription subscription;
+        final List<Long> timestamps = new ArrayList<>();
+        Throwable error;
+
+        Recorder(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(LocationSubscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(LocationData location) {
+            timestamps.add(location.getTimestamp());
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            this.error = error;
+        }
+    }
+
+    private static void publish(LocationStream stream, long from, long to) {
+        for (long t = from; t <= to; t++) {
+            stream.publish("user", 32.0853, 34.7818, t, 5, null);
+        }
+    }
+
+    @Test
+    public void fixesAreDeliveredOnlyAsRequested() {
+        ManualExecutor executor = new ManualExecutor();
+        LocationStream stream = new LocationStream(new InMemoryMetricsSink(), executor);
+        Recorder recorder = new Recorder(2);
+        stream.subscribe(recorder, 8, BackpressureStrategy.DROP_OLDEST, executor);
+        executor.runAll();
+
+        publish(stream, 1, 5);
+        executor.runAll();
+        assertEquals(List.of(1L, 2L), recorder.timestamps);
+
+        // One task delivers what is buffered, however many fixes arrived
+        recorder.subscription.request(10);
+        assertEquals(1, executor.tasks.size());
+        executor.runAll();
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), recorder.timestamps);
+
+        recorder.subscription.cancel();
+        publish(stream, 6, 6);
+        executor.runAll();
+        assertEquals(5, recorder.timestamps.size());
+        assertEquals(0, stream.getSubscriberCount());
+    }
+
+    @Test
+    public void slowSubscriber_missesFixesPerItsStrategy_withoutAffectingOthers() {
+        InMemoryMetricsSink metrics = new InMemoryMetricsSink();
+        ManualExecutor fast = new ManualExecutor();
+        ManualExecutor slow = new ManualExecutor();
+        LocationStream stream = new LocationStream(metrics, fast);
+        Recorder all = new Recorder(Long.MAX_VALUE);
+        Recorder latest = new Recorder(0);
+        Recorder earliest = new Recorder(0);
+        Recorder strict = new Recorder(0);
+        stream.subscribe(all, 4, BackpressureStrategy.ERROR, fast);
+        stream.subscribe(latest, 3, BackpressureStrategy.DROP_OLDEST, slow);
+        stream.subscribe(earliest, 3, BackpressureStrategy.DROP_NEWEST, slow);
+        stream.subscribe(strict, 3, BackpressureStrategy.ERROR, slow);
+        fast.runAll();
+        slow.runAll();
+
+        for (long t = 1; t <= 10; t++) {
+            publish(stream, t, t);
+            fast.runAll();
+        }
+        assertEquals(10, all.timestamps.size());
+        assertNull(all.error);
+
+        latest.subscription.request(10);
+        earliest.subscription.request(10);
+        slow.runAll();
+        assertEquals(List.of(8L, 9L, 10L), latest.timestamps);
+        assertEquals(List.of(1L, 2L, 3L), earliest.timestamps);
+        assertTrue(strict.error instanceof IllegalStateException);
+        assertTrue(strict.timestamps.isEmpty());
+        assertEquals(3, stream.getSubscriberCount());
+        // 7 + 7 missed by the dropping subscribers, 1 ending the strict one
+        assertEquals(15, metrics.getCount(Metric.STREAM_FIXES_DROPPED));
+    }
+
+    @Test
+    public void nonPositiveRequest_endsTheSubscriptionWithAnError() {
+        ManualExecutor executor = new ManualExecutor();
+        LocationStream stream = new LocationStream(new InMemoryMetricsSink(), executor);
+        Recorder recorder = new Recorder(0);
+        stream.subscribe(recorder);
+        executor.runAll();
+
+        recorder.subscription.request(0);
+        executor.runAll();
+        assertTrue(recorder.error instanceof IllegalArgumentException);
+        assertEquals(0, stream.getSubscriberCount());
+    }
+}
@@ -0,0 +1,155 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link PlaceDwellFilter} and its {@link KnownPlaceIndex}: lookups
+ * against a brute-force scan, and the fixes emitted for a dwell.
+ */
+public class PlaceDwellFilterTest {
+    private static final double HOME_LATITUDE = 32.0853;
+    private static final double HOME_LONGITUDE = 34.7818;
+    /** Degrees of latitude per meter */
+    private static final double DEGREES_PER_METER = 1 / 111_195.0;
+    private static final long MINUTE = 60_000;
+
+    private final List<double[]> emitted = new ArrayList<>();
+    private final LocationRingBuffer.Sink recorder = (userId, latitude, longitude, timestamp, accuracy, deviceInfo) ->
+            emitted.add(new double[]{latitude, longitude, timestamp, accuracy});
+
+    @Test
+    public void index_findsNearestPlaceWithinRadius_likeBruteForce() {
+        Random random = new Random(7);
+        List<UserStatistics.LocationStop> stops = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            // Clustered around cell corners, where a circle spans several cells
+            double cornerLatitude = Math.round(HOME_LATITUDE * 100 + random.nextInt(5)) / 100.0;
+            double cornerLongitude = Math.round(HOME_LONGITUDE * 100 + random.nextInt(5)) / 100.0;
+            stops.add(stop(cornerLatitude + random.nextGaussian() * 0.001,
+                    cornerLongitude + random.nextGaussian() * 0.001, 2));
+        }
+        KnownPlaceIndex index = KnownPlaceIndex.of(stops, 75);
+
+        for (int i = 0; i < 20_000; i++) {
+            double latitude = HOME_LATITUDE + random.nextDouble() * 0.05;
+            double longitude = HOME_LONGITUDE + random.nextDouble() * 0.05;
+            int expected = -1;
+            double nearest = 75;
+            for (int place = 0; place < stops.size(); place++) {
+                double distance = GeoUtils.distanceMeters(stops.get(place).getLatitude(),
+                        stops.get(place).getLongitude(), latitude, longitude);
+                if (distance <= nearest) {
+                    expected = place;
+                    nearest = distance;
+                }
+            }
+            assertEquals(expected, index.find(latitude, longitude));
+        }
+        assertEquals(-1, KnownPlaceIndex.EMPTY.find(HOME_LATITUDE, HOME_LONGITUDE));
+    }
+
+    @Test
+    public void dwell_emitsEntrySummaryAndExit() {
+        PlaceDwellFilter filter = homeFilter();
+        filter.add("user", HOME_LATITUDE + 1000 * DEGREES_PER_METER, HOME_LONGITUDE, 0, 10f, "device", recorder);
+        // A night at home: one fix a minute, jittering within 40 m
+        for (int i = 1; i <= 600; i++) {
+            double offset = (i % 5 - 2) * 20 * DEGREES_PER_METER;
+            filter.add("user", HOME_LATITUDE + offset, HOME_LONGITUDE, i * MINUTE, 10f, "device", recorder);
+        }
+        assertTrue(filter.isDwelling());
+        assertEquals(2, emitted.size());
+
+        // Leaving
+        filter.add("user", HOME_LATITUDE + 500 * DEGREES_PER_METER, HOME_LONGITUDE, 601 * MINUTE, 10f, "device",
+                recorder);
+        assertFalse(filter.isDwelling());
+
+        assertEquals(5, emitted.size());
+        assertEquals(MINUTE, (long) emitted.get(1)[2]);         // entry
+        assertEquals(301 * MINUTE, (long) emitted.get(2)[2]);   // summary, middle of 2..600
+        assertEquals(HOME_LATITUDE, emitted.get(2)[0], DEGREES_PER_METER);
+        assertEquals(600 * MINUTE, (long) emitted.get(3)[2]);   // exit, the last fix inside
+        assertEquals(601 * MINUTE, (long) emitted.get(4)[2]);
+        for (int i = 1; i <= 3; i++) {
+            for (int j = 1; j <= 3; j++) {
+                assertTrue(GeoUtils.distanceMeters(emitted.get(i)[0], emitted.get(i)[1], emitted.get(j)[0],
+                        emitted.get(j)[1]) <= StopDetector.STOP_RADIUS_METERS);
+            }
+        }
+        assertEquals(602, filter.getInputCount());
+        assertEquals(5, filter.getOutputCount());
+    }
+
+    @Test
+    public void flush_emitsDwellSoFarAndKeepsDwelling() {
+        PlaceDwellFilter filter = homeFilter();
+        for (int i = 0; i < 10; i++) {
+            filter.add("user", HOME_LATITUDE, HOME_LONGITUDE, i * MINUTE, 10f, "device", recorder);
+        }
+        filter.flush(recorder);
+        assertEquals(3, emitted.size());
+        assertTrue(filter.isDwelling());
+
+        filter.flush(recorder);
+        assertEquals(3, emitted.size());
+        filter.add("user", HOME_LATITUDE, HOME_LONGITUDE, 10 * MINUTE, 10f, "device", recorder);
+        filter.flush(recorder);
+        // A single held-back fix is emitted as itself
+        assertEquals(4, emitted.size());
+        assertEquals(10 * MINUTE, (long) emitted.get(3)[2]);
+    }
+
+    @Test
+    public void fixesStrayingIntoTheMargin_doNotEndTheDwell_norBecomeTheExit() {
+        PlaceDwellFilter filter = homeFilter();
+        filter.add("user", HOME_LATITUDE, HOME_LONGITUDE, 0, 10f, "device", recorder);
+        filter.add("user", HOME_LATITUDE + 10 * DEGREES_PER_METER, HOME_LONGITUDE, MINUTE, 10f, "device", recorder);
+        filter.add("user", HOME_LATITUDE + 110 * DEGREES_PER_METER, HOME_LONGITUDE, 2 * MINUTE, 10f, "device",
+                recorder);
+        assertTrue(filter.isDwelling());
+        filter.add("user", HOME_LATITUDE + 300 * DEGREES_PER_METER, HOME_LONGITUDE, 3 * MINUTE, 10f, "device",
+                recorder);
+
+        assertEquals(4, emitted.size());
+        assertEquals(MINUTE, (long) emitted.get(1)[2]);            // exit, the last fix within the radius
+        assertEquals(MINUTE + MINUTE / 2, (long) emitted.get(2)[2]);  // summary of both held-back fixes
+    }
+
+    @Test
+    public void onlyFrequentStopsOfTheSameUser_areKnownPlaces() {
+        PlaceDwellFilter filter = new PlaceDwellFilter();
+        filter.setPlaces("user", Collections.singletonList(stop(HOME_LATITUDE, HOME_LONGITUDE, 1)),
+                Collections.emptyList());
+        assertEquals(0, filter.getPlaceCount());
+
+        filter = homeFilter();
+        for (int i = 0; i < 5; i++) {
+            filter.add("other", HOME_LATITUDE, HOME_LONGITUDE, i * MINUTE, 10f, "device", recorder);
+            // Too inaccurate to start a dwell
+            filter.add("user", HOME_LATITUDE, HOME_LONGITUDE, i * MINUTE, 500f, "device", recorder);
+        }
+        assertEquals(10, emitted.size());
+        assertEquals(0, filter.getDwellCount());
+    }
+
+    private static PlaceDwellFilter homeFilter() {
+        PlaceDwellFilter filter = new PlaceDwellFilter();
+        filter.setPlaces("user", Collections.singletonList(stop(HOME_LATITUDE, HOME_LONGITUDE, 12)),
+                Arrays.asList(stop(HOME_LATITUDE + 0.0003, HOME_LONGITUDE, 3), stop(32.1, 34.8, 1)));
+        assertEquals(2, filter.getPlaceCount());
+        return filter;
+    }
+
+    private static UserStatistics.LocationStop stop(double latitude, double longitude, int visits) {
+        return new UserStatistics.LocationStop(latitude, longitude, visits, 60, "Stop");
+    }
+}
@@ -0,0 +1,164 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ProcessingPipeline}: tasks and callbacks handed to a full
+ * stage, and the reported queue depths.
+ */
+public class ProcessingPipelineTest {
+
+    /** Occupy a stage's thread until the returned latch is released */
+    private static CountDownLatch hold(ProcessingPipeline pipeline, PipelineStage stage) throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        assertTrue(pipeline.execute(stage, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        return release;
+    }
+
+    /** Queue tasks on a held stage until it rejects one */
+    private static int fill(ProcessingPipeline pipeline, PipelineStage stage, Runnable task) {
+        int queued = 0;
+        while (pipeline.execute(stage, task)) {
+            queued++;
+        }
+        return queued;
+    }
+
+    @Test
+    public void fullStage_rejectsAndCountsTasks() throws InterruptedException {
+        ProcessingPipeline pipeline = new ProcessingPipeline(() -> 0, () -> 0);
+        CountDownLatch release = hold(pipeline, PipelineStage.INGEST);
+        AtomicInteger ran = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(1);
+
+        int queued = fill(pipeline, PipelineStage.INGEST, ran::incrementAndGet);
+        assertEquals(1, pipeline.getRejectedCount());
+        // The non-blocking executor drops and counts the same way, without throwing
+        pipeline.executorFor(PipelineStage.INGEST).execute(ran::incrementAndGet);
+        assertEquals(2, pipeline.getRejectedCount());
+        // Other stages are unaffected
+        assertTrue(pipeline.execute(PipelineStage.FILTER, () -> { }));
+
+        release.countDown();
+        pipeline.blockingExecutorFor(PipelineStage.INGEST).execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(queued, ran.get());
+        assertEquals(2, pipeline.getRejectedCount());
+    }
+
+    @Test
+    public void blockingExecutor_runsEveryCallbackOnTheStageThreadInOrder() throws InterruptedException {
+        ProcessingPipeline pipeline = new ProcessingPipeline(() -> 0, () -> 0);
+        Executor executor = pipeline.blockingExecutorFor(PipelineStage.UPLOAD);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+        List<Integer> order = new ArrayList<>();
+        List<String> threads = new ArrayList<>();
+
+        // Hold the stage, so its queue fills up
+        assertTrue(pipeline.execute(PipelineStage.UPLOAD, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        Thread caller = new Thread(() -> {
+            for (int i = 0; i < 40; i++) {
+                int index = i;
+                executor.execute(() -> {
+                    order.add(index);
+                    threads.add(Thread.currentThread().getName());
+                });
+            }
+            executor.execute(done::countDown);
+        });
+        caller.start();
+        // The caller waits for room rather than running callbacks itself
+        caller.join(300);
+        assertTrue(caller.isAlive());
+        assertTrue(order.isEmpty());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        caller.join();
+        assertEquals(40, order.size());
+        for (int i = 0; i < order.size(); i++) {
+            assertEquals(i, (int) order.get(i));
+            assertEquals("LocationAnalytics-upload", threads.get(i));
+        }
+        // Waiting is not dropping
+        assertEquals(0, pipeline.getRejectedCount());
+    }
+
+    @Test
+    public void blockingExecutor_onTheStageThreadItself_runsTheCallbackInline() throws InterruptedException {
+        ProcessingPipeline pipeline = new ProcessingPipeline(() -> 0, () -> 0);
+        Executor executor = pipeline.blockingExecutorFor(PipelineStage.UPLOAD);
+        List<String> order = new ArrayList<>();
+        CountDownLatch handedOver = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(1);
+
+        assertTrue(pipeline.execute(PipelineStage.UPLOAD, () -> {
+            // The stage fills its own queue, then hands itself a callback: waiting for
+            // room would wait for this very thread forever
+            fill(pipeline, PipelineStage.UPLOAD, () -> order.add("queued"));
+            executor.execute(() -> order.add("inline on " + Thread.currentThread().getName()));
+            order.add("after");
+            handedOver.countDown();
+        }));
+        assertTrue(handedOver.await(5, TimeUnit.SECONDS));
+        executor.execute(done::countDown);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        assertEquals("inline on LocationAnalytics-upload", order.get(0));
+        assertEquals("after", order.get(1));
+        assertEquals("queued", order.get(order.size() - 1));
+        assertEquals(1, pipeline.getRejectedCount());
+    }
+
+    @Test
+    public void queueDepths_reportStageQueuesAndTheInjectedBacklogs() throws InterruptedException {
+        AtomicInteger ringBuffer = new AtomicInteger(7);
+        AtomicInteger uploadQueue = new AtomicInteger(420);
+        ProcessingPipeline pipeline = new ProcessingPipeline(ringBuffer::get, uploadQueue::get);
+        CountDownLatch release = hold(pipeline, PipelineStage.FILTER);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(pipeline.execute(PipelineStage.FILTER, () -> { }));
+        }
+
+        Map<PipelineStage, Integer> depths = pipeline.getQueueDepths();
+        assertEquals(PipelineStage.values().length, depths.size());
+        assertEquals(0, (int) depths.get(PipelineStage.INGEST));
+        assertEquals(3, (int) depths.get(PipelineStage.FILTER));
+        assertEquals(7, (int) depths.get(PipelineStage.ENCODE));
+        assertEquals(420, (int) depths.get(PipelineStage.UPLOAD));
+
+        // The backlogs are read on every call
+        ringBuffer.set(0);
+        uploadQueue.set(12);
+        depths = pipeline.getQueueDepths();
+        assertEquals(0, (int) depths.get(PipelineStage.ENCODE));
+        assertEquals(12, (int) depths.get(PipelineStage.UPLOAD));
+        release.countDown();
+    }
+}
@@ -0,0 +1,116 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link RetryScheduler}: full-jitter backoff bounds, Retry-After and
+ * the circuit breaker, on a clock the test advances.
+ */
+public class RetrySchedulerTest {
+    private static final long BASE = 1000;
+    private static final long MAX = 8000;
+    private static final int THRESHOLD = 3;
+    private static final long COOLDOWN = 60_000;
+
+    /** Jitter draw the test chooses */
+    private double jitter;
+    private long now = 1_700_000_000_000L;
+
+    private RetryScheduler scheduler(int failureThreshold) {
+        return new RetryScheduler(BASE, MAX, failureThreshold, COOLDOWN, () -> jitter);
+    }
+
+    @Test
+    public void backoff_staysWithinTheDoublingCeiling() {
+        long[] ceilings = {1000, 2000, 4000, 8000, 8000, 8000};
+        RetryScheduler lowest = scheduler(100);
+        RetryScheduler highest = scheduler(100);
+        for (long ceiling : ceilings) {
+            jitter = 0;
+            assertEquals(0, lowest.onFailure(now, 0, "timeout"));
+            jitter = Math.nextDown(1.0);
+            long delay = highest.onFailure(now, 0, "timeout");
+            assertTrue(delay <= ceiling);
+            assertTrue(delay >= ceiling - 1);
+        }
+        assertEquals(RetryState.CircuitState.CLOSED, highest.getState().getCircuitState());
+        assertEquals(6, highest.getState().getConsecutiveFailures());
+    }
+
+    @Test
+    public void backoff_isHonouredUnlessTheUploadIsExplicit() {
+        RetryScheduler scheduler = scheduler(THRESHOLD);
+        jitter = 0.5;
+        long delay = scheduler.onFailure(now, 0, "timeout");
+        assertEquals(500, delay);
+
+        assertFalse(scheduler.canAttempt(now + delay - 1, false));
+        assertTrue(scheduler.canAttempt(now + delay - 1, true));
+        assertTrue(scheduler.canAttempt(now + delay, false));
+    }
+
+    @Test
+    public void retryAfter_isALowerBound() {
+        RetryScheduler scheduler = scheduler(THRESHOLD);
+        jitter = 0.5;
+        assertEquals(30_000, scheduler.onFailure(now, 30_000, "429"));
+        assertEquals(now + 30_000, scheduler.getState().getNextAttemptTimeMillis());
+        assertEquals("429", scheduler.getState().getLastError());
+        // A shorter Retry-After does not cut the backoff
+        assertEquals(1000, scheduler.onFailure(now, 10, "429"));
+    }
+
+    @Test
+    public void breaker_opensProbesOnceAndCloses() {
+        RetryScheduler scheduler = scheduler(THRESHOLD);
+        jitter = 0.5;
+        scheduler.onFailure(now, 0, "timeout");
+        scheduler.onFailure(now, 0, "timeout");
+        assertEquals(RetryState.CircuitState.CLOSED, scheduler.getState().getCircuitState());
+        assertEquals(COOLDOWN, scheduler.onFailure(now, 0, "timeout"));
+        assertEquals(RetryState.CircuitState.OPEN, scheduler.getState().getCircuitState());
+
+        // Open: not even explicit flushes go through until the cooldown ends
+        assertFalse(scheduler.canAttempt(now + COOLDOWN - 1, true));
+
+        // Half-open: exactly one probe
+        now += COOLDOWN;
+        assertTrue(scheduler.canAttempt(now, false));
+        assertEquals(RetryState.CircuitState.HALF_OPEN, scheduler.getState().getCircuitState());
+        assertFalse(scheduler.canAttempt(now, true));
+        assertFalse(scheduler.canAttempt(now + COOLDOWN, false));
+
+        // A failed probe opens the breaker again for a whole cooldown
+        assertEquals(COOLDOWN, scheduler.onFailure(now, 0, "timeout"));
+        assertEquals(RetryState.CircuitState.OPEN, scheduler.getState().getCircuitState());
+        assertFalse(scheduler.canAttempt(now + COOLDOWN - 1, false));
+
+        // A successful probe closes it and resets the backoff
+        now += COOLDOWN;
+        assertTrue(scheduler.canAttempt(now, false));
+        assertFalse(scheduler.canAttempt(now, false));
+        scheduler.onSuccess();
+        RetryState state = scheduler.getState();
+        assertEquals(RetryState.CircuitState.CLOSED, state.getCircuitState());
+        assertEquals(0, state.getConsecutiveFailures());
+        assertEquals(4, state.getTotalFailures());
+        assertTrue(scheduler.canAttempt(now, false));
+        assertTrue(scheduler.canAttempt(now, false));
+        assertEquals(500, scheduler.onFailure(now, 0, "timeout"));
+    }
+
+    @Test
+    public void unusedProbe_canBeReleased() {
+        RetryScheduler scheduler = scheduler(1);
+        scheduler.onFailure(now, 0, "timeout");
+        now += COOLDOWN;
+        assertTrue(scheduler.canAttempt(now, false));
+        assertFalse(scheduler.canAttempt(now, false));
+
+        scheduler.cancelAttempt();
+        assertTrue(scheduler.canAttempt(now, false));
+        assertEquals(RetryState.CircuitState.HALF_OPEN, scheduler.getState().getCircuitState());
+    }
+}
@@ -0,0 +1,128 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link SamplingGovernor}: tier changes from observed motion, the
+ * energy budget cap, and the account against fixed-interval sampling.
+ */
+public class SamplingGovernorTest {
+    private static final long START = 1_700_000_000_000L;
+    private static final long MINUTE = 60_000;
+    private static final long TEN_MINUTES = 10 * MINUTE;
+    /** Degrees of latitude per meter */
+    private static final double DEGREES_PER_METER = 1 / 111_195.0;
+
+    private long now = START;
+    private double latitude = 32.0;
+
+    @Test
+    public void stationary_backsOffAfterDwell_andWakesOnMovement() {
+        SamplingGovernor governor = new SamplingGovernor(TEN_MINUTES, 0);
+        governor.start(now);
+        assertTrue(governor.onLocation(latitude, 34.0, now, 10f, 0f));
+        assertEquals(SamplingTier.SLOW, governor.getTier());
+
+        for (int i = 0; i < 3; i++) {
+            now += MINUTE;
+            governor.onLocation(latitude, 34.0, now, 10f, 0f);
+        }
+        assertEquals(SamplingTier.STATIONARY, governor.getTier());
+
+        // Fixes another app requested do not get recorded within the stationary interval
+        now += MINUTE;
+        assertFalse(governor.onLocation(latitude, 34.0, now, 10f, 0f));
+
+        // Moving off at driving speed: the next fix switches straight to the fast tier
+        now += MINUTE;
+        latitude += 1000 * DEGREES_PER_METER;
+        assertTrue(governor.onLocation(latitude, 34.0, now, 10f, 20f));
+        assertEquals(SamplingTier.FAST, governor.getTier());
+        assertEquals(2, governor.getStats(now).getTierChangeCount());
+    }
+
+    @Test
+    public void slowingDown_waitsBeforeDowngrading() {
+        SamplingGovernor governor = new SamplingGovernor(TEN_MINUTES, 0);
+        governor.start(now);
+        drive(governor, 20f, 5_000, 10);
+        assertEquals(SamplingTier.FAST, governor.getTier());
+
+        // A traffic light: one minute below walking speed keeps the fast tier
+        drive(governor, 0f, 5_000, 12);
+        assertEquals(SamplingTier.FAST, governor.getTier());
+        drive(governor, 0f, 5_000, 13);
+        assertEquals(SamplingTier.SLOW, governor.getTier());
+    }
+
+    @Test
+    public void speedFromDisplacement_whenProviderReportsNone() {
+        SamplingGovernor governor = new SamplingGovernor(TEN_MINUTES, 0);
+        governor.start(now);
+        governor.onLocation(latitude, 34.0, now, 10f, Float.NaN);
+        now += 20_000;
+        latitude += 160 * DEGREES_PER_METER;
+        governor.onLocation(latitude, 34.0, now, 10f, Float.NaN);
+        assertEquals(SamplingTier.MODERATE, governor.getTier());
+
+        // Displacement within the fix accuracy is noise, not movement
+        SamplingGovernor noisy = new SamplingGovernor(TEN_MINUTES, 0);
+        noisy.start(now);
+        noisy.onLocation(latitude, 34.0, now, 30f, Float.NaN);
+        noisy.onLocation(latitude + 25 * DEGREES_PER_METER, 34.0, now + 5_000, 30f, Float.NaN);
+        assertEquals(SamplingTier.SLOW, noisy.getTier());
+    }
+
+    @Test
+    public void energyBudget_capsTierOnceSpent() {
+        // 24 mAh per day allows 4 mAh of burst; the fast tier spends 14.4 mAh per hour
+        SamplingGovernor governor = new SamplingGovernor(TEN_MINUTES, 24);
+        governor.start(now);
+        drive(governor, 30f, 5_000, 12 * 15);
+        assertEquals(SamplingTier.FAST, governor.getTier());
+        drive(governor, 30f, 5_000, 12 * 5);
+        // 1 mAh per hour sustains at most the slow tier, until an hour of budget has refilled
+        assertEquals(SamplingTier.SLOW, governor.getTier());
+        drive(governor, 30f, 5_000, 12 * 70);
+        assertEquals(SamplingTier.SLOW, governor.getTier());
+        // At 0.64 mAh per hour net, the hour of budget is back after about 95 minutes
+        drive(governor, 30f, 5_000, 12 * 25);
+        assertEquals(SamplingTier.FAST, governor.getTier());
+    }
+
+    @Test
+    public void stats_compareWithFixedInterval() {
+        SamplingGovernor governor = new SamplingGovernor(TEN_MINUTES, 0);
+        governor.start(now);
+        for (int i = 0; i <= 120; i++) {
+            governor.onLocation(latitude, 34.0, now, 10f, 0f);
+            now += MINUTE;
+        }
+        now -= MINUTE;
+        governor.stop(now);
+        now += 60 * MINUTE;
+
+        // Two hours at the desk: 3 minutes in the slow tier, then the stationary tier
+        SamplingStats stats = governor.getStats(now);
+        assertEquals(SamplingTier.STATIONARY, stats.getTier());
+        assertEquals(12, stats.getFixedIntervalFixCount());
+        assertEquals(3 + 8, stats.getRecordedFixCount());
+        assertEquals(3 * MINUTE, stats.getTimeInTierMillis(SamplingTier.SLOW));
+        assertEquals(117 * MINUTE, stats.getTimeInTierMillis(SamplingTier.STATIONARY));
+        assertEquals(12 * 0.006, stats.getFixedIntervalMilliampHours(), 1e-9);
+        assertTrue(stats.getMilliampHoursSaved() > 0);
+    }
+
+    /**
+     * Report fixes at the given speed, moving north accordingly.
+     */
+    private void drive(SamplingGovernor governor, float speed, long intervalMillis, int fixes) {
+        for (int i = 0; i < fixes; i++) {
+            now += intervalMillis;
+            latitude += speed * intervalMillis / 1000.0 * DEGREES_PER_METER;
+            governor.onLocation(latitude, 34.0, now, 10f, speed);
+        }
+    }
+}
@@ -0,0 +1,427 @@
+package com.example.locationanalytics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TimeZone;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StatisticsCache}, on a clock and a server stand-in the test
+ * controls: fresh hits, stale-while-revalidate, shared misses, "not modified" answers, the
+ * snapshot across a restart, and the delta revalidation with
+ * {@link UserStatistics#mergeDelta(UserStatistics)}, whose result must match the statistics
+ * recomputed from every location.
+ */
+public class StatisticsCacheTest {
+    private static final long HOUR = 60 * 60 * 1000;
+    private static final long START = 1_700_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Server stand-in answering full requests, deltas and "not modified" the way the real
+     * server does. While {@link #deferred} is set, answers wait in {@link #pending} until
+     * the test sends them.
+     */
+    private static final class FakeServer implements StatisticsCache.Fetcher {
+        final List<double[]> points = new ArrayList<>();
+        final List<Long> sinceRequested = new ArrayList<>();
+        final List<String> etagsRequested = new ArrayList<>();
+        final List<Runnable> pending = new ArrayList<>();
+        boolean deferred;
+
+        void add(double latitude, double longitude, long timestamp) {
+            points.add(new double[]{latitude, longitude, timestamp});
+        }
+
+        UserStatistics full() {
+            StatisticsAggregator aggregator = new StatisticsAggregator(TimeZone.getTimeZone("UTC"));
+            for (double[] point : points) {
+                aggregator.add(point[0], point[1], (long) point[2]);
+            }
+            return aggregator.snapshot("user", new ArrayList<>());
+        }
+
+        /** Change after {@code since}, including the segment from the last point at or before it */
+        UserStatistics delta(long since) {
+            double[] previous = null;
+            int count = 0;
+            double distance = 0;
+            long first = 0;
+            long last = 0;
+            Map<Integer, Integer> hours = new HashMap<>();
+            for (double[] point : points) {
+                long timestamp = (long) point[2];
+                if (timestamp <= since) {
+                    previous = point;
+                    continue;
+                }
+                if (previous != null) {
+                    distance += GeoUtils.distanceMeters(previous[0], previous[1], point[0], point[1]);
+                }
+                previous = point;
+                if (count++ == 0) {
+                    first = timestamp;
+                }
+                last = timestamp;
+                hours.merge((int) (timestamp / HOUR % 24), 1, Integer::sum);
+            }
+            return new UserStatistics("user", count, distance, first, last, null, null, hours, true);
+        }
+
+        String etag() {
+            return "\"" + points.size() + "\"";
+        }
+
+        void answer(String etag, long since, StatisticsCallback callback) {
+            if (etag().equals(etag)) {
+                callback.onNotModified();
+            } else {
+                callback.onSuccess(since > 0 ? delta(since) : full(), etag());
+            }
+        }
+
+        /** Send the answers held back while deferred, computed from the points as they are now */
+        void sendPending() {
+            List<Runnable> answers = new ArrayList<>(pending);
+            pending.clear();
+            for (Runnable answer : answers) {
+                answer.run();
+            }
+        }
+
+        @Override
+        public void fetch(String userId, String etag, long since, StatisticsCallback callback) {
+            sinceRequested.add(since);
+            etagsRequested.add(etag);
+            if (deferred) {
+                pending.add(() -> answer(etag, since, callback));
+            } else {
+                answer(etag, since, callback);
+            }
+        }
+    }
+
+    private static final class Result implements ApiCallback<UserStatistics> {
+        UserStatistics statistics;
+        String error;
+
+        @Override
+        public void onSuccess(UserStatistics result) {
+            statistics = result;
+        }
+
+        @Override
+        public void onError(String message) {
+            error = message;
+        }
+    }
+
+    private final FakeServer server = new FakeServer();
+    private long now = START;
+
+    private StatisticsCache cache() {
+        return new StatisticsCache(server, () -> now, 1000, StatisticsCache.DEFAULT_MAX_STALE_MILLIS,
+                snapshotFile());
+    }
+
+    private File snapshotFile() {
+        return new File(folder.getRoot(), "statistics.json");
+    }
+
+    /** A walk north-east, one fix every ten minutes */
+    private void walk(int from, int to) {
+        for (int i = from; i <= to; i++) {
+            server.add(32.0853 + i * 0.001, 34.7818 + i * 0.0007, START + i * 10 * 60_000L);
+        }
+    }
+
+    private static void assertSameStatistics(UserStatistics expected, UserStatistics actual) {
+        assertEquals(expected.getTotalLocations(), actual.getTotalLocations());
+        assertEquals(expected.getDistanceTraveledMeters(), actual.getDistanceTraveledMeters(), 1e-6);
+        assertEquals(expected.getFirstLocationTimestamp(), actual.getFirstLocationTimestamp());
+        assertEquals(expected.getLastLocationTimestamp(), actual.getLastLocationTimestamp());
+        assertEquals(expected.getActivityHours(), actual.getActivityHours());
+        assertFalse(actual.isDelta());
+    }
+
+    @Test
+    public void freshResult_isServedWithoutARequest() {
+        StatisticsCache cache = cache();
+        walk(0, 9);
+        cache.get("user", new Result());
+
+        now += 999;
+        walk(10, 12);
+        Result hit = new Result();
+        cache.get("user", hit);
+
+        assertEquals(10, hit.statistics.getTotalLocations());
+        assertEquals(1, server.sinceRequested.size());
+        StatisticsCacheStats stats = cache.getStats();
+        assertEquals(1, stats.getHitCount());
+        assertEquals(1, stats.getMissCount());
+        assertEquals(1, stats.getFetchCount());
+    }
+
+    @Test
+    public void staleResult_isServedWhileOneRefreshRuns() {
+        StatisticsCache cache = cache();
+        walk(0, 9);
+        cache.get("user", new Result());
+
+        server.deferred = true;
+        walk(10, 14);
+        now += 2000;
+        Result first = new Result();
+        Result second = new Result();
+        cache.get("user", first);
+        cache.get("user", second);
+
+        // Both callers get the stale copy at once, and only one refresh is sent
+        assertEquals(10, first.statistics.getTotalLocations());
+        assertEquals(10, second.statistics.getTotalLocations());
+        assertEquals(1, server.pending.size());
+        assertEquals(2, cache.getStats().getStaleHitCount());
+        assertEquals(2, cache.getStats().getFetchCount());
+
+        server.sendPending();
+        assertSameStatistics(server.full(), cache.peek("user"));
+        // The callers were answered already and are not called again
+        assertEquals(10, first.statistics.getTotalLocations());
+
+        Result hit = new Result();
+        cache.get("user", hit);
+        assertEquals(15, hit.statistics.getTotalLocations());
+        assertEquals(1, cache.getStats().getHitCount());
+    }
+
+    @Test
+    public void expiredResult_isNotServed() {
+        StatisticsCache cache = cache();
+        walk(0, 9);
+        cache.get("user", new Result());
+
+        server.deferred = true;
+        now += StatisticsCache.DEFAULT_MAX_STALE_MILLIS;
+        Result result = new Result();
+        cache.get("user", result);
+        assertNull(result.statistics);
+        assertEquals(1, server.pending.size());
+
+        server.sendPending();
+        assertEquals(10, result.statistics.getTotalLocations());
+        assertEquals(2, cache.getStats().getMissCount());
+    }
+
+    @Test
+    public void concurrentMisses_shareOneRequest() {
+        StatisticsCache cache = cache();
+        walk(0, 9);
+        server.deferred = true;
+        List<Result> results = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Result result = new Result();
+            results.add(result);
+            cache.get("user", result);
+            assertNull(result.statistics);
+        }
+        assertEquals(1, server.pending.size());
+
+        server.sendPending();
+        for (Result result : results) {
+            assertEquals(10, result.statistics.getTotalLocations());
+        }
+        StatisticsCacheStats stats = cache.getStats();
+        assertEquals(3, stats.getMissCount());
+        assertEquals(2, stats.getCoalescedCount());
+        assertEquals(1, stats.getFetchCount());
+    }
+
+    @Test
+    public void failedRequest_failsEveryWaiterAndKeepsNothing() {
+        StatisticsCache cache = new StatisticsCache((userId, etag, since, callback) -> callback.onError("offline"),
+                () -> now, 1000, StatisticsCache.DEFAULT_MAX_STALE_MILLIS, snapshotFile());
+        Result result = new Result();
+        cache.get("user", result);
+
+        assertEquals("offline", result.error);
+        assertNull(cache.peek("user"));
+    }
+
+    @Test
+    public void unchangedStatistics_areRevalidatedWithTheVersionTag() {
+        StatisticsCache cache = cache();
+        walk(0, 9);
+        Result first = new Result();
+        cache.get("user", first);
+
+        now += 2000;
+        Result revalidated = new Result();
+        cache.get("user", revalidated);
+
+        assertEquals(Arrays.asList(null, "\"10\""), server.etagsRequested);
+        assertEquals(1, cache.getStats().getNotModifiedCount());
+        assertSame(first.statistics, revalidated.statistics);
+
+        // "Not modified" renews the time-to-live
+        now += 999;
+        cache.get("user", new Result());
+        assertEquals(2, server.etagsRequested.size());
+        assertEquals(1, cache.getStats().getHitCount());
+    }
+
+    @Test
+    public void notModifiedWithoutACachedCopy_isAnError() {
+        StatisticsCache cache = new StatisticsCache((userId, etag, since, callback) -> callback.onNotModified(),
+                () -> now, 1000, StatisticsCache.DEFAULT_MAX_STALE_MILLIS, snapshotFile());
+        Result result = new Result();
+        cache.get("user", result);
+
+        assertNull(result.statistics);
+        assertNotNull(result.error);
+        assertEquals(0, cache.getStats().getNotModifiedCount());
+    }
+
+    @Test
+    public void savedResults_areServedAfterARestart() throws IOException {
+        StatisticsCache cache = cache();
+        walk(0, 9);
+        cache.get("user", new Result());
+        cache.save();
+
+        StatisticsCache restarted = cache();
+        restarted.load();
+        assertSameStatistics(server.full(), restarted.peek("user"));
+
+        // Still fresh: no request
+        now += 500;
+        restarted.get("user", new Result());
+        assertEquals(1, server.sinceRequested.size());
+        assertEquals(1, restarted.getStats().getHitCount());
+
+        // Expired: revalidated with the persisted version tag
+        now += 1000;
+        restarted.get("user", new Result());
+        assertEquals("\"10\"", server.etagsRequested.get(1));
+        assertEquals(1, restarted.getStats().getNotModifiedCount());
+    }
+
+    @Test
+    public void missingSnapshot_leavesTheCacheEmpty() throws IOException {
+        StatisticsCache cache = cache();
+        cache.load();
+        assertNull(cache.peek("user"));
+    }
+
+    @Test
+    public void corruptSnapshot_isReportedAndLeavesTheCacheEmpty() throws IOException {
+        for (String contents : new String[]{"{\"user\": {\"fetched_at\": 1", "{\"user\": 5}", "[]"}) {
+            Files.write(snapshotFile().toPath(), contents.getBytes(StandardCharsets.UTF_8));
+            StatisticsCache cache = cache();
+            try {
+                cache.load();
+                fail("Loaded " + contents);
+            } catch (IOException expected) {
+                // Reported to the caller, which starts with an empty cache
+            }
+            assertNull(cache.peek("user"));
+
+            walk(0, 3);
+            Result result = new Result();
+            cache.get("user", result);
+            assertNotNull(result.statistics);
+            assertEquals(1, cache.getStats().getMissCount());
+            server.points.clear();
+        }
+    }
+
+    @Test
+    public void mergedDelta_matchesAFullRecompute() {
+        walk(0, 9);
+        UserStatistics cached = server.full();
+        walk(10, 20);
+        UserStatistics delta = server.delta(cached.getLastLocationTimestamp());
+        assertEquals(11, delta.getTotalLocations());
+
+        UserStatistics merged = cached.mergeDelta(delta);
+        assertSameStatistics(server.full(), merged);
+        assertEquals(START, merged.getFirstLocationTimestamp());
+        // The delta carries the segment from fix 9, which the cached copy ends with, to fix 10
+        double[] ninth = server.points.get(9);
+        double[] tenth = server.points.get(10);
+        double bridge = GeoUtils.distanceMeters(ninth[0], ninth[1], tenth[0], tenth[1]);
+        assertTrue(bridge > 100);
+        assertNotEquals(server.full().getDistanceTraveledMeters(),
+                cached.getDistanceTraveledMeters() + delta.getDistanceTraveledMeters() - bridge, 1.0);
+    }
+
+    @Test
+    public void emptyDelta_changesNothing() {
+        walk(0, 5);
+        UserStatistics cached = server.full();
+        assertSameStatistics(cached, cached.mergeDelta(server.delta(cached.getLastLocationTimestamp())));
+    }
+
+    @Test
+    public void revalidation_requestsAndMergesTheChangeSinceTheCachedCopy() {
+        StatisticsCache cache = cache();
+        walk(0, 9);
+        Result first = new Result();
+        cache.get("user", first);
+        assertEquals(10, first.statistics.getTotalLocations());
+
+        walk(10, 14);
+        now += 2000;
+        cache.get("user", new Result());
+        walk(15, 20);
+        now += 2000;
+        cache.get("user", new Result());
+
+        assertEquals(List.of(0L, START + 9 * 10 * 60_000L, START + 14 * 10 * 60_000L), server.sinceRequested);
+        assertEquals(2, cache.getStats().getDeltaCount());
+        assertSameStatistics(server.full(), cache.peek("user"));
+    }
+
+    @Test
+    public void fullSyncInterval_fetchesEverythingAgain() {
+        StatisticsCache cache = cache();
+        walk(0, 9);
+        cache.get("user", new Result());
+
+        now += StatisticsCache.FULL_SYNC_INTERVAL_MILLIS;
+        walk(10, 12);
+        cache.get("user", new Result());
+
+        assertEquals(List.of(0L, 0L), server.sinceRequested);
+        assertEquals(0, cache.getStats().getDeltaCount());
+        assertSameStatistics(server.full(), cache.peek("user"));
+    }
+
+    @Test
+    public void deltaWithoutACachedCopy_isAnError() {
+        StatisticsCache cache = new StatisticsCache(
+                (userId, etag, since, callback) -> callback.onSuccess(server.delta(START), "\"1\""),
+                () -> now, 1000, StatisticsCache.DEFAULT_MAX_STALE_MILLIS, snapshotFile());
+        walk(0, 3);
+        Result result = new Result();
+        cache.get("user", result);
+
+        assertNull(result.statistics);
+        assertNotNull(result.error);
+        assertNull(cache.peek("user"));
+    }
+}
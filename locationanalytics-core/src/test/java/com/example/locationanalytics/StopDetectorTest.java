@@ -0,0 +1,158 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link StopDetector}: the stop radius, the minimum dwell, repeated
+ * visits and the saved state.
+ */
+public class StopDetectorTest {
+    private static final double HOME_LATITUDE = 32.0853;
+    private static final double HOME_LONGITUDE = 34.7818;
+    /** Degrees of latitude per meter, exact for the haversine distance along a meridian */
+    private static final double DEGREES_PER_METER = 1 / Math.toRadians(GeoUtils.EARTH_RADIUS_METERS);
+    private static final long MINUTE = 60_000;
+
+    /** Add a fix {@code north} meters north of home */
+    private static void add(StopDetector detector, double north, long timestamp) {
+        detector.add(HOME_LATITUDE + north * DEGREES_PER_METER, HOME_LONGITUDE, timestamp);
+    }
+
+    /** Dwell at a place {@code north} meters north of home, one fix a minute */
+    private static long dwell(StopDetector detector, double north, long start, int minutes) {
+        for (int i = 0; i <= minutes; i++) {
+            add(detector, north, start + i * MINUTE);
+        }
+        return start + (minutes + 1) * MINUTE;
+    }
+
+    @Test
+    public void visit_isMeasuredFromItsFirstFix() {
+        StopDetector detector = new StopDetector();
+        add(detector, 0, 0);
+        add(detector, 100, MINUTE);
+        add(detector, StopDetector.STOP_RADIUS_METERS - 1, 2 * MINUTE);
+        // Only 50 meters from the previous fix, but beyond the radius of the first
+        add(detector, StopDetector.STOP_RADIUS_METERS + 1, 3 * MINUTE);
+
+        List<UserStatistics.LocationStop> stops = detector.getStops();
+        assertEquals(1, stops.size());
+        UserStatistics.LocationStop stop = stops.get(0);
+        assertEquals(1, stop.getVisitCount());
+        assertEquals(2.0, stop.getAverageDurationMinutes(), 1e-9);
+        assertEquals(HOME_LATITUDE + (100 + StopDetector.STOP_RADIUS_METERS - 1) / 3 * DEGREES_PER_METER,
+                stop.getLatitude(), 1e-9);
+        assertEquals("Stop 1", stop.getName());
+    }
+
+    @Test
+    public void shortOrSparseVisits_areNotStops() {
+        StopDetector tooShort = new StopDetector();
+        add(tooShort, 0, 0);
+        add(tooShort, 0, MINUTE);
+        add(tooShort, 0, StopDetector.MIN_DURATION_MILLIS - 1);
+        assertTrue(tooShort.getStops().isEmpty());
+
+        StopDetector tooFewFixes = new StopDetector();
+        add(tooFewFixes, 0, 0);
+        add(tooFewFixes, 0, 10 * MINUTE);
+        assertTrue(tooFewFixes.getStops().isEmpty());
+
+        StopDetector justLongEnough = new StopDetector();
+        add(justLongEnough, 0, 0);
+        add(justLongEnough, 0, MINUTE);
+        add(justLongEnough, 0, StopDetector.MIN_DURATION_MILLIS);
+        assertEquals(1, justLongEnough.getStops().size());
+    }
+
+    @Test
+    public void visitInProgress_isReportedWithoutBeingCommitted() {
+        StopDetector detector = new StopDetector();
+        dwell(detector, 0, 0, 10);
+        assertEquals(1, detector.getStops().get(0).getVisitCount());
+        // Reading twice must not count the visit twice
+        assertEquals(1, detector.getStops().get(0).getVisitCount());
+        assertEquals(10.0, detector.getStops().get(0).getAverageDurationMinutes(), 1e-9);
+    }
+
+    @Test
+    public void revisit_updatesTheSameStop() {
+        StopDetector detector = new StopDetector();
+        long time = dwell(detector, 0, 0, 30);
+        time = dwell(detector, 2000, time, 5);
+        dwell(detector, 20, time, 10);
+
+        List<UserStatistics.LocationStop> stops = detector.getStops();
+        assertEquals(2, stops.size());
+        // Most visited first
+        assertEquals("Stop 1", stops.get(0).getName());
+        assertEquals(2, stops.get(0).getVisitCount());
+        assertEquals(20.0, stops.get(0).getAverageDurationMinutes(), 1e-9);
+        assertEquals(HOME_LATITUDE, stops.get(0).getLatitude(), 1e-9);
+        assertEquals("Stop 2", stops.get(1).getName());
+        assertEquals(1, stops.get(1).getVisitCount());
+    }
+
+    @Test
+    public void reportedStops_areLimited() {
+        StopDetector detector = new StopDetector();
+        long time = 0;
+        for (int place = 0; place < StopDetector.MAX_REPORTED_STOPS + 5; place++) {
+            time = dwell(detector, place * 1000, time, 5);
+        }
+        assertEquals(StopDetector.MAX_REPORTED_STOPS, detector.getStops().size());
+    }
+
+    @Test
+    public void savedState_continuesLikeAnUninterruptedDetector() throws IOException {
+        // Home for half an hour, away, and home again, one fix a minute
+        double[] north = new double[50];
+        for (int i = 0; i < north.length; i++) {
+            north[i] = i <= 30 || i >= 38 ? i % 3 * 10 : 2000;
+        }
+        StopDetector uninterrupted = new StopDetector();
+        StopDetector saved = new StopDetector();
+        int split = 34; // During the visit away
+        for (int i = 0; i < north.length; i++) {
+            add(uninterrupted, north[i], i * MINUTE);
+            if (i < split) {
+                add(saved, north[i], i * MINUTE);
+            }
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        saved.writeTo(new DataOutputStream(bytes));
+        StopDetector restored = new StopDetector();
+        restored.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        for (int i = split; i < north.length; i++) {
+            add(restored, north[i], i * MINUTE);
+        }
+
+        List<UserStatistics.LocationStop> expected = uninterrupted.getStops();
+        List<UserStatistics.LocationStop> actual = restored.getStops();
+        assertEquals(2, expected.size());
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getName(), actual.get(i).getName());
+            assertEquals(expected.get(i).getVisitCount(), actual.get(i).getVisitCount());
+            assertEquals(expected.get(i).getAverageDurationMinutes(), actual.get(i).getAverageDurationMinutes(), 0);
+            assertEquals(expected.get(i).getLatitude(), actual.get(i).getLatitude(), 0);
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void unknownStateVersion_isRejected() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeInt(99);
+        new StopDetector().readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+}
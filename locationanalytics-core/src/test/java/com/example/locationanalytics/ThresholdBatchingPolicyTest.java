@@ -0,0 +1,72 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link ThresholdBatchingPolicy}: each threshold fires on its own,
+ * the re-check delay counts down to the age threshold, and invalid thresholds are clamped.
+ */
+public class ThresholdBatchingPolicyTest {
+    private static final int MAX_POINTS = 100;
+    private static final long MAX_AGE_MILLIS = 30 * 60 * 1000;
+    private static final long MAX_BYTES = 64 * 1024;
+
+    private final ThresholdBatchingPolicy policy = new ThresholdBatchingPolicy(MAX_POINTS, MAX_AGE_MILLIS, MAX_BYTES);
+
+    @Test
+    public void belowEveryThreshold_keepsBuffering() {
+        assertFalse(policy.shouldFlush(0, 0, 0));
+        assertFalse(policy.shouldFlush(MAX_POINTS - 1, MAX_AGE_MILLIS - 1, MAX_BYTES - 1));
+    }
+
+    @Test
+    public void count_firesOnItsOwn() {
+        assertTrue(policy.shouldFlush(MAX_POINTS, 0, 0));
+        assertTrue(policy.shouldFlush(MAX_POINTS + 1, 0, 0));
+    }
+
+    @Test
+    public void oldestAge_firesOnItsOwn() {
+        assertTrue(policy.shouldFlush(1, MAX_AGE_MILLIS, 0));
+        assertTrue(policy.shouldFlush(1, MAX_AGE_MILLIS + 1, 0));
+    }
+
+    @Test
+    public void bytes_fireOnTheirOwn() {
+        assertTrue(policy.shouldFlush(1, 0, MAX_BYTES));
+        assertTrue(policy.shouldFlush(1, 0, MAX_BYTES + 1));
+    }
+
+    @Test
+    public void recheckDelay_countsDownToTheAgeThreshold() {
+        assertEquals(MAX_AGE_MILLIS, policy.getRecheckDelayMillis(0));
+        assertEquals(1, policy.getRecheckDelayMillis(MAX_AGE_MILLIS - 1));
+        // Past the threshold the policy is due now, never a negative "no re-check"
+        assertEquals(0, policy.getRecheckDelayMillis(MAX_AGE_MILLIS));
+        assertEquals(0, policy.getRecheckDelayMillis(MAX_AGE_MILLIS + 60_000));
+    }
+
+    @Test
+    public void defaults_areTheDocumentedThresholds() {
+        ThresholdBatchingPolicy defaults = new ThresholdBatchingPolicy();
+        assertEquals(ThresholdBatchingPolicy.DEFAULT_MAX_POINTS, defaults.getMaxPoints());
+        assertEquals(ThresholdBatchingPolicy.DEFAULT_MAX_AGE_MILLIS, defaults.getMaxAgeMillis());
+        assertEquals(ThresholdBatchingPolicy.DEFAULT_MAX_BYTES, defaults.getMaxBytes());
+    }
+
+    @Test
+    public void thresholdsOfZeroOrLess_areClamped() {
+        for (int invalid : new int[]{0, -1, Integer.MIN_VALUE}) {
+            ThresholdBatchingPolicy clamped = new ThresholdBatchingPolicy(invalid, invalid, invalid);
+            assertEquals(1, clamped.getMaxPoints());
+            assertEquals(0, clamped.getMaxAgeMillis());
+            assertEquals(1, clamped.getMaxBytes());
+
+            // Any buffered location is due at once
+            assertTrue(clamped.shouldFlush(1, 0, 0));
+            assertEquals(0, clamped.getRecheckDelayMillis(0));
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TrajectorySimplifier}: the tolerance corridor, keeping the
+ * endpoints of the path, and the bounds on held fixes.
+ */
+public class TrajectorySimplifierTest {
+    /** Degrees per meter along the equator, where the simplifier's projection is exact */
+    private static final double DEGREES_PER_METER = 1 / Math.toRadians(GeoUtils.EARTH_RADIUS_METERS);
+    private static final double TOLERANCE = 5;
+    private static final long SECOND = 1000;
+
+    private final List<Object[]> emitted = new ArrayList<>();
+    private final LocationRingBuffer.Sink recorder = (userId, latitude, longitude, timestamp, accuracy, deviceInfo) ->
+            emitted.add(new Object[]{userId, timestamp});
+
+    /** Add a fix {@code east} meters along and {@code north} meters off the equator */
+    private static void add(TrajectorySimplifier simplifier, String userId, double east, double north,
+                            long timestamp, LocationRingBuffer.Sink out) {
+        simplifier.add(userId, north * DEGREES_PER_METER, east * DEGREES_PER_METER, timestamp, 5, null, out);
+    }
+
+    private List<Long> emittedTimestamps() {
+        List<Long> timestamps = new ArrayList<>();
+        for (Object[] fix : emitted) {
+            timestamps.add((Long) fix[1]);
+        }
+        return timestamps;
+    }
+
+    @Test
+    public void straightLine_collapsesToItsEndpoints() {
+        TrajectorySimplifier simplifier = new TrajectorySimplifier(TOLERANCE);
+        for (int i = 0; i < 10; i++) {
+            add(simplifier, "user", i * 20, 0, i * SECOND, recorder);
+            // The first fix is emitted at once, the rest are held
+            assertEquals(1, emitted.size());
+        }
+        simplifier.flush(recorder);
+        assertEquals(List.of(0L, 9 * SECOND), emittedTimestamps());
+        assertEquals(10, simplifier.getInputCount());
+        assertEquals(2, simplifier.getOutputCount());
+
+        // Nothing is held any more
+        simplifier.flush(recorder);
+        assertEquals(2, emitted.size());
+    }
+
+    @Test
+    public void deviation_isDroppedWithinTheTolerance_andKeptBeyondIt() {
+        TrajectorySimplifier within = new TrajectorySimplifier(TOLERANCE);
+        add(within, "user", 0, 0, 0, recorder);
+        add(within, "user", 10, 0, SECOND, recorder);
+        add(within, "user", 20, TOLERANCE - 1, 2 * SECOND, recorder);
+        add(within, "user", 30, 0, 3 * SECOND, recorder);
+        add(within, "user", 40, 0, 4 * SECOND, recorder);
+        within.flush(recorder);
+        assertEquals(List.of(0L, 4 * SECOND), emittedTimestamps());
+
+        emitted.clear();
+        TrajectorySimplifier beyond = new TrajectorySimplifier(TOLERANCE);
+        add(beyond, "user", 0, 0, 0, recorder);
+        add(beyond, "user", 10, 0, SECOND, recorder);
+        add(beyond, "user", 20, TOLERANCE + 1, 2 * SECOND, recorder);
+        add(beyond, "user", 30, 0, 3 * SECOND, recorder);
+        add(beyond, "user", 40, 0, 4 * SECOND, recorder);
+        beyond.flush(recorder);
+        assertEquals(List.of(0L, 2 * SECOND, 4 * SECOND), emittedTimestamps());
+    }
+
+    @Test
+    public void corner_isKept() {
+        TrajectorySimplifier simplifier = new TrajectorySimplifier(TOLERANCE);
+        long timestamp = 0;
+        for (int i = 0; i <= 5; i++) {
+            add(simplifier, "user", i * 20, 0, timestamp++, recorder);
+        }
+        for (int i = 1; i <= 5; i++) {
+            add(simplifier, "user", 100, i * 20, timestamp++, recorder);
+        }
+        simplifier.flush(recorder);
+        assertEquals(List.of(0L, 5L, 10L), emittedTimestamps());
+    }
+
+    @Test
+    public void outAndBackTrip_keepsItsTurningPoint() {
+        TrajectorySimplifier simplifier = new TrajectorySimplifier(TOLERANCE);
+        long timestamp = 0;
+        for (int i = 0; i <= 5; i++) {
+            add(simplifier, "user", i * 20, 0, timestamp++, recorder);
+        }
+        for (int i = 4; i >= 0; i--) {
+            add(simplifier, "user", i * 20, 0, timestamp++, recorder);
+        }
+        simplifier.flush(recorder);
+        assertEquals(List.of(0L, 5L, 10L), emittedTimestamps());
+    }
+
+    @Test
+    public void heldFixes_areBoundedByCountAndTime() {
+        TrajectorySimplifier moving = new TrajectorySimplifier(TOLERANCE);
+        for (int i = 0; i < 200; i++) {
+            add(moving, "user", i, 0, i * SECOND, recorder);
+        }
+        List<Long> timestamps = emittedTimestamps();
+        assertTrue(timestamps.size() > 1);
+        for (int i = 1; i < timestamps.size(); i++) {
+            assertTrue(timestamps.get(i) - timestamps.get(i - 1) <= TrajectorySimplifier.WINDOW_SIZE * SECOND);
+        }
+
+        emitted.clear();
+        TrajectorySimplifier stationary = new TrajectorySimplifier(TOLERANCE);
+        long minute = 60 * SECOND;
+        for (int i = 0; i <= 60; i++) {
+            add(stationary, "user", i % 2, 0, i * minute, recorder);
+        }
+        timestamps = emittedTimestamps();
+        assertTrue(timestamps.size() >= 4);
+        for (int i = 1; i < timestamps.size(); i++) {
+            assertTrue(timestamps.get(i) - timestamps.get(i - 1) <= TrajectorySimplifier.MAX_HOLD_MILLIS);
+        }
+    }
+
+    @Test
+    public void differentUser_releasesTheHeldFixFirst() {
+        TrajectorySimplifier simplifier = new TrajectorySimplifier(TOLERANCE);
+        for (int i = 0; i < 5; i++) {
+            add(simplifier, "first", i * 20, 0, i * SECOND, recorder);
+        }
+        add(simplifier, "second", 80, 0, 5 * SECOND, recorder);
+
+        assertEquals(3, emitted.size());
+        assertEquals("first", emitted.get(1)[0]);
+        assertEquals(4 * SECOND, emitted.get(1)[1]);
+        // The other user's first fix starts a new path instead of extending the old one
+        assertEquals("second", emitted.get(2)[0]);
+        assertEquals(5 * SECOND, emitted.get(2)[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void zeroTolerance_isRejected() {
+        new TrajectorySimplifier(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nanTolerance_isRejected() {
+        new TrajectorySimplifier(Double.NaN);
+    }
+}
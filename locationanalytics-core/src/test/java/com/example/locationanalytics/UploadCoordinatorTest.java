@@ -0,0 +1,353 @@
+package com.example.locationanalytics;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the pipelined uploads of {@link UploadCoordinator}: out-of-order
+ * acknowledgements, the in-flight bound, and resending failed batches.
+ */
+public class UploadCoordinatorTest {
+    private static final int BATCH_SIZE = 5;
+    private static final long NOW = 1_700_000_000_000L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /** Runs stage work and timers only when the test says so */
+    private static final class ManualStages implements StageExecutor {
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        final List<Timer> timers = new ArrayList<>();
+
+        @Override
+        public boolean execute(PipelineStage stage, Runnable task) {
+            tasks.add(task);
+            return true;
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+            Timer timer = new Timer(task);
+            timers.add(timer);
+            return timer;
+        }
+
+        void runAll() {
+            while (!tasks.isEmpty()) {
+                tasks.remove().run();
+            }
+        }
+
+        /** Fire the timers that were not cancelled */
+        void fireTimers() {
+            List<Timer> due = new ArrayList<>(timers);
+            timers.clear();
+            for (Timer timer : due) {
+                if (!timer.cancelled) {
+                    timer.task.run();
+                }
+            }
+            runAll();
+        }
+    }
+
+    private static final class Timer implements ScheduledFuture<Object> {
+        final Runnable task;
+        boolean cancelled;
+
+        Timer(Runnable task) {
+            this.task = task;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return 0;
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            return 0;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            cancelled = true;
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return cancelled;
+        }
+
+        @Override
+        public Object get() {
+            return null;
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) {
+            return null;
+        }
+    }
+
+    /** A request sent by the fake transport, answered whenever and in whatever order the test likes */
+    private static final class Request {
+        final String idempotencyKey;
+        final long sequence;
+        final List<Long> timestamps = new ArrayList<>();
+        final UploadCallback callback;
+
+        Request(LocationBuffer locations, String idempotencyKey, long sequence, UploadCallback callback) {
+            this.idempotencyKey = idempotencyKey;
+            this.sequence = sequence;
+            this.callback = callback;
+            for (int i = 0; i < locations.size(); i++) {
+                timestamps.add(locations.getTimestamp(i));
+            }
+        }
+    }
+
+    private static final class NeverFlush implements BatchingPolicy {
+        @Override
+        public boolean shouldFlush(int bufferedCount, long oldestAgeMillis, long bufferedBytes) {
+            return false;
+        }
+
+        @Override
+        public long getRecheckDelayMillis(long oldestAgeMillis) {
+            return -1;
+        }
+    }
+
+    private static final class IgnoringListener implements UploadCoordinator.Listener {
+        @Override
+        public void onUploadDeferred(RetryState state) {
+        }
+
+        @Override
+        public void onUploadStarted(int batchSize, int queuedCount) {
+        }
+
+        @Override
+        public void onUploadSucceeded(int batchSize) {
+        }
+
+        @Override
+        public void onUploadFailed(String message, long retryDelayMillis, RetryState state) {
+        }
+
+        @Override
+        public void onRetry() {
+        }
+    }
+
+    private final ManualStages stages = new ManualStages();
+    private final List<Request> sent = new ArrayList<>();
+    private final InMemoryMetricsSink metrics = new InMemoryMetricsSink();
+    private LocationQueue queue;
+
+    @Before
+    public void setUp() throws IOException {
+        queue = new LocationQueue(folder.newFolder(), LocationQueue.DEFAULT_MAX_SIZE_BYTES);
+    }
+
+    private UploadCoordinator coordinator(int maxInFlight) {
+        return coordinator(maxInFlight, new RetryScheduler());
+    }
+
+    private UploadCoordinator coordinator(int maxInFlight, RetryScheduler retryScheduler) {
+        return new UploadCoordinator(queue, new NeverFlush(), retryScheduler,
+                (locations, key, sequence, callback) -> sent.add(new Request(locations, key, sequence, callback)),
+                stages, () -> NOW, metrics, new IgnoringListener(), BATCH_SIZE, maxInFlight);
+    }
+
+    private void append(long from, long to) throws IOException {
+        for (long t = from; t <= to; t++) {
+            queue.append("user", 32.0853, 34.7818, t, 5, null);
+        }
+    }
+
+    private void succeed(Request request) {
+        request.callback.onSuccess();
+        stages.runAll();
+    }
+
+    @Test
+    public void outOfOrderAcks_removeBatchesFromTheQueueInOrder() throws IOException {
+        UploadCoordinator uploads = coordinator(3);
+        append(1, 15);
+        uploads.flush();
+        stages.runAll();
+        assertEquals(3, sent.size());
+        Request first = sent.get(0);
+        Request second = sent.get(1);
+        Request third = sent.get(2);
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L), first.timestamps);
+        assertTrue(first.sequence < second.sequence && second.sequence < third.sequence);
+
+        // The last batch is acknowledged first: nothing can leave the queue yet
+        succeed(third);
+        assertEquals(15, queue.size());
+        succeed(first);
+        assertEquals(10, queue.size());
+        // The middle one releases itself and the batch behind it
+        succeed(second);
+        assertTrue(queue.isEmpty());
+        assertFalse(uploads.isUploadInFlight());
+        assertEquals(15, metrics.getCount(Metric.LOCATIONS_UPLOADED));
+    }
+
+    @Test
+    public void inFlightRequests_neverExceedTheBound() throws IOException {
+        UploadCoordinator uploads = coordinator(2);
+        append(1, 50);
+        uploads.flush();
+        stages.runAll();
+        assertEquals(2, sent.size());
+
+        int answered = 0;
+        while (answered < sent.size()) {
+            assertTrue(sent.size() - answered <= 2);
+            succeed(sent.get(answered++));
+        }
+        assertEquals(10, sent.size());
+        assertTrue(queue.isEmpty());
+        for (int i = 0; i < sent.size(); i++) {
+            assertEquals(i * BATCH_SIZE + 1, (long) sent.get(i).timestamps.get(0));
+        }
+    }
+
+    @Test
+    public void failedBatch_isResentFirst_underTheSameKey() throws IOException {
+        UploadCoordinator uploads = coordinator(3);
+        append(1, 25);
+        uploads.flush();
+        stages.runAll();
+        Request first = sent.get(0);
+        Request failed = sent.get(1);
+        Request third = sent.get(2);
+
+        failed.callback.onError("HTTP 503", 0);
+        stages.runAll();
+        assertEquals(1, metrics.getCount(Metric.UPLOADS_FAILED));
+        succeed(third);
+        assertEquals(25, queue.size());
+
+        // The next request is the failed batch again, ahead of the unread records
+        succeed(first);
+        assertEquals(20, queue.size());
+        Request resent = sent.get(3);
+        assertEquals(failed.idempotencyKey, resent.idempotencyKey);
+        assertEquals(failed.sequence, resent.sequence);
+        assertEquals(failed.timestamps, resent.timestamps);
+
+        succeed(resent);
+        assertEquals(10, queue.size());
+        // The retry timer was cancelled by the successes, so nothing is sent twice
+        stages.fireTimers();
+        for (int i = 4; i < sent.size(); i++) {
+            assertTrue(sent.get(i).sequence > third.sequence);
+            succeed(sent.get(i));
+        }
+        assertEquals(6, sent.size());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void retryTimer_resendsTheFailedBatch() throws IOException {
+        UploadCoordinator uploads = coordinator(1);
+        append(1, 5);
+        uploads.flush();
+        stages.runAll();
+        Request failed = sent.get(0);
+
+        failed.callback.onError("timeout", 0);
+        stages.runAll();
+        assertEquals(1, sent.size());
+        stages.fireTimers();
+        assertEquals(2, sent.size());
+        assertEquals(failed.idempotencyKey, sent.get(1).idempotencyKey);
+        assertEquals(failed.timestamps, sent.get(1).timestamps);
+        assertEquals(1, metrics.getCount(Metric.UPLOAD_RETRIES));
+
+        succeed(sent.get(1));
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void batchesFailingTogether_countAsOneFailurePerRound() throws IOException {
+        long base = 1000;
+        long cooldown = 300_000;
+        RetryScheduler retryScheduler = new RetryScheduler(base, 60_000, 5, cooldown, () -> 0.5);
+        UploadCoordinator uploads = coordinator(4, retryScheduler);
+        append(1, 20);
+        uploads.flush();
+        stages.runAll();
+        assertEquals(4, sent.size());
+
+        for (int round = 1; round <= 5; round++) {
+            int from = sent.size() - 4;
+            for (int i = from; i < sent.size(); i++) {
+                sent.get(i).callback.onError("HTTP 503", 0);
+            }
+            stages.runAll();
+            RetryState state = uploads.getRetryState();
+            assertEquals(round, state.getConsecutiveFailures());
+            assertEquals(round, state.getTotalFailures());
+            if (round < 5) {
+                assertEquals(RetryState.CircuitState.CLOSED, state.getCircuitState());
+                // Half the backoff ceiling, which doubles once per round
+                assertEquals(NOW + (base << (round - 1)) / 2, state.getNextAttemptTimeMillis());
+                stages.fireTimers();
+                // Every batch of the round is resent as is
+                assertEquals(from + 8, sent.size());
+                for (int i = 0; i < 4; i++) {
+                    assertEquals(sent.get(from + i).idempotencyKey, sent.get(from + 4 + i).idempotencyKey);
+                }
+            } else {
+                assertEquals(RetryState.CircuitState.OPEN, state.getCircuitState());
+                assertEquals(NOW + cooldown, state.getNextAttemptTimeMillis());
+            }
+        }
+        assertEquals(20, metrics.getCount(Metric.UPLOADS_FAILED));
+        assertEquals(20, queue.size());
+    }
+
+    @Test
+    public void failureAfterASuccess_countsAgain() throws IOException {
+        RetryScheduler retryScheduler = new RetryScheduler(1000, 60_000, 5, 300_000, () -> 0.5);
+        UploadCoordinator uploads = coordinator(3, retryScheduler);
+        append(1, 15);
+        uploads.flush();
+        stages.runAll();
+
+        sent.get(0).callback.onError("timeout", 0);
+        stages.runAll();
+        assertEquals(1, uploads.getRetryState().getConsecutiveFailures());
+        // The server recovered: the next failure is a new one, not part of the first
+        succeed(sent.get(1));
+        assertEquals(0, uploads.getRetryState().getConsecutiveFailures());
+        sent.get(2).callback.onError("timeout", 0);
+        stages.runAll();
+        assertEquals(1, uploads.getRetryState().getConsecutiveFailures());
+        assertEquals(2, uploads.getRetryState().getTotalFailures());
+    }
+}
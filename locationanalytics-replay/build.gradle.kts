@@ -0,0 +1,22 @@
+plugins {
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    implementation(project(":locationanalytics-core"))
+    testImplementation(libs.junit)
+}
+
+application {
+    mainClass.set("com.example.locationanalytics.TraceReplay")
+}
+
+// Pass replay options with e.g. ./gradlew :locationanalytics-replay:run --args="--hours=24 --outage=60-120"
+tasks.named<JavaExec>("run") {
+    workingDir = rootProject.projectDir
+}
@@ -0,0 +1,116 @@
+package com.example.locationanalytics;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Latency and failures injected by {@link MockIngestServer}.
+ *
+ * <p>Each request gets a latency of {@code latencyMillis} plus an exponentially
+ * distributed extra delay with mean {@code latencyJitterMillis}, and at most one fault.
+ * Requests received during the outage window all fail.</p>
+ */
+final class FaultProfile {
+    /**
+     * What the mock server does with a request.
+     */
+    enum Outcome {
+        /** Store the batch and reply 200 */
+        OK,
+
+        /** Reply 500 without storing anything */
+        ERROR,
+
+        /** Reply 429 with {@code Retry-After} without storing anything */
+        THROTTLED,
+
+        /** Store the batch but reply 504, as if the response was lost on the way back */
+        ACK_LOST,
+
+        /** Reply 503 without storing anything; the server is down */
+        OUTAGE
+    }
+
+    private final long latencyMillis;
+    private final long latencyJitterMillis;
+    private final double errorRate;
+    private final double throttleRate;
+    private final int retryAfterSeconds;
+    private final double ackLossRate;
+    private final long outageStartMillis;
+    private final long outageEndMillis;
+
+    /**
+     * @param latencyMillis Minimum latency of every request
+     * @param latencyJitterMillis Mean of the exponentially distributed extra latency
+     * @param errorRate Fraction of requests that fail with 500
+     * @param throttleRate Fraction of requests that are rejected with 429
+     * @param retryAfterSeconds {@code Retry-After} sent with 429 responses
+     * @param ackLossRate Fraction of uploads that are stored but reported as failed
+     * @param outageStartMillis Start of the outage window, or -1 for none
+     * @param outageEndMillis End of the outage window
+     */
+    FaultProfile(long latencyMillis, long latencyJitterMillis, double errorRate, double throttleRate,
+                 int retryAfterSeconds, double ackLossRate, long outageStartMillis, long outageEndMillis) {
+        if (latencyMillis < 0 || latencyJitterMillis < 0) {
+            throw new IllegalArgumentException("Latency must be non-negative");
+        }
+        if (!isRate(errorRate) || !isRate(throttleRate) || !isRate(ackLossRate)
+                || errorRate + throttleRate + ackLossRate > 1) {
+            throw new IllegalArgumentException("Fault rates must be between 0 and 1 and add up to at most 1");
+        }
+        if (retryAfterSeconds < 0) {
+            throw new IllegalArgumentException("Retry-After must be non-negative");
+        }
+        this.latencyMillis = latencyMillis;
+        this.latencyJitterMillis = latencyJitterMillis;
+        this.errorRate = errorRate;
+        this.throttleRate = throttleRate;
+        this.retryAfterSeconds = retryAfterSeconds;
+        this.ackLossRate = ackLossRate;
+        this.outageStartMillis = outageStartMillis;
+        this.outageEndMillis = outageEndMillis;
+    }
+
+    /**
+     * @param nowMillis Virtual time the request was received
+     * @param random Source of randomness, owned by the caller
+     */
+    Outcome decide(long nowMillis, Random random) {
+        if (outageStartMillis >= 0 && nowMillis >= outageStartMillis && nowMillis < outageEndMillis) {
+            return Outcome.OUTAGE;
+        }
+        double roll = random.nextDouble();
+        if (roll < errorRate) return Outcome.ERROR;
+        roll -= errorRate;
+        if (roll < throttleRate) return Outcome.THROTTLED;
+        roll -= throttleRate;
+        if (roll < ackLossRate) return Outcome.ACK_LOST;
+        return Outcome.OK;
+    }
+
+    long sampleLatency(Random random) {
+        if (latencyJitterMillis == 0) return latencyMillis;
+        return latencyMillis + (long) (-Math.log(1 - random.nextDouble()) * latencyJitterMillis);
+    }
+
+    int getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+
+    @Override
+    public String toString() {
+        String profile = String.format(Locale.US,
+                "latency %d ms + exp(%d ms), errors %.1f%%, throttled %.1f%% (Retry-After %d s), acks lost %.1f%%",
+                latencyMillis, latencyJitterMillis, errorRate * 100, throttleRate * 100, retryAfterSeconds,
+                ackLossRate * 100);
+        if (outageStartMillis >= 0) {
+            profile += String.format(Locale.US, ", outage for %d min", (outageEndMillis - outageStartMillis) / 60_000);
+        }
+        return profile;
+    }
+
+    private static boolean isRate(double rate) {
+        return rate >= 0 && rate <= 1;
+    }
+}
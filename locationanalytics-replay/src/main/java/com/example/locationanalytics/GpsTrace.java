@@ -0,0 +1,184 @@
+package com.example.locationanalytics;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * A GPS trace to replay: fixes in time order, held in parallel primitive arrays.
+ */
+final class GpsTrace {
+    private static final float DEFAULT_ACCURACY_METERS = 10;
+
+    private int size;
+    private long[] timestamps;
+    private double[] latitudes;
+    private double[] longitudes;
+    private float[] accuracies;
+
+    private GpsTrace(int capacity) {
+        timestamps = new long[capacity];
+        latitudes = new double[capacity];
+        longitudes = new double[capacity];
+        accuracies = new float[capacity];
+    }
+
+    /**
+     * Load a recorded trace from a CSV file with the columns
+     * {@code timestamp_millis,latitude,longitude[,accuracy_meters]}. Blank lines, lines
+     * starting with {@code #} and a header line are skipped; fixes are sorted by time.
+     *
+     * @throws IOException if the file cannot be read or a line cannot be parsed
+     */
+    static GpsTrace load(File file) throws IOException {
+        GpsTrace trace = new GpsTrace(1024);
+        try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] columns = line.split("\\s*,\\s*");
+                if (trace.size == 0 && !Character.isDigit(columns[0].charAt(0))) continue;
+                if (columns.length < 3) {
+                    throw new IOException(file + ":" + lineNumber + ": expected timestamp,latitude,longitude");
+                }
+                try {
+                    trace.add(Long.parseLong(columns[0]), Double.parseDouble(columns[1]),
+                            Double.parseDouble(columns[2]),
+                            columns.length > 3 ? Float.parseFloat(columns[3]) : DEFAULT_ACCURACY_METERS);
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ":" + lineNumber + ": " + e.getMessage());
+                }
+            }
+        }
+        if (trace.size == 0) {
+            throw new IOException(file + " contains no fixes");
+        }
+        trace.sortByTime();
+        return trace;
+    }
+
+    /**
+     * Generate a trace of a device that alternates between stays of 5 to 60 minutes and
+     * trips at walking to driving speed, with GPS noise of a few meters.
+     *
+     * @param startMillis Time of the first fix
+     * @param durationMillis Length of the trace
+     * @param intervalMillis Time between fixes
+     * @param seed Seed for the random generator, so the same trace can be replayed again
+     */
+    static GpsTrace synthetic(long startMillis, long durationMillis, long intervalMillis, long seed) {
+        if (intervalMillis <= 0) {
+            throw new IllegalArgumentException("Fix interval must be positive");
+        }
+        Random random = new Random(seed);
+        GpsTrace trace = new GpsTrace((int) Math.min(Integer.MAX_VALUE - 8, durationMillis / intervalMillis + 1));
+        double latitude = 32.0853;
+        double longitude = 34.7818;
+        long segmentEnd = startMillis;
+        double speed = 0;
+        double heading = 0;
+
+        for (long time = startMillis; time <= startMillis + durationMillis; time += intervalMillis) {
+            if (time >= segmentEnd) {
+                boolean stay = speed > 0 || random.nextBoolean();
+                if (stay) {
+                    speed = 0;
+                    segmentEnd = time + (5 + random.nextInt(56)) * 60_000L;
+                } else {
+                    speed = 1.4 + random.nextDouble() * 15;
+                    heading = random.nextDouble() * 2 * Math.PI;
+                    segmentEnd = time + (2 + random.nextInt(29)) * 60_000L;
+                }
+            }
+            if (speed > 0) {
+                heading += (random.nextDouble() - 0.5) * 0.3;
+                double meters = speed * intervalMillis / 1000.0;
+                latitude += meters * Math.cos(heading) / 111_320.0;
+                longitude += meters * Math.sin(heading) / (111_320.0 * Math.cos(Math.toRadians(latitude)));
+            }
+            float accuracy = 3 + random.nextFloat() * 17;
+            double noise = accuracy / 3 / 111_320.0;
+            trace.add(time, latitude + random.nextGaussian() * noise,
+                    longitude + random.nextGaussian() * noise, accuracy);
+        }
+        return trace;
+    }
+
+    int size() {
+        return size;
+    }
+
+    long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    double getLatitude(int index) {
+        return latitudes[index];
+    }
+
+    double getLongitude(int index) {
+        return longitudes[index];
+    }
+
+    float getAccuracy(int index) {
+        return accuracies[index];
+    }
+
+    long getStartMillis() {
+        return timestamps[0];
+    }
+
+    long getEndMillis() {
+        return timestamps[size - 1];
+    }
+
+    private void add(long timestamp, double latitude, double longitude, float accuracy) {
+        if (size == timestamps.length) {
+            int capacity = size * 2;
+            timestamps = Arrays.copyOf(timestamps, capacity);
+            latitudes = Arrays.copyOf(latitudes, capacity);
+            longitudes = Arrays.copyOf(longitudes, capacity);
+            accuracies = Arrays.copyOf(accuracies, capacity);
+        }
+        timestamps[size] = timestamp;
+        latitudes[size] = latitude;
+        longitudes[size] = longitude;
+        accuracies[size] = accuracy;
+        size++;
+    }
+
+    private void sortByTime() {
+        boolean sorted = true;
+        for (int i = 1; i < size && sorted; i++) {
+            sorted = timestamps[i] >= timestamps[i - 1];
+        }
+        if (sorted) return;
+
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(timestamps[a], timestamps[b]));
+        long[] sortedTimestamps = new long[size];
+        double[] sortedLatitudes = new double[size];
+        double[] sortedLongitudes = new double[size];
+        float[] sortedAccuracies = new float[size];
+        for (int i = 0; i < size; i++) {
+            sortedTimestamps[i] = timestamps[order[i]];
+            sortedLatitudes[i] = latitudes[order[i]];
+            sortedLongitudes[i] = longitudes[order[i]];
+            sortedAccuracies[i] = accuracies[order[i]];
+        }
+        timestamps = sortedTimestamps;
+        latitudes = sortedLatitudes;
+        longitudes = sortedLongitudes;
+        accuracies = sortedAccuracies;
+    }
+}
@@ -0,0 +1,430 @@
+package com.example.locationanalytics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.reflect.Type;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Random;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Local stand-in for the ingest server, implementing {@code api/location/batch} (JSON and
+ * binary) and {@code api/user/statistics} (with {@code If-None-Match} and {@code since}).
+ *
+ * <p>Every response carries the latency chosen by the {@link FaultProfile} in the
+ * {@value #LATENCY_HEADER} header instead of actually waiting, so the replay can apply it
+ * on its virtual clock. Stored points are counted by identity, so points stored more than
+ * once (after a lost acknowledgement) and points never stored can be reported.</p>
+ *
+ * <p>Like the real server, it stores a batch carrying an {@code Idempotency-Key} at most
+ * once and answers a retransmission with success, unless key checking is turned off to
+ * show what retransmissions would cost without it.</p>
+ */
+final class MockIngestServer {
+    /** Response header carrying the simulated latency in milliseconds */
+    static final String LATENCY_HEADER = "X-Mock-Latency-Ms";
+
+    /** Response header listing the binary batch versions decoded, sent with every answer to one */
+    static final String BATCH_VERSIONS_HEADER = "X-Location-Batch-Versions";
+
+    private static final Type STATISTICS_RESPONSE_TYPE = new TypeToken<ApiResponse<UserStatistics>>() {}.getType();
+    private static final Type VOID_RESPONSE_TYPE = new TypeToken<ApiResponse<Void>>() {}.getType();
+
+    static {
+        // Headers and body are written separately; without this every response waits for
+        // the client's delayed ACK, which dominates the replay's wall time
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+    }
+
+    private final String apiKey;
+    private final FaultProfile faults;
+    private final LongSupplier clock;
+    private final Random random;
+    private final Gson gson = new GsonBuilder().registerTypeAdapterFactory(JsonAdapters.FACTORY).create();
+    private final HttpServer server;
+
+    private final Map<String, Integer> storedPoints = new HashMap<>();
+    private final Map<String, StatisticsAggregator> statistics = new HashMap<>();
+    private final Map<String, Integer> statisticsVersions = new HashMap<>();
+    /** Each user's stored points by timestamp, first one kept, as the server's deltas see them */
+    private final Map<String, NavigableMap<Long, double[]>> tracks = new HashMap<>();
+    private final Map<FaultProfile.Outcome, Long> uploadOutcomes = new EnumMap<>(FaultProfile.Outcome.class);
+    private final boolean idempotent;
+    private final Set<String> storedBatchKeys = new HashSet<>();
+    private long retransmissionsIgnored;
+    private long storedCount;
+    private long bytesReceived;
+    private long statisticsRequests;
+    private long statisticsNotModified;
+
+    /**
+     * @param apiKey API key the requests must carry
+     * @param faults Latency and failures to inject
+     * @param clock Virtual time, used for the outage window
+     * @param seed Seed for fault injection, so runs can be repeated
+     * @param idempotent Whether to store each idempotency key at most once
+     */
+    MockIngestServer(String apiKey, FaultProfile faults, LongSupplier clock, long seed, boolean idempotent)
+            throws IOException {
+        this.apiKey = apiKey;
+        this.faults = faults;
+        this.clock = clock;
+        this.idempotent = idempotent;
+        this.random = new Random(seed);
+        for (FaultProfile.Outcome outcome : FaultProfile.Outcome.values()) {
+            uploadOutcomes.put(outcome, 0L);
+        }
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/api/location/batch", this::handleBatch);
+        server.createContext("/api/user/statistics", this::handleStatistics);
+    }
+
+    void start() {
+        server.start();
+    }
+
+    void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * @return Base URL of the server, ending with a slash
+     */
+    String getBaseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+    }
+
+    /**
+     * @return Number of distinct points stored
+     */
+    synchronized int getDistinctPointCount() {
+        return storedPoints.size();
+    }
+
+    /**
+     * @return Number of points stored, counting every copy of a duplicated point
+     */
+    synchronized long getStoredPointCount() {
+        return storedCount;
+    }
+
+    /**
+     * @return Number of batches not stored again because their idempotency key was seen before
+     */
+    synchronized long getRetransmissionsIgnored() {
+        return retransmissionsIgnored;
+    }
+
+    synchronized long getBytesReceived() {
+        return bytesReceived;
+    }
+
+    synchronized Map<FaultProfile.Outcome, Long> getUploadOutcomes() {
+        return Collections.unmodifiableMap(new EnumMap<>(uploadOutcomes));
+    }
+
+    synchronized long getStatisticsRequestCount() {
+        return statisticsRequests;
+    }
+
+    synchronized long getStatisticsNotModifiedCount() {
+        return statisticsNotModified;
+    }
+
+    private void handleBatch(HttpExchange exchange) throws IOException {
+        try {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, 0, error("Method not allowed"));
+                return;
+            }
+            byte[] body = readBody(exchange);
+            String contentType = exchange.getRequestHeaders().getFirst("Content-Type");
+            String requestKey;
+            List<LocationData> locations;
+            try {
+                if (contentType != null && contentType.startsWith(LocationBatchCodec.CONTENT_TYPE)) {
+                    exchange.getResponseHeaders().set(BATCH_VERSIONS_HEADER, "1, 2");
+                    requestKey = queryParameter(exchange, "api_key");
+                    locations = LocationBatchCodec.decode(body);
+                } else {
+                    locations = new ArrayList<>();
+                    requestKey = readJsonBatch(body, locations);
+                }
+            } catch (IOException | RuntimeException e) {
+                respond(exchange, 400, 0, error("Invalid location batch"));
+                return;
+            }
+            if (!apiKey.equals(requestKey)) {
+                respond(exchange, 401, 0, error("Invalid API key"));
+                return;
+            }
+
+            FaultProfile.Outcome outcome;
+            long latency;
+            synchronized (this) {
+                bytesReceived += body.length;
+                outcome = faults.decide(clock.getAsLong(), random);
+                latency = faults.sampleLatency(random);
+                uploadOutcomes.merge(outcome, 1L, Long::sum);
+                if (outcome == FaultProfile.Outcome.OK || outcome == FaultProfile.Outcome.ACK_LOST) {
+                    String batchKey = exchange.getRequestHeaders().getFirst(BatchUploader.IDEMPOTENCY_KEY_HEADER);
+                    if (idempotent && batchKey != null && !storedBatchKeys.add(batchKey)) {
+                        retransmissionsIgnored++;
+                    } else {
+                        store(locations);
+                    }
+                }
+            }
+            switch (outcome) {
+                case OK:
+                    respond(exchange, 200, latency,
+                            gson.toJson(new ApiResponse<Void>(true, "Saved " + locations.size() + " locations", null),
+                                    VOID_RESPONSE_TYPE));
+                    break;
+                case THROTTLED:
+                    exchange.getResponseHeaders().set("Retry-After", String.valueOf(faults.getRetryAfterSeconds()));
+                    respond(exchange, 429, latency, error("Too many requests"));
+                    break;
+                case ACK_LOST:
+                    respond(exchange, 504, latency, error("Gateway timeout"));
+                    break;
+                case OUTAGE:
+                    respond(exchange, 503, latency, error("Service unavailable"));
+                    break;
+                default:
+                    respond(exchange, 500, latency, error("Error saving location data"));
+                    break;
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handleStatistics(HttpExchange exchange) throws IOException {
+        try {
+            if (!apiKey.equals(queryParameter(exchange, "api_key"))) {
+                respond(exchange, 401, 0, error("Invalid API key"));
+                return;
+            }
+            String userId = queryParameter(exchange, "user_id");
+            if (userId == null) {
+                respond(exchange, 400, 0, error("User ID is required"));
+                return;
+            }
+
+            FaultProfile.Outcome outcome;
+            long latency;
+            String etag;
+            UserStatistics snapshot = null;
+            synchronized (this) {
+                statisticsRequests++;
+                outcome = faults.decide(clock.getAsLong(), random);
+                latency = faults.sampleLatency(random);
+                StatisticsAggregator aggregator = statistics.get(userId);
+                etag = "\"" + statisticsVersions.getOrDefault(userId, 0) + "\"";
+                boolean notModified = etag.equals(exchange.getRequestHeaders().getFirst("If-None-Match"));
+                if (outcome == FaultProfile.Outcome.OK || outcome == FaultProfile.Outcome.ACK_LOST) {
+                    if (aggregator == null) {
+                        respond(exchange, 404, latency, error("User not found"));
+                        return;
+                    }
+                    long since = parseLong(queryParameter(exchange, "since"));
+                    if (notModified) {
+                        statisticsNotModified++;
+                    } else if (since > 0) {
+                        snapshot = statisticsDelta(userId, since);
+                    } else {
+                        snapshot = aggregator.snapshot(userId, Collections.emptyList());
+                    }
+                }
+            }
+            switch (outcome) {
+                case OK:
+                case ACK_LOST:
+                    exchange.getResponseHeaders().set("ETag", etag);
+                    if (snapshot == null) {
+                        respond(exchange, 304, latency, null);
+                    } else {
+                        String message = snapshot.isDelta() ? "Statistics delta calculated" : "Statistics calculated";
+                        respond(exchange, 200, latency,
+                                gson.toJson(new ApiResponse<>(true, message, snapshot), STATISTICS_RESPONSE_TYPE));
+                    }
+                    break;
+                case THROTTLED:
+                    exchange.getResponseHeaders().set("Retry-After", String.valueOf(faults.getRetryAfterSeconds()));
+                    respond(exchange, 429, latency, error("Too many requests"));
+                    break;
+                case OUTAGE:
+                    respond(exchange, 503, latency, error("Service unavailable"));
+                    break;
+                default:
+                    respond(exchange, 500, latency, error("Error retrieving statistics"));
+                    break;
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Store a batch. Duplicates are counted but only the first copy of a point feeds the
+     * statistics, like a server with an idempotent store would.
+     */
+    private void store(List<LocationData> locations) {
+        for (LocationData location : locations) {
+            storedCount++;
+            String key = location.getUserId() + '|' + location.getTimestamp() + '|'
+                    + location.getLatitude() + '|' + location.getLongitude();
+            if (storedPoints.merge(key, 1, Integer::sum) == 1) {
+                statistics.computeIfAbsent(location.getUserId(),
+                                userId -> new StatisticsAggregator(TimeZone.getTimeZone("UTC")))
+                        .add(location.getLatitude(), location.getLongitude(), location.getTimestamp());
+                statisticsVersions.merge(location.getUserId(), 1, Integer::sum);
+                tracks.computeIfAbsent(location.getUserId(), userId -> new TreeMap<>())
+                        .putIfAbsent(location.getTimestamp(),
+                                new double[]{location.getLatitude(), location.getLongitude()});
+            }
+        }
+    }
+
+    /**
+     * The change in a user's statistics after {@code since}, computed like the server does:
+     * the distance includes the segment from the last point at or before {@code since}.
+     * Activity hours are in UTC, like the full statistics.
+     */
+    private UserStatistics statisticsDelta(String userId, long since) {
+        NavigableMap<Long, double[]> track = tracks.get(userId);
+        Map.Entry<Long, double[]> previous = track.floorEntry(since);
+        double[] last = previous != null ? previous.getValue() : null;
+        NavigableMap<Long, double[]> added = track.tailMap(since, false);
+        double distance = 0;
+        Map<Integer, Integer> activityHours = new HashMap<>();
+        for (Map.Entry<Long, double[]> point : added.entrySet()) {
+            double[] coordinates = point.getValue();
+            if (last != null) {
+                distance += GeoUtils.distanceMeters(last[0], last[1], coordinates[0], coordinates[1]);
+            }
+            last = coordinates;
+            activityHours.merge((int) ((point.getKey() / (60 * 60 * 1000)) % 24), 1, Integer::sum);
+        }
+        return new UserStatistics(userId, added.size(), distance,
+                added.isEmpty() ? 0 : added.firstKey(), added.isEmpty() ? 0 : added.lastKey(),
+                null, null, activityHours, true);
+    }
+
+    /**
+     * Parse a {@code {"apiKey": ..., "locations": [...]}} body into the given list.
+     *
+     * @return The API key
+     */
+    private String readJsonBatch(byte[] body, List<LocationData> into) throws IOException {
+        String requestKey = null;
+        try (JsonReader reader = new JsonReader(
+                new InputStreamReader(new ByteArrayInputStream(body), StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                switch (reader.nextName()) {
+                    case "apiKey":
+                        requestKey = reader.nextString();
+                        break;
+                    case "locations":
+                        reader.beginArray();
+                        while (reader.hasNext()) {
+                            into.add(JsonAdapters.LOCATION_DATA.read(reader));
+                        }
+                        reader.endArray();
+                        break;
+                    default:
+                        reader.skipValue();
+                        break;
+                }
+            }
+            reader.endObject();
+        }
+        if (into.isEmpty()) {
+            throw new IOException("Invalid or empty locations array");
+        }
+        return requestKey;
+    }
+
+    private String error(String message) {
+        return gson.toJson(new ApiResponse<Void>(false, message, null), VOID_RESPONSE_TYPE);
+    }
+
+    private static void respond(HttpExchange exchange, int status, long latencyMillis, String body)
+            throws IOException {
+        exchange.getResponseHeaders().set(LATENCY_HEADER, String.valueOf(latencyMillis));
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static byte[] readBody(HttpExchange exchange) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] chunk = new byte[8192];
+            int read;
+            while ((read = in.read(chunk)) != -1) {
+                body.write(chunk, 0, read);
+            }
+        }
+        return body.toByteArray();
+    }
+
+    /**
+     * @return The number, or 0 if the value is missing or not a number
+     */
+    private static long parseLong(String value) {
+        if (value == null) return 0;
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String queryParameter(HttpExchange exchange, String name) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null) return null;
+        for (String pair : query.split("&")) {
+            int separator = pair.indexOf('=');
+            String key = separator >= 0 ? pair.substring(0, separator) : pair;
+            if (key.equals(name)) {
+                return separator >= 0 ? URLDecoder.decode(pair.substring(separator + 1), "UTF-8") : "";
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,265 @@
+package com.example.locationanalytics;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * HTTP client for the replay. Speaks the same wire format as {@code LocationApiClient}
+ * but delivers every response on the {@link VirtualClock}, after the latency the mock
+ * server asked for.
+ *
+ * <p>Requests are sent synchronously when the upload stage runs, so the server sees
+ * them in virtual-time order. A response whose latency exceeds the read timeout is
+ * delivered as a timeout error once the timeout has elapsed.</p>
+ */
+final class ReplayClient implements BatchUploader, StatisticsCache.Fetcher {
+    /** Read timeout of the SDK's HTTP transport */
+    static final long READ_TIMEOUT_MILLIS = 30_000;
+
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_UNSUPPORTED_MEDIA_TYPE = 415;
+    private static final Type STATISTICS_RESPONSE_TYPE = new TypeToken<ApiResponse<UserStatistics>>() {}.getType();
+    private static final Type VOID_RESPONSE_TYPE = new TypeToken<ApiResponse<Void>>() {}.getType();
+
+    private final String baseUrl;
+    private final String apiKey;
+    private final VirtualClock clock;
+    private final MetricsSink metrics;
+    private final LocationBatchCodec batchCodec = new LocationBatchCodec();
+    private final Gson gson = new GsonBuilder()
+            .registerTypeAdapterFactory(JsonAdapters.FACTORY)
+            .setLenient()
+            .create();
+    private boolean binaryUploads;
+
+    private long uploadRequests;
+    private long statisticsRequests;
+    private long timeouts;
+    private long bytesSent;
+
+    /**
+     * The outcome of one exchange with the server.
+     */
+    private static final class Exchange {
+        int status;
+        long latencyMillis;
+        long retryAfterMillis;
+        String etag;
+        String batchVersions;
+        String body;
+    }
+
+    /**
+     * @param baseUrl Base URL of the server, ending with a slash
+     * @param apiKey API key sent with every request
+     * @param binaryUploads Whether to send batches in the compact binary encoding
+     * @param clock Clock the responses are delivered on
+     * @param metrics Receives the size of every encoded upload
+     */
+    ReplayClient(String baseUrl, String apiKey, boolean binaryUploads, VirtualClock clock, MetricsSink metrics) {
+        this.baseUrl = baseUrl;
+        this.apiKey = apiKey;
+        this.binaryUploads = binaryUploads;
+        this.clock = clock;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void sendLocationData(LocationBuffer locations, String idempotencyKey, long sequence,
+                                 UploadCallback callback) {
+        Exchange exchange;
+        try {
+            exchange = binaryUploads
+                    ? sendBinary(locations, idempotencyKey, sequence) : sendJson(locations, idempotencyKey, sequence);
+            if (binaryUploads && (exchange.status == HTTP_UNSUPPORTED_MEDIA_TYPE
+                    || (exchange.status == HTTP_BAD_REQUEST && exchange.batchVersions == null))) {
+                // The server does not understand the binary encoding; stay on JSON from now on
+                binaryUploads = false;
+                exchange = sendJson(locations, idempotencyKey, sequence);
+            }
+        } catch (IOException e) {
+            clock.execute(PipelineStage.UPLOAD, () -> callback.onError("Network error: " + e.getMessage(), 0));
+            return;
+        }
+
+        if (exchange.latencyMillis > READ_TIMEOUT_MILLIS) {
+            timeouts++;
+            clock.schedule(() -> callback.onError("Network error: timeout", 0), READ_TIMEOUT_MILLIS);
+            return;
+        }
+        ApiResponse<Void> response = parse(exchange.body, VOID_RESPONSE_TYPE);
+        final Exchange result = exchange;
+        clock.schedule(() -> {
+            if (result.status / 100 == 2 && response != null && response.isSuccess()) {
+                callback.onSuccess();
+            } else {
+                String message = response != null ? response.getMessage() : "Unknown error";
+                callback.onError("API Error: " + message, result.retryAfterMillis);
+            }
+        }, exchange.latencyMillis);
+    }
+
+    @Override
+    public void fetch(String userId, String etag, long since, StatisticsCallback callback) {
+        String url = baseUrl + "api/user/statistics?api_key=" + encode(apiKey) + "&user_id=" + encode(userId)
+                + (since > 0 ? "&since=" + since : "");
+        Exchange exchange;
+        try {
+            statisticsRequests++;
+            HttpURLConnection connection = open(url, "GET");
+            if (etag != null) {
+                connection.setRequestProperty("If-None-Match", etag);
+            }
+            exchange = complete(connection);
+        } catch (IOException e) {
+            clock.execute(PipelineStage.UPLOAD, () -> callback.onError("Network error: " + e.getMessage()));
+            return;
+        }
+
+        if (exchange.latencyMillis > READ_TIMEOUT_MILLIS) {
+            clock.schedule(() -> callback.onError("Network error: timeout"), READ_TIMEOUT_MILLIS);
+            return;
+        }
+        ApiResponse<UserStatistics> response = exchange.status == HTTP_NOT_MODIFIED
+                ? null : parse(exchange.body, STATISTICS_RESPONSE_TYPE);
+        final Exchange result = exchange;
+        clock.schedule(() -> {
+            if (result.status == HTTP_NOT_MODIFIED) {
+                callback.onNotModified();
+            } else if (result.status / 100 == 2 && response != null && response.isSuccess()) {
+                callback.onSuccess(response.getData(), result.etag);
+            } else {
+                callback.onError("API Error: " + (response != null ? response.getMessage() : "Unknown error"));
+            }
+        }, exchange.latencyMillis);
+    }
+
+    long getUploadRequestCount() {
+        return uploadRequests;
+    }
+
+    long getStatisticsRequestCount() {
+        return statisticsRequests;
+    }
+
+    /**
+     * @return Number of uploads whose response took longer than the read timeout
+     */
+    long getTimeoutCount() {
+        return timeouts;
+    }
+
+    long getBytesSent() {
+        return bytesSent;
+    }
+
+    private Exchange sendJson(LocationBuffer locations, String idempotencyKey, long sequence) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(256 + locations.size() * 160);
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+        JsonAdapters.writeLocationBatch(writer, apiKey, locations);
+        writer.flush();
+        return post(baseUrl + "api/location/batch", "application/json; charset=UTF-8", null, body.toByteArray(),
+                idempotencyKey, sequence);
+    }
+
+    private Exchange sendBinary(LocationBuffer locations, String idempotencyKey, long sequence) throws IOException {
+        byte[] payload = batchCodec.encode(locations);
+        return post(baseUrl + "api/location/batch?api_key=" + encode(apiKey), LocationBatchCodec.CONTENT_TYPE,
+                "gzip", payload, idempotencyKey, sequence);
+    }
+
+    private Exchange post(String url, String contentType, String contentEncoding, byte[] body,
+                          String idempotencyKey, long sequence) throws IOException {
+        uploadRequests++;
+        bytesSent += body.length;
+        metrics.record(Metric.ENCODED_BYTES, body.length);
+        HttpURLConnection connection = open(url, "POST");
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(body.length);
+        connection.setRequestProperty("Content-Type", contentType);
+        connection.setRequestProperty(BatchUploader.IDEMPOTENCY_KEY_HEADER, idempotencyKey);
+        connection.setRequestProperty(BatchUploader.SEQUENCE_HEADER, String.valueOf(sequence));
+        if (contentEncoding != null) {
+            connection.setRequestProperty("Content-Encoding", contentEncoding);
+        }
+        try (OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+        return complete(connection);
+    }
+
+    private static HttpURLConnection open(String url, String method) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setRequestMethod(method);
+        connection.setConnectTimeout(15_000);
+        connection.setReadTimeout((int) READ_TIMEOUT_MILLIS);
+        return connection;
+    }
+
+    private static Exchange complete(HttpURLConnection connection) throws IOException {
+        Exchange exchange = new Exchange();
+        exchange.status = connection.getResponseCode();
+        exchange.latencyMillis = parseLong(connection.getHeaderField(MockIngestServer.LATENCY_HEADER));
+        exchange.retryAfterMillis = parseLong(connection.getHeaderField("Retry-After")) * 1000;
+        exchange.etag = connection.getHeaderField("ETag");
+        exchange.batchVersions = connection.getHeaderField(MockIngestServer.BATCH_VERSIONS_HEADER);
+        // Reading the body to the end lets the connection be reused for the next request
+        InputStream in = exchange.status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+        exchange.body = in != null ? readFully(in) : null;
+        return exchange;
+    }
+
+    private <T> ApiResponse<T> parse(String body, Type type) {
+        if (body == null || body.isEmpty()) return null;
+        try {
+            return gson.fromJson(body, type);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String readFully(InputStream in) throws IOException {
+        StringBuilder body = new StringBuilder();
+        try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+            char[] chunk = new char[4096];
+            int read;
+            while ((read = reader.read(chunk)) != -1) {
+                body.append(chunk, 0, read);
+            }
+        }
+        return body.toString();
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) return 0;
+        try {
+            return Math.max(0, Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,460 @@
+package com.example.locationanalytics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Replays a GPS trace through the SDK's queueing and upload path on a virtual clock,
+ * against a {@link MockIngestServer} with injected latency and failures, and reports
+ * throughput, end-to-end latency, bytes sent, and lost or duplicated points.
+ *
+ * <p>Fixes go through the tracking-interval filter, the optional trajectory simplifier
+ * and the persistent {@link LocationQueue}. The {@link UploadCoordinator}, the same
+ * class the SDK uses, then batches, retries and acknowledges them. Only the Android
+ * location provider is replaced, by the trace. Options are given as
+ * {@code --name=value}; run with {@code --help} for the list.</p>
+ */
+public final class TraceReplay {
+    private static final String API_KEY = "replay-api-key";
+    private static final String DEVICE_INFO = "Trace replay";
+
+    /** Maximum number of queued locations sent in a single upload request, as in the SDK */
+    private static final int MAX_BATCH_SIZE = 500;
+
+    /** Default tracking interval of the SDK, which adaptive sampling is compared with */
+    private static final long DEFAULT_TRACKING_INTERVAL_MILLIS = 600_000;
+
+    private static final String USAGE = String.join("\n",
+            "Usage: TraceReplay [--name=value ...]",
+            "",
+            "Trace",
+            "  --trace=FILE              CSV of timestamp_millis,latitude,longitude[,accuracy]",
+            "  --hours=8                 Length of the synthetic trace when no file is given",
+            "  --fix-interval-ms=5000    Time between synthetic fixes",
+            "  --seed=1                  Seed for the synthetic trace, faults and backoff jitter",
+            "",
+            "SDK",
+            "  --min-interval-ms=0       Tracking-interval filter",
+            "  --adaptive=false          Adaptive sampling instead of the interval filter, compared",
+            "                            with --min-interval-ms, or 10 minutes if that is 0",
+            "  --energy-budget-mah=0     Adaptive sampling energy budget per day, 0 for none",
+            "  --simplify-meters=0       Trajectory simplification tolerance, 0 to disable",
+            "  --batch-points=50         Batching policy: maximum queued locations",
+            "  --batch-age-ms=900000     Batching policy: maximum age of the oldest location",
+            "  --batch-bytes=65536       Batching policy: maximum queued bytes",
+            "  --binary=false            Upload the compact binary encoding instead of JSON",
+            "  --in-flight=4             Upload requests sent at once",
+            "  --queue-bytes=16777216    Size cap of the persistent queue",
+            "  --stats-interval-min=15   How often the app asks for statistics, 0 to never ask",
+            "",
+            "Server",
+            "  --latency-ms=80           Minimum latency of every request",
+            "  --jitter-ms=40            Mean of the exponential extra latency",
+            "  --error-rate=0.02         Fraction of requests failing with 500",
+            "  --throttle-rate=0.01      Fraction of requests rejected with 429",
+            "  --retry-after-s=30        Retry-After sent with 429",
+            "  --ack-loss-rate=0.005     Fraction of uploads stored but answered with 504",
+            "  --outage=START-END        Server down between these minutes into the trace",
+            "  --idempotent=true         Store each batch idempotency key at most once",
+            "",
+            "Run",
+            "  --drain-timeout-min=120   Time allowed after the trace ends to upload the rest",
+            "  --report=FILE             Also write the report to this file",
+            "  --fail-on-loss=false      Exit with status 1 if any recorded point was not stored");
+
+    private final Map<String, String> options;
+    private final String userId = "replay-user";
+
+    private long recordedCount;
+    private long lastRecordedTimestamp = 0;
+    private boolean drainScheduled;
+    private boolean traceFinished;
+    private UserStatistics finalStatistics;
+    private long uploadRequestCount;
+    private long bytesSent;
+    private long distinctPointCount;
+
+    /**
+     * @param options Options by name without the leading {@code --}, as on the command line
+     */
+    TraceReplay(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws IOException {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (arg.equals("--help") || arg.equals("-h")) {
+                System.out.println(USAGE);
+                return;
+            }
+            int separator = arg.indexOf('=');
+            if (!arg.startsWith("--") || separator < 0) {
+                System.err.println("Unrecognized argument: " + arg + "\n\n" + USAGE);
+                System.exit(2);
+            }
+            options.put(arg.substring(2, separator), arg.substring(separator + 1));
+        }
+        System.exit(new TraceReplay(options).run());
+    }
+
+    /**
+     * Replay the trace and print the report.
+     *
+     * @return Exit status: 1 if points were lost and {@code fail-on-loss} is set, 0 otherwise
+     */
+    int run() throws IOException {
+        long seed = longOption("seed", 1);
+        GpsTrace trace = options.containsKey("trace")
+                ? GpsTrace.load(new File(options.get("trace")))
+                : GpsTrace.synthetic(1_700_000_000_000L, (long) (doubleOption("hours", 8) * 3_600_000),
+                longOption("fix-interval-ms", 5000), seed);
+
+        long outageStart = -1;
+        long outageEnd = -1;
+        if (options.containsKey("outage")) {
+            String[] window = options.get("outage").split("-");
+            outageStart = trace.getStartMillis() + Long.parseLong(window[0].trim()) * 60_000;
+            outageEnd = trace.getStartMillis() + Long.parseLong(window[1].trim()) * 60_000;
+        }
+        FaultProfile faults = new FaultProfile(longOption("latency-ms", 80), longOption("jitter-ms", 40),
+                doubleOption("error-rate", 0.02), doubleOption("throttle-rate", 0.01),
+                (int) longOption("retry-after-s", 30), doubleOption("ack-loss-rate", 0.005),
+                outageStart, outageEnd);
+        BatchingPolicy batchingPolicy = new ThresholdBatchingPolicy((int) longOption("batch-points",
+                ThresholdBatchingPolicy.DEFAULT_MAX_POINTS),
+                longOption("batch-age-ms", ThresholdBatchingPolicy.DEFAULT_MAX_AGE_MILLIS),
+                longOption("batch-bytes", ThresholdBatchingPolicy.DEFAULT_MAX_BYTES));
+        double simplifyMeters = doubleOption("simplify-meters", 0);
+        long minIntervalMillis = longOption("min-interval-ms", 0);
+        SamplingGovernor governor = booleanOption("adaptive", false)
+                ? new SamplingGovernor(minIntervalMillis > 0 ? minIntervalMillis : DEFAULT_TRACKING_INTERVAL_MILLIS,
+                doubleOption("energy-budget-mah", 0))
+                : null;
+        long statisticsIntervalMillis = longOption("stats-interval-min", 15) * 60_000;
+
+        File directory = Files.createTempDirectory("trace-replay").toFile();
+        VirtualClock clock = new VirtualClock(trace.getStartMillis());
+        MockIngestServer server = new MockIngestServer(API_KEY, faults, clock, seed,
+                booleanOption("idempotent", true));
+        server.start();
+        try {
+            InMemoryMetricsSink metrics = new InMemoryMetricsSink();
+            ReplayClient client = new ReplayClient(server.getBaseUrl(), API_KEY,
+                    booleanOption("binary", false), clock, metrics);
+            LocationQueue queue = new LocationQueue(new File(directory, "queue"),
+                    longOption("queue-bytes", LocationQueue.DEFAULT_MAX_SIZE_BYTES));
+            RetryScheduler retryScheduler = new RetryScheduler(RetryScheduler.DEFAULT_BASE_DELAY_MILLIS,
+                    RetryScheduler.DEFAULT_MAX_DELAY_MILLIS, RetryScheduler.DEFAULT_FAILURE_THRESHOLD,
+                    RetryScheduler.DEFAULT_OPEN_COOLDOWN_MILLIS, new Random(seed)::nextDouble);
+            UploadCoordinator uploads = new UploadCoordinator(queue, batchingPolicy, retryScheduler, client,
+                    clock, clock, metrics, new SilentListener(), MAX_BATCH_SIZE,
+                    (int) longOption("in-flight", UploadCoordinator.DEFAULT_MAX_IN_FLIGHT));
+            StatisticsCache statisticsCache = new StatisticsCache(client, clock,
+                    StatisticsCache.DEFAULT_TTL_MILLIS, StatisticsCache.DEFAULT_MAX_STALE_MILLIS,
+                    new File(directory, "statistics_cache.json"));
+            TrajectorySimplifier simplifier = simplifyMeters > 0 ? new TrajectorySimplifier(simplifyMeters) : null;
+
+            LocationRingBuffer.Sink queueWriter = (user, latitude, longitude, timestamp, accuracy, device) -> {
+                recordedCount++;
+                try {
+                    queue.append(user, latitude, longitude, timestamp, accuracy, device);
+                } catch (IOException e) {
+                    throw new IllegalStateException("Failed to persist location", e);
+                }
+            };
+            Runnable drainIngestBuffer = () -> {
+                drainScheduled = false;
+                metrics.record(Metric.QUEUE_DEPTH, queue.size());
+                uploads.checkBatchingPolicy();
+            };
+            if (statisticsIntervalMillis > 0) {
+                clock.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (traceFinished) return;
+                        requestStatistics(statisticsCache, clock, metrics);
+                        clock.schedule(this, statisticsIntervalMillis);
+                    }
+                }, statisticsIntervalMillis);
+            }
+
+            long wallStart = System.nanoTime();
+            if (governor != null) {
+                governor.start(trace.getStartMillis());
+            }
+            long lastDeliveredTimestamp = -1;
+            for (int i = 0; i < trace.size(); i++) {
+                long timestamp = trace.getTimestamp(i);
+                clock.advanceTo(timestamp);
+                if (governor != null) {
+                    // The provider delivers a fix every interval of the requested tier, and the
+                    // trace has no other app requesting fixes in between
+                    long interval = governor.getTier().getIntervalMillis();
+                    if (lastDeliveredTimestamp >= 0 && timestamp - lastDeliveredTimestamp < interval - interval / 10) {
+                        continue;
+                    }
+                    lastDeliveredTimestamp = timestamp;
+                    metrics.increment(Metric.FIXES_RECEIVED, 1);
+                    SamplingTier tier = governor.getTier();
+                    boolean record = governor.onLocation(trace.getLatitude(i), trace.getLongitude(i), timestamp,
+                            trace.getAccuracy(i), Float.NaN);
+                    if (governor.getTier() != tier) {
+                        metrics.increment(Metric.SAMPLING_TIER_CHANGES, 1);
+                    }
+                    if (!record) {
+                        metrics.increment(Metric.FIXES_SKIPPED, 1);
+                        continue;
+                    }
+                } else {
+                    metrics.increment(Metric.FIXES_RECEIVED, 1);
+                    if (timestamp - lastRecordedTimestamp < minIntervalMillis) {
+                        metrics.increment(Metric.FIXES_SKIPPED, 1);
+                        continue;
+                    }
+                }
+                lastRecordedTimestamp = timestamp;
+                if (simplifier != null) {
+                    simplifier.add(userId, trace.getLatitude(i), trace.getLongitude(i), timestamp,
+                            trace.getAccuracy(i), DEVICE_INFO, queueWriter);
+                } else {
+                    queueWriter.accept(userId, trace.getLatitude(i), trace.getLongitude(i), timestamp,
+                            trace.getAccuracy(i), DEVICE_INFO);
+                }
+                if (!drainScheduled) {
+                    drainScheduled = true;
+                    clock.execute(PipelineStage.ENCODE, drainIngestBuffer);
+                }
+            }
+
+            // Tracking stops: release held-back fixes and flush, as stopTracking() does
+            traceFinished = true;
+            if (governor != null) {
+                governor.stop(trace.getEndMillis());
+            }
+            if (simplifier != null) {
+                simplifier.flush(queueWriter);
+            }
+            clock.execute(PipelineStage.ENCODE, uploads::flush);
+            long deadline = trace.getEndMillis() + longOption("drain-timeout-min", 120) * 60_000;
+            clock.runWhile(() -> !queue.isEmpty() || uploads.isUploadInFlight(), deadline);
+            long drainedAt = clock.getAsLong();
+
+            // One last statistics request, to check the server's totals
+            long statisticsStart = clock.getAsLong();
+            statisticsCache.refresh(userId, new ApiCallback<UserStatistics>() {
+                @Override
+                public void onSuccess(UserStatistics result) {
+                    finalStatistics = result;
+                    metrics.record(Metric.STATISTICS_LATENCY_MILLIS, clock.getAsLong() - statisticsStart);
+                }
+
+                @Override
+                public void onError(String errorMessage) {
+                    metrics.record(Metric.STATISTICS_LATENCY_MILLIS, clock.getAsLong() - statisticsStart);
+                }
+            });
+            clock.runWhile(() -> true, clock.getAsLong() + ReplayClient.READ_TIMEOUT_MILLIS);
+            long wallMillis = (System.nanoTime() - wallStart) / 1_000_000;
+
+            String report = report(trace, faults, metrics, client, server, queue, uploads,
+                    statisticsCache, governor != null ? governor.getStats(drainedAt) : null, drainedAt, wallMillis);
+            System.out.print(report);
+            if (options.containsKey("report")) {
+                try (Writer writer = Files.newBufferedWriter(new File(options.get("report")).toPath(),
+                        StandardCharsets.UTF_8)) {
+                    writer.write(report);
+                }
+            }
+            uploadRequestCount = client.getUploadRequestCount();
+            bytesSent = client.getBytesSent();
+            distinctPointCount = server.getDistinctPointCount();
+            boolean lost = recordedCount > distinctPointCount;
+            return lost && booleanOption("fail-on-loss", false) ? 1 : 0;
+        } finally {
+            server.stop();
+            deleteRecursively(directory);
+        }
+    }
+
+    /**
+     * @return Number of fixes written to the queue by the last {@link #run()}
+     */
+    long getRecordedCount() {
+        return recordedCount;
+    }
+
+    /**
+     * @return Number of upload requests sent by the last {@link #run()}, retries included
+     */
+    long getUploadRequestCount() {
+        return uploadRequestCount;
+    }
+
+    /**
+     * @return Total size of the upload request bodies sent by the last {@link #run()}
+     */
+    long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return Number of distinct points the mock server stored in the last {@link #run()}
+     */
+    long getDistinctPointCount() {
+        return distinctPointCount;
+    }
+
+    private void requestStatistics(StatisticsCache statisticsCache, VirtualClock clock, MetricsSink metrics) {
+        long start = clock.getAsLong();
+        statisticsCache.get(userId, new ApiCallback<UserStatistics>() {
+            @Override
+            public void onSuccess(UserStatistics result) {
+                metrics.record(Metric.STATISTICS_LATENCY_MILLIS, clock.getAsLong() - start);
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                metrics.record(Metric.STATISTICS_LATENCY_MILLIS, clock.getAsLong() - start);
+            }
+        });
+    }
+
+    private String report(GpsTrace trace, FaultProfile faults, InMemoryMetricsSink metrics, ReplayClient client,
+                          MockIngestServer server, LocationQueue queue, UploadCoordinator uploads,
+                          StatisticsCache statisticsCache, SamplingStats sampling, long drainedAt,
+                          long wallMillis) {
+        double traceHours = Math.max(1, trace.getEndMillis() - trace.getStartMillis()) / 3_600_000.0;
+        double wallSeconds = Math.max(1, wallMillis) / 1000.0;
+        long uploaded = metrics.getCount(Metric.LOCATIONS_UPLOADED);
+        int distinct = server.getDistinctPointCount();
+        long duplicates = server.getStoredPointCount() - distinct;
+        long lost = Math.max(0, recordedCount - distinct);
+        HistogramSnapshot fixToAck = metrics.getHistogram(Metric.FIX_TO_ACK_MILLIS);
+        HistogramSnapshot batchSize = metrics.getHistogram(Metric.BATCH_SIZE);
+        HistogramSnapshot statisticsLatency = metrics.getHistogram(Metric.STATISTICS_LATENCY_MILLIS);
+
+        StringBuilder out = new StringBuilder();
+        line(out, "Trace", "%d fixes over %.1f h", trace.size(), traceHours);
+        line(out, "Server faults", "%s", faults);
+        line(out, "Replay time", "%.1f s wall, %.0fx real time, drained %.1f min after the last fix",
+                wallSeconds, traceHours * 3600 / wallSeconds, (drainedAt - trace.getEndMillis()) / 60_000.0);
+        out.append('\n');
+        line(out, "Fixes", "%d received, %d skipped by the interval filter, %d recorded",
+                metrics.getCount(Metric.FIXES_RECEIVED), metrics.getCount(Metric.FIXES_SKIPPED), recordedCount);
+        if (sampling != null) {
+            line(out, "Sampling", "%d tier changes, %d fixes vs %d at the fixed interval, "
+                            + "%.2f mAh vs %.2f mAh estimated",
+                    sampling.getTierChangeCount(), sampling.getRecordedFixCount(),
+                    sampling.getFixedIntervalFixCount(), sampling.getMilliampHours(),
+                    sampling.getFixedIntervalMilliampHours());
+            line(out, "Time per tier", "%s", timePerTier(sampling));
+        }
+        line(out, "Upload requests", "%d sent, %d failed, %d retries, %d timeouts",
+                client.getUploadRequestCount(), metrics.getCount(Metric.UPLOADS_FAILED),
+                metrics.getCount(Metric.UPLOAD_RETRIES), client.getTimeoutCount());
+        line(out, "Server outcomes", "%s", server.getUploadOutcomes());
+        line(out, "Retry state", "%s", uploads.getRetryState());
+        out.append('\n');
+        line(out, "Throughput", "%.0f locations/h of trace, %.0f fixes/s of wall time",
+                uploaded / traceHours, trace.size() / wallSeconds);
+        line(out, "Batch size", "mean %.1f, max %d", batchSize.getMean(), batchSize.getMax());
+        line(out, "Fix to ack", "p50 %s, p90 %s, p99 %s, max %s", duration(fixToAck.getPercentile(50)),
+                duration(fixToAck.getPercentile(90)), duration(fixToAck.getPercentile(99)),
+                duration(fixToAck.getMax()));
+        line(out, "Bytes sent", "%d request bytes, %.1f per recorded location, %d received by the server",
+                client.getBytesSent(), client.getBytesSent() / (double) Math.max(1, recordedCount),
+                server.getBytesReceived());
+        out.append('\n');
+        line(out, "Stored points", "%d distinct, %d duplicated, %d resent batches recognised",
+                distinct, duplicates, server.getRetransmissionsIgnored());
+        line(out, "Lost points", "%d (%d dropped by the full queue, %d still queued)",
+                lost, queue.getDroppedCount(), queue.size());
+        line(out, "Statistics", "%d requests, %d not modified, latency p50 %s, p99 %s",
+                client.getStatisticsRequestCount(), server.getStatisticsNotModifiedCount(),
+                duration(statisticsLatency.getPercentile(50)), duration(statisticsLatency.getPercentile(99)));
+        line(out, "Statistics cache", "%s", statisticsCache.getStats());
+        line(out, "Server total", "%s", finalStatistics != null
+                ? finalStatistics.getTotalLocations() + " locations" : "unavailable");
+        return out.toString();
+    }
+
+    private static void line(StringBuilder out, String label, String format, Object... args) {
+        out.append(String.format(Locale.US, "%-18s", label + ":"))
+                .append(String.format(Locale.US, format, args))
+                .append('\n');
+    }
+
+    private static String timePerTier(SamplingStats sampling) {
+        StringBuilder out = new StringBuilder();
+        for (SamplingTier tier : SamplingTier.values()) {
+            if (out.length() > 0) out.append(", ");
+            out.append(tier.name().toLowerCase(Locale.US)).append(' ')
+                    .append(duration(sampling.getTimeInTierMillis(tier)));
+        }
+        return out.toString();
+    }
+
+    private static String duration(long millis) {
+        if (millis < 1000) return millis + " ms";
+        if (millis < 60_000) return String.format(Locale.US, "%.1f s", millis / 1000.0);
+        return String.format(Locale.US, "%.1f min", millis / 60_000.0);
+    }
+
+    private long longOption(String name, long defaultValue) {
+        String value = options.get(name);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    private double doubleOption(String name, double defaultValue) {
+        String value = options.get(name);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    private boolean booleanOption(String name, boolean defaultValue) {
+        String value = options.get(name);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * The replay reports totals at the end instead of logging every upload.
+     */
+    private static final class SilentListener implements UploadCoordinator.Listener {
+        @Override
+        public void onUploadDeferred(RetryState state) {
+        }
+
+        @Override
+        public void onUploadStarted(int batchSize, int queuedCount) {
+        }
+
+        @Override
+        public void onUploadSucceeded(int batchSize) {
+        }
+
+        @Override
+        public void onUploadFailed(String message, long retryDelayMillis, RetryState state) {
+        }
+
+        @Override
+        public void onRetry() {
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.locationanalytics;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+/**
+ * Discrete-event clock that runs every pipeline stage on the calling thread.
+ *
+ * <p>Time only moves when the replay advances it, jumping straight to the next due task,
+ * so hours of tracking replay in seconds. Tasks due at the same time run in the order
+ * they were submitted, which keeps each stage's work in order just like the single
+ * stage threads of {@link ProcessingPipeline}.</p>
+ */
+final class VirtualClock implements StageExecutor, LongSupplier {
+    private final PriorityQueue<Task> tasks = new PriorityQueue<>();
+    private volatile long now;
+    private long sequence;
+
+    /**
+     * @param startMillis Initial time, in milliseconds since the epoch
+     */
+    VirtualClock(long startMillis) {
+        this.now = startMillis;
+    }
+
+    /**
+     * @return Current virtual time in milliseconds since the epoch
+     */
+    @Override
+    public long getAsLong() {
+        return now;
+    }
+
+    @Override
+    public boolean execute(PipelineStage stage, Runnable task) {
+        enqueue(task, now);
+        return true;
+    }
+
+    @Override
+    public ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return enqueue(task, now + Math.max(0, delayMillis));
+    }
+
+    /**
+     * Run every task due up to the given time, then set the clock to it.
+     */
+    void advanceTo(long timeMillis) {
+        runWhile(() -> true, timeMillis);
+        now = Math.max(now, timeMillis);
+    }
+
+    /**
+     * Run tasks in time order while the condition holds and tasks due before the deadline
+     * remain. The clock stops at the last task run.
+     *
+     * @return true if the condition no longer holds
+     */
+    boolean runWhile(BooleanSupplier condition, long deadlineMillis) {
+        while (condition.getAsBoolean()) {
+            Task next = tasks.peek();
+            if (next == null || next.time > deadlineMillis) {
+                return false;
+            }
+            tasks.poll();
+            if (next.cancelled) continue;
+            now = Math.max(now, next.time);
+            next.done = true;
+            next.runnable.run();
+        }
+        return true;
+    }
+
+    /**
+     * @return Number of tasks waiting to run, including cancelled timers not yet reached
+     */
+    int pendingTasks() {
+        return tasks.size();
+    }
+
+    private Task enqueue(Runnable runnable, long time) {
+        Task task = new Task(runnable, time, sequence++);
+        tasks.add(task);
+        return task;
+    }
+
+    private final class Task implements ScheduledFuture<Object> {
+        final Runnable runnable;
+        final long time;
+        final long order;
+        boolean cancelled;
+        boolean done;
+
+        Task(Runnable runnable, long time, long order) {
+            this.runnable = runnable;
+            this.time = time;
+            this.order = order;
+        }
+
+        @Override
+        public long getDelay(TimeUnit unit) {
+            return unit.convert(time - now, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public int compareTo(Delayed other) {
+            Task task = (Task) other;
+            int byTime = Long.compare(time, task.time);
+            return byTime != 0 ? byTime : Long.compare(order, task.order);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (done || cancelled) return false;
+            cancelled = true;
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return done || cancelled;
+        }
+
+        @Override
+        public Object get() {
+            return null;
+        }
+
+        @Override
+        public Object get(long timeout, TimeUnit unit) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.example.locationanalytics;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link GpsTrace}: parsing recorded CSV traces, including malformed
+ * ones, and repeatable synthetic traces.
+ */
+public class GpsTraceTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File csv(String... lines) throws IOException {
+        File file = folder.newFile();
+        Files.write(file.toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static void assertLoadFails(File file, String expectedMessage) {
+        try {
+            GpsTrace.load(file);
+            fail("Loaded " + file);
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(expectedMessage));
+        }
+    }
+
+    @Test
+    public void load_parsesFixesAndSkipsHeaderCommentsAndBlankLines() throws IOException {
+        GpsTrace trace = GpsTrace.load(csv(
+                "timestamp_millis,latitude,longitude,accuracy_meters",
+                "# Morning commute",
+                "1700000000000,32.0853,34.7818,4.5",
+                "",
+                "  1700000005000 , 32.0855 , 34.7821  ",
+                "1700000010000,32.0858,34.7825,12"));
+
+        assertEquals(3, trace.size());
+        assertEquals(1_700_000_000_000L, trace.getStartMillis());
+        assertEquals(1_700_000_010_000L, trace.getEndMillis());
+        assertEquals(32.0853, trace.getLatitude(0), 0);
+        assertEquals(34.7818, trace.getLongitude(0), 0);
+        assertEquals(4.5f, trace.getAccuracy(0), 0);
+        assertEquals(1_700_000_005_000L, trace.getTimestamp(1));
+        assertEquals(34.7821, trace.getLongitude(1), 0);
+        // Without the accuracy column the default applies
+        assertEquals(10f, trace.getAccuracy(1), 0);
+        assertEquals(12f, trace.getAccuracy(2), 0);
+    }
+
+    @Test
+    public void load_sortsFixesByTime() throws IOException {
+        GpsTrace trace = GpsTrace.load(csv(
+                "3000,3,30",
+                "1000,1,10",
+                "2000,2,20"));
+
+        for (int i = 0; i < trace.size(); i++) {
+            assertEquals((i + 1) * 1000L, trace.getTimestamp(i));
+            // Every column moves with its fix
+            assertEquals(i + 1, trace.getLatitude(i), 0);
+            assertEquals((i + 1) * 10, trace.getLongitude(i), 0);
+        }
+    }
+
+    @Test
+    public void load_growsPastTheInitialCapacity() throws IOException {
+        String[] lines = new String[3000];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = i + ",32.0853,34.7818";
+        }
+        GpsTrace trace = GpsTrace.load(csv(lines));
+        assertEquals(3000, trace.size());
+        assertEquals(2999, trace.getEndMillis());
+    }
+
+    @Test
+    public void malformedLines_reportTheirLineNumber() throws IOException {
+        assertLoadFails(csv("1000,32.0853,34.7818", "# note", "2000,32.0855"), ":3: expected timestamp,latitude,longitude");
+        assertLoadFails(csv("timestamp,latitude,longitude", "1000,north,34.7818"), ":2: ");
+    }
+
+    @Test
+    public void fileWithoutFixes_isRejected() throws IOException {
+        assertLoadFails(csv("timestamp_millis,latitude,longitude", "# nothing recorded"), "contains no fixes");
+    }
+
+    @Test
+    public void syntheticTrace_isRepeatableForASeed() {
+        GpsTrace first = GpsTrace.synthetic(1_700_000_000_000L, 3_600_000, 5000, 7);
+        GpsTrace second = GpsTrace.synthetic(1_700_000_000_000L, 3_600_000, 5000, 7);
+        GpsTrace otherSeed = GpsTrace.synthetic(1_700_000_000_000L, 3_600_000, 5000, 8);
+
+        assertEquals(721, first.size());
+        assertEquals(1_700_000_000_000L + 3_600_000, first.getEndMillis());
+        boolean differs = false;
+        for (int i = 0; i < first.size(); i++) {
+            assertEquals(1_700_000_000_000L + i * 5000L, first.getTimestamp(i));
+            assertEquals(first.getLatitude(i), second.getLatitude(i), 0);
+            assertEquals(first.getLongitude(i), second.getLongitude(i), 0);
+            assertEquals(first.getAccuracy(i), second.getAccuracy(i), 0);
+            differs |= first.getLatitude(i) != otherSeed.getLatitude(i);
+        }
+        assertTrue(differs);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void syntheticTrace_requiresAPositiveInterval() {
+        GpsTrace.synthetic(0, 3_600_000, 0, 1);
+    }
+}
@@ -0,0 +1,73 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for {@link TraceReplay}: whole replays against the mock server, whose
+ * request counts and byte totals are fixed for a given seed.
+ */
+public class TraceReplayTest {
+
+    /** Two hours of synthetic fixes every 5 seconds, against a server that never fails */
+    private static Map<String, String> faultFree() {
+        Map<String, String> options = new HashMap<>();
+        options.put("hours", "2");
+        options.put("error-rate", "0");
+        options.put("throttle-rate", "0");
+        options.put("ack-loss-rate", "0");
+        options.put("stats-interval-min", "0");
+        options.put("fail-on-loss", "true");
+        return options;
+    }
+
+    private static TraceReplay replay(Map<String, String> options) throws IOException {
+        TraceReplay replay = new TraceReplay(options);
+        assertEquals(0, replay.run());
+        return replay;
+    }
+
+    @Test
+    public void faultFreeReplay_sendsOneRequestPerFullBatch() throws IOException {
+        TraceReplay replay = replay(faultFree());
+
+        assertEquals(1441, replay.getRecordedCount());
+        assertEquals(1441, replay.getDistinctPointCount());
+        // 28 batches of the default 50 points, then the remaining 41 on the final flush
+        assertEquals(29, replay.getUploadRequestCount());
+        assertEquals(233_345, replay.getBytesSent());
+    }
+
+    @Test
+    public void binaryUploads_sendTheSameBatchesInFewerBytes() throws IOException {
+        Map<String, String> options = faultFree();
+        options.put("binary", "true");
+        TraceReplay replay = replay(options);
+
+        assertEquals(1441, replay.getDistinctPointCount());
+        assertEquals(29, replay.getUploadRequestCount());
+        assertEquals(11_310, replay.getBytesSent());
+    }
+
+    @Test
+    public void replayWithFaults_isRepeatableForASeed() throws IOException {
+        Map<String, String> options = new HashMap<>();
+        options.put("hours", "3");
+        options.put("seed", "1");
+        options.put("stats-interval-min", "0");
+        TraceReplay first = replay(options);
+        TraceReplay second = replay(options);
+
+        assertEquals(first.getRecordedCount(), second.getRecordedCount());
+        assertEquals(first.getUploadRequestCount(), second.getUploadRequestCount());
+        assertEquals(first.getBytesSent(), second.getBytesSent());
+        // The default fault profile fails some requests, and the retries resend their batches
+        assertTrue(first.getUploadRequestCount() > (first.getRecordedCount() + 49) / 50);
+        assertEquals(first.getRecordedCount(), first.getDistinctPointCount());
+    }
+}
@@ -39,6 +39,9 @@ dependencies {
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 
+    // Buffering, encoding, retry and statistics logic, free of Android dependencies
+    api(project(":locationanalytics-core"))
+
     // Retrofit for API calls
     implementation(libs.retrofit)
     implementation(libs.converter.gson)
@@ -55,6 +58,14 @@ afterEvaluate {
                 artifact(tasks.getByName("bundleReleaseAar"))
 
                 // Add dependencies to the Maven publication configuration (api or implementation)
+                pom.withXml {
+                    val dependencies = asNode().appendNode("dependencies")
+                    val core = dependencies.appendNode("dependency")
+                    core.appendNode("groupId", groupId)
+                    core.appendNode("artifactId", "locationanalytics-core")
+                    core.appendNode("version", version)
+                    core.appendNode("scope", "compile")
+                }
             }
         }
     }
@@ -0,0 +1,275 @@
+package com.example.locationanalytics;
+
+import android.util.Log;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * HTTP transport shared by every SDK instance in the process.
+ *
+ * <p>All clients are derived from one base {@link OkHttpClient}, so they share its
+ * dispatcher threads, and clients with the same pool settings share one
+ * {@link ConnectionPool}. A connection opened by one SDK instance, including one opened by
+ * {@link #preconnect(String)}, is reused by the next request to the same server instead of
+ * paying for DNS, TCP and TLS again. HTTP/2 is negotiated over TLS, so concurrent uploads
+ * and statistics requests are multiplexed over a single connection.</p>
+ *
+ * @internal This class is for internal SDK use only
+ */
+final class HttpTransport {
+    private static final String TAG = "HttpTransport";
+
+    /** OkHttp's default number of idle connections kept per pool */
+    static final int DEFAULT_MAX_IDLE_CONNECTIONS = 5;
+
+    /** OkHttp's default time an idle connection is kept */
+    static final long DEFAULT_KEEP_ALIVE_MILLIS = 5 * 60 * 1000;
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 15;
+    private static final long READ_WRITE_TIMEOUT_SECONDS = 30;
+
+    /** Path of the server's health endpoint, requested to open a connection ahead of time */
+    private static final String PRECONNECT_PATH = "ping";
+
+    private static OkHttpClient baseClient;
+    private static final Map<String, ConnectionPool> pools = new HashMap<>();
+
+    private final OkHttpClient client;
+
+    /**
+     * @param maxIdleConnections Idle connections kept in the pool
+     * @param keepAliveMillis Time an idle connection is kept in the pool
+     * @param timingListener Receives per-request phase timings, or null
+     */
+    HttpTransport(int maxIdleConnections, long keepAliveMillis, RequestTimingListener timingListener) {
+        OkHttpClient.Builder builder = baseClient().newBuilder()
+                .connectionPool(sharedPool(maxIdleConnections, keepAliveMillis));
+        if (timingListener != null) {
+            builder.eventListenerFactory(call -> new TimingEventListener(timingListener));
+        }
+        this.client = builder.build();
+    }
+
+    OkHttpClient getClient() {
+        return client;
+    }
+
+    /**
+     * Open a connection to the server in the background, so the next request finds DNS
+     * resolved and a connected, TLS-established socket in the pool. Failures are ignored;
+     * the next real request simply connects itself.
+     *
+     * @param baseUrl The server's base URL
+     */
+    void preconnect(String baseUrl) {
+        HttpUrl url = HttpUrl.get(baseUrl).resolve(PRECONNECT_PATH);
+        if (url == null) return;
+        Request request = new Request.Builder().url(url).head().build();
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+                Log.d(TAG, "Pre-connected to " + url.host() + " (" + response.protocol() + ")");
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.d(TAG, "Pre-connect to " + url.host() + " failed: " + e.getMessage());
+            }
+        });
+    }
+
+    private static synchronized OkHttpClient baseClient() {
+        if (baseClient == null) {
+            baseClient = new OkHttpClient.Builder()
+                    .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                    .connectTimeout(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .readTimeout(READ_WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .writeTimeout(READ_WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+                    .retryOnConnectionFailure(true)
+                    .build();
+        }
+        return baseClient;
+    }
+
+    private static synchronized ConnectionPool sharedPool(int maxIdleConnections, long keepAliveMillis) {
+        String key = maxIdleConnections + "/" + keepAliveMillis;
+        ConnectionPool pool = pools.get(key);
+        if (pool == null) {
+            pool = new ConnectionPool(maxIdleConnections, keepAliveMillis, TimeUnit.MILLISECONDS);
+            pools.put(key, pool);
+        }
+        return pool;
+    }
+
+    /**
+     * Records the phases of one call. OkHttp creates one listener per call and invokes it
+     * from one thread at a time.
+     */
+    static final class TimingEventListener extends EventListener {
+        private final RequestTimingListener timingListener;
+        private final LongSupplier nanoClock;
+        private long callStart;
+        private long dnsStart = -1;
+        private long dnsEnd = -1;
+        private long connectStart = -1;
+        private long secureConnectStart = -1;
+        private long secureConnectEnd = -1;
+        private long connectEnd = -1;
+        private long requestStart = -1;
+        private long requestEnd = -1;
+        private long responseStart = -1;
+        private long responseEnd = -1;
+        private long requestBytes = -1;
+        private long responseBytes = -1;
+        private String protocol;
+        private boolean connectionReused = true;
+
+        TimingEventListener(RequestTimingListener timingListener) {
+            this(timingListener, System::nanoTime);
+        }
+
+        /**
+         * @param nanoClock Monotonic time in nanoseconds, like {@link System#nanoTime()}
+         */
+        TimingEventListener(RequestTimingListener timingListener, LongSupplier nanoClock) {
+            this.timingListener = timingListener;
+            this.nanoClock = nanoClock;
+        }
+
+        @Override
+        public void callStart(Call call) {
+            callStart = nanoClock.getAsLong();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStart = nanoClock.getAsLong();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> addresses) {
+            dnsEnd = nanoClock.getAsLong();
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+            // Later attempts, e.g. to another address, replace earlier ones
+            connectStart = nanoClock.getAsLong();
+            connectionReused = false;
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            secureConnectStart = nanoClock.getAsLong();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            secureConnectEnd = nanoClock.getAsLong();
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+            connectEnd = nanoClock.getAsLong();
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            protocol = connection.protocol().toString();
+        }
+
+        @Override
+        public void requestHeadersStart(Call call) {
+            if (requestStart < 0) {
+                requestStart = nanoClock.getAsLong();
+            }
+        }
+
+        @Override
+        public void requestHeadersEnd(Call call, Request request) {
+            requestEnd = nanoClock.getAsLong();
+        }
+
+        @Override
+        public void requestBodyEnd(Call call, long byteCount) {
+            requestEnd = nanoClock.getAsLong();
+            requestBytes = byteCount;
+        }
+
+        @Override
+        public void responseHeadersStart(Call call) {
+            responseStart = nanoClock.getAsLong();
+        }
+
+        @Override
+        public void responseBodyEnd(Call call, long byteCount) {
+            responseEnd = nanoClock.getAsLong();
+            responseBytes = byteCount;
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            report(call, true);
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            report(call, false);
+        }
+
+        private void report(Call call, boolean successful) {
+            long end = nanoClock.getAsLong();
+            long tls = between(secureConnectStart, secureConnectEnd);
+            long connect = between(connectStart, connectEnd);
+            if (connect >= 0 && tls >= 0) {
+                connect -= tls;
+            }
+            RequestTimings timings = new RequestTimings(
+                    call.request().method(),
+                    call.request().url().encodedPath(),
+                    protocol,
+                    protocol != null && connectionReused,
+                    successful,
+                    between(dnsStart, dnsEnd),
+                    connect,
+                    tls,
+                    between(requestStart, requestEnd),
+                    between(requestEnd, responseStart),
+                    between(responseStart, responseEnd),
+                    TimeUnit.NANOSECONDS.toMillis(end - callStart),
+                    requestBytes,
+                    responseBytes);
+            try {
+                timingListener.onRequestTimings(timings);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Request timing listener failed", e);
+            }
+        }
+
+        private static long between(long start, long end) {
+            return start >= 0 && end >= start ? TimeUnit.NANOSECONDS.toMillis(end - start) : -1;
+        }
+    }
+}
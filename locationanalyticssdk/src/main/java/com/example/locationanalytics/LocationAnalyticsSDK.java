@@ -5,6 +5,7 @@ import android.app.Activity;
 import android.content.Context;
 import android.content.pm.PackageManager;
 import android.location.Location;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
@@ -19,8 +20,13 @@ import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.location.Priority;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Main SDK class for location analytics tracking and management.
@@ -46,12 +52,55 @@ public class LocationAnalyticsSDK {
     private static LocationAnalyticsSDK instance;
     private final Context context;
     private final LocationApiClient apiClient;
+    private final boolean preconnect;
+    private final MetricsSink metrics;
     private FusedLocationProviderClient fusedLocationClient;
     private LocationCallback locationCallback;
     private LocationRequest locationRequest;
-    private List<LocationData> cachedLocations;
-    private String userIdentifier;
-    private boolean isTrackingActive = false;
+    /** Chooses the sampling tier; null unless adaptive sampling is enabled */
+    private final SamplingGovernor samplingGovernor;
+    /** Tier the current location request was built for, with adaptive sampling */
+    private volatile SamplingTier requestedTier;
+    private final LocationQueue locationQueue;
+    private final LocationRingBuffer ingestBuffer;
+    /** Per-asset buffer for {@link #recordLocation}; null unless fleet mode is enabled */
+    private final FleetIngestBuffer fleetBuffer;
+    private final LocationRingBuffer.Sink queueWriter = this::writeToQueue;
+    /** Takes fleet fixes from the fleet buffer: counted in the heatmap, if any, and queued */
+    private final LocationRingBuffer.Sink fleetWriter = this::writeFleetFixToQueue;
+    private final LocationRingBuffer.Sink ingestWriter = this::offerToIngestBuffer;
+    /** Ingest buffer drops and spills already reported to the metrics sink; only touched on the encode stage */
+    private long reportedDroppedFixes;
+    private long reportedSpilledFixes;
+    /** Only touched on the filter stage; null when simplification is disabled */
+    private final TrajectorySimplifier simplifier;
+    /** Only touched on the filter stage; null when dwell summaries are disabled */
+    private final PlaceDwellFilter placeFilter;
+    /** Takes recorded fixes after the place filter: through the simplifier, if any, to the ingest buffer */
+    private final LocationRingBuffer.Sink simplifierWriter;
+    private final LocalAnalytics localAnalytics;
+    /** Only touched on the filter stage */
+    private int fixesSinceLocalSave = 0;
+    /** Heatmap counts of every recorded fix; null unless heatmap tiles are enabled */
+    private final HeatmapTiles heatmapTiles;
+    /** Live fixes for the app's subscribers */
+    private final LocationStream locationStream;
+    private final StatisticsMode statisticsMode;
+    private final StatisticsCache statisticsCache;
+    /** Fixes recorded up to this time must be uploaded before reconciling, or -1 if none is waiting */
+    private volatile long reconcileCutoff = -1;
+    private final AtomicBoolean reconcileInFlight = new AtomicBoolean();
+    private volatile long lastReconcileTime = 0;
+    private final ProcessingPipeline pipeline;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable drainIngestBuffer = this::drainIngestBuffer;
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final UploadCoordinator uploads;
+    private volatile String userIdentifier;
+    private volatile boolean isTrackingActive = false;
+
+    /** Device descriptor shared by every location recorded on this device */
+    static final String DEVICE_INFO = Build.MODEL + " / Android " + Build.VERSION.RELEASE;
 
     /** Request code for location permissions */
     public static final int LOCATION_PERMISSION_REQUEST_CODE = 1001;
@@ -65,21 +114,92 @@ public class LocationAnalyticsSDK {
     private int trackingInterval = DEFAULT_INTERVAL;
     private int fastestInterval = DEFAULT_FASTEST_INTERVAL;
 
+    /** Only touched on the filter stage */
     private long lastLocationTimestamp = 0;
-    private static long MIN_TIME_BETWEEN_UPDATES = 600000;
+    private static volatile long MIN_TIME_BETWEEN_UPDATES = 600000;
+
+    /** Maximum number of queued locations sent in a single upload request */
+    private static final int MAX_BATCH_SIZE = 500;
+
+    /** Number of locations per page of {@link #getLocationHistory(long, long)} */
+    private static final int DEFAULT_HISTORY_PAGE_SIZE = 500;
+
+    /** Directory (under no-backup storage) holding the persistent upload queue */
+    private static final String QUEUE_DIRECTORY = "locationanalytics/queue";
+
+    /** File (under no-backup storage) holding the on-device analytics state */
+    private static final String LOCAL_ANALYTICS_FILE = "locationanalytics/local_analytics.bin";
+
+    /** Number of recorded fixes after which the on-device analytics state is saved */
+    private static final int LOCAL_SAVE_INTERVAL = 20;
+
+    /** File (under no-backup storage) holding the last statistics fetched from the server */
+    private static final String STATISTICS_CACHE_FILE = "locationanalytics/statistics_cache.json";
+
+    /** Minimum time between background reconciles of local statistics with the server */
+    private static final long RECONCILE_INTERVAL_MILLIS = 5 * 60 * 1000;
 
     /**
      * Private constructor for SDK initialization.
      * Use {@link Builder} or {@link #init(Context, String, String)} to create instances.
      *
-     * @param context Application context
-     * @param serverUrl Server URL for API calls
-     * @param apiKey API key for authentication
+     * @param builder Builder holding the server URL, API key and tuning options
      */
-    private LocationAnalyticsSDK(Context context, String serverUrl, String apiKey) {
-        this.context = context.getApplicationContext();
-        this.apiClient = new LocationApiClient(serverUrl, apiKey);
-        this.cachedLocations = new ArrayList<>();
+    private LocationAnalyticsSDK(Builder builder) {
+        this.context = builder.context;
+        this.statisticsMode = builder.statisticsMode;
+        this.preconnect = builder.preconnect;
+        this.metrics = builder.metricsSink;
+        this.samplingGovernor = builder.adaptiveSampling
+                ? new SamplingGovernor(builder.trackingInterval, builder.samplingEnergyBudget) : null;
+        try {
+            this.locationQueue = new LocationQueue(
+                    new File(context.getNoBackupFilesDir(), QUEUE_DIRECTORY), builder.maxQueueSizeBytes);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to open the location upload queue", e);
+        }
+        this.ingestBuffer = new LocationRingBuffer(builder.ingestBufferSize, builder.overflowPolicy, queueWriter);
+        this.simplifier = builder.simplificationToleranceMeters > 0
+                ? new TrajectorySimplifier(builder.simplificationToleranceMeters) : null;
+        TrajectorySimplifier trajectorySimplifier = simplifier;
+        this.simplifierWriter = trajectorySimplifier != null
+                ? (userId, latitude, longitude, timestamp, accuracy, deviceInfo) -> trajectorySimplifier.add(
+                userId, latitude, longitude, timestamp, accuracy, deviceInfo, ingestWriter)
+                : ingestWriter;
+        this.placeFilter = builder.dwellSummaries ? new PlaceDwellFilter() : null;
+        this.heatmapTiles = builder.heatmapTiles ? new HeatmapTiles() : null;
+        this.locationStream = new LocationStream(metrics, mainHandler::post);
+        this.fleetBuffer = builder.fleetMode
+                ? new FleetIngestBuffer(builder.fleetBufferSizePerAsset, builder.fleetOverflowPolicy, fleetWriter)
+                : null;
+        LocationRingBuffer ring = ingestBuffer;
+        FleetIngestBuffer fleet = fleetBuffer;
+        LocationQueue queue = locationQueue;
+        this.pipeline = new ProcessingPipeline(
+                fleet != null ? () -> ring.size() + fleet.size() : ring::size, queue::size);
+        this.apiClient = new LocationApiClient(builder.serverUrl, builder.apiKey, builder.binaryUploads,
+                builder.cellPrecision,
+                pipeline.blockingExecutorFor(PipelineStage.UPLOAD),
+                new HttpTransport(builder.maxIdleConnections, builder.keepAliveMillis, builder.requestTimingListener),
+                metrics);
+        this.uploads = new UploadCoordinator(locationQueue, builder.batchingPolicy, new RetryScheduler(),
+                apiClient, pipeline, System::currentTimeMillis, metrics, new UploadLogger(), MAX_BATCH_SIZE,
+                builder.maxUploadsInFlight);
+        Log.d(TAG, "Restored " + locationQueue.size() + " unsent locations from disk");
+        this.localAnalytics = new LocalAnalytics(new File(context.getNoBackupFilesDir(), LOCAL_ANALYTICS_FILE));
+        try {
+            localAnalytics.load();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to restore on-device analytics, starting fresh", e);
+        }
+        this.statisticsCache = new StatisticsCache(this::fetchUserStatistics, System::currentTimeMillis,
+                builder.statisticsTtlMillis, builder.statisticsMaxStaleMillis,
+                new File(context.getNoBackupFilesDir(), STATISTICS_CACHE_FILE));
+        try {
+            statisticsCache.load();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to restore cached statistics", e);
+        }
         initLocationComponents();
     }
 
@@ -96,12 +216,22 @@ public class LocationAnalyticsSDK {
     @Deprecated
     public static synchronized LocationAnalyticsSDK init(Context context, String serverUrl, String apiKey) {
         if (instance == null) {
-            instance = new LocationAnalyticsSDK(context, serverUrl, apiKey);
+            instance = new LocationAnalyticsSDK(new Builder(context).setServerUrl(serverUrl).setApiKey(apiKey));
         }
         Log.d("SERVER_DEBUG", "SDK init received URL = " + serverUrl);
         return instance;
     }
 
+    /**
+     * Get the device descriptor the SDK records with every location, e.g. to build a
+     * {@link LocationData} with the same device information.
+     *
+     * @return Device model and OS version, e.g. "Pixel 7 / Android 14"
+     */
+    public static String getDeviceInfo() {
+        return DEVICE_INFO;
+    }
+
     /**
      * Get the singleton instance of the SDK.
      *
@@ -133,6 +263,29 @@ public class LocationAnalyticsSDK {
         private String apiKey;
         private int trackingInterval = DEFAULT_INTERVAL;
         private int fastestInterval = DEFAULT_FASTEST_INTERVAL;
+        private boolean adaptiveSampling = false;
+        private double samplingEnergyBudget = 0;
+        private long maxQueueSizeBytes = LocationQueue.DEFAULT_MAX_SIZE_BYTES;
+        private BatchingPolicy batchingPolicy = new ThresholdBatchingPolicy();
+        private boolean binaryUploads = false;
+        private int cellPrecision = 0;
+        private int maxUploadsInFlight = UploadCoordinator.DEFAULT_MAX_IN_FLIGHT;
+        private int ingestBufferSize = LocationRingBuffer.DEFAULT_CAPACITY;
+        private OverflowPolicy overflowPolicy = OverflowPolicy.SPILL;
+        private boolean fleetMode = false;
+        private int fleetBufferSizePerAsset = FleetIngestBuffer.DEFAULT_CAPACITY_PER_ASSET;
+        private OverflowPolicy fleetOverflowPolicy = OverflowPolicy.DROP_OLDEST;
+        private double simplificationToleranceMeters = 0;
+        private boolean dwellSummaries = false;
+        private boolean heatmapTiles = false;
+        private StatisticsMode statisticsMode = StatisticsMode.SERVER;
+        private long statisticsTtlMillis = StatisticsCache.DEFAULT_TTL_MILLIS;
+        private long statisticsMaxStaleMillis = StatisticsCache.DEFAULT_MAX_STALE_MILLIS;
+        private int maxIdleConnections = HttpTransport.DEFAULT_MAX_IDLE_CONNECTIONS;
+        private long keepAliveMillis = HttpTransport.DEFAULT_KEEP_ALIVE_MILLIS;
+        private boolean preconnect = false;
+        private RequestTimingListener requestTimingListener;
+        private MetricsSink metricsSink = new InMemoryMetricsSink();
 
         /**
          * Create a new Builder instance.
@@ -177,6 +330,333 @@ public class LocationAnalyticsSDK {
             return this;
         }
 
+        /**
+         * Enable adaptive sampling. Instead of a fix every tracking interval, the SDK picks the
+         * interval and accuracy of the location request from the observed speed: a fix every 10
+         * seconds from GPS at highway speed, every 15 seconds in city traffic, every minute
+         * while walking, and every 15 minutes at low power once the device has stayed within
+         * 50 m for 3 minutes. The location request is only changed when the tier changes.
+         * {@link LocationAnalyticsSDK#getSamplingStats()} reports the fixes and the estimated
+         * battery charge saved compared with a fix every tracking interval.
+         *
+         * @param enabled true to adapt sampling to motion (default: false)
+         * @return This builder instance for chaining
+         * @see #setSamplingEnergyBudget(double)
+         */
+        public Builder setAdaptiveSampling(boolean enabled) {
+            this.adaptiveSampling = enabled;
+            return this;
+        }
+
+        /**
+         * Limit the estimated battery charge adaptive sampling spends on location requests.
+         * Up to 4 hours of budget may be spent ahead of time, e.g. on a trip sampled densely;
+         * once it is used up, sampling is capped at the most accurate tier the budget sustains
+         * until an hour of budget has refilled.
+         *
+         * @param milliampHoursPerDay Estimated charge per day, or 0 for no limit (default: 0)
+         * @return This builder instance for chaining
+         * @see SamplingTier#getMilliampHoursPerHour()
+         */
+        public Builder setSamplingEnergyBudget(double milliampHoursPerDay) {
+            if (milliampHoursPerDay < 0 || Double.isNaN(milliampHoursPerDay)) {
+                throw new IllegalArgumentException("Energy budget must not be negative");
+            }
+            this.samplingEnergyBudget = milliampHoursPerDay;
+            return this;
+        }
+
+        /**
+         * Set the maximum disk space used to keep locations that have not been uploaded yet.
+         * Locations are persisted so they survive app restarts and offline periods;
+         * when the cap is reached the oldest unsent locations are discarded.
+         *
+         * @param bytes Maximum queue size in bytes (default: 16 MB, minimum: 8 KB)
+         * @return This builder instance for chaining
+         */
+        public Builder setMaxQueueSize(long bytes) {
+            this.maxQueueSizeBytes = Math.max(8192, bytes);
+            return this;
+        }
+
+        /**
+         * Set the policy deciding when buffered locations are uploaded.
+         * By default locations are uploaded once 50 are buffered, the oldest is
+         * 15 minutes old, or they take 64 KB - whichever comes first.
+         *
+         * @param batchingPolicy The batching policy to use
+         * @return This builder instance for chaining
+         * @see ThresholdBatchingPolicy
+         */
+        public Builder setBatchingPolicy(BatchingPolicy batchingPolicy) {
+            if (batchingPolicy == null) {
+                throw new IllegalArgumentException("BatchingPolicy must not be null");
+            }
+            this.batchingPolicy = batchingPolicy;
+            return this;
+        }
+
+        /**
+         * Enable the compact binary upload encoding.
+         * Batches are delta/varint encoded and gzip-compressed, which typically makes
+         * uploads several times smaller than JSON. If the server does not support the
+         * binary format the SDK automatically falls back to JSON, and keeps using JSON for
+         * that server until the process restarts.
+         *
+         * @param enabled true to upload binary batches (default: false)
+         * @return This builder instance for chaining
+         */
+        public Builder setBinaryUploads(boolean enabled) {
+            this.binaryUploads = enabled;
+            return this;
+        }
+
+        /**
+         * Upload geohash cells instead of exact coordinates.
+         * Coordinates are quantized to cells of the given precision, and consecutive fixes in
+         * the same cell are uploaded as one record with the number of fixes and the time they
+         * span, so a walk through a neighborhood or an afternoon in one place becomes a
+         * handful of records. Uses the binary upload encoding; if the server does not support
+         * cell batches the SDK falls back to exact coordinates in JSON.
+         *
+         * @param precision Geohash length from 1 to 12, e.g. 7 for cells of about 150 m,
+         *                  or 0 for exact coordinates (default: 0)
+         * @return This builder instance for chaining
+         */
+        public Builder setCellUploads(int precision) {
+            if (precision != 0 && (precision < Geohash.MIN_PRECISION || precision > Geohash.MAX_PRECISION)) {
+                throw new IllegalArgumentException("Cell precision must be 0 or between "
+                        + Geohash.MIN_PRECISION + " and " + Geohash.MAX_PRECISION);
+            }
+            this.cellPrecision = precision;
+            return this;
+        }
+
+        /**
+         * Set how many upload requests may be sent at once. After a long time offline, the
+         * backlog is uploaded in batches of up to 500 locations; sending several at once
+         * drains it in a fraction of the time. Every batch is sent with an idempotency key, so
+         * a batch that is sent again after a timeout is not stored twice by the server.
+         *
+         * @param maxUploadsInFlight Requests sent at once, from 1 to 8 (default: 4)
+         * @return This builder instance for chaining
+         */
+        public Builder setMaxUploadsInFlight(int maxUploadsInFlight) {
+            if (maxUploadsInFlight < 1 || maxUploadsInFlight > UploadCoordinator.MAX_IN_FLIGHT) {
+                throw new IllegalArgumentException("Uploads in flight must be between 1 and "
+                        + UploadCoordinator.MAX_IN_FLIGHT);
+            }
+            this.maxUploadsInFlight = maxUploadsInFlight;
+            return this;
+        }
+
+        /**
+         * Set the size of the in-memory buffer that takes new locations before they are
+         * written to the persistent upload queue, and what happens when it is full.
+         *
+         * @param capacity Number of locations the buffer holds (rounded up to a power of two, default: 1024)
+         * @param overflowPolicy Policy applied when the buffer is full (default: {@link OverflowPolicy#SPILL})
+         * @return This builder instance for chaining
+         */
+        public Builder setIngestBuffer(int capacity, OverflowPolicy overflowPolicy) {
+            if (overflowPolicy == null) {
+                throw new IllegalArgumentException("OverflowPolicy must not be null");
+            }
+            this.ingestBufferSize = Math.max(2, capacity);
+            this.overflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * Enable fleet mode, for gateway devices that relay positions for many tracked assets.
+         * Fixes passed to {@link LocationAnalyticsSDK#recordLocation(String, double, double, long, float)}
+         * are buffered per asset, can be recorded from any number of threads concurrently,
+         * and are uploaded together in shared batches holding the fixes of many assets.
+         * Every asset with fixes waiting gets a fair share of each batch, so a single asset
+         * reporting very often cannot hold back the others.
+         *
+         * @param enabled true to accept fixes for other user identifiers (default: false)
+         * @return This builder instance for chaining
+         * @see #setFleetBuffer(int, OverflowPolicy)
+         */
+        public Builder setFleetMode(boolean enabled) {
+            this.fleetMode = enabled;
+            return this;
+        }
+
+        /**
+         * Set how many fixes fleet mode buffers per asset before they are written to the
+         * persistent upload queue, and what happens when an asset's buffer is full.
+         *
+         * @param capacityPerAsset Number of fixes buffered per asset (rounded up to a power of two, default: 256)
+         * @param overflowPolicy Policy applied when an asset's buffer is full
+         *                       (default: {@link OverflowPolicy#DROP_OLDEST}, which only affects that asset)
+         * @return This builder instance for chaining
+         */
+        public Builder setFleetBuffer(int capacityPerAsset, OverflowPolicy overflowPolicy) {
+            if (overflowPolicy == null) {
+                throw new IllegalArgumentException("OverflowPolicy must not be null");
+            }
+            if (capacityPerAsset < 1) {
+                throw new IllegalArgumentException("Capacity must be positive");
+            }
+            this.fleetBufferSizePerAsset = capacityPerAsset;
+            this.fleetOverflowPolicy = overflowPolicy;
+            return this;
+        }
+
+        /**
+         * Enable on-device trajectory simplification. Stationary fixes and fixes on
+         * straight-line stretches are dropped before upload as long as the uploaded path
+         * stays within the given distance of every recorded fix, which typically cuts the
+         * number of uploaded locations many times over while leaving paths and travelled
+         * distance visually unchanged.
+         *
+         * @param toleranceMeters Maximum deviation of the uploaded path in meters, or 0 to
+         *                        upload every fix (default: 0, e.g. 10 for walking or driving)
+         * @return This builder instance for chaining
+         */
+        public Builder setTrajectorySimplification(double toleranceMeters) {
+            if (toleranceMeters < 0 || Double.isNaN(toleranceMeters)) {
+                throw new IllegalArgumentException("Tolerance must not be negative");
+            }
+            this.simplificationToleranceMeters = toleranceMeters;
+            return this;
+        }
+
+        /**
+         * Upload only an entry, a summary and an exit while the user dwells at one of their
+         * frequent places, instead of every fix. Frequent places are the stops visited at least
+         * twice, from the server's statistics and from stop detection on the device. A fix
+         * within 75 m of one is uploaded as the entry; later fixes are held back until the user
+         * leaves, then uploaded as one fix at their mean position and the last fix inside. The
+         * server still detects the stop and its duration from these. A night at home uploads
+         * three fixes instead of hundreds.
+         *
+         * @param enabled true to summarize dwells at known places (default: false)
+         * @return This builder instance for chaining
+         */
+        public Builder setDwellSummaries(boolean enabled) {
+            this.dwellSummaries = enabled;
+            return this;
+        }
+
+        /**
+         * Count every recorded fix in heatmap tiles on the device and upload the counts with
+         * the location batches. The server adds them to per-day tiles at three zoom levels,
+         * from which the dashboard draws its heatmap, and stops storing jittered copies of the
+         * user's locations to thicken the heatmap. Counts not uploaded yet are lost if the app
+         * process is killed.
+         *
+         * @param enabled true to upload heatmap tiles (default: false)
+         * @return This builder instance for chaining
+         */
+        public Builder setHeatmapTiles(boolean enabled) {
+            this.heatmapTiles = enabled;
+            return this;
+        }
+
+        /**
+         * Set where {@link LocationAnalyticsSDK#getUserStatistics(ApiCallback)} gets its results.
+         * {@link StatisticsMode#LOCAL} answers instantly from statistics maintained on the
+         * device and reconciles them with the server in the background.
+         *
+         * @param statisticsMode The statistics mode (default: {@link StatisticsMode#SERVER})
+         * @return This builder instance for chaining
+         */
+        public Builder setStatisticsMode(StatisticsMode statisticsMode) {
+            if (statisticsMode == null) {
+                throw new IllegalArgumentException("StatisticsMode must not be null");
+            }
+            this.statisticsMode = statisticsMode;
+            return this;
+        }
+
+        /**
+         * Configure caching of server statistics. Within the time-to-live, repeated calls to
+         * {@link LocationAnalyticsSDK#getUserStatistics(ApiCallback)} are answered from the
+         * cache. After it, the cached statistics are still returned immediately while fresh
+         * ones are fetched in the background, until they are older than the maximum staleness.
+         * Concurrent calls always share a single request, and the last result survives restarts.
+         *
+         * @param ttlMillis Time-to-live in milliseconds (default: 60 seconds, 0 to always revalidate)
+         * @param maxStaleMillis Maximum age of statistics returned while revalidating
+         *                       (default: 24 hours, 0 to never return expired statistics)
+         * @return This builder instance for chaining
+         */
+        public Builder setStatisticsCache(long ttlMillis, long maxStaleMillis) {
+            if (ttlMillis < 0 || maxStaleMillis < 0) {
+                throw new IllegalArgumentException("Cache durations must not be negative");
+            }
+            this.statisticsTtlMillis = ttlMillis;
+            this.statisticsMaxStaleMillis = maxStaleMillis;
+            return this;
+        }
+
+        /**
+         * Configure the pool of idle HTTP connections. The pool is shared by all SDK instances
+         * with the same settings, so a connection opened by one is reused by the others. A
+         * keep-alive longer than the upload interval lets uploads skip connection setup, at the
+         * cost of the server holding the idle connection open.
+         *
+         * @param maxIdleConnections Idle connections kept (default: 5)
+         * @param keepAliveMillis Time an idle connection is kept in milliseconds (default: 5 minutes)
+         * @return This builder instance for chaining
+         */
+        public Builder setConnectionPool(int maxIdleConnections, long keepAliveMillis) {
+            if (maxIdleConnections < 0) {
+                throw new IllegalArgumentException("Idle connection count must not be negative");
+            }
+            if (keepAliveMillis <= 0) {
+                throw new IllegalArgumentException("Keep-alive must be positive");
+            }
+            this.maxIdleConnections = maxIdleConnections;
+            this.keepAliveMillis = keepAliveMillis;
+            return this;
+        }
+
+        /**
+         * Open a connection to the server in the background when tracking starts, so the
+         * first upload or statistics request does not pay for DNS lookup, TCP connect and
+         * TLS handshake. The connection stays pooled for the keep-alive time configured with
+         * {@link #setConnectionPool(int, long)}.
+         *
+         * @param enabled true to pre-connect on {@link LocationAnalyticsSDK#startTracking()} (default: false)
+         * @return This builder instance for chaining
+         */
+        public Builder setPreconnect(boolean enabled) {
+            this.preconnect = enabled;
+            return this;
+        }
+
+        /**
+         * Receive DNS, connect, TLS, time-to-first-byte and body timings for every HTTP
+         * request, to see where upload and statistics latency goes.
+         *
+         * @param listener Listener called on a background thread, or null for none (default)
+         * @return This builder instance for chaining
+         */
+        public Builder setRequestTimingListener(RequestTimingListener listener) {
+            this.requestTimingListener = listener;
+            return this;
+        }
+
+        /**
+         * Set where the SDK reports its counters and histograms: location updates received
+         * and skipped, fix-to-upload latency, batch sizes, encoded bytes, retries, queue
+         * depth and statistics latency. See {@link Metric} for the full list.
+         *
+         * @param metricsSink The sink (default: an {@link InMemoryMetricsSink})
+         * @return This builder instance for chaining
+         */
+        public Builder setMetricsSink(MetricsSink metricsSink) {
+            if (metricsSink == null) {
+                throw new IllegalArgumentException("MetricsSink must not be null");
+            }
+            this.metricsSink = metricsSink;
+            return this;
+        }
+
         /**
          * Build and return the LocationAnalyticsSDK instance.
          *
@@ -188,7 +668,7 @@ public class LocationAnalyticsSDK {
                 throw new IllegalStateException("ServerUrl and ApiKey must be set");
             }
 
-            LocationAnalyticsSDK sdk = new LocationAnalyticsSDK(context, serverUrl, apiKey);
+            LocationAnalyticsSDK sdk = new LocationAnalyticsSDK(this);
             sdk.setTrackingInterval(trackingInterval);
 
             // Set as singleton instance
@@ -200,33 +680,110 @@ public class LocationAnalyticsSDK {
 
     private void initLocationComponents() {
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(context);
+        locationRequest = buildLocationRequest();
 
-        locationRequest = new LocationRequest.Builder(trackingInterval)
-                .setPriority(Priority.PRIORITY_BALANCED_POWER_ACCURACY)
-                .setMinUpdateIntervalMillis(fastestInterval)
-                .setMaxUpdateDelayMillis(trackingInterval + 60000)
-                .setWaitForAccurateLocation(false)
-                .build();
-
+        // Delivered on the ingest stage, which only hands the fix to the filter stage
         locationCallback = new LocationCallback() {
             @Override
             public void onLocationResult(@NonNull LocationResult locationResult) {
                 if (locationResult.getLocations().size() > 0) {
                     Location location = locationResult.getLocations().get(0);
-
-                    long currentTime = System.currentTimeMillis();
-                    if (currentTime - lastLocationTimestamp >= MIN_TIME_BETWEEN_UPDATES) {
-                        processLocation(location);
-                        lastLocationTimestamp = currentTime;
-                        Log.d(TAG, "Location recorded at interval: " + (currentTime - lastLocationTimestamp) + "ms");
-                    } else {
-                        Log.d(TAG, "Skipping location update - not enough time elapsed");
+                    metrics.increment(Metric.FIXES_RECEIVED, 1);
+                    if (!pipeline.execute(PipelineStage.FILTER, () -> filterLocation(location))) {
+                        metrics.increment(Metric.FIXES_DROPPED, 1);
+                        Log.w(TAG, "Filter stage is full, dropping location update");
                     }
                 }
             }
         };
     }
 
+    /**
+     * Build the location request for the tracking interval, or for the current tier with
+     * adaptive sampling.
+     */
+    private LocationRequest buildLocationRequest() {
+        if (samplingGovernor == null) {
+            return new LocationRequest.Builder(trackingInterval)
+                    .setPriority(Priority.PRIORITY_BALANCED_POWER_ACCURACY)
+                    .setMinUpdateIntervalMillis(fastestInterval)
+                    .setMaxUpdateDelayMillis(trackingInterval + 60000)
+                    .setWaitForAccurateLocation(false)
+                    .build();
+        }
+
+        SamplingTier tier = samplingGovernor.getTier();
+        requestedTier = tier;
+        int priority;
+        switch (tier.getAccuracy()) {
+            case HIGH:
+                priority = Priority.PRIORITY_HIGH_ACCURACY;
+                break;
+            case LOW_POWER:
+                priority = Priority.PRIORITY_LOW_POWER;
+                break;
+            default:
+                priority = Priority.PRIORITY_BALANCED_POWER_ACCURACY;
+                break;
+        }
+        return new LocationRequest.Builder(tier.getIntervalMillis())
+                .setPriority(priority)
+                .setMinUpdateIntervalMillis(tier.getMinUpdateIntervalMillis())
+                .setWaitForAccurateLocation(false)
+                .build();
+    }
+
+    /**
+     * Filter stage: applies the tracking interval before a fix is recorded.
+     */
+    private void filterLocation(Location location) {
+        if (samplingGovernor != null) {
+            filterAdaptive(location);
+            return;
+        }
+        long currentTime = System.currentTimeMillis();
+        if (currentTime - lastLocationTimestamp >= MIN_TIME_BETWEEN_UPDATES) {
+            processLocation(location);
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                Log.d(TAG, "Location recorded at interval: " + (currentTime - lastLocationTimestamp) + "ms");
+            }
+            lastLocationTimestamp = currentTime;
+        } else {
+            metrics.increment(Metric.FIXES_SKIPPED, 1);
+            Log.d(TAG, "Skipping location update - not enough time elapsed");
+        }
+    }
+
+    /**
+     * Filter stage, with adaptive sampling: lets the governor pick the tier from the fix,
+     * switches the location request if the tier changed, and records the fix unless it
+     * arrived within the tier's interval.
+     */
+    private void filterAdaptive(Location location) {
+        boolean record = samplingGovernor.onLocation(location.getLatitude(), location.getLongitude(),
+                System.currentTimeMillis(), location.getAccuracy(),
+                location.hasSpeed() ? location.getSpeed() : Float.NaN);
+        SamplingTier tier = samplingGovernor.getTier();
+        if (tier != requestedTier && isTrackingActive) {
+            locationRequest = buildLocationRequest();
+            try {
+                // Replaces the request registered for the same callback
+                fusedLocationClient.requestLocationUpdates(locationRequest,
+                        pipeline.executorFor(PipelineStage.INGEST), locationCallback);
+                metrics.increment(Metric.SAMPLING_TIER_CHANGES, 1);
+                Log.d(TAG, "Sampling tier changed to " + tier);
+            } catch (SecurityException e) {
+                Log.e(TAG, "Error changing the location request", e);
+            }
+        }
+
+        if (record) {
+            processLocation(location);
+        } else {
+            metrics.increment(Metric.FIXES_SKIPPED, 1);
+        }
+    }
+
     /**
      * Set the user identifier for location tracking.
      * This should be called before starting location tracking.
@@ -249,12 +806,13 @@ public class LocationAnalyticsSDK {
         this.fastestInterval = milliseconds / 2;
         MIN_TIME_BETWEEN_UPDATES = milliseconds;
 
-        locationRequest = new LocationRequest.Builder(trackingInterval)
-                .setPriority(Priority.PRIORITY_BALANCED_POWER_ACCURACY)
-                .setMinUpdateIntervalMillis(fastestInterval)
-                .setMaxUpdateDelayMillis(trackingInterval + 60000)
-                .setWaitForAccurateLocation(false)
-                .build();
+        if (samplingGovernor != null) {
+            // Only the fixed-interval comparison changes; the tier keeps setting the request
+            samplingGovernor.setFixedIntervalMillis(milliseconds, System.currentTimeMillis());
+            Log.d(TAG, "Tracking interval set to: " + milliseconds + "ms, sampling stays adaptive");
+            return;
+        }
+        locationRequest = buildLocationRequest();
 
         if (isTrackingActive) {
             stopTracking();
@@ -301,9 +859,24 @@ public class LocationAnalyticsSDK {
         }
 
         try {
-            fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, Looper.getMainLooper());
+            if (samplingGovernor != null) {
+                samplingGovernor.start(System.currentTimeMillis());
+                locationRequest = buildLocationRequest();
+            }
+            fusedLocationClient.requestLocationUpdates(locationRequest,
+                    pipeline.executorFor(PipelineStage.INGEST), locationCallback);
             isTrackingActive = true;
             Log.d(TAG, "Location tracking started with interval: " + trackingInterval + "ms");
+
+            if (preconnect) {
+                apiClient.preconnect();
+            }
+
+            if (placeFilter != null) {
+                pipeline.execute(PipelineStage.FILTER, this::refreshKnownPlaces);
+            }
+            // Locations restored from a previous session are uploaded per the batching policy
+            pipeline.execute(PipelineStage.ENCODE, uploads::checkBatchingPolicy);
         } catch (SecurityException e) {
             Log.e(TAG, "Error starting location tracking", e);
         }
@@ -316,11 +889,12 @@ public class LocationAnalyticsSDK {
     public void stopTracking() {
         fusedLocationClient.removeLocationUpdates(locationCallback);
         isTrackingActive = false;
+        if (samplingGovernor != null) {
+            samplingGovernor.stop(System.currentTimeMillis());
+        }
         Log.d(TAG, "Location tracking stopped");
 
-        if (!cachedLocations.isEmpty()) {
-            sendCachedLocations();
-        }
+        requestFlush();
     }
 
     /**
@@ -359,69 +933,561 @@ public class LocationAnalyticsSDK {
     }
 
     /**
-     * Force synchronization of cached location data to the server.
+     * Record a location for a tracked asset, in fleet mode. Use this on gateway devices
+     * that receive positions for other users or assets, e.g. over Bluetooth or a radio link.
+     *
+     * <p>Safe to call from any thread, including many threads at once; the call never
+     * waits for disk or network. Fixes recorded here bypass the tracking interval,
+     * trajectory simplification and on-device analytics, which apply to this device's own
+     * locations only, and are uploaded per the configured {@link BatchingPolicy}.</p>
+     *
+     * @param userId Identifier of the tracked asset
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param timestamp Time of the fix in milliseconds since the epoch
+     * @param accuracy Estimated horizontal accuracy in meters
+     * @throws IllegalStateException if fleet mode was not enabled with {@link Builder#setFleetMode(boolean)}
+     * @throws IllegalArgumentException if the user identifier is null or empty
+     */
+    public void recordLocation(String userId, double latitude, double longitude, long timestamp, float accuracy) {
+        if (fleetBuffer == null) {
+            throw new IllegalStateException("Fleet mode is not enabled");
+        }
+        if (userId == null || userId.isEmpty()) {
+            throw new IllegalArgumentException("User identifier must not be empty");
+        }
+        metrics.increment(Metric.FIXES_RECEIVED, 1);
+        fleetBuffer.offer(userId, latitude, longitude, timestamp, accuracy, DEVICE_INFO);
+        scheduleDrain();
+    }
+
+    /**
+     * Force synchronization of cached location data to the server, bypassing the
+     * configured {@link BatchingPolicy}.
      * This is automatically called when stopping tracking or when the app is destroyed.
      */
     public void forceSync() {
-        sendCachedLocations();
+        requestFlush();
     }
 
     /**
-     * Get user statistics from the server.
+     * Get the number of items waiting to enter each stage of the background processing
+     * pipeline. Location updates, filtering, queueing and uploads all run on dedicated
+     * background threads; a steadily growing depth shows which stage cannot keep up.
+     *
+     * @return Queue depth per pipeline stage
+     */
+    public Map<PipelineStage, Integer> getPipelineQueueDepths() {
+        return pipeline.getQueueDepths();
+    }
+
+    /**
+     * Get the sink the SDK reports its metrics to. Unless another sink was configured with
+     * {@link Builder#setMetricsSink(MetricsSink)}, this is an {@link InMemoryMetricsSink}
+     * whose counters and histograms can be read directly.
+     *
+     * @return The metrics sink
+     */
+    public MetricsSink getMetricsSink() {
+        return metrics;
+    }
+
+    /**
+     * Get the live stream of recorded fixes: every fix that passes the tracking interval,
+     * and with fleet mode every fix passed to {@link #recordLocation}, before dwell
+     * summaries or trajectory simplification thin them out for upload.
+     *
+     * <p>Subscribers request fixes at their own pace. Each has a bounded buffer, so a slow
+     * subscriber misses fixes per its {@link BackpressureStrategy} rather than holding up
+     * recording or uploads.</p>
+     *
+     * @return The location stream
+     */
+    public LocationStream getLocationStream() {
+        return locationStream;
+    }
+
+    /**
+     * Get the current adaptive sampling tier, with the fixes recorded and the estimated
+     * battery charge spent while tracking, compared with a fix every tracking interval.
+     *
+     * @return A snapshot of adaptive sampling
+     * @throws IllegalStateException if adaptive sampling was not enabled with
+     *                               {@link Builder#setAdaptiveSampling(boolean)}
+     */
+    public SamplingStats getSamplingStats() {
+        if (samplingGovernor == null) {
+            throw new IllegalStateException("Adaptive sampling is not enabled");
+        }
+        return samplingGovernor.getStats(System.currentTimeMillis());
+    }
+
+    /**
+     * Get the state of the upload retry scheduler and circuit breaker.
+     * Useful for monitoring how the SDK copes with server or network outages.
+     *
+     * @return A snapshot of the current retry state
+     */
+    public RetryState getRetryState() {
+        return uploads.getRetryState();
+    }
+
+    /**
+     * Get user statistics using the {@link StatisticsMode} configured on the {@link Builder}.
      *
      * @param callback Callback to receive the statistics or error
      * @return The user identifier being queried, or null if not set
      */
     public String getUserStatistics(final ApiCallback<UserStatistics> callback) {
-        if (userIdentifier == null || userIdentifier.isEmpty()) {
+        return getUserStatistics(statisticsMode, callback);
+    }
+
+    /**
+     * Get user statistics.
+     *
+     * <p>With {@link StatisticsMode#SERVER} the statistics come from the server, through a
+     * cache (see {@link Builder#setStatisticsCache(long, long)}), and are delivered on the
+     * main thread. With {@link StatisticsMode#LOCAL} the callback runs
+     * immediately on the calling thread with statistics computed on the device, and a
+     * reconcile with the server is started in the background (at most every 5 minutes).</p>
+     *
+     * @param mode Where to get the statistics from
+     * @param callback Callback to receive the statistics or error
+     * @return The user identifier being queried, or null if not set
+     */
+    public String getUserStatistics(StatisticsMode mode, final ApiCallback<UserStatistics> callback) {
+        final String userId = userIdentifier;
+        if (userId == null || userId.isEmpty()) {
             callback.onError("User identifier not set");
             return null;
         }
 
-        apiClient.getUserStatistics(userIdentifier, callback);
-        return userIdentifier;
+        final long start = System.nanoTime();
+        if (mode == StatisticsMode.LOCAL) {
+            UserStatistics statistics = localAnalytics.getStatistics(userId);
+            recordStatisticsLatency(start);
+            callback.onSuccess(statistics);
+            requestReconcile(userId);
+            return userId;
+        }
+
+        // Responses arrive on the upload stage; the app receives them on the main thread
+        statisticsCache.get(userId, new ApiCallback<UserStatistics>() {
+            @Override
+            public void onSuccess(UserStatistics result) {
+                recordStatisticsLatency(start);
+                mainHandler.post(() -> callback.onSuccess(result));
+            }
+
+            @Override
+            public void onError(String errorMessage) {
+                recordStatisticsLatency(start);
+                mainHandler.post(() -> callback.onError(errorMessage));
+            }
+        });
+        return userId;
+    }
+
+    private void recordStatisticsLatency(long startNanos) {
+        metrics.record(Metric.STATISTICS_LATENCY_MILLIS, (System.nanoTime() - startNanos) / 1000000);
+    }
+
+    /**
+     * Get the statistics cache counters: fresh and stale hits, misses, and requests that
+     * were coalesced with one already in flight.
+     *
+     * @return A snapshot of the cache counters
+     */
+    public StatisticsCacheStats getStatisticsCacheStats() {
+        return statisticsCache.getStats();
+    }
+
+    /**
+     * Read the current user's stored locations in a time range, in pages of
+     * 500 with the next page prefetched.
+     *
+     * @param startTime Start of the time range in milliseconds, inclusive
+     * @param endTime End of the time range in milliseconds, inclusive
+     * @return A history to read the pages from
+     * @throws IllegalStateException if the user identifier is not set
+     * @see #getLocationHistory(String, long, long, int, boolean)
+     */
+    public LocationHistory getLocationHistory(long startTime, long endTime) {
+        String userId = userIdentifier;
+        if (userId == null || userId.isEmpty()) {
+            throw new IllegalStateException("User identifier not set");
+        }
+        return getLocationHistory(userId, startTime, endTime, DEFAULT_HISTORY_PAGE_SIZE, true);
+    }
+
+    /**
+     * Read a user's stored locations in a time range, oldest first, one page per
+     * {@link LocationHistory#next} call. Pages are parsed as they are received and delivered
+     * on the main thread, so at most a page or two are held in memory however long the
+     * range is.
+     *
+     * @param userId User whose locations are read
+     * @param startTime Start of the time range in milliseconds, inclusive
+     * @param endTime End of the time range in milliseconds, inclusive
+     * @param pageSize Maximum number of locations per page, from 1 to 1000
+     * @param prefetch Whether to request the following page while the app handles a page
+     * @return A history to read the pages from
+     * @throws IllegalArgumentException if the user identifier is empty, the time range is
+     *                                  reversed or the page size is out of range
+     */
+    public LocationHistory getLocationHistory(String userId, long startTime, long endTime, int pageSize,
+                                              boolean prefetch) {
+        if (userId == null || userId.isEmpty()) {
+            throw new IllegalArgumentException("User identifier must not be empty");
+        }
+        if (startTime > endTime) {
+            throw new IllegalArgumentException("Start time must not be after end time");
+        }
+        if (pageSize < 1 || pageSize > LocationPageSource.MAX_PAGE_SIZE) {
+            throw new IllegalArgumentException("Page size must be between 1 and " + LocationPageSource.MAX_PAGE_SIZE);
+        }
+        // Pages are read on network threads; the app receives them on the main thread
+        return new LocationHistory(apiClient, userId, startTime, endTime, pageSize, prefetch, mainHandler::post);
+    }
+
+    /**
+     * Fetch statistics for the cache and persist the cache once they are received.
+     */
+    private void fetchUserStatistics(String userId, String etag, long since,
+                                     final StatisticsCallback callback) {
+        apiClient.getUserStatistics(userId, etag, since, new StatisticsCallback() {
+            @Override
+            public void onSuccess(UserStatistics statistics, String etag) {
+                callback.onSuccess(statistics, etag);
+                saveStatisticsCache();
+                if (placeFilter != null) {
+                    pipeline.execute(PipelineStage.FILTER, LocationAnalyticsSDK.this::refreshKnownPlaces);
+                }
+            }
+
+            @Override
+            public void onNotModified() {
+                callback.onNotModified();
+                saveStatisticsCache();
+            }
+
+            @Override
+            public void onError(String message) {
+                callback.onError(message);
+            }
+        });
+    }
+
+    private void saveStatisticsCache() {
+        try {
+            statisticsCache.save();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save cached statistics", e);
+        }
+    }
+
+    /**
+     * Start reconciling local statistics with the server. The filter stage marks which fixes
+     * the server must have, the encode stage uploads them, and once they are acknowledged
+     * {@link #maybeFetchServerStatistics()} fetches the server's totals as the new baseline.
+     */
+    private void requestReconcile(final String userId) {
+        long now = System.currentTimeMillis();
+        if (now - lastReconcileTime < RECONCILE_INTERVAL_MILLIS || !reconcileInFlight.compareAndSet(false, true)) {
+            return;
+        }
+        lastReconcileTime = now;
+
+        boolean queued = pipeline.execute(PipelineStage.FILTER, () -> {
+            if (placeFilter != null) {
+                placeFilter.flush(simplifierWriter);
+            }
+            if (simplifier != null) {
+                simplifier.flush(ingestWriter);
+            }
+            if (!localAnalytics.beginReconcile(userId)) {
+                reconcileInFlight.set(false);
+                return;
+            }
+            reconcileCutoff = System.currentTimeMillis();
+            pipeline.execute(PipelineStage.ENCODE, () -> {
+                flush();
+                maybeFetchServerStatistics();
+            });
+        });
+        if (!queued) {
+            reconcileInFlight.set(false);
+        }
+    }
+
+    /**
+     * Encode stage: fetch the server's statistics for a pending reconcile once every fix
+     * recorded before its cutoff has been uploaded.
+     */
+    private void maybeFetchServerStatistics() {
+        long cutoff = reconcileCutoff;
+        if (cutoff < 0 || uploads.isUploadInFlight()) return;
+        if (!locationQueue.isEmpty() && locationQueue.oldestTimestamp() <= cutoff) return;
+        reconcileCutoff = -1;
+
+        final String userId = userIdentifier;
+        pipeline.execute(PipelineStage.UPLOAD, () -> statisticsCache.refresh(userId,
+                new ApiCallback<UserStatistics>() {
+                    @Override
+                    public void onSuccess(UserStatistics result) {
+                        localAnalytics.completeReconcile(userId, result);
+                        reconcileInFlight.set(false);
+                        pipeline.execute(PipelineStage.FILTER, LocationAnalyticsSDK.this::saveLocalAnalytics);
+                        Log.d(TAG, "Reconciled local statistics with server");
+                    }
+
+                    @Override
+                    public void onError(String errorMessage) {
+                        // Pending fixes stay counted locally until the next reconcile succeeds
+                        Log.e(TAG, "Failed to reconcile local statistics: " + errorMessage);
+                        reconcileInFlight.set(false);
+                    }
+                }));
+    }
+
+    /**
+     * Get the current user's most frequently visited stops, detected on the device.
+     * Unlike {@link #getUserStatistics(ApiCallback)} this needs no network connection and
+     * returns immediately; it covers the locations recorded by this installation.
+     *
+     * @return Up to 10 stops ordered by visit count, or an empty list if none were detected
+     */
+    public List<UserStatistics.LocationStop> getLocalStops() {
+        return localAnalytics.getStops(userIdentifier);
     }
 
     private void processLocation(Location location) {
         if (location == null) return;
 
-        LocationData locationData = new LocationData(
-                userIdentifier,
-                location.getLatitude(),
-                location.getLongitude(),
-                System.currentTimeMillis(),
-                location.getAccuracy()
-        );
+        String userId = userIdentifier;
+        long timestamp = System.currentTimeMillis();
+        // On-device analytics and the heatmap see every fix, before simplification
+        localAnalytics.add(userId, location.getLatitude(), location.getLongitude(), timestamp);
+        if (heatmapTiles != null) {
+            heatmapTiles.add(userId, location.getLatitude(), location.getLongitude(), timestamp);
+        }
+        locationStream.publish(userId, location.getLatitude(), location.getLongitude(), timestamp,
+                location.getAccuracy(), DEVICE_INFO);
+        if (++fixesSinceLocalSave >= LOCAL_SAVE_INTERVAL) {
+            saveLocalAnalytics();
+            refreshKnownPlaces();
+        }
+
+        if (placeFilter != null) {
+            placeFilter.add(userId, location.getLatitude(), location.getLongitude(),
+                    timestamp, location.getAccuracy(), DEVICE_INFO, simplifierWriter);
+        } else {
+            simplifierWriter.accept(userId, location.getLatitude(), location.getLongitude(),
+                    timestamp, location.getAccuracy(), DEVICE_INFO);
+        }
+    }
+
+    /**
+     * Filter stage: index the user's frequent stops, from the cached server statistics and
+     * from on-device stop detection, as the known places of the dwell filter.
+     */
+    private void refreshKnownPlaces() {
+        if (placeFilter == null) return;
+        String userId = userIdentifier;
+        UserStatistics serverStatistics = userId != null ? statisticsCache.peek(userId) : null;
+        List<UserStatistics.LocationStop> serverStops = serverStatistics != null
+                && serverStatistics.getCommonStops() != null
+                ? serverStatistics.getCommonStops() : Collections.<UserStatistics.LocationStop>emptyList();
+        placeFilter.setPlaces(userId, serverStops, localAnalytics.getStops(userId));
+    }
 
-        Log.d(TAG, "Location recorded: " + locationData);
-        cachedLocations.add(locationData);
-        sendCachedLocations();
+    /**
+     * Filter stage: persist the on-device analytics state.
+     */
+    private void saveLocalAnalytics() {
+        fixesSinceLocalSave = 0;
+        try {
+            localAnalytics.save();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save on-device analytics", e);
+        }
     }
 
-    private void sendCachedLocations() {
-        if (cachedLocations.isEmpty()) return;
+    private void offerToIngestBuffer(String userId, double latitude, double longitude, long timestamp,
+                                     float accuracy, String deviceInfo) {
+        localAnalytics.addUploaded(userId, latitude, longitude, timestamp);
 
-        final List<LocationData> locationsToSend = new ArrayList<>(cachedLocations);
-        Log.d(TAG, "Attempting to send " + locationsToSend.size() + " locations to server");
+        // Lock-free hand-off; no LocationData is allocated per fix
+        ingestBuffer.offer(userId, latitude, longitude, timestamp, accuracy, deviceInfo);
+        scheduleDrain();
+    }
 
-        cachedLocations.clear();
+    private void scheduleDrain() {
+        // Checked before the compare-and-set so producers do not all write the flag's cache line
+        if (!drainScheduled.get() && drainScheduled.compareAndSet(false, true)) {
+            pipeline.execute(PipelineStage.ENCODE, drainIngestBuffer);
+        }
+    }
 
-        apiClient.sendLocationData(locationsToSend, new ApiCallback<Void>() {
-            @Override
-            public void onSuccess(Void result) {
-                Log.d(TAG, "Successfully sent " + locationsToSend.size() + " locations to server");
+    /**
+     * Upload everything recorded so far. The filter stage first releases fixes held back by
+     * the simplifier and saves the on-device analytics, then the encode stage drains and uploads.
+     */
+    private void requestFlush() {
+        Runnable flushEncodeStage = () -> pipeline.execute(PipelineStage.ENCODE, this::flush);
+        if (!pipeline.execute(PipelineStage.FILTER, () -> {
+            if (placeFilter != null) {
+                placeFilter.flush(simplifierWriter);
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Dwell summaries kept " + placeFilter.getOutputCount() + " of "
+                            + placeFilter.getInputCount() + " locations over " + placeFilter.getDwellCount()
+                            + " dwells at " + placeFilter.getPlaceCount() + " known places");
+                }
             }
+            if (simplifier != null) {
+                simplifier.flush(ingestWriter);
+                if (Log.isLoggable(TAG, Log.DEBUG)) {
+                    Log.d(TAG, "Trajectory simplification kept " + simplifier.getOutputCount()
+                            + " of " + simplifier.getInputCount() + " locations");
+                }
+            }
+            saveLocalAnalytics();
+            flushEncodeStage.run();
+        })) {
+            flushEncodeStage.run();
+        }
+    }
+
+    /**
+     * Encode stage, the single consumer of the ingest buffers: moves buffered fixes to the
+     * persistent queue.
+     */
+    private void drainIngestBuffer() {
+        drainScheduled.set(false);
+        drainToQueue();
+        metrics.record(Metric.QUEUE_DEPTH, locationQueue.size());
+        uploads.checkBatchingPolicy();
+    }
+
+    private void drainToQueue() {
+        ingestBuffer.drain(queueWriter, Integer.MAX_VALUE);
+        if (fleetBuffer != null) {
+            // Bounded so a busy fleet cannot keep the encode stage draining forever; fixes
+            // offered meanwhile schedule another drain
+            fleetBuffer.drain(fleetWriter, fleetBuffer.size());
+        }
+        reportBufferOverflows();
+    }
+
+    /**
+     * Encode stage: report the fixes the ingest buffers dropped or spilled since the last call.
+     */
+    private void reportBufferOverflows() {
+        long dropped = ingestBuffer.getDroppedCount();
+        long spilled = ingestBuffer.getSpilledCount();
+        if (fleetBuffer != null) {
+            dropped += fleetBuffer.getDroppedCount();
+            spilled += fleetBuffer.getSpilledCount();
+        }
+        if (dropped > reportedDroppedFixes) {
+            metrics.increment(Metric.FIXES_DROPPED, dropped - reportedDroppedFixes);
+            reportedDroppedFixes = dropped;
+        }
+        if (spilled > reportedSpilledFixes) {
+            metrics.increment(Metric.FIXES_SPILLED, spilled - reportedSpilledFixes);
+            reportedSpilledFixes = spilled;
+        }
+    }
+
+    private void writeToQueue(String userId, double latitude, double longitude, long timestamp,
+                              float accuracy, String deviceInfo) {
+        try {
+            locationQueue.append(userId, latitude, longitude, timestamp, accuracy, deviceInfo);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to persist location", e);
+        } catch (IllegalArgumentException e) {
+            // Too large to persist, e.g. an over-long user ID; the fixes after it are unaffected
+            metrics.increment(Metric.FIXES_DROPPED, 1);
+            Log.e(TAG, "Dropped location: " + e.getMessage());
+        }
+    }
+
+    private void writeFleetFixToQueue(String userId, double latitude, double longitude, long timestamp,
+                                      float accuracy, String deviceInfo) {
+        if (heatmapTiles != null) {
+            heatmapTiles.add(userId, latitude, longitude, timestamp);
+        }
+        locationStream.publish(userId, latitude, longitude, timestamp, accuracy, deviceInfo);
+        writeToQueue(userId, latitude, longitude, timestamp, accuracy, deviceInfo);
+    }
 
+    /**
+     * Encode stage: uploads everything recorded so far, bypassing the batching policy.
+     */
+    private void flush() {
+        drainToQueue();
+        uploads.flush();
+        if (heatmapTiles != null) {
+            pipeline.execute(PipelineStage.UPLOAD, this::uploadHeatmapTiles);
+        }
+    }
+
+    /**
+     * Upload stage: send the heatmap counts recorded since the last upload, or first resend
+     * those the server did not acknowledge. Runs after every acknowledged location batch and
+     * on flush, so the counts travel while the radio is awake anyway.
+     */
+    private void uploadHeatmapTiles() {
+        if (heatmapTiles == null) return;
+        final HeatmapTiles.Snapshot snapshot = heatmapTiles.seal();
+        if (snapshot == null) return;
+        apiClient.sendHeatmapTiles(snapshot, new UploadCallback() {
             @Override
-            public void onError(String message) {
-                Log.e(TAG, "Failed to send locations: " + message);
-                cachedLocations.addAll(locationsToSend);
+            public void onSuccess() {
+                heatmapTiles.acknowledge(snapshot);
+            }
 
-                new Handler(Looper.getMainLooper()).postDelayed(() -> {
-                    Log.d(TAG, "Retrying location send...");
-                    sendCachedLocations();
-                }, 30000);
+            @Override
+            public void onError(String message, long retryAfterMillis) {
+                Log.e(TAG, "Failed to send heatmap tiles: " + message);
+                heatmapTiles.release(snapshot);
             }
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * Logs upload progress and starts a pending statistics reconcile once a batch is
+     * acknowledged.
+     */
+    private class UploadLogger implements UploadCoordinator.Listener {
+        @Override
+        public void onUploadDeferred(RetryState state) {
+            Log.d(TAG, "Upload deferred by retry scheduler: " + state);
+        }
+
+        @Override
+        public void onUploadStarted(int batchSize, int queuedCount) {
+            Log.d(TAG, "Attempting to send " + batchSize + " of " + queuedCount + " queued locations to server");
+        }
+
+        @Override
+        public void onUploadSucceeded(int batchSize) {
+            Log.d(TAG, "Successfully sent " + batchSize + " locations to server");
+            maybeFetchServerStatistics();
+            if (heatmapTiles != null) {
+                pipeline.execute(PipelineStage.UPLOAD, LocationAnalyticsSDK.this::uploadHeatmapTiles);
+            }
+        }
+
+        @Override
+        public void onUploadFailed(String message, long retryDelayMillis, RetryState state) {
+            Log.e(TAG, "Failed to send locations: " + message);
+            Log.d(TAG, "Next upload attempt in " + retryDelayMillis + "ms: " + state);
+        }
+
+        @Override
+        public void onRetry() {
+            Log.d(TAG, "Retrying location send...");
+        }
+    }
+}
@@ -4,11 +4,28 @@ import android.util.Log;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
-import java.util.HashMap;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.ForwardingSink;
+import okio.Okio;
+import okio.Sink;
 import retrofit2.Call;
 import retrofit2.Callback;
 import retrofit2.Response;
@@ -22,81 +39,324 @@ import retrofit2.converter.gson.GsonConverterFactory;
  *
  * @internal This class is for internal SDK use only
  */
-class LocationApiClient {
+class LocationApiClient implements BatchUploader, LocationPageSource {
     private static final String TAG = "LocationApiClient";
+    private static final MediaType BATCH_MEDIA_TYPE = MediaType.parse(LocationBatchCodec.CONTENT_TYPE);
+    private static final MediaType JSON_MEDIA_TYPE = MediaType.parse("application/json; charset=UTF-8");
+    private static final int HTTP_NOT_MODIFIED = 304;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_UNSUPPORTED_MEDIA_TYPE = 415;
+
+    /** Response header a server that decodes binary batches sends with every answer to one */
+    static final String BATCH_VERSIONS_HEADER = "X-Location-Batch-Versions";
+
+    /** Base URLs of servers found not to support binary batches in this process */
+    private static final Set<String> jsonOnlyServers = ConcurrentHashMap.newKeySet();
+
     private final LocationApiService apiService;
+    /** Delivers responses on the network thread, so history pages are parsed as they arrive */
+    private final LocationApiService streamingService;
+    private final HttpTransport transport;
+    private final String baseUrl;
     private final String apiKey;
+    private final MetricsSink metrics;
+    private final LocationBatchCodec batchCodec;
+    private volatile boolean binaryUploads;
 
     /**
      * Constructor for internal use by the SDK.
      *
      * @param baseUrl The base URL for API requests
      * @param apiKey The API key for authentication
+     * @param binaryUploads Whether to send location batches in the compact binary encoding
+     * @param cellPrecision Geohash precision of cell batches, or 0 to send exact coordinates;
+     *                      cell batches are always sent in the binary encoding
+     * @param callbackExecutor Executor on which all response callbacks are delivered
+     * @param transport Shared HTTP transport the requests are sent through
+     * @param metrics Receives the size of every encoded upload
      */
-    LocationApiClient(String baseUrl, String apiKey) {
+    LocationApiClient(String baseUrl, String apiKey, boolean binaryUploads, int cellPrecision,
+                      Executor callbackExecutor, HttpTransport transport, MetricsSink metrics) {
+        this.transport = transport;
+        this.metrics = metrics;
+        this.baseUrl = baseUrl;
         this.apiKey = apiKey;
+        this.binaryUploads = (binaryUploads || cellPrecision > 0) && !jsonOnlyServers.contains(baseUrl);
+        this.batchCodec = new LocationBatchCodec(cellPrecision);
         Log.d("SERVER_DEBUG", "LocationApiClient received URL = " + baseUrl);
 
+        // Streaming adapters for all wire types, so responses are parsed without reflection
         Gson gson = new GsonBuilder()
+                .registerTypeAdapterFactory(JsonAdapters.FACTORY)
                 .setLenient()
                 .create();
 
         Retrofit retrofit = new Retrofit.Builder()
                 .baseUrl(baseUrl)
+                .client(transport.getClient())
                 .addConverterFactory(GsonConverterFactory.create(gson))
+                .callbackExecutor(callbackExecutor)
                 .build();
 
         apiService = retrofit.create(LocationApiService.class);
+        streamingService = retrofit.newBuilder()
+                .callbackExecutor(Runnable::run)
+                .build()
+                .create(LocationApiService.class);
+    }
+
+    /**
+     * Open a connection to the server ahead of the first request.
+     *
+     * @see HttpTransport#preconnect(String)
+     */
+    void preconnect() {
+        transport.preconnect(baseUrl);
     }
 
     /**
      * Send location data to the server.
+     * Uses the binary encoding when enabled and supported by the server, JSON otherwise.
      *
-     * @param locationDataList List of location data to send
+     * @param locationDataList Location data to send; must stay unchanged until the callback runs
+     * @param idempotencyKey Key the server uses to store the batch at most once
+     * @param sequence Sequence number of the batch
      * @param callback Callback for handling success or error
      */
-    void sendLocationData(List<LocationData> locationDataList, final ApiCallback<Void> callback) {
-        Map<String, Object> requestBody = new HashMap<>();
-        requestBody.put("apiKey", apiKey);
-        requestBody.put("locations", locationDataList);
+    @Override
+    public void sendLocationData(LocationBuffer locationDataList, String idempotencyKey, long sequence,
+                                 final UploadCallback callback) {
+        if (binaryUploads) {
+            sendEncodedLocationData(locationDataList, idempotencyKey, sequence, callback);
+        } else {
+            sendJsonLocationData(locationDataList, idempotencyKey, sequence, callback);
+        }
+    }
+
+    private void sendEncodedLocationData(LocationBuffer locationDataList, final String idempotencyKey,
+                                         final long sequence, final UploadCallback callback) {
+        byte[] payload;
+        synchronized (batchCodec) {
+            payload = batchCodec.encode(locationDataList);
+        }
+        Log.d(TAG, "Sending " + locationDataList.size() + " locations to server (" + payload.length + " bytes, binary)");
+        metrics.record(Metric.ENCODED_BYTES, payload.length);
 
+        Call<ApiResponse<Void>> call = apiService.sendEncodedLocationData(apiKey, idempotencyKey, sequence,
+                RequestBody.create(BATCH_MEDIA_TYPE, payload));
+        call.enqueue(new UploadResponseHandler(locationDataList, callback) {
+            @Override
+            public void onResponse(Call<ApiResponse<Void>> call, Response<ApiResponse<Void>> response) {
+                if (isBinaryUnsupported(response.code(), response.headers())) {
+                    // Stay on JSON for this server from now on, also in clients created later
+                    Log.w(TAG, "Server rejected binary batch (" + response.code() + "), falling back to JSON");
+                    jsonOnlyServers.add(baseUrl);
+                    binaryUploads = false;
+                    sendJsonLocationData(locationDataList, idempotencyKey, sequence, callback);
+                } else {
+                    super.onResponse(call, response);
+                }
+            }
+        });
+    }
+
+    /**
+     * Decide whether a failed binary upload means the server cannot take binary batches.
+     * A 415 rejects the encoding or the batch version. A server without binary support
+     * reads the body as empty JSON and answers 400; a server with it marks its answers with
+     * {@link #BATCH_VERSIONS_HEADER}, so only a 400 with that header is a bad batch, which
+     * is retried like any other failed upload.
+     */
+    static boolean isBinaryUnsupported(int code, Headers headers) {
+        return code == HTTP_UNSUPPORTED_MEDIA_TYPE
+                || (code == HTTP_BAD_REQUEST && headers.get(BATCH_VERSIONS_HEADER) == null);
+    }
+
+    private void sendJsonLocationData(LocationBuffer locationDataList, String idempotencyKey, long sequence,
+                                      final UploadCallback callback) {
         Log.d(TAG, "Sending " + locationDataList.size() + " locations to server");
 
-        Call<ApiResponse<Void>> call = apiService.sendLocationData(requestBody);
+        Call<ApiResponse<Void>> call = apiService.sendLocationData(idempotencyKey, sequence,
+                new JsonBatchBody(apiKey, locationDataList, metrics));
+        call.enqueue(new UploadResponseHandler(locationDataList, callback));
+    }
+
+    /**
+     * Send heatmap tile counts to the server.
+     *
+     * @param snapshot Counts to send, with the idempotency key they are stored under
+     * @param callback Callback for handling success or error
+     */
+    void sendHeatmapTiles(final HeatmapTiles.Snapshot snapshot, final UploadCallback callback) {
+        Call<ApiResponse<Void>> call = apiService.sendHeatmapTiles(snapshot.idempotencyKey,
+                new HeatmapTilesBody(apiKey, snapshot, metrics));
         call.enqueue(new Callback<ApiResponse<Void>>() {
             @Override
             public void onResponse(Call<ApiResponse<Void>> call, Response<ApiResponse<Void>> response) {
                 if (response.isSuccessful() && response.body() != null && response.body().isSuccess()) {
-                    Log.d(TAG, "Successfully sent " + locationDataList.size() + " locations to server");
-                    callback.onSuccess(null);
+                    Log.d(TAG, "Successfully sent heatmap tiles of " + snapshot.fixCount + " locations");
+                    callback.onSuccess();
                 } else {
                     String errorMsg = response.body() != null ? response.body().getMessage() : "Unknown error";
-                    Log.e(TAG, "API Error: " + errorMsg + ". Response code: " + response.code());
-                    callback.onError("API Error: " + errorMsg);
+                    Log.e(TAG, "API Error sending heatmap tiles: " + errorMsg + ". Response code: " + response.code());
+                    callback.onError("API Error: " + errorMsg, parseRetryAfter(response.headers()));
                 }
             }
 
             @Override
             public void onFailure(Call<ApiResponse<Void>> call, Throwable t) {
                 Log.e(TAG, "API call failed", t);
-                callback.onError("Network error: " + t.getMessage());
+                callback.onError("Network error: " + t.getMessage(), 0);
             }
         });
     }
 
     /**
-     * Get user statistics from the server.
+     * JSON upload body written straight from the buffer to the connection while the request
+     * is sent, so no request map, {@link LocationData} views or intermediate string are built.
+     * It may be written more than once if the request is retried.
+     */
+    private static class JsonBatchBody extends RequestBody {
+        private final String apiKey;
+        private final LocationBuffer locations;
+        private final MetricsSink metrics;
+
+        JsonBatchBody(String apiKey, LocationBuffer locations, MetricsSink metrics) {
+            this.apiKey = apiKey;
+            this.locations = locations;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return JSON_MEDIA_TYPE;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            CountingSink counter = new CountingSink(sink);
+            BufferedSink counted = Okio.buffer(counter);
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(counted.outputStream(), StandardCharsets.UTF_8));
+            JsonAdapters.writeLocationBatch(writer, apiKey, locations);
+            // Flush, but leave closing the sink to OkHttp
+            writer.flush();
+            metrics.record(Metric.ENCODED_BYTES, counter.byteCount);
+        }
+    }
+
+    /**
+     * Heatmap upload body written straight from the snapshot while the request is sent.
+     */
+    private static class HeatmapTilesBody extends RequestBody {
+        private final String apiKey;
+        private final HeatmapTiles.Snapshot snapshot;
+        private final MetricsSink metrics;
+
+        HeatmapTilesBody(String apiKey, HeatmapTiles.Snapshot snapshot, MetricsSink metrics) {
+            this.apiKey = apiKey;
+            this.snapshot = snapshot;
+            this.metrics = metrics;
+        }
+
+        @Override
+        public MediaType contentType() {
+            return JSON_MEDIA_TYPE;
+        }
+
+        @Override
+        public void writeTo(BufferedSink sink) throws IOException {
+            CountingSink counter = new CountingSink(sink);
+            BufferedSink counted = Okio.buffer(counter);
+            JsonWriter writer = new JsonWriter(new OutputStreamWriter(counted.outputStream(), StandardCharsets.UTF_8));
+            JsonAdapters.writeHeatmapTiles(writer, apiKey, snapshot);
+            writer.flush();
+            metrics.record(Metric.ENCODED_BYTES, counter.byteCount);
+        }
+    }
+
+    /**
+     * Counts the bytes written through it.
+     */
+    private static class CountingSink extends ForwardingSink {
+        long byteCount;
+
+        CountingSink(Sink delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void write(Buffer source, long byteCount) throws IOException {
+            super.write(source, byteCount);
+            this.byteCount += byteCount;
+        }
+    }
+
+    /**
+     * Maps upload responses to {@link UploadCallback}, extracting {@code Retry-After}.
+     */
+    private static class UploadResponseHandler implements Callback<ApiResponse<Void>> {
+        private final LocationBuffer locationDataList;
+        private final UploadCallback callback;
+
+        UploadResponseHandler(LocationBuffer locationDataList, UploadCallback callback) {
+            this.locationDataList = locationDataList;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onResponse(Call<ApiResponse<Void>> call, Response<ApiResponse<Void>> response) {
+            if (response.isSuccessful() && response.body() != null && response.body().isSuccess()) {
+                Log.d(TAG, "Successfully sent " + locationDataList.size() + " locations to server");
+                callback.onSuccess();
+            } else {
+                String errorMsg = response.body() != null ? response.body().getMessage() : "Unknown error";
+                Log.e(TAG, "API Error: " + errorMsg + ". Response code: " + response.code());
+                callback.onError("API Error: " + errorMsg, parseRetryAfter(response.headers()));
+            }
+        }
+
+        @Override
+        public void onFailure(Call<ApiResponse<Void>> call, Throwable t) {
+            Log.e(TAG, "API call failed", t);
+            callback.onError("Network error: " + t.getMessage(), 0);
+        }
+    }
+
+    /**
+     * Parse a {@code Retry-After} header given either in seconds or as an HTTP date.
+     *
+     * @return Requested delay in milliseconds, or 0 if absent or unparseable
+     */
+    static long parseRetryAfter(Headers headers) {
+        String value = headers.get("Retry-After");
+        if (value == null) return 0;
+        try {
+            return Math.max(0, Long.parseLong(value.trim()) * 1000);
+        } catch (NumberFormatException e) {
+            Date date = headers.getDate("Retry-After");
+            return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : 0;
+        }
+    }
+
+    /**
+     * Get user statistics from the server, conditionally.
      *
      * @param userId The user ID to get statistics for
-     * @param callback Callback for handling the statistics or error
+     * @param etag Version tag of the caller's copy, or null to always get statistics
+     * @param since Last location timestamp of the caller's copy to get only the change
+     *              since then, or 0 to get full statistics
+     * @param callback Callback for handling the statistics, an unchanged result or error
      */
-    void getUserStatistics(String userId, final ApiCallback<UserStatistics> callback) {
-        Call<ApiResponse<UserStatistics>> call = apiService.getUserStatistics(apiKey, userId);
+    void getUserStatistics(String userId, String etag, long since, final StatisticsCallback callback) {
+        Call<ApiResponse<UserStatistics>> call = apiService.getUserStatistics(apiKey, userId, etag,
+                since > 0 ? since : null);
         call.enqueue(new Callback<ApiResponse<UserStatistics>>() {
             @Override
             public void onResponse(Call<ApiResponse<UserStatistics>> call, Response<ApiResponse<UserStatistics>> response) {
-                if (response.isSuccessful() && response.body() != null && response.body().isSuccess()) {
-                    callback.onSuccess(response.body().getData());
+                if (response.code() == HTTP_NOT_MODIFIED) {
+                    callback.onNotModified();
+                } else if (response.isSuccessful() && response.body() != null && response.body().isSuccess()) {
+                    callback.onSuccess(response.body().getData(), response.headers().get("ETag"));
                 } else {
                     String errorMsg = response.body() != null ? response.body().getMessage() : "Unknown error";
                     Log.e(TAG, "API Error getting statistics: " + errorMsg);
@@ -111,4 +371,44 @@ class LocationApiClient {
             }
         });
     }
-}
\ No newline at end of file
+
+    /**
+     * Get one page of a user's stored locations. The response is parsed on the network
+     * thread while it is read, and the callback is delivered there too.
+     */
+    @Override
+    public void getLocationPage(String userId, long startTime, long endTime, String cursor, int pageSize,
+                                final LocationPageSource.PageCallback callback) {
+        Call<ResponseBody> call = streamingService.getLocationPage(apiKey, userId, startTime, endTime, cursor, pageSize);
+        call.enqueue(new Callback<ResponseBody>() {
+            @Override
+            public void onResponse(Call<ResponseBody> call, Response<ResponseBody> response) {
+                if (!response.isSuccessful() || response.body() == null) {
+                    if (response.errorBody() != null) {
+                        response.errorBody().close();
+                    }
+                    Log.e(TAG, "API Error getting location history. Response code: " + response.code());
+                    callback.onError("API Error: HTTP " + response.code());
+                    return;
+                }
+                List<LocationData> locations = new ArrayList<>();
+                String nextCursor;
+                try (ResponseBody body = response.body();
+                     JsonReader reader = new JsonReader(body.charStream())) {
+                    nextCursor = JsonAdapters.readLocationPage(reader, pageSize, locations);
+                } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Error reading location history", e);
+                    callback.onError("API Error: " + e.getMessage());
+                    return;
+                }
+                callback.onPage(locations, nextCursor);
+            }
+
+            @Override
+            public void onFailure(Call<ResponseBody> call, Throwable t) {
+                Log.e(TAG, "API call failed", t);
+                callback.onError("Network error: " + t.getMessage());
+            }
+        });
+    }
+}
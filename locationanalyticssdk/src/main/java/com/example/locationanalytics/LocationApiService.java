@@ -1,20 +1,77 @@
 package com.example.locationanalytics;
 
-import java.util.Map;
-
+import okhttp3.RequestBody;
+import okhttp3.ResponseBody;
 import retrofit2.Call;
 import retrofit2.http.Body;
 import retrofit2.http.GET;
+import retrofit2.http.Header;
+import retrofit2.http.Headers;
 import retrofit2.http.POST;
 import retrofit2.http.Query;
+import retrofit2.http.Streaming;
 
 public interface LocationApiService {
+    /**
+     * Send a JSON batch, {@code {"apiKey": ..., "locations": [...]}}. The server stores it at
+     * most once per idempotency key, so it can be sent again safely when the response is lost.
+     */
+    @POST("api/location/batch")
+    Call<ApiResponse<Void>> sendLocationData(
+            @Header(BatchUploader.IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
+            @Header(BatchUploader.SEQUENCE_HEADER) long sequence,
+            @Body RequestBody requestBody
+    );
+
+    /**
+     * Send a batch encoded by {@link LocationBatchCodec}. The body's content type tells
+     * the server which decoder to use; servers without binary support reply 415.
+     */
     @POST("api/location/batch")
-    Call<ApiResponse<Void>> sendLocationData(@Body Map<String, Object> requestBody);
+    @Headers("Content-Encoding: gzip")
+    Call<ApiResponse<Void>> sendEncodedLocationData(
+            @Query("api_key") String apiKey,
+            @Header(BatchUploader.IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
+            @Header(BatchUploader.SEQUENCE_HEADER) long sequence,
+            @Body RequestBody requestBody
+    );
 
+    /**
+     * Send heatmap tile counts, written by {@link JsonAdapters#writeHeatmapTiles}. The server
+     * adds them to its tiles at most once per idempotency key.
+     */
+    @POST("api/heatmap/tiles")
+    Call<ApiResponse<Void>> sendHeatmapTiles(
+            @Header(BatchUploader.IDEMPOTENCY_KEY_HEADER) String idempotencyKey,
+            @Body RequestBody requestBody
+    );
+
+    /**
+     * Conditional statistics request. The server replies 304 when the statistics still match
+     * {@code ifNoneMatch}, and only the change since {@code since} when it is given.
+     */
     @GET("api/user/statistics")
     Call<ApiResponse<UserStatistics>> getUserStatistics(
             @Query("api_key") String apiKey,
-            @Query("user_id") String userId
+            @Query("user_id") String userId,
+            @Header("If-None-Match") String ifNoneMatch,
+            @Query("since") Long since
+    );
+
+    /**
+     * One page of a user's locations in a time range, oldest first. The body is not buffered,
+     * so it can be read with {@link JsonAdapters#readLocationPage} as it arrives.
+     *
+     * @param cursor Cursor returned with the previous page, or null for the first page
+     */
+    @Streaming
+    @GET("api/locations")
+    Call<ResponseBody> getLocationPage(
+            @Query("api_key") String apiKey,
+            @Query("user_id") String userId,
+            @Query("start_time") long startTime,
+            @Query("end_time") long endTime,
+            @Query("cursor") String cursor,
+            @Query("page_size") int pageSize
     );
-}
\ No newline at end of file
+}
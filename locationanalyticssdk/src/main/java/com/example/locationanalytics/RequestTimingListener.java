@@ -0,0 +1,15 @@
+package com.example.locationanalytics;
+
+/**
+ * Receives the phase timings of every HTTP request the SDK makes.
+ * Register one with {@link LocationAnalyticsSDK.Builder#setRequestTimingListener(RequestTimingListener)}.
+ */
+public interface RequestTimingListener {
+    /**
+     * Called when a request completes or fails. Runs on an SDK network thread, so
+     * implementations must be thread-safe and return quickly.
+     *
+     * @param timings Timings of the request
+     */
+    void onRequestTimings(RequestTimings timings);
+}
@@ -0,0 +1,181 @@
+package com.example.locationanalytics;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Phase timings of one HTTP request made by the SDK, for finding out where upload and
+ * statistics latency goes. Delivered to a {@link RequestTimingListener}.
+ *
+ * <p>Phases that did not happen report -1. A request on a reused connection, for example,
+ * has no DNS, connect or TLS phase.</p>
+ */
+public class RequestTimings {
+    private final String method;
+    private final String path;
+    private final String protocol;
+    private final boolean connectionReused;
+    private final boolean successful;
+    private final long dnsMillis;
+    private final long connectMillis;
+    private final long tlsMillis;
+    private final long requestMillis;
+    private final long timeToFirstByteMillis;
+    private final long responseBodyMillis;
+    private final long totalMillis;
+    private final long requestBytes;
+    private final long responseBytes;
+
+    RequestTimings(String method, String path, String protocol, boolean connectionReused, boolean successful,
+                   long dnsMillis, long connectMillis, long tlsMillis, long requestMillis,
+                   long timeToFirstByteMillis, long responseBodyMillis, long totalMillis,
+                   long requestBytes, long responseBytes) {
+        this.method = method;
+        this.path = path;
+        this.protocol = protocol;
+        this.connectionReused = connectionReused;
+        this.successful = successful;
+        this.dnsMillis = dnsMillis;
+        this.connectMillis = connectMillis;
+        this.tlsMillis = tlsMillis;
+        this.requestMillis = requestMillis;
+        this.timeToFirstByteMillis = timeToFirstByteMillis;
+        this.responseBodyMillis = responseBodyMillis;
+        this.totalMillis = totalMillis;
+        this.requestBytes = requestBytes;
+        this.responseBytes = responseBytes;
+    }
+
+    /**
+     * Get the HTTP method of the request.
+     * @return Method such as "POST"
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * Get the path of the request, without the query string.
+     * @return Request path such as "/api/location/batch"
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Get the protocol negotiated for the connection.
+     * @return Protocol such as "h2" or "http/1.1", or null if no connection was established
+     */
+    public String getProtocol() {
+        return protocol;
+    }
+
+    /**
+     * Check whether the request used a pooled connection instead of opening a new one.
+     * @return true if the connection was reused
+     */
+    public boolean isConnectionReused() {
+        return connectionReused;
+    }
+
+    /**
+     * Check whether a response was received. HTTP error statuses count as received.
+     * @return false if the request failed with a network error
+     */
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    /**
+     * Get the time spent resolving the host name.
+     * @return Duration in milliseconds, or -1 if no lookup was made
+     */
+    public long getDnsMillis() {
+        return dnsMillis;
+    }
+
+    /**
+     * Get the time spent establishing the TCP connection, excluding the TLS handshake.
+     * @return Duration in milliseconds, or -1 if no connection was opened
+     */
+    public long getConnectMillis() {
+        return connectMillis;
+    }
+
+    /**
+     * Get the time spent on the TLS handshake.
+     * @return Duration in milliseconds, or -1 if no handshake was made
+     */
+    public long getTlsMillis() {
+        return tlsMillis;
+    }
+
+    /**
+     * Get the time spent sending the request headers and body.
+     * @return Duration in milliseconds, or -1 if the request was not sent
+     */
+    public long getRequestMillis() {
+        return requestMillis;
+    }
+
+    /**
+     * Get the time from the request being sent to the first byte of the response,
+     * which is mostly server processing time.
+     * @return Duration in milliseconds, or -1 if no response was received
+     */
+    public long getTimeToFirstByteMillis() {
+        return timeToFirstByteMillis;
+    }
+
+    /**
+     * Get the time spent receiving the response headers and body.
+     * @return Duration in milliseconds, or -1 if no response was received
+     */
+    public long getResponseBodyMillis() {
+        return responseBodyMillis;
+    }
+
+    /**
+     * Get the time from the start of the call until it completed or failed.
+     * @return Duration in milliseconds
+     */
+    public long getTotalMillis() {
+        return totalMillis;
+    }
+
+    /**
+     * Get the size of the request body as sent, after any compression.
+     * @return Size in bytes, or -1 if no body was sent
+     */
+    public long getRequestBytes() {
+        return requestBytes;
+    }
+
+    /**
+     * Get the size of the response body as received.
+     * @return Size in bytes, or -1 if no body was received
+     */
+    public long getResponseBytes() {
+        return responseBytes;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        return "RequestTimings{" +
+                "method='" + method + '\'' +
+                ", path='" + path + '\'' +
+                ", protocol='" + protocol + '\'' +
+                ", connectionReused=" + connectionReused +
+                ", successful=" + successful +
+                ", dnsMillis=" + dnsMillis +
+                ", connectMillis=" + connectMillis +
+                ", tlsMillis=" + tlsMillis +
+                ", requestMillis=" + requestMillis +
+                ", timeToFirstByteMillis=" + timeToFirstByteMillis +
+                ", responseBodyMillis=" + responseBodyMillis +
+                ", totalMillis=" + totalMillis +
+                ", requestBytes=" + requestBytes +
+                ", responseBytes=" + responseBytes +
+                '}';
+    }
+}
@@ -0,0 +1,214 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.Handshake;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Route;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the phase timings reported by {@link HttpTransport.TimingEventListener},
+ * driven by OkHttp's events on a clock the test advances.
+ */
+public class HttpTransportTest {
+    private static final OkHttpClient CLIENT = new OkHttpClient();
+    private static final InetSocketAddress ADDRESS = InetSocketAddress.createUnresolved("example.com", 443);
+
+    private final List<RequestTimings> reported = new ArrayList<>();
+    private long nowNanos;
+    private final HttpTransport.TimingEventListener listener =
+            new HttpTransport.TimingEventListener(reported::add, () -> nowNanos);
+    private final Call call = CLIENT.newCall(new Request.Builder()
+            .url("https://example.com/api/locations")
+            .post(RequestBody.create(MediaType.get("application/json"), "{}"))
+            .build());
+
+    private void at(long millis) {
+        nowNanos = millis * 1_000_000;
+    }
+
+    private static Connection connection(Protocol protocol) {
+        return new Connection() {
+            @Override
+            public Route route() {
+                return null;
+            }
+
+            @Override
+            public Socket socket() {
+                return null;
+            }
+
+            @Override
+            public Handshake handshake() {
+                return null;
+            }
+
+            @Override
+            public Protocol protocol() {
+                return protocol;
+            }
+        };
+    }
+
+    /** Send the request and read the response, starting at {@code start} milliseconds */
+    private void exchange(long start, Protocol protocol) {
+        listener.connectionAcquired(call, connection(protocol));
+        at(start);
+        listener.requestHeadersStart(call);
+        at(start + 1);
+        listener.requestHeadersEnd(call, call.request());
+        listener.requestBodyStart(call);
+        at(start + 8);
+        listener.requestBodyEnd(call, 512);
+        at(start + 58);
+        listener.responseHeadersStart(call);
+        listener.responseBodyStart(call);
+        at(start + 68);
+        listener.responseBodyEnd(call, 64);
+    }
+
+    private RequestTimings onlyReport() {
+        assertEquals(1, reported.size());
+        return reported.get(0);
+    }
+
+    @Test
+    public void newTlsConnection_reportsEveryPhase_withTlsSubtractedFromConnect() {
+        at(0);
+        listener.callStart(call);
+        at(1);
+        listener.dnsStart(call, "example.com");
+        at(11);
+        listener.dnsEnd(call, "example.com", Collections.emptyList());
+        listener.connectStart(call, ADDRESS, Proxy.NO_PROXY);
+        at(31);
+        listener.secureConnectStart(call);
+        at(81);
+        listener.secureConnectEnd(call, null);
+        at(82);
+        listener.connectEnd(call, ADDRESS, Proxy.NO_PROXY, Protocol.HTTP_2);
+        exchange(82, Protocol.HTTP_2);
+        at(151);
+        listener.callEnd(call);
+
+        RequestTimings timings = onlyReport();
+        assertEquals("POST", timings.getMethod());
+        assertEquals("/api/locations", timings.getPath());
+        assertEquals("h2", timings.getProtocol());
+        assertFalse(timings.isConnectionReused());
+        assertTrue(timings.isSuccessful());
+        assertEquals(10, timings.getDnsMillis());
+        assertEquals(21, timings.getConnectMillis());
+        assertEquals(50, timings.getTlsMillis());
+        assertEquals(8, timings.getRequestMillis());
+        assertEquals(50, timings.getTimeToFirstByteMillis());
+        assertEquals(10, timings.getResponseBodyMillis());
+        assertEquals(151, timings.getTotalMillis());
+        assertEquals(512, timings.getRequestBytes());
+        assertEquals(64, timings.getResponseBytes());
+    }
+
+    @Test
+    public void plainConnection_reportsNoTls_andTheWholeConnect() {
+        at(0);
+        listener.callStart(call);
+        listener.dnsStart(call, "example.com");
+        at(5);
+        listener.dnsEnd(call, "example.com", Collections.emptyList());
+        listener.connectStart(call, ADDRESS, Proxy.NO_PROXY);
+        at(25);
+        listener.connectEnd(call, ADDRESS, Proxy.NO_PROXY, Protocol.HTTP_1_1);
+        exchange(25, Protocol.HTTP_1_1);
+        listener.callEnd(call);
+
+        RequestTimings timings = onlyReport();
+        assertEquals("http/1.1", timings.getProtocol());
+        assertFalse(timings.isConnectionReused());
+        assertEquals(20, timings.getConnectMillis());
+        assertEquals(-1, timings.getTlsMillis());
+    }
+
+    @Test
+    public void reusedConnection_reportsNoConnectionPhases() {
+        at(0);
+        listener.callStart(call);
+        exchange(2, Protocol.HTTP_2);
+        at(75);
+        listener.callEnd(call);
+
+        RequestTimings timings = onlyReport();
+        assertTrue(timings.isConnectionReused());
+        assertTrue(timings.isSuccessful());
+        assertEquals(-1, timings.getDnsMillis());
+        assertEquals(-1, timings.getConnectMillis());
+        assertEquals(-1, timings.getTlsMillis());
+        assertEquals(8, timings.getRequestMillis());
+        assertEquals(50, timings.getTimeToFirstByteMillis());
+        assertEquals(75, timings.getTotalMillis());
+    }
+
+    @Test
+    public void failedConnect_reportsAnUnsuccessfulCall() {
+        at(0);
+        listener.callStart(call);
+        listener.dnsStart(call, "example.com");
+        at(4);
+        listener.dnsEnd(call, "example.com", Collections.emptyList());
+        listener.connectStart(call, ADDRESS, Proxy.NO_PROXY);
+        listener.secureConnectStart(call);
+        at(15_000);
+        IOException timeout = new IOException("connect timed out");
+        listener.connectFailed(call, ADDRESS, Proxy.NO_PROXY, null, timeout);
+        listener.callFailed(call, timeout);
+
+        RequestTimings timings = onlyReport();
+        assertFalse(timings.isSuccessful());
+        // No connection was acquired, so none was reused either
+        assertNull(timings.getProtocol());
+        assertFalse(timings.isConnectionReused());
+        assertEquals(4, timings.getDnsMillis());
+        assertEquals(-1, timings.getConnectMillis());
+        assertEquals(-1, timings.getTlsMillis());
+        assertEquals(-1, timings.getRequestMillis());
+        assertEquals(-1, timings.getTimeToFirstByteMillis());
+        assertEquals(-1, timings.getResponseBodyMillis());
+        assertEquals(15_000, timings.getTotalMillis());
+        assertEquals(-1, timings.getRequestBytes());
+        assertEquals(-1, timings.getResponseBytes());
+    }
+
+    @Test
+    public void failureAfterTheRequest_isUnsuccessfulOnAReusedConnection() {
+        at(0);
+        listener.callStart(call);
+        listener.connectionAcquired(call, connection(Protocol.HTTP_2));
+        listener.requestHeadersStart(call);
+        at(3);
+        listener.requestHeadersEnd(call, call.request());
+        at(30_000);
+        listener.callFailed(call, new IOException("timeout"));
+
+        RequestTimings timings = onlyReport();
+        assertFalse(timings.isSuccessful());
+        assertTrue(timings.isConnectionReused());
+        assertEquals(3, timings.getRequestMillis());
+        assertEquals(-1, timings.getTimeToFirstByteMillis());
+    }
+}
@@ -0,0 +1,40 @@
+package com.example.locationanalytics;
+
+import org.junit.Test;
+
+import okhttp3.Headers;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for how {@link LocationApiClient} reads a failed binary upload.
+ */
+public class LocationApiClientTest {
+    private static final Headers BINARY_SERVER = Headers.of(LocationApiClient.BATCH_VERSIONS_HEADER, "1, 2");
+    private static final Headers PLAIN_SERVER = Headers.of("Content-Type", "application/json");
+
+    @Test
+    public void badRequestFromAServerWithoutBinarySupport_fallsBackToJson() {
+        // Such a server reads the binary body as {} and rejects the empty locations array
+        assertTrue(LocationApiClient.isBinaryUnsupported(400, PLAIN_SERVER));
+    }
+
+    @Test
+    public void badRequestFromABinaryServer_isAnOrdinaryFailure() {
+        assertFalse(LocationApiClient.isBinaryUnsupported(400, BINARY_SERVER));
+    }
+
+    @Test
+    public void unsupportedMediaType_alwaysFallsBackToJson() {
+        assertTrue(LocationApiClient.isBinaryUnsupported(415, BINARY_SERVER));
+        assertTrue(LocationApiClient.isBinaryUnsupported(415, PLAIN_SERVER));
+    }
+
+    @Test
+    public void otherFailures_keepTheBinaryEncoding() {
+        for (int code : new int[]{401, 408, 429, 500, 503}) {
+            assertFalse(LocationApiClient.isBinaryUnsupported(code, PLAIN_SERVER));
+            assertFalse(LocationApiClient.isBinaryUnsupported(code, BINARY_SERVER));
+        }
+    }
+}
@@ -14,6 +14,7 @@ pluginManagement {
 dependencyResolutionManagement {
     repositoriesMode.set(RepositoriesMode.FAIL_ON_PROJECT_REPOS)
     repositories {
+        google()
         mavenCentral()
         maven { url = uri("https://jitpack.io") }
     }
@@ -22,3 +23,6 @@ dependencyResolutionManagement {
 rootProject.name = "LocationAnalyticsExample"
 include(":app")
 include(":locationanalyticssdk")
+include(":locationanalytics-core")
+include(":locationanalytics-benchmarks")
+include(":locationanalytics-replay")